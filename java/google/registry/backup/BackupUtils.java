@@ -38,6 +38,9 @@ public class BackupUtils {
     public static final String NUM_TRANSACTIONS = "num_transactions";
     public static final String LOWER_BOUND_CHECKPOINT = "lower_bound_checkpoint";
     public static final String UPPER_BOUND_CHECKPOINT = "upper_bound_checkpoint";
+
+    /** Format of a diff file, which is absent for uncompressed files. */
+    public static final String DIFF_FORMAT = "diff_format";
   }
 
   /**
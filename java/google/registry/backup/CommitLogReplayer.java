@@ -0,0 +1,212 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.collect.Lists.partition;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.googlecode.objectify.Key;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import google.registry.util.Retrier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import org.joda.time.DateTime;
+
+/**
+ * Replays commit log transactions into Datastore, writing non-conflicting transactions in parallel.
+ *
+ * <p>Transactions are added in commit order, and collected into a batch until the next one touches
+ * an entity that is already saved or deleted by some transaction in the batch, or until the batch
+ * is full. Since no two transactions in a batch touch the same entity, the batch can be written in
+ * any order: its saves and deletes are split into chunks and written concurrently on the executor,
+ * and the whole batch is written before the next one is started. This preserves the order of the
+ * writes to each entity. As when transactions were replayed one at a time, the restored data is
+ * only consistent once every transaction has been replayed.
+ *
+ * <p>The commit logs themselves are saved alongside the entities, so that the commit log system is
+ * transparently restored too. They never conflict, since each has a unique key.
+ */
+final class CommitLogReplayer {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Maximum number of saves and deletes in a batch, which bounds the memory a batch uses. */
+  static final int MAX_BATCH_SIZE = 5000;
+
+  /** Maximum number of entities saved or deleted by each Datastore call. */
+  static final int MAX_ENTITIES_PER_CALL = 100;
+
+  private final DatastoreService datastoreService;
+  private final ListeningExecutorService executor;
+  private final Retrier retrier;
+  private final Clock clock;
+  private final boolean dryRun;
+  private final DateTime startTime;
+
+  /** The raw keys of the entities saved or deleted by transactions in the current batch. */
+  private final Set<com.google.appengine.api.datastore.Key> batchKeys = new HashSet<>();
+  private final List<Entity> batchSaves = new ArrayList<>();
+  private final List<Key<?>> batchDeletes = new ArrayList<>();
+  private final Map<Integer, DateTime> bucketTimestamps = new HashMap<>();
+
+  private int numTransactions;
+  private int numBatches;
+  private long numSaved;
+  private long numDeleted;
+
+  CommitLogReplayer(
+      DatastoreService datastoreService,
+      ListeningExecutorService executor,
+      Retrier retrier,
+      Clock clock,
+      boolean dryRun) {
+    this.datastoreService = datastoreService;
+    this.executor = executor;
+    this.retrier = retrier;
+    this.clock = clock;
+    this.dryRun = dryRun;
+    this.startTime = clock.nowUtc();
+  }
+
+  /**
+   * Adds one transaction, which is written either in the current batch or in a later one.
+   *
+   * <p>The objects to delete are listed in the {@link CommitLogManifest}, and the objects to save
+   * are each stored in a {@link CommitLogMutation}.
+   */
+  void add(CommitLogManifest manifest, Iterable<CommitLogMutation> mutations) {
+    Set<com.google.appengine.api.datastore.Key> keys = new HashSet<>();
+    List<Entity> saves = new ArrayList<>();
+    saves.add(ofy().save().toEntity(manifest));
+    for (CommitLogMutation mutation : mutations) {
+      Entity entity = EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes());
+      saves.add(ofy().save().toEntity(mutation));
+      saves.add(entity);
+      keys.add(entity.getKey());
+    }
+    for (Key<?> key : manifest.getDeletions()) {
+      keys.add(key.getRaw());
+    }
+    if (!Collections.disjoint(keys, batchKeys)
+        || batchSaves.size() + batchDeletes.size() >= MAX_BATCH_SIZE) {
+      flush();
+    }
+    batchKeys.addAll(keys);
+    batchSaves.addAll(saves);
+    batchDeletes.addAll(manifest.getDeletions());
+    bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
+    numTransactions++;
+  }
+
+  /** Writes any transactions that have been added but not written yet. */
+  void flush() {
+    if (batchSaves.isEmpty() && batchDeletes.isEmpty()) {
+      return;
+    }
+    List<ListenableFuture<Void>> writes = new ArrayList<>();
+    for (List<Entity> chunk : partition(batchSaves, MAX_ENTITIES_PER_CALL)) {
+      writes.add(save(chunk));
+    }
+    for (List<Key<?>> chunk : partition(batchDeletes, MAX_ENTITIES_PER_CALL)) {
+      writes.add(delete(chunk));
+    }
+    getUnchecked(allAsList(writes));
+    numBatches++;
+    numSaved += batchSaves.size();
+    numDeleted += batchDeletes.size();
+    batchKeys.clear();
+    batchSaves.clear();
+    batchDeletes.clear();
+    long elapsedMillis = clock.nowUtc().getMillis() - startTime.getMillis();
+    logger.infofmt(
+        "Replayed %d transactions in %d batches (%d entities saved, %d deleted) in %d ms, "
+            + "%.1f transactions/s",
+        numTransactions,
+        numBatches,
+        numSaved,
+        numDeleted,
+        elapsedMillis,
+        numTransactions * 1000.0 / Math.max(1, elapsedMillis));
+  }
+
+  @VisibleForTesting
+  int getNumBatches() {
+    return numBatches;
+  }
+
+  /** Returns the commit time of the last transaction added from each bucket. */
+  ImmutableMap<Integer, DateTime> getBucketTimestamps() {
+    return ImmutableMap.copyOf(bucketTimestamps);
+  }
+
+  private ListenableFuture<Void> save(final List<Entity> entities) {
+    if (dryRun) {
+      logger.info("Would have saved " + entities);
+      return immediateFuture(null);
+    }
+    return submitWithRetry(new Runnable() {
+      @Override
+      public void run() {
+        datastoreService.put(entities);
+      }});
+  }
+
+  private ListenableFuture<Void> delete(final List<Key<?>> keys) {
+    if (dryRun) {
+      logger.info("Would have deleted " + keys);
+      return immediateFuture(null);
+    }
+    return submitWithRetry(new Runnable() {
+      @Override
+      public void run() {
+        ofy().deleteWithoutBackup().keys(keys).now();
+      }});
+  }
+
+  /** Runs the given write on the executor, retrying it since we can't proceed with any failures. */
+  private ListenableFuture<Void> submitWithRetry(final Runnable runnable) {
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        return retrier.callWithRetry(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                runnable.run();
+                return null;
+              }},
+            RuntimeException.class);
+      }});
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.DIFF_FORMAT;
+import static google.registry.backup.BackupUtils.createDeserializingIterator;
+import static google.registry.backup.BackupUtils.serializeEntity;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsInputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingOutputStream;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes commit log diff files in the block-compressed format.
+ *
+ * <p>A file in this format is a sequence of blocks, followed by an index and a fixed-length
+ * trailer. Each block is a deflate stream of entities in the same delimited protocol buffer format
+ * as an uncompressed diff file. The first block holds only the upper checkpoint, and every other
+ * block holds whole transactions, i.e. each manifest is in the same block as its mutations. The
+ * index lists the offset, compressed length and transaction count of every block, and the trailer
+ * holds the offset of the index and a magic number.
+ *
+ * <p>Readers can therefore find any block by reading the trailer and the index from the end of the
+ * file, and can fetch and decompress the blocks independently of each other.
+ */
+final class CompressedDiffFile {
+
+  /** Value of the {@link BackupUtils.GcsMetadataKeys#DIFF_FORMAT} metadata for this format. */
+  static final String FORMAT = "deflate_blocks_v1";
+
+  /** Number of uncompressed bytes of transactions after which a block is ended. */
+  static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  private static final int MAGIC = 0x4e4d4346;  // "NMCF"
+
+  /** Length of the trailer: the offset of the index, followed by the magic number. */
+  private static final int TRAILER_LENGTH = 12;
+
+  /** Length of each index entry: the offset, the length, and the number of transactions. */
+  private static final int INDEX_ENTRY_LENGTH = 16;
+
+  private CompressedDiffFile() {}
+
+  /** The location of one block within a compressed diff file. */
+  @AutoValue
+  abstract static class BlockInfo {
+    abstract long offset();
+    abstract int length();
+    abstract int numTransactions();
+
+    static BlockInfo create(long offset, int length, int numTransactions) {
+      return new AutoValue_CompressedDiffFile_BlockInfo(offset, length, numTransactions);
+    }
+  }
+
+  /** Returns true if the given diff file was written in the block-compressed format. */
+  static boolean isCompressed(GcsFileMetadata metadata) {
+    return FORMAT.equals(metadata.getOptions().getUserMetadata().get(DIFF_FORMAT));
+  }
+
+  /** Reads the index of a compressed diff file, without reading any of its blocks. */
+  static ImmutableList<BlockInfo> readIndex(GcsService gcsService, GcsFileMetadata metadata)
+      throws IOException {
+    GcsFilename filename = metadata.getFilename();
+    long length = metadata.getLength();
+    checkState(length >= TRAILER_LENGTH, "Diff file %s is truncated", filename);
+    DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(
+        readRange(gcsService, filename, length - TRAILER_LENGTH, TRAILER_LENGTH)));
+    long indexOffset = trailer.readLong();
+    checkState(trailer.readInt() == MAGIC, "Diff file %s has no index", filename);
+    checkState(
+        indexOffset >= 0 && indexOffset <= length - TRAILER_LENGTH - 4,
+        "Diff file %s has a corrupt index offset",
+        filename);
+    DataInputStream index = new DataInputStream(new ByteArrayInputStream(readRange(
+        gcsService, filename, indexOffset, (int) (length - TRAILER_LENGTH - indexOffset))));
+    int numBlocks = index.readInt();
+    checkState(
+        indexOffset + 4 + (long) numBlocks * INDEX_ENTRY_LENGTH == length - TRAILER_LENGTH,
+        "Diff file %s has a corrupt index",
+        filename);
+    ImmutableList.Builder<BlockInfo> blocks = new ImmutableList.Builder<>();
+    for (int i = 0; i < numBlocks; i++) {
+      blocks.add(BlockInfo.create(index.readLong(), index.readInt(), index.readInt()));
+    }
+    return blocks.build();
+  }
+
+  /** Reads the compressed bytes of one block. */
+  static byte[] readBlock(GcsService gcsService, GcsFilename filename, BlockInfo block)
+      throws IOException {
+    return readRange(gcsService, filename, block.offset(), block.length());
+  }
+
+  /**
+   * Returns an iterator over the entities in a block that has been read with {@link #readBlock}.
+   */
+  static Iterator<ImmutableObject> decompressBlock(byte[] block) {
+    return createDeserializingIterator(new InflaterInputStream(new ByteArrayInputStream(block)));
+  }
+
+  private static byte[] readRange(
+      GcsService gcsService, GcsFilename filename, long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    try (GcsInputChannel channel = gcsService.openReadChannel(filename, offset)) {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException(String.format(
+              "Diff file %s ended before %d bytes at offset %d", filename, length, offset));
+        }
+      }
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Writes a compressed diff file to a stream.
+   *
+   * <p>The checkpoint must be written first, followed by the transactions in order, and then
+   * {@link #finish} must be called to write the index. The underlying stream is left open.
+   */
+  static final class Writer {
+
+    private final CountingOutputStream output;
+    private final int blockSize;
+    private final Deflater deflater = new Deflater();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final List<BlockInfo> blocks = new ArrayList<>();
+    private int pendingTransactions;
+
+    Writer(OutputStream output, int blockSize) {
+      this.output = new CountingOutputStream(output);
+      this.blockSize = blockSize;
+    }
+
+    /** Writes the checkpoint, in a block of its own. */
+    void writeCheckpoint(CommitLogCheckpoint checkpoint) throws IOException {
+      checkState(blocks.isEmpty(), "The checkpoint has already been written");
+      serializeEntity(checkpoint, pending);
+      flushBlock();
+    }
+
+    /** Writes a manifest and its mutations, ending the block if it has grown large enough. */
+    void writeTransaction(CommitLogManifest manifest, Iterable<CommitLogMutation> mutations)
+        throws IOException {
+      checkState(!blocks.isEmpty(), "The checkpoint must be written first");
+      serializeEntity(manifest, pending);
+      for (CommitLogMutation mutation : mutations) {
+        serializeEntity(mutation, pending);
+      }
+      pendingTransactions++;
+      if (pending.size() >= blockSize) {
+        flushBlock();
+      }
+    }
+
+    /** Ends the last block and writes the index and trailer. */
+    void finish() throws IOException {
+      checkState(!blocks.isEmpty(), "The checkpoint must be written first");
+      if (pendingTransactions > 0) {
+        flushBlock();
+      }
+      deflater.end();
+      long indexOffset = output.getCount();
+      DataOutputStream index = new DataOutputStream(output);
+      index.writeInt(blocks.size());
+      for (BlockInfo block : blocks) {
+        index.writeLong(block.offset());
+        index.writeInt(block.length());
+        index.writeInt(block.numTransactions());
+      }
+      index.writeLong(indexOffset);
+      index.writeInt(MAGIC);
+      index.flush();
+    }
+
+    private void flushBlock() throws IOException {
+      long offset = output.getCount();
+      DeflaterOutputStream compressor = new DeflaterOutputStream(output, deflater);
+      pending.writeTo(compressor);
+      compressor.finish();  // Unlike close(), this leaves the underlying stream open.
+      deflater.reset();
+      blocks.add(
+          BlockInfo.create(offset, (int) (output.getCount() - offset), pendingTransactions));
+      pending.reset();
+      pendingTransactions = 0;
+    }
+  }
+}
@@ -16,8 +16,11 @@ package google.registry.backup;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verifyNotNull;
-import static com.google.common.collect.Iterables.concat;
+import static com.google.common.collect.Iterables.mergeSorted;
 import static com.google.common.collect.Lists.partition;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.DIFF_FORMAT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
@@ -28,19 +31,18 @@ import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.FormattingLogger.getLoggerForCallerClass;
 import static java.nio.channels.Channels.newOutputStream;
-import static java.util.Arrays.asList;
 
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
-import com.google.common.base.Function;
 import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import google.registry.backup.BackupModule.Backups;
 import google.registry.config.RegistryConfig.Config;
-import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogManifest;
@@ -51,15 +53,24 @@ import google.registry.request.auth.Auth;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
-/** Action that exports the diff between two commit log checkpoints to GCS. */
+/**
+ * Action that exports the diff between two commit log checkpoints to GCS.
+ *
+ * <p>The manifest keys are loaded from all of the {@link CommitLogBucket}s concurrently, as are the
+ * mutations of each batch of manifests, using the bounded {@link Backups} executor. If compression
+ * is enabled, the diff file is written in the block-compressed format described in
+ * {@link CompressedDiffFile}; otherwise it is a single stream of uncompressed entities.
+ */
 @Action(
   path = ExportCommitLogDiffAction.PATH,
   method = Action.Method.POST,
@@ -79,6 +90,8 @@ public final class ExportCommitLogDiffAction implements Runnable {
   @Inject GcsService gcsService;
   @Inject @Config("commitLogGcsBucket") String gcsBucket;
   @Inject @Config("commitLogDiffExportBatchSize") int batchSize;
+  @Inject @Config("commitLogDiffCompressionEnabled") boolean compressionEnabled;
+  @Inject @Backups ListeningExecutorService executor;
   @Inject @Parameter(LOWER_CHECKPOINT_TIME_PARAM) DateTime lowerCheckpointTime;
   @Inject @Parameter(UPPER_CHECKPOINT_TIME_PARAM) DateTime upperCheckpointTime;
   @Inject ExportCommitLogDiffAction() {}
@@ -98,40 +111,28 @@ public final class ExportCommitLogDiffAction implements Runnable {
     // Load the keys of all the manifests to include in this diff.
     List<Key<CommitLogManifest>> sortedKeys = loadAllDiffKeys(lowerCheckpoint, upperCheckpoint);
     logger.infofmt("Found %d manifests to export", sortedKeys.size());
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder()
+        .addUserMetadata(LOWER_BOUND_CHECKPOINT, lowerCheckpointTime.toString())
+        .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
+        .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()));
+    if (compressionEnabled) {
+      options.addUserMetadata(DIFF_FORMAT, CompressedDiffFile.FORMAT);
+    }
     // Open an output channel to GCS, wrapped in a stream for convenience.
     try (OutputStream gcsStream = newOutputStream(gcsService.createOrReplace(
-        new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime),
-        new GcsFileOptions.Builder()
-            .addUserMetadata(LOWER_BOUND_CHECKPOINT, lowerCheckpointTime.toString())
-            .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
-            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()))
-            .build()))) {
-      // Export the upper checkpoint itself.
-      serializeEntity(upperCheckpoint, gcsStream);
-      // If there are no manifests to export, stop early, now that we've written out the file with
-      // the checkpoint itself (which is needed for restores, even if it's empty).
-      if (sortedKeys.isEmpty()) {
-        return;
+        new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime), options.build()))) {
+      CompressedDiffFile.Writer writer = compressionEnabled
+          ? new CompressedDiffFile.Writer(gcsStream, CompressedDiffFile.DEFAULT_BLOCK_SIZE)
+          : null;
+      // Export the upper checkpoint itself, which is needed for restores even if the diff is empty.
+      if (writer != null) {
+        writer.writeCheckpoint(upperCheckpoint);
+      } else {
+        serializeEntity(upperCheckpoint, gcsStream);
       }
-      // Export to GCS in chunks, one per fixed batch of commit logs.  While processing one batch,
-      // asynchronously load the entities for the next one.
-      List<List<Key<CommitLogManifest>>> keyChunks = partition(sortedKeys, batchSize);
-      // Objectify's map return type is asynchronous. Calling .values() will block until it loads.
-      Map<?, CommitLogManifest> nextChunkToExport = ofy().load().keys(keyChunks.get(0));
-      for (int i = 0; i < keyChunks.size(); i++) {
-        // Force the async load to finish.
-        Collection<CommitLogManifest> chunkValues = nextChunkToExport.values();
-        logger.infofmt("Loaded %d manifests", chunkValues.size());
-        // Since there is no hard bound on how much data this might be, take care not to let the
-        // Objectify session cache fill up and potentially run out of memory. This is the only safe
-        // point to do this since at this point there is no async load in progress.
-        ofy().clearSessionCache();
-        // Kick off the next async load, which can happen in parallel to the current GCS export.
-        if (i + 1 < keyChunks.size()) {
-          nextChunkToExport = ofy().load().keys(keyChunks.get(i + 1));
-        }
-        exportChunk(gcsStream, chunkValues);
-        logger.infofmt("Exported %d manifests", chunkValues.size());
+      exportManifests(gcsStream, writer, sortedKeys);
+      if (writer != null) {
+        writer.finish();
       }
     } catch (IOException e) {
       throw new RuntimeException(e);
@@ -139,26 +140,63 @@ public final class ExportCommitLogDiffAction implements Runnable {
     logger.infofmt("Exported %d manifests in total", sortedKeys.size());
   }
 
+  /** Exports the manifests with the given keys, and their mutations, in order. */
+  private void exportManifests(
+      OutputStream gcsStream,
+      @Nullable CompressedDiffFile.Writer writer,
+      List<Key<CommitLogManifest>> sortedKeys) throws IOException {
+    if (sortedKeys.isEmpty()) {
+      return;
+    }
+    // Export to GCS in chunks, one per fixed batch of commit logs.  While processing one batch,
+    // asynchronously load the entities for the next one.
+    List<List<Key<CommitLogManifest>>> keyChunks = partition(sortedKeys, batchSize);
+    // Objectify's map return type is asynchronous. Calling .values() will block until it loads.
+    Map<?, CommitLogManifest> nextChunkToExport = ofy().load().keys(keyChunks.get(0));
+    for (int i = 0; i < keyChunks.size(); i++) {
+      // Force the async load to finish.
+      Collection<CommitLogManifest> chunkValues = nextChunkToExport.values();
+      logger.infofmt("Loaded %d manifests", chunkValues.size());
+      // Since there is no hard bound on how much data this might be, take care not to let the
+      // Objectify session cache fill up and potentially run out of memory. This is the only safe
+      // point to do this since at this point there is no async load in progress.
+      ofy().clearSessionCache();
+      // Kick off the next async load, which can happen in parallel to the current GCS export.
+      if (i + 1 < keyChunks.size()) {
+        nextChunkToExport = ofy().load().keys(keyChunks.get(i + 1));
+      }
+      exportChunk(gcsStream, writer, chunkValues);
+      logger.infofmt("Exported %d manifests", chunkValues.size());
+    }
+  }
+
   /**
    * Loads all the diff keys, sorted in a transaction-consistent chronological order.
    *
+   * <p>The buckets are queried concurrently on the {@link Backups} executor.
+   *
    * @param lowerCheckpoint exclusive lower bound on keys in this diff, or null if no lower bound
    * @param upperCheckpoint inclusive upper bound on keys in this diff
    */
   private ImmutableList<Key<CommitLogManifest>> loadAllDiffKeys(
       @Nullable final CommitLogCheckpoint lowerCheckpoint,
       final CommitLogCheckpoint upperCheckpoint) {
-    // Fetch the keys (no data) between these checkpoints, and sort by timestamp. This ordering is
+    List<ListenableFuture<ImmutableList<Key<CommitLogManifest>>>> bucketKeys = new ArrayList<>();
+    for (final int bucketNum : upperCheckpoint.getBucketTimestamps().keySet()) {
+      bucketKeys.add(executor.submit(new Callable<ImmutableList<Key<CommitLogManifest>>>() {
+        @Override
+        public ImmutableList<Key<CommitLogManifest>> call() {
+          return loadDiffKeysFromBucket(lowerCheckpoint, upperCheckpoint, bucketNum);
+        }}));
+    }
+    // Merge the keys (no data) between these checkpoints, sorted by timestamp. This ordering is
     // transaction-consistent by virtue of our checkpoint strategy and our customized Ofy; see
     // CommitLogCheckpointStrategy for the proof. We break ties by sorting on bucket ID to ensure
-    // a deterministic order.
-    return FluentIterable.from(upperCheckpoint.getBucketTimestamps().keySet())
-        .transformAndConcat(new Function<Integer, Iterable<Key<CommitLogManifest>>>() {
-          @Override
-          public Iterable<Key<CommitLogManifest>> apply(Integer bucketNum) {
-            return loadDiffKeysFromBucket(lowerCheckpoint, upperCheckpoint, bucketNum);
-          }})
-        .toSortedList(new Comparator<Key<CommitLogManifest>>() {
+    // a deterministic order. Each bucket's keys are already sorted by timestamp, since Datastore
+    // returns them in key order.
+    return ImmutableList.copyOf(mergeSorted(
+        getUnchecked(allAsList(bucketKeys)),
+        new Comparator<Key<CommitLogManifest>>() {
           @Override
           public int compare(Key<CommitLogManifest> a, Key<CommitLogManifest> b) {
             // Compare keys by timestamp (which is encoded in the id as millis), then by bucket id.
@@ -166,7 +204,7 @@ public final class ExportCommitLogDiffAction implements Runnable {
                 .compare(a.getId(), b.getId())
                 .compare(a.getParent().getId(), b.getParent().getId())
                 .result();
-          }});
+          }}));
   }
 
   /**
@@ -176,7 +214,7 @@ public final class ExportCommitLogDiffAction implements Runnable {
    * @param upperCheckpoint inclusive upper bound on keys in this diff
    * @param bucketNum the bucket to load diff keys from
    */
-  private Iterable<Key<CommitLogManifest>> loadDiffKeysFromBucket(
+  private ImmutableList<Key<CommitLogManifest>> loadDiffKeysFromBucket(
       @Nullable CommitLogCheckpoint lowerCheckpoint,
       CommitLogCheckpoint upperCheckpoint,
       int bucketNum) {
@@ -190,29 +228,52 @@ public final class ExportCommitLogDiffAction implements Runnable {
     DateTime upperBound = upperCheckpoint.getBucketTimestamps().get(bucketNum).plusMillis(1);
     // If the lower and upper bounds are equal, there can't be any results, so skip the query.
     if (lowerBound.equals(upperBound)) {
-      return ImmutableSet.of();
+      return ImmutableList.of();
     }
     Key<CommitLogBucket> bucketKey = getBucketKey(bucketNum);
-    return ofy().load()
+    return ImmutableList.copyOf(ofy().load()
         .type(CommitLogManifest.class)
         .ancestor(bucketKey)
         .filterKey(">=", CommitLogManifest.createKey(bucketKey, lowerBound))
         .filterKey("<", CommitLogManifest.createKey(bucketKey, upperBound))
-        .keys();
+        .keys());
   }
 
-  /** Writes a chunks-worth of manifests and associated mutations to GCS. */
-  private void exportChunk(OutputStream gcsStream, Collection<CommitLogManifest> chunk)
-      throws IOException {
-    // Kickoff async loads for all the manifests in the chunk.
-    ImmutableList.Builder<Iterable<? extends ImmutableObject>> entities =
-        new ImmutableList.Builder<>();
-    for (CommitLogManifest manifest : chunk) {
-      entities.add(asList(manifest));
-      entities.add(ofy().load().type(CommitLogMutation.class).ancestor(manifest));
+  /**
+   * Writes a chunks-worth of manifests and associated mutations to GCS.
+   *
+   * <p>The mutations of every manifest in the chunk are loaded concurrently on the {@link Backups}
+   * executor, and written out in order as they arrive.
+   */
+  private void exportChunk(
+      OutputStream gcsStream,
+      @Nullable CompressedDiffFile.Writer writer,
+      Collection<CommitLogManifest> chunk) throws IOException {
+    List<ListenableFuture<ImmutableList<CommitLogMutation>>> mutations = new ArrayList<>();
+    for (final CommitLogManifest manifest : chunk) {
+      mutations.add(executor.submit(new Callable<ImmutableList<CommitLogMutation>>() {
+        @Override
+        public ImmutableList<CommitLogMutation> call() {
+          // Executor threads are reused for later chunks, so don't let their sessions fill up.
+          return ofy().doWithFreshSessionCache(new Work<ImmutableList<CommitLogMutation>>() {
+            @Override
+            public ImmutableList<CommitLogMutation> run() {
+              return ImmutableList.copyOf(
+                  ofy().load().type(CommitLogMutation.class).ancestor(manifest));
+            }});
+        }}));
     }
-    for (ImmutableObject entity : concat(entities.build())) {
-      serializeEntity(entity, gcsStream);
+    int i = 0;
+    for (CommitLogManifest manifest : chunk) {
+      ImmutableList<CommitLogMutation> manifestMutations = getUnchecked(mutations.get(i++));
+      if (writer != null) {
+        writer.writeTransaction(manifest, manifestMutations);
+      } else {
+        serializeEntity(manifest, gcsStream);
+        for (CommitLogMutation mutation : manifestMutations) {
+          serializeEntity(mutation, gcsStream);
+        }
+      }
     }
   }
 }
@@ -17,21 +17,26 @@ package google.registry.backup;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterators.peekingIterator;
 import static google.registry.backup.BackupUtils.createDeserializingIterator;
+import static google.registry.backup.CompressedDiffFile.decompressBlock;
+import static google.registry.backup.CompressedDiffFile.isCompressed;
+import static google.registry.backup.CompressedDiffFile.readBlock;
+import static google.registry.backup.CompressedDiffFile.readIndex;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static java.util.Arrays.asList;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.PeekingIterator;
-import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Result;
-import com.googlecode.objectify.util.ResultNow;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import google.registry.backup.BackupModule.Backups;
+import google.registry.backup.CompressedDiffFile.BlockInfo;
 import google.registry.config.RegistryEnvironment;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
@@ -42,21 +47,29 @@ import google.registry.model.ofy.CommitLogMutation;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
+import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
-/** Restore Registry 2 commit logs from GCS to Datastore. */
+/**
+ * Restore Registry 2 commit logs from GCS to Datastore.
+ *
+ * <p>The transactions are replayed by a {@link CommitLogReplayer}, which writes transactions that
+ * don't touch the same entities in parallel.
+ *
+ * <p>Diff files in the block-compressed format described in {@link CompressedDiffFile} are read a
+ * block at a time, using the index at the end of each file, and each block is fetched from GCS on
+ * the {@link Backups} executor while the one before it is being restored.
+ */
 @Action(
   path = RestoreCommitLogsAction.PATH,
   method = Action.Method.POST,
@@ -81,6 +94,8 @@ public class RestoreCommitLogsAction implements Runnable {
   @Inject DatastoreService datastoreService;
   @Inject GcsDiffFileLister diffLister;
   @Inject Retrier retrier;
+  @Inject @Backups ListeningExecutorService executor;
+  @Inject Clock clock;
   @Inject RestoreCommitLogsAction() {}
 
   @Override
@@ -97,26 +112,22 @@ public class RestoreCommitLogsAction implements Runnable {
       logger.info("Nothing to restore");
       return;
     }
-    Map<Integer, DateTime> bucketTimestamps = new HashMap<>();
+    CommitLogReplayer replayer =
+        new CommitLogReplayer(datastoreService, executor, retrier, clock, dryRun);
     CommitLogCheckpoint lastCheckpoint = null;
     for (GcsFileMetadata metadata : diffFiles) {
       logger.info("Restoring: " + metadata.getFilename().getObjectName());
-      try (InputStream input = Channels.newInputStream(
-          gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE))) {
-        PeekingIterator<ImmutableObject> commitLogs =
-            peekingIterator(createDeserializingIterator(input));
-        lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
-        saveOfy(asList(lastCheckpoint));  // Save the checkpoint itself.
-        while (commitLogs.hasNext()) {
-          CommitLogManifest manifest = restoreOneTransaction(commitLogs);
-          bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
-        }
+      try {
+        lastCheckpoint = isCompressed(metadata)
+            ? restoreCompressedFile(metadata, replayer)
+            : restoreUncompressedFile(metadata, replayer);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
+    replayer.flush();
     // Restore the CommitLogCheckpointRoot and CommitLogBuckets.
-    saveOfy(FluentIterable.from(bucketTimestamps.entrySet())
+    saveOfy(FluentIterable.from(replayer.getBucketTimestamps().entrySet())
         .transform(new Function<Entry<Integer, DateTime>, ImmutableObject> () {
           @Override
           public ImmutableObject apply(Entry<Integer, DateTime> entry) {
@@ -129,50 +140,73 @@ public class RestoreCommitLogsAction implements Runnable {
   }
 
   /**
-   * Restore the contents of one transaction to Datastore.
+   * Restores an uncompressed diff file, streaming it from GCS.
    *
-   * <p>The objects to delete are listed in the {@link CommitLogManifest}, which will be the first
-   * object in the iterable. The objects to save follow, each as a {@link CommitLogMutation}. We
-   * restore by deleting the deletes and recreating the saves from their proto form. We also save
-   * the commit logs themselves back to Datastore, so that the commit log system itself is
-   * transparently restored alongside the data.
-   *
-   * @return the manifest, for use in restoring the {@link CommitLogBucket}.
+   * @return the checkpoint at the start of the file
    */
-  private CommitLogManifest restoreOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
-    final CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
-    Result<?> deleteResult = deleteAsync(manifest.getDeletions());
-    List<Entity> entitiesToSave = Lists.newArrayList(ofy().save().toEntity(manifest));
-    while (commitLogs.hasNext() && commitLogs.peek() instanceof CommitLogMutation) {
-      CommitLogMutation mutation = (CommitLogMutation) commitLogs.next();
-      entitiesToSave.add(ofy().save().toEntity(mutation));
-      entitiesToSave.add(EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes()));
-    }
-    saveRaw(entitiesToSave);
-    try {
-      deleteResult.now();
-    } catch (Exception e) {
-      retry(new Runnable() {
-        @Override
-        public void run() {
-          deleteAsync(manifest.getDeletions()).now();
-        }});
+  private CommitLogCheckpoint restoreUncompressedFile(
+      GcsFileMetadata metadata, CommitLogReplayer replayer) throws IOException {
+    try (InputStream input = Channels.newInputStream(
+        gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE))) {
+      PeekingIterator<ImmutableObject> commitLogs =
+          peekingIterator(createDeserializingIterator(input));
+      CommitLogCheckpoint checkpoint = (CommitLogCheckpoint) commitLogs.next();
+      saveOfy(asList(checkpoint));  // Save the checkpoint itself.
+      restoreTransactions(commitLogs, replayer);
+      return checkpoint;
     }
-    return manifest;
   }
 
-  private void saveRaw(final List<Entity> entitiesToSave) {
-    if (dryRun) {
-      logger.info("Would have saved " + entitiesToSave);
-      return;
+  /**
+   * Restores a block-compressed diff file, fetching each block while the previous one is restored.
+   *
+   * @return the checkpoint in the first block of the file
+   */
+  private CommitLogCheckpoint restoreCompressedFile(
+      GcsFileMetadata metadata, CommitLogReplayer replayer) throws IOException {
+    ImmutableList<BlockInfo> blocks = readIndex(gcsService, metadata);
+    ListenableFuture<byte[]> nextBlock = fetchBlock(metadata.getFilename(), blocks.get(0));
+    CommitLogCheckpoint checkpoint = null;
+    for (int i = 0; i < blocks.size(); i++) {
+      byte[] block = Futures.getUnchecked(nextBlock);
+      if (i + 1 < blocks.size()) {
+        nextBlock = fetchBlock(metadata.getFilename(), blocks.get(i + 1));
+      }
+      PeekingIterator<ImmutableObject> commitLogs = peekingIterator(decompressBlock(block));
+      if (i == 0) {
+        checkpoint = (CommitLogCheckpoint) commitLogs.next();
+        saveOfy(asList(checkpoint));  // Save the checkpoint itself.
+      }
+      restoreTransactions(commitLogs, replayer);
     }
-    retry(new Runnable() {
+    return checkpoint;
+  }
+
+  private ListenableFuture<byte[]> fetchBlock(final GcsFilename filename, final BlockInfo block) {
+    return executor.submit(new Callable<byte[]>() {
       @Override
-      public void run() {
-        datastoreService.put(entitiesToSave);
+      public byte[] call() throws IOException {
+        return readBlock(gcsService, filename, block);
       }});
   }
 
+  /**
+   * Passes every transaction in the iterator to the replayer.
+   *
+   * <p>Each transaction is a {@link CommitLogManifest}, followed by its {@link CommitLogMutation}s.
+   */
+  private void restoreTransactions(
+      PeekingIterator<ImmutableObject> commitLogs, CommitLogReplayer replayer) {
+    while (commitLogs.hasNext()) {
+      CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
+      List<CommitLogMutation> mutations = new ArrayList<>();
+      while (commitLogs.hasNext() && commitLogs.peek() instanceof CommitLogMutation) {
+        mutations.add((CommitLogMutation) commitLogs.next());
+      }
+      replayer.add(manifest, mutations);
+    }
+  }
+
   private void saveOfy(final Iterable<? extends ImmutableObject> objectsToSave) {
     if (dryRun) {
       logger.info("Would have saved " + asList(objectsToSave));
@@ -185,15 +219,6 @@ public class RestoreCommitLogsAction implements Runnable {
       }});
   }
 
-  private Result<?> deleteAsync(Set<Key<?>> keysToDelete) {
-    if (dryRun) {
-      logger.info("Would have deleted " + keysToDelete);
-    }
-    return dryRun || keysToDelete.isEmpty()
-        ? new ResultNow<Void>(null)
-        : ofy().deleteWithoutBackup().keys(keysToDelete);
-   }
-
   /** Retrier for saves and deletes, since we can't proceed with any failures. */
   private void retry(final Runnable runnable) {
     retrier.callWithRetry(
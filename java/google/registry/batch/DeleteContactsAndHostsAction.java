@@ -78,6 +78,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse.ResponseData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.poll.PendingActionNotificationResponse.ContactPendingActionNotificationResponse;
 import google.registry.model.poll.PendingActionNotificationResponse.HostPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -445,6 +446,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
             historyEntryForDelete);
       } else if (existingResource instanceof HostResource) {
         HostResource host = (HostResource) existingResource;
+        ofy().delete().keys(HostInetAddressIndex.createKeys(host));
         if (host.isSubordinate()) {
           dnsQueue.addHostRefreshTask(host.getFullyQualifiedHostName());
           ofy().save().entity(
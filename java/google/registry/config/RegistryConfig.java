@@ -224,6 +224,17 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * Whether to export commit log diffs in the block-compressed format.
+     *
+     * @see google.registry.backup.CompressedDiffFile
+     */
+    @Provides
+    @Config("commitLogDiffCompressionEnabled")
+    public static boolean provideCommitLogDiffCompressionEnabled(RegistryConfigSettings config) {
+      return config.datastore.commitLogDiffCompressionEnabled;
+    }
+
     /**
      * Returns the Google Cloud Storage bucket for staging BRDA escrow deposits.
      *
@@ -254,10 +265,10 @@ public final class RegistryConfig {
     }
 
     /**
-     * The maximum number of domain and host updates to batch together to send to
-     * PublishDnsUpdatesAction, to avoid exceeding AppEngine's limits.
+     * The initial number of domain and host updates to batch together to send to
+     * PublishDnsUpdatesAction, before any publishes have been observed for a TLD and DNS writer.
      *
-     * @see google.registry.dns.ReadDnsQueueAction
+     * @see google.registry.dns.DnsUpdateScheduler
      */
     @Provides
     @Config("dnsTldUpdateBatchSize")
@@ -265,6 +276,32 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * The maximum number of domain and host updates to batch together to send to
+     * PublishDnsUpdatesAction, to avoid exceeding AppEngine's limits.
+     *
+     * @see google.registry.dns.DnsUpdateScheduler
+     */
+    @Provides
+    @Config("dnsMaxTldUpdateBatchSize")
+    public static int provideDnsMaxTldUpdateBatchSize() {
+      return 1000;
+    }
+
+    /**
+     * The time a single PublishDnsUpdatesAction batch should take to commit.
+     *
+     * <p>Batch sizes grow while batches commit well within this time, and shrink once they take
+     * longer, so that one slow batch doesn't hold the TLD's DNS lock for too long.
+     *
+     * @see google.registry.dns.DnsUpdateScheduler
+     */
+    @Provides
+    @Config("dnsTargetPublishTime")
+    public static Duration provideDnsTargetPublishTime() {
+      return Duration.standardSeconds(20);
+    }
+
     /**
      * The maximum interval (seconds) to lease tasks from the dns-pull queue.
      *
@@ -571,6 +608,18 @@ public final class RegistryConfig {
       return 64 * 1024;
     }
 
+    /**
+     * Returns whether escrow deposits are staged by a single long-running request, rather than by
+     * a mapreduce.
+     *
+     * @see google.registry.rde.RdeStagingPipeline
+     */
+    @Provides
+    @Config("rdeStreamingStagingEnabled")
+    public static boolean provideRdeStreamingStagingEnabled(RegistryConfigSettings config) {
+      return config.rde.streamingStagingEnabled;
+    }
+
     /**
      * Maximum amount of time generating an escrow deposit for a TLD could take, before killing.
      *
@@ -715,6 +764,54 @@ public final class RegistryConfig {
       return Duration.standardDays(1);
     }
 
+    /**
+     * Port for the standalone WHOIS server to listen on.
+     *
+     * <p>This defaults to an unprivileged port, with the well-known port 43 forwarded to it.
+     *
+     * @see google.registry.whois.WhoisTcpServer
+     */
+    @Provides
+    @Config("whoisTcpPort")
+    public static int provideWhoisTcpPort(RegistryConfigSettings config) {
+      return config.whois.tcpPort;
+    }
+
+    /**
+     * How long the standalone WHOIS server serves a rendered response from its cache.
+     *
+     * <p>Responses to repeated queries can be out of date by this long.
+     *
+     * @see google.registry.whois.WhoisTcpServer
+     */
+    @Provides
+    @Config("whoisTcpResponseCacheExpiry")
+    public static Duration provideWhoisTcpResponseCacheExpiry(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.whois.tcpResponseCacheSeconds);
+    }
+
+    /**
+     * Maximum number of rendered responses the standalone WHOIS server caches.
+     *
+     * @see google.registry.whois.WhoisTcpServer
+     */
+    @Provides
+    @Config("whoisTcpResponseCacheMaxEntries")
+    public static int provideWhoisTcpResponseCacheMaxEntries(RegistryConfigSettings config) {
+      return config.whois.tcpResponseCacheMaxEntries;
+    }
+
+    /**
+     * Sustained rate of queries the standalone WHOIS server answers from one IP address.
+     *
+     * @see google.registry.whois.WhoisTcpServer
+     */
+    @Provides
+    @Config("whoisTcpQueriesPerSecondPerIp")
+    public static double provideWhoisTcpQueriesPerSecondPerIp(RegistryConfigSettings config) {
+      return config.whois.tcpQueriesPerSecondPerIp;
+    }
+
     /**
      * Maximum number of results to return for an RDAP search query
      *
@@ -843,6 +940,39 @@ public final class RegistryConfig {
       return Duration.standardSeconds(config.monitoring.writeIntervalSeconds);
     }
 
+    /**
+     * The maximum number of metric rows sent to BigQuery in one batch.
+     *
+     * @see google.registry.monitoring.whitebox.BigQueryMetricsBuffer
+     */
+    @Provides
+    @Config("bigQueryMetricsBatchSize")
+    public static int provideBigQueryMetricsBatchSize(RegistryConfigSettings config) {
+      return config.monitoring.bigQueryMetricsBatchSize;
+    }
+
+    /**
+     * The maximum time a metric row is buffered before its batch is sent to BigQuery.
+     *
+     * @see google.registry.monitoring.whitebox.BigQueryMetricsBuffer
+     */
+    @Provides
+    @Config("bigQueryMetricsMaxBufferAge")
+    public static Duration provideBigQueryMetricsMaxBufferAge(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.monitoring.bigQueryMetricsMaxBufferAgeSeconds);
+    }
+
+    /**
+     * The maximum number of metric rows buffered for each table, beyond which rows are dropped.
+     *
+     * @see google.registry.monitoring.whitebox.BigQueryMetricsBuffer
+     */
+    @Provides
+    @Config("bigQueryMetricsMaxBufferedRows")
+    public static int provideBigQueryMetricsMaxBufferedRows(RegistryConfigSettings config) {
+      return config.monitoring.bigQueryMetricsMaxBufferedRows;
+    }
+
     /**
      * The global automatic transfer length for contacts.  After this amount of time has
      * elapsed, the transfer is automatically approved.
@@ -921,6 +1051,17 @@ public final class RegistryConfig {
       return config.kms.projectId;
     }
 
+    /**
+     * Returns the amount of time a decrypted secret is kept in memory by the Cloud KMS keyring.
+     *
+     * @see google.registry.keyring.kms.KmsKeyring
+     */
+    @Provides
+    @Config("kmsSecretCachingDuration")
+    public static Duration provideKmsSecretCachingDuration(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.kms.secretCachingSeconds);
+    }
+
     @Provides
     @Config("customLogicFactoryClass")
     public static String provideCustomLogicFactoryClass(RegistryConfigSettings config) {
@@ -1194,6 +1335,39 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().caching.staticPremiumListMaxCachedEntries;
   }
 
+  /**
+   * Returns whether foreign key index lookups on read-only paths should use an in-memory cache.
+   *
+   * @see google.registry.model.index.ForeignKeyIndex#loadCached
+   */
+  public static boolean isEppResourceCachingEnabled() {
+    return CONFIG_SETTINGS.get().caching.eppResourceCachingEnabled;
+  }
+
+  /** Returns the amount of time a foreign key index lookup should be cached in memory. */
+  public static Duration getEppResourceCachingDuration() {
+    return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.eppResourceCachingSeconds);
+  }
+
+  /** Returns the maximum number of foreign key index lookups to keep in the in-memory cache. */
+  public static int getEppResourceMaxCachedEntries() {
+    return CONFIG_SETTINGS.get().caching.eppResourceMaxCachedEntries;
+  }
+
+  /**
+   * Returns whether poll flows should use an in-memory cache of each registrar's queue length.
+   *
+   * @see google.registry.flows.poll.PollFlowUtils
+   */
+  public static boolean isPollQueueLengthCachingEnabled() {
+    return CONFIG_SETTINGS.get().caching.pollQueueLengthCachingEnabled;
+  }
+
+  /** Returns the amount of time a registrar's poll message queue length should be cached. */
+  public static Duration getPollQueueLengthCachingDuration() {
+    return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.pollQueueLengthCachingSeconds);
+  }
+
   /** Returns the email address that outgoing emails from the app are sent from. */
   public static String getGSuiteOutgoingEmailAddress() {
     return CONFIG_SETTINGS.get().gSuite.outgoingEmailAddress;
@@ -1228,6 +1402,15 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().datastore.eppResourceIndexBucketsNum;
   }
 
+  /**
+   * Returns whether lookups of hosts by IP address read the {@code HostInetAddressIndex}.
+   *
+   * @see google.registry.model.index.HostInetAddressIndex
+   */
+  public static boolean getHostInetAddressIndexReadsEnabled() {
+    return CONFIG_SETTINGS.get().datastore.hostInetAddressIndexReadsEnabled;
+  }
+
   /**
    * Returns the base retry duration that gets doubled after each failure within {@code Ofy}.
    */
@@ -32,6 +32,7 @@ public class RegistryConfigSettings {
   public Monitoring monitoring;
   public Misc misc;
   public Rdap rdap;
+  public Whois whois;
   public Braintree braintree;
   public Kms kms;
   public RegistryTool registryTool;
@@ -88,12 +89,15 @@ public class RegistryConfigSettings {
     public int commitLogBucketsNum;
     public int eppResourceIndexBucketsNum;
     public int baseOfyRetryMillis;
+    public boolean commitLogDiffCompressionEnabled;
+    public boolean hostInetAddressIndexReadsEnabled;
   }
 
   /** Configuration for Cloud KMS. */
   public static class Kms {
     public String keyringName;
     public String projectId;
+    public int secretCachingSeconds;
   }
 
   /** Configuration for caching. */
@@ -102,6 +106,11 @@ public class RegistryConfigSettings {
     public int domainLabelCachingSeconds;
     public int singletonCachePersistSeconds;
     public int staticPremiumListMaxCachedEntries;
+    public boolean eppResourceCachingEnabled;
+    public int eppResourceCachingSeconds;
+    public int eppResourceMaxCachedEntries;
+    public boolean pollQueueLengthCachingEnabled;
+    public int pollQueueLengthCachingSeconds;
   }
 
   /** Configuration for ICANN monthly reporting. */
@@ -115,6 +124,7 @@ public class RegistryConfigSettings {
     public String reportUrlPrefix;
     public String uploadUrl;
     public String sshIdentityEmailAddress;
+    public boolean streamingStagingEnabled;
   }
 
   /** Configuration for the web-based registrar console. */
@@ -132,6 +142,9 @@ public class RegistryConfigSettings {
     public int stackdriverMaxQps;
     public int stackdriverMaxPointsPerRequest;
     public int writeIntervalSeconds;
+    public int bigQueryMetricsBatchSize;
+    public int bigQueryMetricsMaxBufferAgeSeconds;
+    public int bigQueryMetricsMaxBufferedRows;
   }
 
   /** Miscellaneous configuration that doesn't quite fit in anywhere else. */
@@ -144,6 +157,14 @@ public class RegistryConfigSettings {
     public String baseUrl;
   }
 
+  /** Configuration for the standalone WHOIS server. */
+  public static class Whois {
+    public int tcpPort;
+    public int tcpResponseCacheSeconds;
+    public int tcpResponseCacheMaxEntries;
+    public double tcpQueriesPerSecondPerIp;
+  }
+
   /** Configuration for Braintree credit card payment processing. */
   public static class Braintree {
     public String merchantId;
@@ -14,11 +14,17 @@
 
 package google.registry.dns;
 
+import static google.registry.monitoring.metrics.EventMetric.DEFAULT_FITTER;
+
 import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.DistributionFitter;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.FibonacciFitter;
 import google.registry.monitoring.metrics.IncrementableMetric;
 import google.registry.monitoring.metrics.LabelDescriptor;
 import google.registry.monitoring.metrics.MetricRegistryImpl;
 import javax.inject.Inject;
+import org.joda.time.Duration;
 
 /** DNS instrumentation. */
 public class DnsMetrics {
@@ -26,6 +32,9 @@ public class DnsMetrics {
   /** Disposition of a publish request. */
   public enum Status { ACCEPTED, REJECTED }
 
+  /** Disposition of a batch commit. */
+  public enum CommitStatus { SUCCESS, FAILURE }
+
   private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
       ImmutableSet.of(
           LabelDescriptor.create("tld", "TLD"),
@@ -48,8 +57,39 @@ public class DnsMetrics {
               "count",
               LABEL_DESCRIPTORS);
 
+  private static final ImmutableSet<LabelDescriptor> COMMIT_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("tld", "TLD"),
+          LabelDescriptor.create("dns_writer", "The DNS writer which committed the batch."),
+          LabelDescriptor.create("status", "Whether the batch was committed successfully."));
+
+  /** Buckets batch sizes up to the largest batch that {@link ReadDnsQueueAction} may send. */
+  private static final DistributionFitter FITTER_BATCH_SIZE = FibonacciFitter.create(1000);
+
+  private static final EventMetric commitDuration =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/commit_duration",
+              "publishing and committing time of a batch of DNS updates",
+              "milliseconds",
+              COMMIT_LABEL_DESCRIPTORS,
+              DEFAULT_FITTER);
+
+  private static final EventMetric commitBatchSize =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/commit_batch_size",
+              "number of domains and hosts in a batch of DNS updates",
+              "count",
+              COMMIT_LABEL_DESCRIPTORS,
+              FITTER_BATCH_SIZE);
+
+  private final DnsUpdateScheduler dnsUpdateScheduler;
+
   @Inject
-  DnsMetrics() {}
+  DnsMetrics(DnsUpdateScheduler dnsUpdateScheduler) {
+    this.dnsUpdateScheduler = dnsUpdateScheduler;
+  }
 
   /**
    * Increment a monotonic counter that tracks calls to {@link
@@ -66,4 +106,20 @@ public class DnsMetrics {
   public void incrementPublishHostRequests(String tld, Status status) {
     publishHostRequests.increment(tld, status.name());
   }
+
+  /**
+   * Records the time taken to publish and commit a batch of updates with one DNS writer, and
+   * passes it on to the {@link DnsUpdateScheduler} to size future batches.
+   */
+  public void recordCommit(
+      String tld,
+      String dnsWriter,
+      CommitStatus status,
+      Duration processingDuration,
+      int numberOfItems) {
+    commitDuration.record(processingDuration.getMillis(), tld, dnsWriter, status.name());
+    commitBatchSize.record(numberOfItems, tld, dnsWriter, status.name());
+    dnsUpdateScheduler.recordCommit(
+        tld, dnsWriter, numberOfItems, processingDuration, status == CommitStatus.SUCCESS);
+  }
 }
@@ -0,0 +1,166 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.googlecode.objectify.VoidWork;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.dns.ReadDnsQueueAction.RefreshItem;
+import google.registry.model.server.DnsBatchSize;
+import google.registry.util.FormattingLogger;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * State used by {@link ReadDnsQueueAction} to schedule {@link PublishDnsUpdatesAction} batches.
+ *
+ * <p>Batch sizes are tracked separately for each TLD and DNS writer, starting at the configured
+ * {@code dnsTldUpdateBatchSize}. {@link DnsMetrics} reports every batch commit here. A failed
+ * commit halves the batch size. A full batch which commits in under half of the target publish
+ * time doubles it, up to {@code dnsMaxTldUpdateBatchSize}, and one which takes longer than the
+ * target shrinks it in proportion to how long it took. Publishes and reads of the DNS queue run on
+ * arbitrary instances, so the batch sizes are saved in Datastore as {@link DnsBatchSize} entities.
+ * Each is only written by publishes for its TLD, which hold the TLD's DNS lock, and only when its
+ * size changes.
+ *
+ * <p>This also remembers when each refresh is due to be published, so that a repeated refresh of
+ * the same name can be dropped while an earlier publish task for it is still waiting to run. That
+ * task will read the name's current state once it runs, so it covers both refreshes. This is only
+ * kept in memory, so a refresh is only dropped when the same instance read the earlier one from the
+ * queue. That's fine, since a missed coalescing only means a redundant publish.
+ */
+@Singleton
+@ThreadSafe
+public final class DnsUpdateScheduler {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** How long to remember a scheduled publish; this should exceed the fanout jitter. */
+  private static final long PENDING_PUBLISH_EXPIRY_MINUTES = 10;
+
+  /** Maximum number of scheduled publishes to remember. */
+  private static final long MAX_PENDING_PUBLISHES = 100000;
+
+  private final int initialBatchSize;
+  private final int maxBatchSize;
+  private final long targetPublishMillis;
+
+  private final Cache<PendingPublish, DateTime> pendingPublishes =
+      CacheBuilder.newBuilder()
+          .expireAfterWrite(PENDING_PUBLISH_EXPIRY_MINUTES, TimeUnit.MINUTES)
+          .maximumSize(MAX_PENDING_PUBLISHES)
+          .build();
+
+  @Inject
+  DnsUpdateScheduler(
+      @Config("dnsTldUpdateBatchSize") int initialBatchSize,
+      @Config("dnsMaxTldUpdateBatchSize") int maxBatchSize,
+      @Config("dnsTargetPublishTime") Duration targetPublishTime) {
+    checkArgument(initialBatchSize > 0, "Initial batch size must be positive");
+    checkArgument(
+        maxBatchSize >= initialBatchSize, "Maximum batch size must be at least the initial size");
+    checkArgument(targetPublishTime.getMillis() > 0, "Target publish time must be positive");
+    this.initialBatchSize = initialBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.targetPublishMillis = targetPublishTime.getMillis();
+  }
+
+  /** Returns the number of refreshes to put in each batch for the given TLD and DNS writer. */
+  int getBatchSize(String tld, String dnsWriter) {
+    DnsBatchSize saved = ofy().load().key(DnsBatchSize.createKey(tld, dnsWriter)).now();
+    // The maximum may have been lowered since the size was saved.
+    return (saved == null) ? initialBatchSize : Math.min(maxBatchSize, saved.getBatchSize());
+  }
+
+  /**
+   * Adjusts the batch size for a TLD and DNS writer after one of its batches was committed.
+   *
+   * <p>Failing to save the new size is only logged, since it merely delays the adjustment, and the
+   * batch itself has already been committed or failed by now.
+   */
+  void recordCommit(
+      final String tld,
+      final String dnsWriter,
+      final int numberOfItems,
+      final Duration processingTime,
+      final boolean success) {
+    try {
+      ofy().transactNew(new VoidWork() {
+        @Override
+        public void vrun() {
+          int size = getBatchSize(tld, dnsWriter);
+          int newSize =
+              getUpdatedBatchSize(size, numberOfItems, processingTime.getMillis(), success);
+          if (newSize != size) {
+            ofy().saveWithoutBackup().entity(DnsBatchSize.create(tld, dnsWriter, newSize));
+          }
+        }});
+    } catch (RuntimeException e) {
+      logger.warningfmt(e, "Failed to save the DNS batch size for %s on TLD %s", dnsWriter, tld);
+    }
+  }
+
+  /** Returns the batch size to use after a batch of the given size was committed. */
+  @VisibleForTesting
+  int getUpdatedBatchSize(int size, int numberOfItems, long processingMillis, boolean success) {
+    if (!success) {
+      return Math.max(1, size / 2);
+    } else if (processingMillis > targetPublishMillis) {
+      // Aim for the number of items that could have been committed within the target time.
+      long targetItems = numberOfItems * targetPublishMillis / processingMillis;
+      return (int) Math.max(1, Math.min(size, targetItems));
+    } else if (processingMillis * 2 <= targetPublishMillis && numberOfItems * 2 > size) {
+      // Only grow when the batch was mostly full, since a small batch says little about how long a
+      // full one would take.
+      return Math.min(maxBatchSize, size * 2);
+    }
+    return size;
+  }
+
+  /** Returns whether a publish of the given refresh is scheduled but hasn't started yet. */
+  boolean isPublishPending(String tld, String dnsWriter, RefreshItem item, DateTime now) {
+    DateTime eta = pendingPublishes.getIfPresent(PendingPublish.create(tld, dnsWriter, item));
+    return eta != null && eta.isAfter(now);
+  }
+
+  /** Remembers that a publish of the given refresh will start at the given time. */
+  void recordPublishScheduled(String tld, String dnsWriter, RefreshItem item, DateTime eta) {
+    pendingPublishes.put(PendingPublish.create(tld, dnsWriter, item), eta);
+  }
+
+  /** Identifies a refresh which has been handed to one DNS writer. */
+  @AutoValue
+  abstract static class PendingPublish {
+    static PendingPublish create(String tld, String dnsWriter, RefreshItem item) {
+      return new AutoValue_DnsUpdateScheduler_PendingPublish(tld, dnsWriter, item);
+    }
+
+    abstract String tld();
+
+    abstract String dnsWriter();
+
+    abstract RefreshItem item();
+  }
+}
@@ -20,6 +20,7 @@ import static google.registry.util.CollectionUtils.nullToEmpty;
 
 import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.dns.DnsMetrics.CommitStatus;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.model.registry.Registry;
@@ -28,11 +29,13 @@ import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
 import google.registry.request.lock.LockHandler;
+import google.registry.util.Clock;
 import google.registry.util.DomainNameUtils;
 import google.registry.util.FormattingLogger;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /** Task that sends domain and host updates to the DNS server. */
@@ -70,6 +73,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   @Inject @Parameter(PARAM_HOSTS) Set<String> hosts;
   @Inject @Parameter(PARAM_TLD) String tld;
   @Inject LockHandler lockHandler;
+  @Inject Clock clock;
   @Inject PublishDnsUpdatesAction() {}
 
   /** Runs the task. */
@@ -88,7 +92,21 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   /** Runs the task, with the lock. */
   @Override
   public Void call() {
-    processBatch();
+    // Time the batch under the lock, so that waiting for the lock doesn't count against the DNS
+    // writer when sizing future batches.
+    DateTime startTime = clock.nowUtc();
+    CommitStatus status = CommitStatus.FAILURE;
+    try {
+      processBatch();
+      status = CommitStatus.SUCCESS;
+    } finally {
+      dnsMetrics.recordCommit(
+          tld,
+          dnsWriter,
+          status,
+          new Duration(startTime, clock.nowUtc()),
+          nullToEmpty(domains).size() + nullToEmpty(hosts).size());
+    }
     return null;
   }
 
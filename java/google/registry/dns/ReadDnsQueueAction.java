@@ -41,9 +41,11 @@ import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
 import google.registry.request.auth.Auth;
+import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.TaskEnqueuer;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -52,11 +54,18 @@ import java.util.Random;
 import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /**
  * Action for fanning out DNS refresh tasks by TLD, using data taken from the DNS pull queue.
  *
+ * <p>Refreshes are split into batches for each of the TLD's DNS writers, sized by the {@link
+ * DnsUpdateScheduler} according to how that writer has been coping. Host refreshes go into the
+ * first batches, which are enqueued without jitter, since many domains may depend on a host's glue
+ * records. A refresh is dropped if an earlier publish task for the same name is still waiting to
+ * run, since that task will publish the name's latest state anyway.
+ *
  * <h3>Parameters Reference</h3>
  *
  * <ul>
@@ -78,13 +87,14 @@ public final class ReadDnsQueueAction implements Runnable {
   private static final Random random = new Random();
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
-  @Inject @Config("dnsTldUpdateBatchSize") int tldUpdateBatchSize;
   @Inject @Config("dnsWriteLockTimeout") Duration writeLockTimeout;
   @Inject @Named(DNS_PUBLISH_PUSH_QUEUE_NAME) Queue dnsPublishPushQueue;
   @Inject @Parameter(PARAM_JITTER_SECONDS) Optional<Integer> jitterSeconds;
   @Inject @Parameter(PARAM_KEEP_TASKS) boolean keepTasks;
   @Inject DnsQueue dnsQueue;
+  @Inject DnsUpdateScheduler dnsUpdateScheduler;
   @Inject TaskEnqueuer taskEnqueuer;
+  @Inject Clock clock;
   @Inject ReadDnsQueueAction() {}
 
   /** Container for items we pull out of the DNS pull queue and process for fanout. */
@@ -98,9 +108,11 @@ public final class ReadDnsQueueAction implements Runnable {
 
     abstract String name();
 
+    /** Orders hosts ahead of domains, so that they are published first. */
     @Override
     public int compareTo(RefreshItem other) {
       return ComparisonChain.start()
+          .compareTrueFirst(this.type() == TargetType.HOST, other.type() == TargetType.HOST)
           .compare(this.type(), other.type())
           .compare(this.name(), other.name())
           .result();
@@ -163,29 +175,29 @@ public final class ReadDnsQueueAction implements Runnable {
     }
     // Loop through the multimap by TLD and generate refresh tasks for the hosts and domains for
     // each configured DNS writer.
+    DateTime now = clock.nowUtc();
+    int coalescedCount = 0;
     for (Map.Entry<String, Collection<RefreshItem>> tldRefreshItemsEntry
         : refreshItemMultimap.asMap().entrySet()) {
       String tld = tldRefreshItemsEntry.getKey();
-      for (List<RefreshItem> chunk :
-          Iterables.partition(tldRefreshItemsEntry.getValue(), tldUpdateBatchSize)) {
-        for (String dnsWriter : Registry.get(tld).getDnsWriters()) {
-          TaskOptions options = withUrl(PublishDnsUpdatesAction.PATH)
-              .countdownMillis(jitterSeconds.isPresent()
-                  ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
-                  : 0)
-              .param(RequestParameters.PARAM_TLD, tld)
-              .param(PublishDnsUpdatesAction.PARAM_DNS_WRITER, dnsWriter);
-          for (RefreshItem refreshItem : chunk) {
-            options.param(
-                (refreshItem.type() == TargetType.HOST)
-                    ? PublishDnsUpdatesAction.PARAM_HOSTS
-                    : PublishDnsUpdatesAction.PARAM_DOMAINS,
-                refreshItem.name());
+      for (String dnsWriter : Registry.get(tld).getDnsWriters()) {
+        List<RefreshItem> refreshItems = new ArrayList<>();
+        for (RefreshItem refreshItem : tldRefreshItemsEntry.getValue()) {
+          if (dnsUpdateScheduler.isPublishPending(tld, dnsWriter, refreshItem, now)) {
+            coalescedCount++;
+          } else {
+            refreshItems.add(refreshItem);
           }
-          taskEnqueuer.enqueue(dnsPublishPushQueue, options);
+        }
+        for (List<RefreshItem> chunk : Iterables.partition(
+            refreshItems, dnsUpdateScheduler.getBatchSize(tld, dnsWriter))) {
+          enqueuePublishTask(tld, dnsWriter, chunk, now);
         }
       }
     }
+    if (coalescedCount > 0) {
+      logger.infofmt("Coalesced %d DNS refreshes into already pending publishes.", coalescedCount);
+    }
     Set<TaskHandle> tasksToDelete = difference(ImmutableSet.copyOf(tasks), tasksToKeep);
     // In keepTasks mode, never delete any tasks.
     if (keepTasks) {
@@ -204,4 +216,30 @@ public final class ReadDnsQueueAction implements Runnable {
       logger.infofmt("Done processing DNS tasks.");
     }
   }
+
+  /** Enqueues a publish task for one batch of refreshes, and records when it will run. */
+  private void enqueuePublishTask(
+      String tld, String dnsWriter, List<RefreshItem> chunk, DateTime now) {
+    // The items are sorted with hosts first, so only the first item needs to be checked.
+    boolean hasHosts = chunk.get(0).type() == TargetType.HOST;
+    int countdownMillis = (jitterSeconds.isPresent() && !hasHosts)
+        ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
+        : 0;
+    TaskOptions options = withUrl(PublishDnsUpdatesAction.PATH)
+        .countdownMillis(countdownMillis)
+        .param(RequestParameters.PARAM_TLD, tld)
+        .param(PublishDnsUpdatesAction.PARAM_DNS_WRITER, dnsWriter);
+    for (RefreshItem refreshItem : chunk) {
+      options.param(
+          (refreshItem.type() == TargetType.HOST)
+              ? PublishDnsUpdatesAction.PARAM_HOSTS
+              : PublishDnsUpdatesAction.PARAM_DOMAINS,
+          refreshItem.name());
+    }
+    taskEnqueuer.enqueue(dnsPublishPushQueue, options);
+    DateTime eta = now.plusMillis(countdownMillis);
+    for (RefreshItem refreshItem : chunk) {
+      dnsUpdateScheduler.recordPublishScheduled(tld, dnsWriter, refreshItem, eta);
+    }
+  }
 }
@@ -17,6 +17,7 @@ package google.registry.dns.writer.clouddns;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 
 import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
@@ -30,8 +31,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
+import com.google.common.collect.Sets;
 import com.google.common.net.InternetDomainName;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
@@ -46,17 +49,31 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /**
  * {@link DnsWriter} implementation that talks to Google Cloud DNS.
  *
+ * <p>Large batches are split into several Cloud DNS changes, each within the per-change record set
+ * limit, which are committed concurrently. A domain is always kept in the same change as its
+ * subordinate hosts, so no two changes touch the same records. Each change is retried on its own
+ * when the zone turns out to have been modified underneath it, so one conflicting name doesn't
+ * force the rest of the batch to be written again.
+ *
  * @see <a href="https://cloud.google.com/dns/docs/">Google Cloud DNS Documentation</a>
  */
 public class CloudDnsWriter implements DnsWriter {
@@ -71,6 +88,9 @@ public class CloudDnsWriter implements DnsWriter {
   private static final ImmutableSet<String> RETRYABLE_EXCEPTION_REASONS =
       ImmutableSet.of("preconditionFailed", "notFound", "alreadyExists");
 
+  /** Maximum number of changes to commit at once. The rate limiter is shared between them. */
+  private static final int MAX_CONCURRENT_CHANGES = 5;
+
   private final Clock clock;
   private final RateLimiter rateLimiter;
   // TODO(shikhman): This uses @Named("transientFailureRetries") which may not be tuned for this
@@ -82,8 +102,12 @@ public class CloudDnsWriter implements DnsWriter {
   private final String projectId;
   private final String zoneName;
   private final Dns dnsConnection;
-  private final ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>
-      desiredRecordsBuilder = new ImmutableMap.Builder<>();
+  private final int maxRecordSetsPerChange;
+  private final ThreadFactory threadFactory;
+  // A domain is published more than once when several of its hosts are in the same batch, so later
+  // entries replace earlier ones rather than being rejected as duplicates.
+  private final Map<String, ImmutableSet<ResourceRecordSet>> desiredRecordsBuilder =
+      new LinkedHashMap<>();
 
   private boolean committed = false;
 
@@ -96,6 +120,8 @@ public class CloudDnsWriter implements DnsWriter {
       @Config("dnsDefaultNsTtl") Duration defaultNsTtl,
       @Config("dnsDefaultDsTtl") Duration defaultDsTtl,
       @Named("cloudDns") RateLimiter rateLimiter,
+      @Named("cloudDnsMaxRecordSetsPerChange") int maxRecordSetsPerChange,
+      @Named("cloudDnsThreadFactory") ThreadFactory threadFactory,
       Clock clock,
       Retrier retrier) {
     this.dnsConnection = dnsConnection;
@@ -105,6 +131,8 @@ public class CloudDnsWriter implements DnsWriter {
     this.defaultNsTtl = defaultNsTtl;
     this.defaultDsTtl = defaultDsTtl;
     this.rateLimiter = rateLimiter;
+    this.maxRecordSetsPerChange = maxRecordSetsPerChange;
+    this.threadFactory = threadFactory;
     this.clock = clock;
     this.retrier = retrier;
   }
@@ -250,13 +278,8 @@ public class CloudDnsWriter implements DnsWriter {
       return;
     }
 
-    // Extract the superordinate domain name. The TLD and host may have several dots so this
-    // must calculate a sublist.
-    ImmutableList<String> hostParts = host.parts();
-    ImmutableList<String> tldParts = tld.get().parts();
-    ImmutableList<String> domainParts =
-        hostParts.subList(hostParts.size() - tldParts.size() - 1, hostParts.size());
-    String domain = Joiner.on(".").join(domainParts);
+    // Extract the superordinate domain name.
+    String domain = getSuperordinateDomainName(host, tld.get());
 
     // Refresh the superordinate domain, since we shouldn't be publishing glue records if we are not
     // authoritative for the superordinate domain.
@@ -271,18 +294,118 @@ public class CloudDnsWriter implements DnsWriter {
    * <p>The relevant resource records (including those of all subordinate hosts) will be retrieved
    * and the operation will be retried until the state of the retrieved zone data matches the
    * representation built via this writer.
+   *
+   * <p>If the records need more than one change, all of the changes are attempted, even if some of
+   * them fail. The changes which succeeded stay written, and the first failure is then thrown.
    */
   @Override
   public void commit() {
     checkState(!committed, "commit() has already been called");
     committed = true;
-    commit(desiredRecordsBuilder.build());
+    commit(ImmutableMap.copyOf(desiredRecordsBuilder));
   }
 
   @VisibleForTesting
   void commit(ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
+    ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> changes =
+        partitionChanges(desiredRecords);
+    if (changes.size() <= 1) {
+      // Small batches are written from the request thread.
+      commitChange(desiredRecords);
+      return;
+    }
+    logger.infofmt(
+        "Writing %d names to Cloud DNS in %d changes", desiredRecords.size(), changes.size());
+    ExecutorService executor =
+        newFixedThreadPool(Math.min(changes.size(), MAX_CONCURRENT_CHANGES), threadFactory);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (final ImmutableMap<String, ImmutableSet<ResourceRecordSet>> change : changes) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            commitChange(change);
+            return null;
+          }}));
+      }
+      RuntimeException failure = null;
+      int failedChanges = 0;
+      for (Future<?> future : futures) {
+        try {
+          Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+          failedChanges++;
+          if (failure == null) {
+            failure = new RuntimeException("Cloud DNS change failed", e.getCause());
+          } else {
+            logger.severe(e.getCause(), "Additional Cloud DNS change failure");
+          }
+        }
+      }
+      if (failure != null) {
+        logger.severefmt("%d of %d Cloud DNS changes failed", failedChanges, changes.size());
+        throw failure;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Mutates the zone with the given desired records, retrying if the zone state conflicts. */
+  private void commitChange(ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
+    DateTime startTime = clock.nowUtc();
     retrier.callWithRetry(getMutateZoneCallback(desiredRecords), ZoneStateException.class);
-    logger.info("Wrote to Cloud DNS");
+    logger.infofmt(
+        "Wrote %d names to Cloud DNS in %dms",
+        desiredRecords.size(),
+        new Duration(startTime, clock.nowUtc()).getMillis());
+  }
+
+  /**
+   * Splits the desired records into changes, keeping each domain in the same change as its
+   * subordinate hosts.
+   *
+   * <p>Each change holds at most {@link #maxRecordSetsPerChange} desired record sets, unless a
+   * single domain needs more than that. The deletions in a change are of the same names, so they
+   * are normally of a similar size.
+   */
+  private ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> partitionChanges(
+      ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
+    Map<String, Map<String, ImmutableSet<ResourceRecordSet>>> recordsByDomain =
+        new LinkedHashMap<>();
+    for (Map.Entry<String, ImmutableSet<ResourceRecordSet>> entry : desiredRecords.entrySet()) {
+      String domainName = getRegisteredDomainName(entry.getKey());
+      Map<String, ImmutableSet<ResourceRecordSet>> domainRecords =
+          recordsByDomain.get(domainName);
+      if (domainRecords == null) {
+        domainRecords = new LinkedHashMap<>();
+        recordsByDomain.put(domainName, domainRecords);
+      }
+      domainRecords.put(entry.getKey(), entry.getValue());
+    }
+    ImmutableList.Builder<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> changes =
+        new ImmutableList.Builder<>();
+    ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>> change =
+        new ImmutableMap.Builder<>();
+    int changeSize = 0;
+    for (Map<String, ImmutableSet<ResourceRecordSet>> domainRecords : recordsByDomain.values()) {
+      int domainSize = 0;
+      for (ImmutableSet<ResourceRecordSet> records : domainRecords.values()) {
+        // A name with no desired records still needs its old records deleted.
+        domainSize += Math.max(1, records.size());
+      }
+      if (changeSize > 0 && changeSize + domainSize > maxRecordSetsPerChange) {
+        changes.add(change.build());
+        change = new ImmutableMap.Builder<>();
+        changeSize = 0;
+      }
+      change.putAll(domainRecords);
+      changeSize += domainSize;
+    }
+    if (changeSize > 0) {
+      changes.add(change.build());
+    }
+    return changes.build();
   }
 
   /**
@@ -320,8 +443,20 @@ public class CloudDnsWriter implements DnsWriter {
           flattenedDesiredRecords.addAll(records);
         }
 
-        // Delete all existing records and add back the desired records
-        updateResourceRecords(flattenedDesiredRecords.build(), existingRecords.build());
+        // Delete the existing records which aren't desired, and add the desired records which
+        // don't exist yet. Records which are already correct are left alone, so that retrying a
+        // batch which was partly written doesn't rewrite the names which succeeded.
+        ImmutableSet<ResourceRecordSet> desired = flattenedDesiredRecords.build();
+        ImmutableSet<ResourceRecordSet> existing = existingRecords.build();
+        ImmutableSet<ResourceRecordSet> additions =
+            Sets.difference(desired, existing).immutableCopy();
+        ImmutableSet<ResourceRecordSet> deletions =
+            Sets.difference(existing, desired).immutableCopy();
+        if (additions.isEmpty() && deletions.isEmpty()) {
+          logger.finefmt("Records for %d names are already up to date", desiredRecords.size());
+          return null;
+        }
+        updateResourceRecords(additions, deletions);
         return null;
       }
     };
@@ -392,6 +527,31 @@ public class CloudDnsWriter implements DnsWriter {
     return hostName.endsWith(".") ? hostName : hostName + ".";
   }
 
+  /**
+   * Returns the registered domain which the given absolute name is, or is subordinate to.
+   *
+   * <p>Names which aren't under a TLD of this registry are returned unchanged.
+   */
+  private static String getRegisteredDomainName(String absoluteName) {
+    InternetDomainName name =
+        InternetDomainName.from(absoluteName.substring(0, absoluteName.length() - 1));
+    Optional<InternetDomainName> tld = Registries.findTldForName(name);
+    if (!tld.isPresent() || name.parts().size() <= tld.get().parts().size()) {
+      return absoluteName;
+    }
+    return getAbsoluteHostName(getSuperordinateDomainName(name, tld.get()));
+  }
+
+  /** Returns the domain directly under the given TLD which the given name is subordinate to. */
+  private static String getSuperordinateDomainName(
+      InternetDomainName name, InternetDomainName tld) {
+    // The TLD and name may have several dots so this must calculate a sublist.
+    ImmutableList<String> nameParts = name.parts();
+    ImmutableList<String> domainParts =
+        nameParts.subList(nameParts.size() - tld.parts().size() - 1, nameParts.size());
+    return Joiner.on(".").join(domainParts);
+  }
+
   /** Zone state on Cloud DNS does not match the expected state. */
   static class ZoneStateException extends RuntimeException {
     public ZoneStateException(String reason) {
@@ -14,6 +14,8 @@
 
 package google.registry.dns.writer.clouddns;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
+
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
@@ -29,6 +31,7 @@ import dagger.multibindings.StringKey;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.DnsWriter;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 import javax.inject.Named;
 
 /** Dagger module for Google Cloud DNS service connection objects. */
@@ -68,4 +71,18 @@ public final class CloudDnsWriterModule {
     int cloudDnsMaxQps = 20;
     return RateLimiter.create(cloudDnsMaxQps);
   }
+
+  @Provides
+  @Named("cloudDnsMaxRecordSetsPerChange")
+  static int provideMaxRecordSetsPerChange() {
+    // This is the default Cloud DNS quota for both record set additions and deletions in a single
+    // change. It can be increased in the same way as the QPS.
+    return 100;
+  }
+
+  @Provides
+  @Named("cloudDnsThreadFactory")
+  static ThreadFactory provideThreadFactory() {
+    return currentRequestThreadFactory();
+  }
 }
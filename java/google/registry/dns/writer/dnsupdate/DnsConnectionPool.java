@@ -0,0 +1,88 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.dnsupdate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A pool of idle TCP connections to the DNS server, so that they can be reused by later requests
+ * instead of being opened and closed for every UPDATE.
+ *
+ * <p>Each connection is used by only one {@link DnsMessageTransport} at a time, which takes it out
+ * of the pool and gives it back once all of its responses have been read. Connections are handed
+ * out most recently used first, so that the ones which sit idle long enough for the server to
+ * close them are the extra ones left over after a burst.
+ */
+@ThreadSafe
+public class DnsConnectionPool {
+
+  @GuardedBy("this")
+  private final Deque<Socket> idleConnections = new ArrayDeque<>();
+
+  private final int maxIdleConnections;
+
+  /**
+   * Class constructor.
+   *
+   * @param maxIdleConnections how many connections to keep open while they aren't being used
+   */
+  public DnsConnectionPool(int maxIdleConnections) {
+    checkArgument(maxIdleConnections >= 0, "maxIdleConnections must not be negative");
+    this.maxIdleConnections = maxIdleConnections;
+  }
+
+  /** Takes an idle connection out of the pool, or returns null if there aren't any. */
+  @Nullable
+  synchronized Socket take() {
+    return idleConnections.pollFirst();
+  }
+
+  /**
+   * Gives a connection back to the pool, once every response sent on it has been read. If the pool
+   * is already full, the connection is closed instead.
+   */
+  void release(Socket socket) {
+    synchronized (this) {
+      if (!socket.isClosed() && idleConnections.size() < maxIdleConnections) {
+        idleConnections.addFirst(socket);
+        return;
+      }
+    }
+    closeQuietly(socket);
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleConnectionCount() {
+    return idleConnections.size();
+  }
+
+  /** Closes a connection, ignoring any error since it won't be used again anyway. */
+  static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing more to do with it.
+    }
+  }
+}
@@ -18,15 +18,22 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.util.FormattingLogger;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.net.SocketFactory;
 import org.joda.time.Duration;
@@ -38,16 +45,24 @@ import org.xbill.DNS.Opcode;
  * s and the message framing defined in <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>.
  * We would like use the dnsjava library's {@link org.xbill.DNS.SimpleResolver} class for this, but
  * it requires {@link java.nio.channels.SocketChannel} which is not supported on AppEngine.
+ *
+ * <p>Connections are kept open in a {@link DnsConnectionPool} and reused, rather than opened for
+ * each message. Several messages can be sent at once with {@link #sendAll}, which pipelines them
+ * over a single connection: up to a configured number of messages are written before waiting for
+ * any responses, and responses are matched back up to their queries by message ID, in whatever
+ * order the server sends them.
  */
 public class DnsMessageTransport {
 
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
   /**
    * Size of message length field for DNS TCP transport.
    *
    * @see <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>
    */
   static final int MESSAGE_LENGTH_FIELD_BYTES = 2;
-  private static final int MESSAGE_MAXIMUM_LENGTH = (1 << (MESSAGE_LENGTH_FIELD_BYTES * 8)) - 1;
+  static final int MESSAGE_MAXIMUM_LENGTH = (1 << (MESSAGE_LENGTH_FIELD_BYTES * 8)) - 1;
 
   /**
    * The standard DNS port number.
@@ -57,24 +72,33 @@ public class DnsMessageTransport {
   @VisibleForTesting static final int DNS_PORT = 53;
 
   private final SocketFactory factory;
+  private final DnsConnectionPool connectionPool;
   private final String updateHost;
   private final int updateTimeout;
+  private final int maxInFlight;
 
   /**
    * Class constructor.
    *
    * @param factory a factory for TCP sockets
+   * @param connectionPool the pool of idle connections to reuse
    * @param updateHost host name of the DNS server
    * @param updateTimeout update I/O timeout
+   * @param maxInFlight maximum number of messages sent on a connection and not yet responded to
    */
   @Inject
   public DnsMessageTransport(
       SocketFactory factory,
+      DnsConnectionPool connectionPool,
       @Config("dnsUpdateHost") String updateHost,
-      @Config("dnsUpdateTimeout") Duration updateTimeout) {
+      @Config("dnsUpdateTimeout") Duration updateTimeout,
+      @Config("dnsUpdateMaxInFlight") int maxInFlight) {
+    checkArgument(maxInFlight > 0, "maxInFlight must be positive");
     this.factory = factory;
+    this.connectionPool = connectionPool;
     this.updateHost = updateHost;
     this.updateTimeout = Ints.checkedCast(updateTimeout.getMillis());
+    this.maxInFlight = maxInFlight;
   }
 
   /**
@@ -87,21 +111,113 @@ public class DnsMessageTransport {
    * @throws IllegalArgumentException if the query is too large to be sent (> 65535 bytes)
    */
   public Message send(Message query) throws IOException {
-    try (Socket socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT)) {
+    return sendAll(ImmutableList.of(query)).get(0);
+  }
+
+  /**
+   * Sends DNS "query" messages (most likely UPDATEs) pipelined over one connection, and returns
+   * their responses in the same order as the queries. Each response is checked for matching ID and
+   * opcode.
+   *
+   * <p>If a reused connection fails before any response has been read from it, the server has
+   * most likely closed it for being idle, and the queries are sent again on a new connection. This
+   * is safe for the UPDATEs sent by {@link DnsUpdateWriter}, which delete and re-add every record
+   * they touch, and so are idempotent.
+   *
+   * @param queries the messages to send, which may share message IDs
+   * @return the responses received from the server
+   * @throws IOException if the Socket input/output streams throws one
+   * @throws IllegalArgumentException if a query is too large to be sent (> 65535 bytes)
+   */
+  public ImmutableList<Message> sendAll(List<? extends Message> queries) throws IOException {
+    ImmutableList.Builder<byte[]> queryData = new ImmutableList.Builder<>();
+    for (Message query : queries) {
+      queryData.add(toWireWithLength(query));
+    }
+    Socket socket = connectionPool.take();
+    if (socket != null) {
+      Exchange exchange = new Exchange(queries, queryData.build());
+      try {
+        exchange.run(socket);
+        connectionPool.release(socket);
+        return exchange.getResponses();
+      } catch (IOException e) {
+        DnsConnectionPool.closeQuietly(socket);
+        if (exchange.responsesRead > 0) {
+          throw e;
+        }
+        logger.infofmt(e, "Reused connection to %s failed, retrying on a new one", updateHost);
+      } catch (RuntimeException e) {
+        DnsConnectionPool.closeQuietly(socket);
+        throw e;
+      }
+    }
+    socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT);
+    try {
       socket.setSoTimeout(updateTimeout);
-      writeMessage(socket.getOutputStream(), query);
-      Message response = readMessage(socket.getInputStream());
-      checkValidResponse(query, response);
-      return response;
+      Exchange exchange = new Exchange(queries, queryData.build());
+      exchange.run(socket);
+      connectionPool.release(socket);
+      return exchange.getResponses();
+    } catch (IOException | RuntimeException e) {
+      DnsConnectionPool.closeQuietly(socket);
+      throw e;
+    }
+  }
+
+  /** The pipelined sending of a list of queries over one connection. */
+  private class Exchange {
+
+    private final List<? extends Message> queries;
+    private final ImmutableList<byte[]> queryData;
+    private final Message[] responses;
+
+    /** Indexes of the queries awaiting responses, by message ID, in the order they were sent. */
+    private final Map<Integer, Integer> inFlight = new LinkedHashMap<>();
+
+    int responsesRead = 0;
+
+    Exchange(List<? extends Message> queries, ImmutableList<byte[]> queryData) {
+      this.queries = queries;
+      this.queryData = queryData;
+      this.responses = new Message[queries.size()];
+    }
+
+    void run(Socket socket) throws IOException {
+      OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+      DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+      int nextQuery = 0;
+      while (responsesRead < queries.size()) {
+        // Send as many queries as we're allowed before waiting for a response. Message IDs only
+        // need to be unique among the queries in flight, so a query whose ID is already in use has
+        // to wait until that one is answered.
+        while (nextQuery < queries.size()
+            && inFlight.size() < maxInFlight
+            && !inFlight.containsKey(queries.get(nextQuery).getHeader().getID())) {
+          outputStream.write(queryData.get(nextQuery));
+          inFlight.put(queries.get(nextQuery).getHeader().getID(), nextQuery);
+          nextQuery++;
+        }
+        outputStream.flush();
+        Message response = readMessage(inputStream);
+        Integer index = inFlight.remove(response.getHeader().getID());
+        verify(
+            index != null,
+            "response ID %s does not match query ID %s",
+            response.getHeader().getID(),
+            Joiner.on(", ").join(inFlight.keySet()));
+        checkValidResponse(queries.get(index), response);
+        responses[index] = response;
+        responsesRead++;
+      }
+    }
+
+    ImmutableList<Message> getResponses() {
+      return ImmutableList.copyOf(Arrays.asList(responses));
     }
   }
 
   private void checkValidResponse(Message query, Message response) {
-    verify(
-        response.getHeader().getID() == query.getHeader().getID(),
-        "response ID %s does not match query ID %s",
-        response.getHeader().getID(),
-        query.getHeader().getID());
     verify(
         response.getHeader().getOpcode() == query.getHeader().getOpcode(),
         "response opcode '%s' does not match query opcode '%s'",
@@ -109,7 +225,8 @@ public class DnsMessageTransport {
         Opcode.string(query.getHeader().getOpcode()));
   }
 
-  private void writeMessage(OutputStream outputStream, Message message) throws IOException {
+  /** Returns a message framed for TCP transport, with its length in front. */
+  private static byte[] toWireWithLength(Message message) {
     byte[] messageData = message.toWire();
     checkArgument(
         messageData.length <= MESSAGE_MAXIMUM_LENGTH,
@@ -119,11 +236,10 @@ public class DnsMessageTransport {
     ByteBuffer buffer = ByteBuffer.allocate(messageData.length + MESSAGE_LENGTH_FIELD_BYTES);
     buffer.putShort((short) messageData.length);
     buffer.put(messageData);
-    outputStream.write(buffer.array());
+    return buffer.array();
   }
 
-  private Message readMessage(InputStream inputStream) throws IOException {
-    DataInputStream stream = new DataInputStream(inputStream);
+  private static Message readMessage(DataInputStream stream) throws IOException {
     int length = stream.readUnsignedShort();
     byte[] messageData = new byte[length];
     stream.readFully(messageData);
@@ -41,4 +41,13 @@ public class DnsUpdateConfigModule {
   public static Duration provideDnsUpdateTimeout() {
     return Duration.standardSeconds(30);
   }
+
+  /**
+   * Maximum number of DNS update requests sent on one connection before waiting for a response.
+   */
+  @Provides
+  @Config("dnsUpdateMaxInFlight")
+  public static int provideDnsUpdateMaxInFlight() {
+    return 16;
+  }
 }
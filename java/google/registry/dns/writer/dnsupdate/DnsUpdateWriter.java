@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.collect.Sets.intersection;
 import static com.google.common.collect.Sets.union;
+import static google.registry.dns.writer.dnsupdate.DnsMessageTransport.MESSAGE_MAXIMUM_LENGTH;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 
 import com.google.common.base.Joiner;
@@ -37,6 +38,8 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import javax.inject.Inject;
 import org.joda.time.Duration;
 import org.xbill.DNS.AAAARecord;
@@ -48,6 +51,8 @@ import org.xbill.DNS.NSRecord;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.RRset;
 import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 import org.xbill.DNS.Update;
@@ -72,7 +77,10 @@ import org.xbill.DNS.Update;
  * assuming that this will be done by a third party DNS provider.
  *
  * <p>Each commit call is treated as an atomic update to the DNS. If a commit fails an exception
- * is thrown. The SOA record serial number is implicitly incremented by the server on each UPDATE
+ * is thrown. The exception is a batch too large to fit in a single UPDATE message: it is split into
+ * several messages, between the names being published, and these are pipelined over one
+ * connection. The records for each name are then still updated atomically, but the batch as a
+ * whole is not. The SOA record serial number is implicitly incremented by the server on each UPDATE
  * message, as required by RFC 2136. Care must be taken to make sure the SOA serial number does not
  * go backwards if the entire TLD (zone) is "reset" to empty and republished.
  */
@@ -89,9 +97,11 @@ public class DnsUpdateWriter implements DnsWriter {
   private final Duration dnsDefaultDsTtl;
   private final DnsMessageTransport transport;
   private final Clock clock;
-  private final Update update;
   private final String zoneName;
 
+  /** The updates for each name published so far, in order. */
+  private final List<Update> updates = new ArrayList<>();
+
   private boolean committed = false;
 
   /**
@@ -110,7 +120,6 @@ public class DnsUpdateWriter implements DnsWriter {
       DnsMessageTransport transport,
       Clock clock) {
     this.zoneName = zoneName;
-    this.update = new Update(toAbsoluteName(zoneName));
     this.dnsDefaultATtl = dnsDefaultATtl;
     this.dnsDefaultNsTtl = dnsDefaultNsTtl;
     this.dnsDefaultDsTtl = dnsDefaultDsTtl;
@@ -128,6 +137,7 @@ public class DnsUpdateWriter implements DnsWriter {
    */
   private void publishDomain(String domainName, String requestingHostName) {
     DomainResource domain = loadByForeignKey(DomainResource.class, domainName, clock.nowUtc());
+    Update update = new Update(toAbsoluteName(zoneName));
     update.delete(toAbsoluteName(domainName), Type.ANY);
     if (domain != null) {
       // As long as the domain exists, orphan glues should be cleaned.
@@ -138,6 +148,7 @@ public class DnsUpdateWriter implements DnsWriter {
         update.add(makeDelegationSignerSet(domain));
       }
     }
+    updates.add(update);
   }
 
   @Override
@@ -173,17 +184,48 @@ public class DnsUpdateWriter implements DnsWriter {
     committed = true;
 
     try {
-      Message response = transport.send(update);
-      verify(
-          response.getRcode() == Rcode.NOERROR,
-          "DNS server failed domain update for '%s' rcode: %s",
-          zoneName,
-          Rcode.string(response.getRcode()));
+      ImmutableList<Update> messages = combineUpdates();
+      List<Message> responses = (messages.size() == 1)
+          ? ImmutableList.of(transport.send(messages.get(0)))
+          : transport.sendAll(messages);
+      for (Message response : responses) {
+        verify(
+            response.getRcode() == Rcode.NOERROR,
+            "DNS server failed domain update for '%s' rcode: %s",
+            zoneName,
+            Rcode.string(response.getRcode()));
+      }
     } catch (IOException e) {
       throw new RuntimeException("publishDomain failed for zone: " + zoneName, e);
     }
   }
 
+  /**
+   * Combines the updates for each name into as few UPDATE messages as will fit, which is normally
+   * just one.
+   */
+  private ImmutableList<Update> combineUpdates() {
+    ImmutableList.Builder<Update> messages = new ImmutableList.Builder<>();
+    Update message = new Update(toAbsoluteName(zoneName));
+    int emptySize = message.toWire().length;
+    int size = emptySize;
+    for (Update update : updates) {
+      // Name compression can only make the records smaller in the combined message than they were
+      // on their own, so this overestimates the combined size.
+      int updateSize = update.toWire().length - emptySize;
+      if (size > emptySize && size + updateSize > MESSAGE_MAXIMUM_LENGTH) {
+        messages.add(message);
+        message = new Update(toAbsoluteName(zoneName));
+        size = emptySize;
+      }
+      for (Record record : update.getSectionArray(Section.UPDATE)) {
+        message.addRecord(record, Section.UPDATE);
+      }
+      size += updateSize;
+    }
+    return messages.add(message).build();
+  }
+
   private RRset makeDelegationSignerSet(DomainResource domain) {
     RRset signerSet = new RRset();
     for (DelegationSignerData signerData : domain.getDsData()) {
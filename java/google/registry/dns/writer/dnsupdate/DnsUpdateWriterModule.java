@@ -27,11 +27,23 @@ import javax.net.SocketFactory;
 @Module
 public abstract class DnsUpdateWriterModule {
 
+  /** Maximum number of connections to the DNS server kept open between requests. */
+  private static final int MAX_IDLE_CONNECTIONS = 4;
+
+  /** Idle connections are shared by every request on this instance, so there is only one pool. */
+  private static final DnsConnectionPool connectionPool =
+      new DnsConnectionPool(MAX_IDLE_CONNECTIONS);
+
   @Provides
   static SocketFactory provideSocketFactory() {
     return SocketFactory.getDefault();
   }
 
+  @Provides
+  static DnsConnectionPool provideConnectionPool() {
+    return connectionPool;
+  }
+
   @Provides
   @IntoMap
   @StringKey(DnsUpdateWriter.NAME)
@@ -22,15 +22,14 @@ import static google.registry.flows.domain.DomainFlowUtils.handleFeeRequest;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainName;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainNameWithIdnTables;
 import static google.registry.flows.domain.DomainFlowUtils.verifyNotInPredelegation;
-import static google.registry.model.EppResourceUtils.checkResourcesExist;
-import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.EppResourceUtils.checkResourcesExistCached;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.model.registry.label.ReservationType.getTypeOfHighestSeverity;
 import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -59,13 +58,17 @@ import google.registry.model.eppoutput.CheckData.DomainCheck;
 import google.registry.model.eppoutput.CheckData.DomainCheckData;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
+import google.registry.model.pricing.StaticPremiumListPricingEngine;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
+import google.registry.model.registry.label.PremiumListUtils;
 import google.registry.model.registry.label.ReservationType;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
 import google.registry.util.Clock;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -150,10 +153,16 @@ public final class DomainCheckFlow implements Flow {
             // TODO: Use as of date from fee extension v0.12 instead of now, if specificed.
             .setAsOfDate(now)
             .build());
-    Set<String> existingIds = checkResourcesExist(DomainResource.class, targetIds, now);
+    // Load everything needed to check all of the names up front in a few batched loads, rather
+    // than with separate Datastore round trips for each name.
+    Set<String> existingIds = checkResourcesExistCached(DomainResource.class, targetIds, now);
+    ImmutableSet<String> pendingAllocationIds =
+        getDomainNamesPendingAllocation(domainNames, existingIds, now);
+    prefetchPremiumPrices(domainNames);
     ImmutableList.Builder<DomainCheck> checks = new ImmutableList.Builder<>();
     for (String targetId : targetIds) {
-      Optional<String> message = getMessageForCheck(domainNames.get(targetId), existingIds, now);
+      Optional<String> message =
+          getMessageForCheck(domainNames.get(targetId), existingIds, pendingAllocationIds, now);
       checks.add(DomainCheck.create(!message.isPresent(), targetId, message.orNull()));
     }
     BeforeResponseReturnData responseData =
@@ -170,18 +179,15 @@ public final class DomainCheckFlow implements Flow {
   }
 
   private Optional<String> getMessageForCheck(
-      InternetDomainName domainName, Set<String> existingIds, DateTime now) {
+      InternetDomainName domainName,
+      Set<String> existingIds,
+      Set<String> pendingAllocationIds,
+      DateTime now) {
     if (existingIds.contains(domainName.toString())) {
       return Optional.of("In use");
     }
     Registry registry = Registry.get(domainName.parent().toString());
-    if (PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))
-        && FluentIterable.from(loadActiveApplicationsByDomainName(domainName.toString(), now))
-            .anyMatch(new Predicate<DomainApplication>() {
-              @Override
-              public boolean apply(DomainApplication input) {
-                return !input.getApplicationStatus().isFinalStatus();
-              }})) {
+    if (pendingAllocationIds.contains(domainName.toString())) {
       return Optional.of("Pending allocation");
     }
     ImmutableSet<ReservationType> reservationTypes = getReservationTypes(domainName);
@@ -197,6 +203,54 @@ public final class DomainCheckFlow implements Flow {
         : Optional.of(getTypeOfHighestSeverity(reservationTypes).getMessageForCheck());
   }
 
+  /**
+   * Returns the names that aren't in use but have pending applications in a TLD phase where that
+   * makes them unavailable, using one batched load of the applications for all of the names.
+   */
+  private static ImmutableSet<String> getDomainNamesPendingAllocation(
+      ImmutableMap<String, InternetDomainName> domainNames, Set<String> existingIds, DateTime now) {
+    ImmutableList.Builder<String> candidatesBuilder = new ImmutableList.Builder<>();
+    for (InternetDomainName domainName : domainNames.values()) {
+      Registry registry = Registry.get(domainName.parent().toString());
+      if (!existingIds.contains(domainName.toString())
+          && PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))) {
+        candidatesBuilder.add(domainName.toString());
+      }
+    }
+    ImmutableList<String> candidates = candidatesBuilder.build();
+    if (candidates.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<String> pendingAllocationIds = new ImmutableSet.Builder<>();
+    for (Map.Entry<String, DomainApplication> entry :
+        loadActiveApplicationsByDomainNames(candidates, now).entries()) {
+      if (!entry.getValue().getApplicationStatus().isFinalStatus()) {
+        pendingAllocationIds.add(entry.getKey());
+      }
+    }
+    return pendingAllocationIds.build();
+  }
+
+  /**
+   * Loads the premium list entries for all of the checked names into the premium list cache, using
+   * one batched load per TLD, so that the availability and fee checks don't each go to Datastore.
+   */
+  private static void prefetchPremiumPrices(ImmutableMap<String, InternetDomainName> domainNames) {
+    ImmutableListMultimap.Builder<String, String> labelsByTld =
+        new ImmutableListMultimap.Builder<>();
+    for (InternetDomainName domainName : domainNames.values()) {
+      labelsByTld.put(domainName.parent().toString(), domainName.parts().get(0));
+    }
+    for (Map.Entry<String, Collection<String>> entry : labelsByTld.build().asMap().entrySet()) {
+      Registry registry = Registry.get(entry.getKey());
+      // Premium list entries are only consulted by the static premium list pricing engine.
+      if (StaticPremiumListPricingEngine.NAME.equals(
+          registry.getPremiumPricingEngineClassName())) {
+        PremiumListUtils.prefetchPremiumPrices(entry.getValue(), registry);
+      }
+    }
+  }
+
   /** Handle the fee check extension. */
   private ImmutableList<? extends ResponseExtension> getResponseExtensions(
       ImmutableMap<String, InternetDomainName> domainNames, DateTime now) throws EppException {
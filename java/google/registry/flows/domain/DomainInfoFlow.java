@@ -21,7 +21,7 @@ import static google.registry.flows.ResourceFlowUtils.verifyOptionalAuthInfo;
 import static google.registry.flows.domain.DomainFlowUtils.addSecDnsExtensionIfPresent;
 import static google.registry.flows.domain.DomainFlowUtils.handleFeeRequest;
 import static google.registry.flows.domain.DomainFlowUtils.loadForeignKeyedDesignatedContacts;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.EppResourceUtils.loadByForeignKeyCached;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
 import com.google.common.base.Optional;
@@ -95,8 +95,11 @@ public final class DomainInfoFlow implements Flow {
     extensionManager.validate();
     validateClientIsLoggedIn(clientId);
     DateTime now = clock.nowUtc();
-    DomainResource domain = verifyExistence(
-        DomainResource.class, targetId, loadByForeignKey(DomainResource.class, targetId, now));
+    DomainResource domain =
+        verifyExistence(
+            DomainResource.class,
+            targetId,
+            loadByForeignKeyCached(DomainResource.class, targetId, now));
     verifyOptionalAuthInfo(authInfo, domain);
     customLogic.afterValidation(AfterValidationParameters.newBuilder().setDomain(domain).build());
     // Prefetch all referenced resources. Calling values() blocks until loading is done.
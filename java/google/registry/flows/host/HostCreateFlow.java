@@ -49,6 +49,7 @@ import google.registry.model.host.HostResource;
 import google.registry.model.host.HostResource.Builder;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
@@ -126,11 +127,14 @@ public final class HostCreateFlow implements TransactionalFlow {
         .setType(HistoryEntry.Type.HOST_CREATE)
         .setModificationTime(now)
         .setParent(Key.create(newHost));
-    ImmutableSet<ImmutableObject> entitiesToSave = ImmutableSet.of(
-        newHost,
-        historyBuilder.build(),
-        ForeignKeyIndex.create(newHost, newHost.getDeletionTime()),
-        EppResourceIndex.create(Key.create(newHost)));
+    ImmutableSet<ImmutableObject> entitiesToSave = new ImmutableSet.Builder<ImmutableObject>()
+        .add(
+            newHost,
+            historyBuilder.build(),
+            ForeignKeyIndex.create(newHost, newHost.getDeletionTime()),
+            EppResourceIndex.create(Key.create(newHost)))
+        .addAll(HostInetAddressIndex.createAll(newHost))
+        .build();
     if (superordinateDomain.isPresent()) {
       entitiesToSave = union(
           entitiesToSave,
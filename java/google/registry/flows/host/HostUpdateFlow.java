@@ -15,6 +15,7 @@
 package google.registry.flows.host;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.collect.Sets.difference;
 import static com.google.common.collect.Sets.union;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.checkSameValuesNotAddedAndRemoved;
@@ -58,6 +59,7 @@ import google.registry.model.host.HostCommand.Update.AddRemove;
 import google.registry.model.host.HostCommand.Update.Change;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
 import java.util.Objects;
@@ -197,6 +199,13 @@ public final class HostUpdateFlow implements TransactionalFlow {
           ForeignKeyIndex.create(newHost, newHost.getDeletionTime()));
       updateSuperordinateDomains(existingHost, newHost);
     }
+    // Keep the {@link HostInetAddressIndex} entities for this host's addresses up to date.
+    entitiesToSave.addAll(HostInetAddressIndex.createAll(
+        difference(newHost.getInetAddresses(), existingHost.getInetAddresses()),
+        Key.create(newHost)));
+    ofy().delete().keys(HostInetAddressIndex.createKeys(
+        difference(existingHost.getInetAddresses(), newHost.getInetAddresses()),
+        Key.create(existingHost)));
     enqueueTasks(existingHost, newHost);
     entitiesToSave.add(historyBuilder
         .setType(HistoryEntry.Type.HOST_UPDATE)
@@ -16,13 +16,13 @@ package google.registry.flows.poll;
 
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
-import static google.registry.flows.poll.PollFlowUtils.getPollMessagesQuery;
+import static google.registry.flows.poll.PollFlowUtils.getPollMessageCount;
+import static google.registry.flows.poll.PollFlowUtils.getPollMessageCountAfterAck;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_NO_MESSAGES;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Work;
 import google.registry.flows.EppException;
 import google.registry.flows.EppException.AuthorizationErrorException;
 import google.registry.flows.EppException.ObjectDoesNotExistException;
@@ -117,17 +117,10 @@ public class PollAckFlow implements TransactionalFlow {
       }
     }
     // We need to return the new queue length. If this was the last message in the queue being
-    // acked, then we return a special status code indicating that. Note that the query will
-    // include the message being acked.
-
-    int messageCount = ofy().doTransactionless(new Work<Integer>() {
-      @Override
-      public Integer run() {
-        return getPollMessagesQuery(clientId, now).count();
-      }});
-    if (!includeAckedMessageInCount) {
-      messageCount--;
-    }
+    // acked, then we return a special status code indicating that.
+    int messageCount = includeAckedMessageInCount
+        ? getPollMessageCount(clientId, now, true)
+        : getPollMessageCountAfterAck(clientId, now);
     if (messageCount <= 0) {
       return responseBuilder.setResultFromCode(SUCCESS_WITH_NO_MESSAGES).build();
     }
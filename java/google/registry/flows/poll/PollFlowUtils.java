@@ -14,17 +14,49 @@
 
 package google.registry.flows.poll;
 
+import static google.registry.config.RegistryConfig.getPollQueueLengthCachingDuration;
+import static google.registry.config.RegistryConfig.isPollQueueLengthCachingEnabled;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.poll.PollMessage;
+import google.registry.util.NonFinalForTesting;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /** Static utility functions for poll flows. */
 public final class PollFlowUtils {
 
   private PollFlowUtils() {}
 
+  /** Whether {@link #getPollMessageCount} should consult {@link #queueLengthCache}. */
+  @NonFinalForTesting
+  private static boolean cachingEnabled = isPollQueueLengthCachingEnabled();
+
+  /**
+   * In-memory cache of each registrar's poll message queue length, keyed by client id.
+   *
+   * <p>Counting a registrar's queue means reading an index entry for every message in it, which is
+   * expensive for a registrar with a large backlog. Poll requests and acks therefore share a count
+   * made at most once per cache duration, and each ack deducts its message from the cached count
+   * once it has committed. New messages, and acks handled by other instances, aren't reflected
+   * until the count expires, except that a queue is always recounted before it is reported empty.
+   */
+  @NonFinalForTesting @VisibleForTesting
+  static Cache<String, QueueLength> queueLengthCache =
+      createQueueLengthCache(getPollQueueLengthCachingDuration());
+
+  @VisibleForTesting
+  static Cache<String, QueueLength> createQueueLengthCache(Duration expiry) {
+    return CacheBuilder.newBuilder().expireAfterWrite(expiry.getMillis(), MILLISECONDS).build();
+  }
+
   /** Returns a query for poll messages for the logged in registrar which are not in the future. */
   static Query<PollMessage> getPollMessagesQuery(String clientId, DateTime now) {
     return ofy().load()
@@ -33,4 +65,79 @@ public final class PollFlowUtils {
         .filter("eventTime <=", now.toDate())
         .order("eventTime");
   }
+
+  /**
+   * Returns the number of poll messages for the registrar which are not in the future.
+   *
+   * <p>If there are messages in the queue, the caller should pass {@code true} for {@code
+   * nonEmpty}, so that a cached count which has dropped to zero is recounted.
+   */
+  static int getPollMessageCount(String clientId, DateTime now, boolean nonEmpty) {
+    if (!cachingEnabled) {
+      return countPollMessages(clientId, now);
+    }
+    QueueLength queueLength = queueLengthCache.getIfPresent(clientId);
+    if (queueLength == null || (nonEmpty && queueLength.get() == 0)) {
+      queueLength = new QueueLength(countPollMessages(clientId, now));
+      queueLengthCache.put(clientId, queueLength);
+    }
+    return queueLength.get();
+  }
+
+  /**
+   * Returns the number of poll messages for the registrar which are not in the future, once the
+   * message being acked has been removed from the queue.
+   *
+   * <p>This must be called in the ack's transaction. The ack is deducted from the cached count only
+   * once that transaction commits, so an ack that fails or is a dry run leaves the count alone.
+   */
+  static int getPollMessageCountAfterAck(String clientId, DateTime now) {
+    if (!cachingEnabled) {
+      // The count is made outside the ack's transaction, so it still includes the acked message.
+      return countPollMessages(clientId, now) - 1;
+    }
+    QueueLength queueLength = queueLengthCache.getIfPresent(clientId);
+    if (queueLength == null || queueLength.get() <= 1) {
+      // Recount rather than report the queue as empty, since messages may have arrived since the
+      // cached count was made.
+      queueLength = new QueueLength(countPollMessages(clientId, now));
+      queueLengthCache.put(clientId, queueLength);
+    }
+    final QueueLength ackedQueueLength = queueLength;
+    ofy().afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        ackedQueueLength.ack();
+      }});
+    // The ack hasn't been deducted yet, so the count still includes the acked message.
+    return Math.max(0, queueLength.get() - 1);
+  }
+
+  private static int countPollMessages(final String clientId, final DateTime now) {
+    return ofy().doTransactionless(new Work<Integer>() {
+      @Override
+      public Integer run() {
+        return getPollMessagesQuery(clientId, now).count();
+      }});
+  }
+
+  /** A counted queue length, less the messages acked since it was counted. */
+  @VisibleForTesting
+  static final class QueueLength {
+
+    private final int count;
+    private final AtomicInteger ackedMessages = new AtomicInteger();
+
+    QueueLength(int count) {
+      this.count = count;
+    }
+
+    void ack() {
+      ackedMessages.incrementAndGet();
+    }
+
+    int get() {
+      return Math.max(0, count - ackedMessages.get());
+    }
+  }
 }
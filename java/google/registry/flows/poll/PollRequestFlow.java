@@ -15,6 +15,7 @@
 package google.registry.flows.poll;
 
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
+import static google.registry.flows.poll.PollFlowUtils.getPollMessageCount;
 import static google.registry.flows.poll.PollFlowUtils.getPollMessagesQuery;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_ACK_MESSAGE;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_NO_MESSAGES;
@@ -41,7 +42,8 @@ import org.joda.time.DateTime;
  * the registrar, as well as the total number of pending messages. Note that poll messages whose
  * event time is in the future (i.e. they are speculative and could still be changed or rescinded)
  * are ignored. The externally visible id for the poll message that the registrar sees is generated
- * by {@link PollMessageExternalKeyConverter}.
+ * by {@link PollMessageExternalKeyConverter}. The number of pending messages may be served from an
+ * in-memory cache; see {@link PollFlowUtils#getPollMessageCount}.
  *
  * @error {@link PollRequestFlow.UnexpectedMessageIdException}
  */
@@ -72,7 +74,7 @@ public class PollRequestFlow implements Flow {
         .setMessageQueueInfo(new MessageQueueInfo.Builder()
             .setQueueDate(pollMessage.getEventTime())
             .setMsg(pollMessage.getMsg())
-            .setQueueLength(getPollMessagesQuery(clientId, now).count())
+            .setQueueLength(getPollMessageCount(clientId, now, true))
             .setMessageId(PollMessage.EXTERNAL_KEY_CONVERTER.convert(Key.create(pollMessage)))
             .build())
         .setMultipleResData(pollMessage.getResponseData())
@@ -20,22 +20,39 @@ import static com.google.common.base.Preconditions.checkState;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Function;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.keyring.api.KeySerializer;
 import google.registry.keyring.api.Keyring;
 import google.registry.keyring.api.KeyringException;
+import google.registry.keyring.kms.KmsMetrics.CacheLookupOutcome;
+import google.registry.keyring.kms.KmsMetrics.DecryptOutcome;
 import google.registry.model.server.KmsSecret;
+import google.registry.model.server.KmsSecretRevision;
+import google.registry.util.Clock;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.inject.Inject;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /**
  * A {@link Keyring} implementation which stores encrypted secrets in Datastore and decrypts them
  * using encryption keys stored in Cloud KMS.
  *
+ * <p>Decrypted and parsed secrets are kept in memory for up to {@code kmsSecretCachingDuration},
+ * so that jobs which use the same key repeatedly don't make a Cloud KMS call each time. The
+ * {@link KmsSecret} entity is still read on every lookup, and a cached secret is only used if it
+ * was decrypted from the secret's latest {@link KmsSecretRevision}, so a new revision is picked up
+ * on its next use.
+ *
  * @see <a href="https://cloud.google.com/kms/docs/">Google Cloud Key Management Service
  *     Documentation</a>
  */
@@ -79,10 +96,18 @@ public class KmsKeyring implements Keyring {
   }
 
   private final KmsConnection kmsConnection;
+  private final Clock clock;
+  private final Duration cachingDuration;
+  private final ConcurrentMap<String, CachedSecret> cache = new ConcurrentHashMap<>();
 
   @Inject
-  KmsKeyring(KmsConnection kmsConnection) {
+  KmsKeyring(
+      KmsConnection kmsConnection,
+      Clock clock,
+      @Config("kmsSecretCachingDuration") Duration cachingDuration) {
     this.kmsConnection = kmsConnection;
+    this.clock = clock;
+    this.cachingDuration = cachingDuration;
   }
 
   @Override
@@ -160,41 +185,98 @@ public class KmsKeyring implements Keyring {
   public void close() {}
 
   private String getString(StringKeyLabel keyLabel) {
-    return KeySerializer.deserializeString(getDecryptedData(keyLabel.getLabel()));
+    return getSecret(keyLabel.getLabel(), new Function<byte[], String>() {
+      @Override
+      public String apply(byte[] data) {
+        return KeySerializer.deserializeString(data);
+      }});
   }
 
-  private PGPKeyPair getKeyPair(PrivateKeyLabel keyLabel) {
-    try {
-      return KeySerializer.deserializeKeyPair(getDecryptedData(keyLabel.getLabel()));
-    } catch (IOException | PGPException e) {
-      throw new KeyringException(
-          String.format("Could not parse private keyLabel %s", keyLabel), e);
-    }
+  private PGPKeyPair getKeyPair(final PrivateKeyLabel keyLabel) {
+    return getSecret(keyLabel.getLabel(), new Function<byte[], PGPKeyPair>() {
+      @Override
+      public PGPKeyPair apply(byte[] data) {
+        try {
+          return KeySerializer.deserializeKeyPair(data);
+        } catch (IOException | PGPException e) {
+          throw new KeyringException(
+              String.format("Could not parse private keyLabel %s", keyLabel), e);
+        }
+      }});
   }
 
-  private PGPPublicKey getPublicKey(PublicKeyLabel keyLabel) {
-    try {
-      return KeySerializer.deserializePublicKey(getDecryptedData(keyLabel.getLabel()));
-    } catch (IOException e) {
-      throw new KeyringException(String.format("Could not parse public keyLabel %s", keyLabel), e);
-    }
+  private PGPPublicKey getPublicKey(final PublicKeyLabel keyLabel) {
+    return getSecret(keyLabel.getLabel(), new Function<byte[], PGPPublicKey>() {
+      @Override
+      public PGPPublicKey apply(byte[] data) {
+        try {
+          return KeySerializer.deserializePublicKey(data);
+        } catch (IOException e) {
+          throw new KeyringException(
+              String.format("Could not parse public keyLabel %s", keyLabel), e);
+        }
+      }});
   }
 
   private PGPPrivateKey getPrivateKey(PrivateKeyLabel keyLabel) {
     return getKeyPair(keyLabel).getPrivateKey();
   }
 
-  private byte[] getDecryptedData(String keyName) {
+  /**
+   * Returns the latest revision of the named secret, decrypting and parsing it with the given
+   * function unless it's already cached.
+   */
+  private <T> T getSecret(String keyName, Function<byte[], T> parser) {
     KmsSecret secret =
         ofy().load().key(Key.create(getCrossTldKey(), KmsSecret.class, keyName)).now();
     checkState(secret != null, "Requested secret '%s' does not exist.", keyName);
-    String encryptedData = ofy().load().key(secret.getLatestRevision()).now().getEncryptedValue();
+    DateTime now = clock.nowUtc();
+    CachedSecret cached = cache.get(keyName);
+    if (cached != null
+        && cached.revision().equals(secret.getLatestRevision())
+        && now.isBefore(cached.expirationTime())) {
+      KmsMetrics.recordCacheLookup(keyName, CacheLookupOutcome.HIT);
+      @SuppressWarnings("unchecked")
+      T value = (T) cached.value();
+      return value;
+    }
+    KmsMetrics.recordCacheLookup(keyName, CacheLookupOutcome.MISS);
+    T value = parser.apply(getDecryptedData(secret));
+    cache.put(
+        keyName,
+        CachedSecret.create(secret.getLatestRevision(), value, now.plus(cachingDuration)));
+    return value;
+  }
 
+  private byte[] getDecryptedData(KmsSecret secret) {
+    String encryptedData = ofy().load().key(secret.getLatestRevision()).now().getEncryptedValue();
+    DateTime startTime = clock.nowUtc();
+    DecryptOutcome outcome = DecryptOutcome.FAILURE;
     try {
-      return kmsConnection.decrypt(secret.getName(), encryptedData);
+      byte[] data = kmsConnection.decrypt(secret.getName(), encryptedData);
+      outcome = DecryptOutcome.SUCCESS;
+      return data;
     } catch (IOException e) {
       throw new KeyringException(
-          String.format("CloudKMS decrypt operation failed for secret %s", keyName), e);
+          String.format("CloudKMS decrypt operation failed for secret %s", secret.getName()), e);
+    } finally {
+      KmsMetrics.recordDecrypt(
+          secret.getName(), outcome, new Duration(startTime, clock.nowUtc()));
+    }
+  }
+
+  /** A parsed secret, and the revision it was decrypted from. */
+  @AutoValue
+  abstract static class CachedSecret {
+    static CachedSecret create(
+        Key<KmsSecretRevision> revision, Object value, DateTime expirationTime) {
+      return new AutoValue_KmsKeyring_CachedSecret(revision, value, expirationTime);
     }
+
+    abstract Key<KmsSecretRevision> revision();
+
+    abstract Object value();
+
+    abstract DateTime expirationTime();
   }
 }
@@ -0,0 +1,91 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.keyring.kms;
+
+import static google.registry.monitoring.metrics.EventMetric.DEFAULT_FITTER;
+
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import org.joda.time.Duration;
+
+/** Instrumentation for {@link KmsKeyring}. */
+final class KmsMetrics {
+
+  /** Possible outcomes of a Cloud KMS decrypt call. */
+  enum DecryptOutcome {
+    SUCCESS,
+    FAILURE
+  }
+
+  /** Possible outcomes of looking up a secret in the keyring's cache. */
+  enum CacheLookupOutcome {
+    /** The latest revision of the secret had already been decrypted. */
+    HIT,
+
+    /** The secret wasn't cached, had expired, or had a new revision, so it was decrypted. */
+    MISS
+  }
+
+  private static final ImmutableSet<LabelDescriptor> DECRYPT_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("secret", "Name of the secret being decrypted."),
+          LabelDescriptor.create("outcome", "Whether the decrypt call succeeded."));
+
+  private static final ImmutableSet<LabelDescriptor> LOOKUP_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("secret", "Name of the secret being looked up."),
+          LabelDescriptor.create("outcome", "Whether the lookup was served from the cache."));
+
+  private static final IncrementableMetric decryptRequests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/kms/decrypt_requests",
+              "Count of Cloud KMS decrypt calls made by the keyring",
+              "count",
+              DECRYPT_LABEL_DESCRIPTORS);
+
+  private static final EventMetric decryptLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/kms/decrypt_latency",
+              "Latency of Cloud KMS decrypt calls made by the keyring, including retries",
+              "milliseconds",
+              DECRYPT_LABEL_DESCRIPTORS,
+              DEFAULT_FITTER);
+
+  private static final IncrementableMetric cacheLookups =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/kms/secret_cache/lookups",
+              "Count of keyring secret lookups",
+              "count",
+              LOOKUP_LABEL_DESCRIPTORS);
+
+  private KmsMetrics() {}
+
+  /** Records a single decrypt call and how long it took. */
+  static void recordDecrypt(String secretName, DecryptOutcome outcome, Duration latency) {
+    decryptRequests.increment(secretName, outcome.name());
+    decryptLatency.record(latency.getMillis(), secretName, outcome.name());
+  }
+
+  /** Records a single lookup of a secret. */
+  static void recordCacheLookup(String secretName, CacheLookupOutcome outcome) {
+    cacheLookups.increment(secretName, outcome.name());
+  }
+}
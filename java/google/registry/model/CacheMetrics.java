@@ -0,0 +1,89 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+
+/** Instrumentation for the refresh-ahead caches created by {@link CacheUtils}. */
+class CacheMetrics {
+
+  /** The ways in which a cache can load a value. */
+  enum LoadMode {
+    /** The value wasn't cached, so the caller waited for it to be loaded. */
+    LOAD,
+
+    /** The value was reloaded in the background while the caller was served the old value. */
+    REFRESH
+  }
+
+  private static final LabelDescriptor CACHE_LABEL =
+      LabelDescriptor.create("cache", "Name of the cache.");
+
+  private static final ImmutableSet<LabelDescriptor> LOAD_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          CACHE_LABEL, LabelDescriptor.create("mode", "Whether the load was a background refresh."));
+
+  private static final ImmutableSet<LabelDescriptor> CACHE_LABEL_DESCRIPTORS =
+      ImmutableSet.of(CACHE_LABEL);
+
+  /** Metric for the time taken to load or refresh a cached value. */
+  @VisibleForTesting
+  static final EventMetric loadLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/cache/load_latency",
+              "Time taken to load or refresh a cached value",
+              "milliseconds",
+              LOAD_LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  /** Metric for how old a cached value had become by the time a refresh replaced it. */
+  @VisibleForTesting
+  static final EventMetric staleness =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/cache/staleness",
+              "Age of a cached value when it was replaced by a refresh",
+              "milliseconds",
+              CACHE_LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  /** Metric counting background refreshes that failed, leaving the old value in the cache. */
+  @VisibleForTesting
+  static final IncrementableMetric refreshFailures =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/cache/refresh_failures",
+              "Count of failed background cache refreshes",
+              "count",
+              CACHE_LABEL_DESCRIPTORS);
+
+  static void recordLoadLatency(String cacheName, LoadMode mode, long millis) {
+    loadLatency.record(millis, cacheName, mode.name());
+  }
+
+  static void recordStaleness(String cacheName, long millis) {
+    staleness.record(millis, cacheName);
+  }
+
+  static void recordRefreshFailure(String cacheName) {
+    refreshFailures.increment(cacheName);
+  }
+}
@@ -14,17 +14,57 @@
 
 package google.registry.model;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Suppliers.memoizeWithExpiration;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static google.registry.config.RegistryConfig.getSingletonCacheRefreshDuration;
+import static java.lang.Math.max;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.joda.time.Duration.ZERO;
 
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import google.registry.model.CacheMetrics.LoadMode;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import org.joda.time.Duration;
 
 /** Utility methods related to caching Datastore entities. */
 public class CacheUtils {
 
+  /**
+   * Executor that runs each refresh on a new App Engine request thread.
+   *
+   * <p>Plain Java threads can't make App Engine API calls, so refreshes need a request thread.
+   * App Engine doesn't finish a request until its request threads have, so the refresh still holds
+   * the request that triggered it open, but it runs alongside the rest of that request rather than
+   * in front of it. Outside of App Engine (e.g. in command-line tools) there is no request to start
+   * a thread for, and refreshes run inline.
+   */
+  @VisibleForTesting
+  static final Executor REFRESH_EXECUTOR =
+      new Executor() {
+        @Override
+        public void execute(Runnable task) {
+          if (ApiProxy.getCurrentEnvironment() == null) {
+            directExecutor().execute(task);
+          } else {
+            currentRequestThreadFactory().newThread(task).start();
+          }
+        }
+      };
+
   /**
    * Memoize a supplier, with a short expiration specified in the environment config.
    *
@@ -37,4 +77,153 @@ public class CacheUtils {
         ? original
         : memoizeWithExpiration(original, expiration.getMillis(), MILLISECONDS);
   }
+
+  /**
+   * Memoize a supplier with a short expiration, refreshing it in the background before it expires.
+   *
+   * <p>This is like {@link #memoizeWithShortExpiration}, but for suppliers that are expensive
+   * enough that the unlucky caller who finds the value expired shouldn't have to wait for it to be
+   * reloaded. See {@link #newRefreshAheadCache}.
+   */
+  public static <T> Supplier<T> memoizeWithRefreshAhead(
+      String cacheName, final Supplier<T> original) {
+    Duration expiration = getSingletonCacheRefreshDuration();
+    if (expiration.isEqual(ZERO)) {
+      return original;
+    }
+    final LoadingCache<Boolean, T> cache =
+        newRefreshAheadCache(
+            cacheName,
+            expiration,
+            new CacheLoader<Boolean, T>() {
+              @Override
+              public T load(Boolean unused) {
+                return original.get();
+              }
+            });
+    return new Supplier<T>() {
+      @Override
+      public T get() {
+        try {
+          return cache.getUnchecked(true);
+        } catch (UncheckedExecutionException e) {
+          // Rethrow what the original supplier threw, rather than the cache's wrapper around it.
+          Throwables.throwIfUnchecked(e.getCause());
+          throw e;
+        }
+      }
+    };
+  }
+
+  /**
+   * Creates a cache that refreshes its entries in the background before they expire.
+   *
+   * <p>Once an entry is older than half of {@code expiration}, the next lookup of it starts a
+   * reload on a separate request thread and is served the existing value in the meantime. Entries
+   * are therefore never older than {@code expiration}, as with a plain expire-after-write cache,
+   * but only an entry that isn't looked up at all during the second half of its lifetime is ever
+   * loaded synchronously. A failed refresh leaves the existing value in place to be retried by the
+   * next lookup. Load and refresh latency, and the age of entries being refreshed, are reported to
+   * {@link CacheMetrics} under {@code cacheName}.
+   *
+   * <p>An {@code expiration} of zero disables caching, as it does for {@link CacheBuilder}.
+   */
+  public static <K, V> LoadingCache<K, V> newRefreshAheadCache(
+      String cacheName, Duration expiration, CacheLoader<K, V> loader) {
+    return newRefreshAheadCache(
+        cacheName, expiration, loader, Ticker.systemTicker(), REFRESH_EXECUTOR);
+  }
+
+  @VisibleForTesting
+  static <K, V> LoadingCache<K, V> newRefreshAheadCache(
+      String cacheName,
+      Duration expiration,
+      CacheLoader<K, V> loader,
+      Ticker ticker,
+      Executor executor) {
+    CacheBuilder<Object, Object> builder =
+        CacheBuilder.newBuilder()
+            .ticker(ticker)
+            .expireAfterWrite(expiration.getMillis(), MILLISECONDS);
+    if (expiration.isEqual(ZERO)) {
+      return builder.build(loader);
+    }
+    return builder
+        .refreshAfterWrite(max(1, expiration.getMillis() / 2), MILLISECONDS)
+        .build(new RefreshAheadCacheLoader<>(cacheName, expiration, loader, ticker, executor));
+  }
+
+  /** A {@link CacheLoader} that reloads asynchronously and records {@link CacheMetrics}. */
+  private static class RefreshAheadCacheLoader<K, V> extends CacheLoader<K, V> {
+
+    private final String cacheName;
+    private final CacheLoader<K, V> delegate;
+    private final Ticker ticker;
+    private final Executor executor;
+
+    /**
+     * The {@link Ticker} time at which the current value for each key was loaded.
+     *
+     * <p>This expires along with the values themselves, so keys that are no longer looked up don't
+     * accumulate here.
+     */
+    private final Cache<K, Long> loadTimes;
+
+    RefreshAheadCacheLoader(
+        String cacheName,
+        Duration expiration,
+        CacheLoader<K, V> delegate,
+        Ticker ticker,
+        Executor executor) {
+      this.cacheName = cacheName;
+      this.loadTimes =
+          CacheBuilder.newBuilder()
+              .ticker(ticker)
+              .expireAfterWrite(expiration.getMillis(), MILLISECONDS)
+              .build();
+      this.delegate = delegate;
+      this.ticker = ticker;
+      this.executor = executor;
+    }
+
+    @Override
+    public V load(K key) throws Exception {
+      return timedLoad(key, LoadMode.LOAD);
+    }
+
+    @Override
+    public ListenableFuture<V> reload(final K key, V oldValue) {
+      ListenableFutureTask<V> task =
+          ListenableFutureTask.create(
+              new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                  Long oldLoadTime = loadTimes.getIfPresent(key);
+                  V value;
+                  try {
+                    value = timedLoad(key, LoadMode.REFRESH);
+                  } catch (Exception e) {
+                    CacheMetrics.recordRefreshFailure(cacheName);
+                    throw e;
+                  }
+                  if (oldLoadTime != null) {
+                    CacheMetrics.recordStaleness(
+                        cacheName, NANOSECONDS.toMillis(ticker.read() - oldLoadTime));
+                  }
+                  return value;
+                }
+              });
+      executor.execute(task);
+      return task;
+    }
+
+    private V timedLoad(K key, LoadMode mode) throws Exception {
+      long start = ticker.read();
+      V value = delegate.load(key);
+      long end = ticker.read();
+      CacheMetrics.recordLoadLatency(cacheName, mode, NANOSECONDS.toMillis(end - start));
+      loadTimes.put(key, end);
+      return value;
+    }
+  }
 }
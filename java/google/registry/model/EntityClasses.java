@@ -35,6 +35,8 @@ import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.index.HostInetAddressIndexGroup;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
@@ -48,6 +50,7 @@ import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList;
 import google.registry.model.registry.label.ReservedList;
 import google.registry.model.reporting.HistoryEntry;
+import google.registry.model.server.DnsBatchSize;
 import google.registry.model.server.KmsSecret;
 import google.registry.model.server.KmsSecretRevision;
 import google.registry.model.server.Lock;
@@ -79,6 +82,7 @@ public final class EntityClasses {
           CommitLogMutation.class,
           ContactResource.class,
           Cursor.class,
+          DnsBatchSize.class,
           DomainApplication.class,
           DomainApplicationIndex.class,
           DomainBase.class,
@@ -91,6 +95,8 @@ public final class EntityClasses {
           ForeignKeyIndex.ForeignKeyHostIndex.class,
           GaeUserIdConverter.class,
           HistoryEntry.class,
+          HostInetAddressIndex.class,
+          HostInetAddressIndexGroup.class,
           HostResource.class,
           KmsSecret.class,
           KmsSecretRevision.class,
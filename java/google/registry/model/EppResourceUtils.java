@@ -22,6 +22,10 @@ import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
 import com.googlecode.objectify.cmd.Query;
@@ -41,7 +45,9 @@ import google.registry.model.registry.Registry;
 import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.util.FormattingLogger;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -92,11 +98,37 @@ public final class EppResourceUtils {
   @Nullable
   public static <T extends EppResource> T loadByForeignKey(
       Class<T> clazz, String foreignKey, DateTime now) {
+    return loadByForeignKeyHelper(clazz, foreignKey, now, false);
+  }
+
+  /**
+   * Loads the last created version of an {@link EppResource} from Datastore by foreign key, using
+   * the in-memory {@link ForeignKeyIndex} cache if EPP resource caching is enabled.
+   *
+   * <p>The resource itself is always loaded from Datastore, but the foreign key lookup that
+   * precedes it (including a lookup that finds nothing) may be served from the cache, and so can be
+   * stale by up to the configured cache duration. Only use this on read-only, non-transactional
+   * paths; anything that will mutate the resource must use {@link #loadByForeignKey}.
+   *
+   * @see #loadByForeignKey
+   * @see ForeignKeyIndex#loadCached
+   */
+  @Nullable
+  public static <T extends EppResource> T loadByForeignKeyCached(
+      Class<T> clazz, String foreignKey, DateTime now) {
+    return loadByForeignKeyHelper(clazz, foreignKey, now, true);
+  }
+
+  @Nullable
+  private static <T extends EppResource> T loadByForeignKeyHelper(
+      Class<T> clazz, String foreignKey, DateTime now, boolean useCache) {
     checkArgument(
         ForeignKeyedEppResource.class.isAssignableFrom(clazz),
         "loadByForeignKey may only be called for foreign keyed EPP resources");
     ForeignKeyIndex<T> fki =
-        ofy().load().type(ForeignKeyIndex.mapToFkiClass(clazz)).id(foreignKey).now();
+        useCache
+            ? ForeignKeyIndex.loadCached(clazz, foreignKey, now)
+            : ofy().load().type(ForeignKeyIndex.mapToFkiClass(clazz)).id(foreignKey).now();
     // The value of fki.getResourceKey() might be null for hard-deleted prober data.
     if (fki == null || isAtOrAfter(now, fki.getDeletionTime()) || fki.getResourceKey() == null) {
       return null;
@@ -115,6 +147,60 @@ public final class EppResourceUtils {
         resource, latestOf(now, resource.getUpdateAutoTimestamp().getTimestamp()));
   }
 
+  /**
+   * Loads the last created versions of several {@link EppResource}s from Datastore by foreign key.
+   *
+   * <p>This is the batched equivalent of {@link #loadByForeignKey}, using one Datastore round trip
+   * for the foreign key indexes and one for the resources. Foreign keys which don't resolve to a
+   * resource that exists at the given time are left out of the returned map, which is otherwise in
+   * the order of {@code foreignKeys}.
+   */
+  public static <T extends EppResource> ImmutableMap<String, T> loadByForeignKeys(
+      Class<T> clazz, Iterable<String> foreignKeys, DateTime now) {
+    checkArgument(
+        ForeignKeyedEppResource.class.isAssignableFrom(clazz),
+        "loadByForeignKeys may only be called for foreign keyed EPP resources");
+    Map<String, ForeignKeyIndex<T>> fkis = ForeignKeyIndex.load(clazz, foreignKeys, now);
+    List<Key<T>> resourceKeys = new ArrayList<>();
+    for (ForeignKeyIndex<T> fki : fkis.values()) {
+      // The value of fki.getResourceKey() might be null for hard-deleted prober data.
+      if (fki.getResourceKey() != null) {
+        resourceKeys.add(fki.getResourceKey());
+      }
+    }
+    Map<Key<T>, T> resources = ofy().load().keys(resourceKeys);
+    ImmutableMap.Builder<String, T> builder = new ImmutableMap.Builder<>();
+    for (String foreignKey : ImmutableSet.copyOf(foreignKeys)) {
+      ForeignKeyIndex<T> fki = fkis.get(foreignKey);
+      T resource = (fki == null) ? null : resources.get(fki.getResourceKey());
+      if (resource != null && !isAtOrAfter(now, resource.getDeletionTime())) {
+        builder.put(
+            foreignKey,
+            cloneProjectedAtTime(
+                resource, latestOf(now, resource.getUpdateAutoTimestamp().getTimestamp())));
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Starts loading the resources with the given keys, which can be of different kinds, as a single
+   * asynchronous batch.
+   *
+   * <p>The returned map is keyed on keys equal to the given ones, so each resource can be looked up
+   * with its original, more specifically typed key.
+   */
+  public static Map<Key<EppResource>, EppResource> loadInOneBatch(
+      Iterable<? extends Key<? extends EppResource>> keys,
+      Iterable<? extends Key<? extends EppResource>> moreKeys) {
+    ImmutableList.Builder<Key<EppResource>> builder = new ImmutableList.Builder<>();
+    for (Key<? extends EppResource> key
+        : Iterables.<Key<? extends EppResource>>concat(keys, moreKeys)) {
+      builder.add(Key.<EppResource>create(key.getRaw()));
+    }
+    return ofy().load().keys(builder.build());
+  }
+
   /**
    * Returns the domain application with the given application id if it exists, or null if it does
    * not or is soft-deleted as of the given time.
@@ -147,6 +233,21 @@ public final class EppResourceUtils {
     return ForeignKeyIndex.load(clazz, uniqueIds, now).keySet();
   }
 
+  /**
+   * Checks multiple {@link EppResource} objects by unique ids, using the in-memory {@link
+   * ForeignKeyIndex} cache if EPP resource caching is enabled.
+   *
+   * <p>The results may be stale by up to the configured cache duration, so this must only be used
+   * for read-only checks outside of transactions.
+   *
+   * @see #checkResourcesExist
+   * @see ForeignKeyIndex#loadCached
+   */
+  public static <T extends EppResource> Set<String> checkResourcesExistCached(
+      Class<T> clazz, List<String> uniqueIds, final DateTime now) {
+    return ForeignKeyIndex.loadCached(clazz, uniqueIds, now).keySet();
+  }
+
   /**
    * Loads resources that match some filter and that have {@link EppResource#deletionTime} that is
    * not before "now".
@@ -19,7 +19,9 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.isNullOrEmpty;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
@@ -27,6 +29,7 @@ import google.registry.model.BackupGroupRoot;
 import google.registry.model.annotations.ReportedOn;
 import google.registry.model.domain.DomainApplication;
 import google.registry.util.CollectionUtils;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
@@ -85,14 +88,34 @@ public class DomainApplicationIndex extends BackupGroupRoot {
    */
   public static ImmutableSet<DomainApplication> loadActiveApplicationsByDomainName(
       String fullyQualifiedDomainName, DateTime now) {
-    DomainApplicationIndex index = load(fullyQualifiedDomainName);
-    if (index == null) {
-      return ImmutableSet.of();
+    return loadActiveApplicationsByDomainNames(ImmutableList.of(fullyQualifiedDomainName), now)
+        .get(fullyQualifiedDomainName);
+  }
+
+  /**
+   * Returns all DomainApplications for the given fully qualified domain names that do not have a
+   * deletion time before the supplied DateTime, keyed by fully qualified domain name.
+   *
+   * <p>This uses one batched load for all of the indexes and another for all of the applications
+   * they reference, regardless of how many domain names are given.
+   */
+  public static ImmutableSetMultimap<String, DomainApplication>
+      loadActiveApplicationsByDomainNames(Iterable<String> fullyQualifiedDomainNames, DateTime now) {
+    Map<String, DomainApplicationIndex> indexes =
+        ofy().load().type(DomainApplicationIndex.class).ids(fullyQualifiedDomainNames);
+    ImmutableSet.Builder<Key<DomainApplication>> keys = new ImmutableSet.Builder<>();
+    for (DomainApplicationIndex index : indexes.values()) {
+      keys.addAll(index.getKeys());
     }
-    ImmutableSet.Builder<DomainApplication> apps = new ImmutableSet.Builder<>();
-    for (DomainApplication app : ofy().load().keys(index.getKeys()).values()) {
-      if (app.getDeletionTime().isAfter(now)) {
-        apps.add(app);
+    Map<Key<DomainApplication>, DomainApplication> loadedApps = ofy().load().keys(keys.build());
+    ImmutableSetMultimap.Builder<String, DomainApplication> apps =
+        new ImmutableSetMultimap.Builder<>();
+    for (DomainApplicationIndex index : indexes.values()) {
+      for (Key<DomainApplication> key : index.getKeys()) {
+        DomainApplication app = loadedApps.get(key);
+        if (app != null && app.getDeletionTime().isAfter(now)) {
+          apps.put(index.getFullyQualifiedDomainName(), app);
+        }
       }
     }
     return apps.build();
@@ -15,13 +15,29 @@
 package google.registry.model.index;
 
 import static com.google.common.collect.Maps.filterValues;
+import static google.registry.config.RegistryConfig.getEppResourceCachingDuration;
+import static google.registry.config.RegistryConfig.getEppResourceMaxCachedEntries;
+import static google.registry.config.RegistryConfig.isEppResourceCachingEnabled;
+import static google.registry.model.index.ForeignKeyIndexMetrics.recordCacheEviction;
+import static google.registry.model.index.ForeignKeyIndexMetrics.recordCacheLookups;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.TypeUtils.instantiate;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
@@ -31,9 +47,13 @@ import google.registry.model.annotations.ReportedOn;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndexMetrics.CacheLookupOutcome;
+import google.registry.util.NonFinalForTesting;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /**
  * Class to map a foreign key to the active instance of {@link EppResource} whose unique id matches
@@ -172,4 +192,126 @@ public abstract class ForeignKeyIndex<E extends EppResource> extends BackupGroup
             return now.isBefore(fki.deletionTime);
           }});
   }
+
+  /** Whether {@link #loadCached} should consult {@link #cacheForeignKeyIndexes}. */
+  @NonFinalForTesting
+  private static boolean cachingEnabled = isEppResourceCachingEnabled();
+
+  /**
+   * In-memory cache for {@link ForeignKeyIndex} entities, used by {@link #loadCached}.
+   *
+   * <p>Foreign keys that have no index at all are cached as absent, so that repeatedly checking the
+   * same unregistered names doesn't cost a Datastore round trip each time. Soft deletion is still
+   * evaluated against the caller's "now", but an index that was created or updated within the
+   * cache duration might not be seen.
+   */
+  @NonFinalForTesting @VisibleForTesting
+  static LoadingCache<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>>
+      cacheForeignKeyIndexes =
+          createCacheForeignKeyIndexes(
+              getEppResourceCachingDuration(), getEppResourceMaxCachedEntries());
+
+  @VisibleForTesting
+  static LoadingCache<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>>
+      createCacheForeignKeyIndexes(Duration expiry, long maximumSize) {
+    return CacheBuilder.newBuilder()
+        .expireAfterWrite(expiry.getMillis(), MILLISECONDS)
+        .maximumSize(maximumSize)
+        .removalListener(
+            new RemovalListener<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>>() {
+              @Override
+              public void onRemoval(
+                  RemovalNotification<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>>
+                      notification) {
+                if (notification.wasEvicted()) {
+                  recordCacheEviction(notification.getKey().getKind(), notification.getCause());
+                }
+              }})
+        .build(
+            new CacheLoader<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>>() {
+              @Override
+              public Optional<ForeignKeyIndex<?>> load(Key<ForeignKeyIndex<?>> key) {
+                return loadAll(ImmutableList.of(key)).get(key);
+              }
+
+              @Override
+              public Map<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>> loadAll(
+                  Iterable<? extends Key<ForeignKeyIndex<?>>> keys) {
+                final ImmutableSet<Key<ForeignKeyIndex<?>>> keysToLoad =
+                    ImmutableSet.<Key<ForeignKeyIndex<?>>>copyOf(keys);
+                Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> existing =
+                    ofy().doTransactionless(
+                        new Work<Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>>>() {
+                          @Override
+                          public Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> run() {
+                            return ofy().load().keys(keysToLoad);
+                          }});
+                // Objectify omits keys that don't exist, but those need to be cached as well.
+                ImmutableMap.Builder<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>>
+                    result = new ImmutableMap.Builder<>();
+                for (Key<ForeignKeyIndex<?>> key : keysToLoad) {
+                  result.put(key, Optional.<ForeignKeyIndex<?>>fromNullable(existing.get(key)));
+                }
+                return result.build();
+              }});
+  }
+
+  /**
+   * Load a list of {@link ForeignKeyIndex} instances by class and id strings that are active at or
+   * after the specified moment in time, using an in-memory cache if EPP resource caching is
+   * enabled.
+   *
+   * <p>This is intended for read-only, non-transactional code paths such as domain checks and
+   * infos, WHOIS and RDAP, which can tolerate results that are stale by up to the configured cache
+   * duration. It must not be used by code that goes on to mutate the loaded resources; use {@link
+   * #load(Class, Iterable, DateTime)} instead.
+   *
+   * <p>The returned map will omit any keys for which the {@link ForeignKeyIndex} doesn't exist or
+   * has been soft deleted.
+   */
+  public static <E extends EppResource> ImmutableMap<String, ForeignKeyIndex<E>> loadCached(
+      Class<E> clazz, Iterable<String> foreignKeys, DateTime now) {
+    if (!cachingEnabled) {
+      return ImmutableMap.copyOf(load(clazz, foreignKeys, now));
+    }
+    ImmutableSet.Builder<Key<ForeignKeyIndex<?>>> keysBuilder = new ImmutableSet.Builder<>();
+    for (String foreignKey : foreignKeys) {
+      keysBuilder.add(Key.<ForeignKeyIndex<?>>create(mapToFkiClass(clazz), foreignKey));
+    }
+    ImmutableSet<Key<ForeignKeyIndex<?>>> keys = keysBuilder.build();
+    if (keys.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    String kind = keys.iterator().next().getKind();
+    int hits = cacheForeignKeyIndexes.getAllPresent(keys).size();
+    recordCacheLookups(kind, CacheLookupOutcome.HIT, hits);
+    recordCacheLookups(kind, CacheLookupOutcome.MISS, keys.size() - hits);
+    ImmutableMap<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>> fkis;
+    try {
+      fkis = cacheForeignKeyIndexes.getAll(keys);
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException("Could not load foreign key indexes", e);
+    }
+    ImmutableMap.Builder<String, ForeignKeyIndex<E>> result = new ImmutableMap.Builder<>();
+    for (Optional<ForeignKeyIndex<?>> fki : fkis.values()) {
+      if (fki.isPresent() && now.isBefore(fki.get().deletionTime)) {
+        @SuppressWarnings("unchecked")
+        ForeignKeyIndex<E> typedFki = (ForeignKeyIndex<E>) fki.get();
+        result.put(typedFki.getForeignKey(), typedFki);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Load a {@link ForeignKeyIndex} by class and id string that is active at or after the specified
+   * moment in time, using an in-memory cache if EPP resource caching is enabled.
+   *
+   * @see #loadCached(Class, Iterable, DateTime)
+   */
+  @Nullable
+  public static <E extends EppResource> ForeignKeyIndex<E> loadCached(
+      Class<E> clazz, String foreignKey, DateTime now) {
+    return loadCached(clazz, ImmutableList.of(foreignKey), now).get(foreignKey);
+  }
 }
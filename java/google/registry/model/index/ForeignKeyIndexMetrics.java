@@ -0,0 +1,77 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+
+/** Instrumentation for the in-memory {@link ForeignKeyIndex} cache. */
+class ForeignKeyIndexMetrics {
+
+  /** Possible outcomes of looking up a foreign key in the cache. */
+  enum CacheLookupOutcome {
+    /** The foreign key was cached, either as an existing index or as a nonexistent one. */
+    HIT,
+
+    /** The foreign key was not cached, and had to be loaded from Datastore. */
+    MISS
+  }
+
+  private static final ImmutableSet<LabelDescriptor> LOOKUP_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("kind", "Foreign key index entity kind."),
+          LabelDescriptor.create("outcome", "Whether the lookup was served from the cache."));
+
+  private static final ImmutableSet<LabelDescriptor> EVICTION_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("kind", "Foreign key index entity kind."),
+          LabelDescriptor.create("cause", "Reason the entry was evicted."));
+
+  /** Metric counting foreign key index cache lookups, by outcome. */
+  @VisibleForTesting
+  static final IncrementableMetric cacheLookups =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/foreign_key_index/cache/lookups",
+              "Count of foreign key index cache lookups",
+              "count",
+              LOOKUP_LABEL_DESCRIPTORS);
+
+  /** Metric counting entries evicted from the foreign key index cache because of expiry or size. */
+  @VisibleForTesting
+  static final IncrementableMetric cacheEvictions =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/foreign_key_index/cache/evictions",
+              "Count of foreign key index cache evictions",
+              "count",
+              EVICTION_LABEL_DESCRIPTORS);
+
+  /** Records the given number of lookups with the given outcome. */
+  static void recordCacheLookups(String kind, CacheLookupOutcome outcome, long count) {
+    if (count > 0) {
+      cacheLookups.incrementBy(count, kind, outcome.name());
+    }
+  }
+
+  /** Records a single eviction. */
+  static void recordCacheEviction(String kind, RemovalCause cause) {
+    cacheEvictions.increment(kind, cause.name());
+  }
+}
@@ -0,0 +1,318 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.config.RegistryConfig.getHostInetAddressIndexReadsEnabled;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.base.Function;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.BackupGroupRoot;
+import google.registry.model.annotations.ReportedOn;
+import google.registry.model.host.HostResource;
+import google.registry.util.CidrAddressBlock;
+import google.registry.util.NonFinalForTesting;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.joda.time.DateTime;
+
+/**
+ * An index of hosts by IP address, so that hosts can be found by address without an eventually
+ * consistent query on {@link HostResource}, and the hosts within a CIDR block can be found at all.
+ *
+ * <p>There is one entity for each address of each host, saved and deleted in the same transaction
+ * as the host. The entities for one address are spread over {@link #NUM_SHARDS} {@link
+ * HostInetAddressIndexGroup} parents, by a hash of the host's repo id. Finding the hosts with an
+ * address is therefore a strongly consistent ancestor query on each shard, followed by a batched
+ * load of the hosts. The shards keep an address shared by many hosts from limiting writes to its
+ * hosts to the rate of one entity group. The address is also stored in a form which sorts in
+ * address order, so that the hosts within a CIDR block can be found with a range query, although
+ * that query is eventually consistent.
+ *
+ * <p>Since each address is in its own entity groups, every address added or removed by a flow adds
+ * an entity group to its transaction. A transaction can touch at most 25 entity groups, so a host
+ * command which adds or removes many addresses at once can exceed that limit and fail.
+ *
+ * <p>The index is only read once {@code hostInetAddressIndexReadsEnabled} is set in the registry
+ * config. Until then, lookups by address query {@link HostResource#inetAddresses} as they always
+ * have, so that the index can be populated with {@code ResaveAllEppResourcesAction} first.
+ */
+@ReportedOn
+@Entity
+public class HostInetAddressIndex extends BackupGroupRoot {
+
+  /**
+   * Number of entity groups the entities for one address are spread over.
+   *
+   * <p>Don't change this once the index has been written, since it determines the entities' keys.
+   */
+  private static final int NUM_SHARDS = 8;
+
+  /** Number of hosts loaded per batch when reading through the index. */
+  private static final int BATCH_SIZE = 100;
+
+  /** Whether lookups read the index, rather than querying the hosts' own addresses. */
+  @NonFinalForTesting
+  private static boolean readsEnabled = getHostInetAddressIndexReadsEnabled();
+
+  /** The repo id of the host. */
+  @Id
+  String id;
+
+  @Parent
+  Key<HostInetAddressIndexGroup> group;
+
+  /** The address, in the form returned by {@link #getSortableAddress}. */
+  @Index
+  String address;
+
+  public Key<HostResource> getHostKey() {
+    return Key.create(HostResource.class, id);
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  /** Creates an index entity recording that the given host has the given address. */
+  public static HostInetAddressIndex create(InetAddress inetAddress, Key<HostResource> hostKey) {
+    HostInetAddressIndex instance = new HostInetAddressIndex();
+    instance.id = hostKey.getName();
+    instance.group = HostInetAddressIndexGroup.getGroupKey(inetAddress, getShard(hostKey));
+    instance.address = getSortableAddress(inetAddress);
+    return instance;
+  }
+
+  public static Key<HostInetAddressIndex> createKey(
+      InetAddress inetAddress, Key<HostResource> hostKey) {
+    return Key.create(
+        HostInetAddressIndexGroup.getGroupKey(inetAddress, getShard(hostKey)),
+        HostInetAddressIndex.class,
+        hostKey.getName());
+  }
+
+  /** Returns the shard of the index entities for the given host. */
+  private static int getShard(Key<HostResource> hostKey) {
+    return Hashing.consistentHash(hostKey.getName().hashCode(), NUM_SHARDS);
+  }
+
+  /** Creates index entities for each of the given addresses of the given host. */
+  public static ImmutableSet<HostInetAddressIndex> createAll(
+      Iterable<InetAddress> inetAddresses, Key<HostResource> hostKey) {
+    ImmutableSet.Builder<HostInetAddressIndex> indexes = new ImmutableSet.Builder<>();
+    for (InetAddress inetAddress : inetAddresses) {
+      indexes.add(create(inetAddress, hostKey));
+    }
+    return indexes.build();
+  }
+
+  /** Creates index entities for all of the addresses of the given host. */
+  public static ImmutableSet<HostInetAddressIndex> createAll(HostResource host) {
+    return createAll(host.getInetAddresses(), Key.create(host));
+  }
+
+  /** Returns the keys of the index entities for each of the given addresses of the given host. */
+  public static ImmutableSet<Key<HostInetAddressIndex>> createKeys(
+      Iterable<InetAddress> inetAddresses, Key<HostResource> hostKey) {
+    ImmutableSet.Builder<Key<HostInetAddressIndex>> keys = new ImmutableSet.Builder<>();
+    for (InetAddress inetAddress : inetAddresses) {
+      keys.add(createKey(inetAddress, hostKey));
+    }
+    return keys.build();
+  }
+
+  /** Returns the keys of the index entities for all of the addresses of the given host. */
+  public static ImmutableSet<Key<HostInetAddressIndex>> createKeys(HostResource host) {
+    return createKeys(host.getInetAddresses(), Key.create(host));
+  }
+
+  /** Returns whether the hosts within a CIDR block larger than one address can be looked up. */
+  public static boolean isCidrAddressBlockLookupEnabled() {
+    return readsEnabled;
+  }
+
+  /**
+   * Returns the keys of all hosts which have the given address and are not deleted at the given
+   * time.
+   *
+   * <p>The hosts are read lazily, a batch at a time, so callers which only need the first few keys
+   * don't pay for reading the rest.
+   */
+  public static FluentIterable<Key<HostResource>> loadHostKeysByInetAddress(
+      InetAddress inetAddress, DateTime now) {
+    return loadHostsLazily(
+            queryHostKeysByInetAddress(inetAddress, now), new CidrAddressBlock(inetAddress), now)
+        .transform(new Function<HostResource, Key<HostResource>>() {
+          @Override
+          public Key<HostResource> apply(HostResource host) {
+            return Key.create(host);
+          }});
+  }
+
+  /**
+   * Returns up to {@code limit} hosts which have the given address and are not deleted at the given
+   * time.
+   */
+  public static ImmutableList<HostResource> loadHostsByInetAddress(
+      InetAddress inetAddress, int limit, DateTime now) {
+    return loadHosts(
+        queryHostKeysByInetAddress(inetAddress, now),
+        new CidrAddressBlock(inetAddress),
+        limit,
+        now);
+  }
+
+  /**
+   * Returns up to {@code limit} hosts which have an address within the given block and are not
+   * deleted at the given time, in address order.
+   *
+   * <p>This may only be called once {@link #isCidrAddressBlockLookupEnabled} returns true.
+   */
+  public static ImmutableList<HostResource> loadHostsByCidrAddressBlock(
+      CidrAddressBlock block, int limit, DateTime now) {
+    checkState(readsEnabled, "Reads of the HostInetAddressIndex are not enabled");
+    return loadHosts(
+        getHostKeys(
+            ofy().load()
+                .type(HostInetAddressIndex.class)
+                .filter("address >=", getSortableAddress(block.getInetAddress()))
+                .filter("address <=", getSortableAddress(block.getAllOnesAddress()))),
+        block,
+        limit,
+        now);
+  }
+
+  /**
+   * Returns the keys of the hosts with the given address, read from the index if its reads are
+   * enabled, or else queried from the hosts themselves.
+   *
+   * <p>Reads of the index are strongly consistent, and return the hosts of each shard in turn.
+   */
+  private static Iterable<Key<HostResource>> queryHostKeysByInetAddress(
+      InetAddress inetAddress, DateTime now) {
+    if (readsEnabled) {
+      List<Iterable<Key<HostResource>>> shards = new ArrayList<>();
+      for (int shard = 0; shard < NUM_SHARDS; shard++) {
+        shards.add(
+            getHostKeys(
+                ofy().load()
+                    .type(HostInetAddressIndex.class)
+                    .ancestor(HostInetAddressIndexGroup.getGroupKey(inetAddress, shard))));
+      }
+      return Iterables.concat(shards);
+    }
+    return ofy().load()
+        .type(HostResource.class)
+        .filter("inetAddresses", inetAddress.getHostAddress())
+        .filter("deletionTime >", now.toDate())
+        .chunk(BATCH_SIZE)
+        .keys();
+  }
+
+  /** Returns the keys of the hosts behind the index entities matching the query. */
+  private static Iterable<Key<HostResource>> getHostKeys(Query<HostInetAddressIndex> query) {
+    return Iterables.transform(
+        query.chunk(BATCH_SIZE).keys(),
+        new Function<Key<HostInetAddressIndex>, Key<HostResource>>() {
+          @Override
+          public Key<HostResource> apply(Key<HostInetAddressIndex> key) {
+            return Key.create(HostResource.class, key.getName());
+          }});
+  }
+
+  private static ImmutableList<HostResource> loadHosts(
+      Iterable<Key<HostResource>> hostKeys, CidrAddressBlock block, int limit, DateTime now) {
+    ImmutableList.Builder<HostResource> hosts = new ImmutableList.Builder<>();
+    if (limit <= 0) {
+      return hosts.build();
+    }
+    // A host with several addresses in a block has an index entity for each of them.
+    Set<Key<HostResource>> seenHostKeys = new HashSet<>();
+    int numHosts = 0;
+    for (HostResource host : loadHostsLazily(hostKeys, block, now)) {
+      if (seenHostKeys.add(Key.create(host))) {
+        hosts.add(host);
+        if (++numHosts == limit) {
+          break;
+        }
+      }
+    }
+    return hosts.build();
+  }
+
+  /** Loads the hosts with the given keys, a batch at a time. */
+  private static FluentIterable<HostResource> loadHostsLazily(
+      Iterable<Key<HostResource>> keys, final CidrAddressBlock block, final DateTime now) {
+    return FluentIterable.from(Iterables.partition(keys, BATCH_SIZE))
+        .transformAndConcat(
+            new Function<List<Key<HostResource>>, Iterable<HostResource>>() {
+              @Override
+              public Iterable<HostResource> apply(List<Key<HostResource>> batch) {
+                Set<Key<HostResource>> hostKeys = new LinkedHashSet<>(batch);
+                Map<Key<HostResource>, HostResource> loadedHosts = ofy().load().keys(hostKeys);
+                List<HostResource> hosts = new ArrayList<>();
+                for (Key<HostResource> hostKey : hostKeys) {
+                  HostResource host = loadedHosts.get(hostKey);
+                  // Check the host's own addresses and deletion time, since a range query is
+                  // eventually consistent, and the host may have been saved without updating the
+                  // index.
+                  if (host != null
+                      && now.isBefore(host.getDeletionTime())
+                      && hasAddressIn(host, block)) {
+                    hosts.add(host);
+                  }
+                }
+                return hosts;
+              }});
+  }
+
+  private static boolean hasAddressIn(HostResource host, CidrAddressBlock block) {
+    for (InetAddress inetAddress : host.getInetAddresses()) {
+      if (block.contains(inetAddress)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the address as a string which sorts in address order.
+   *
+   * <p>The string is the address in hex, prefixed by its family, so that IPv4 and IPv6 addresses
+   * sort separately.
+   */
+  static String getSortableAddress(InetAddress inetAddress) {
+    return (inetAddress instanceof Inet4Address ? "4:" : "6:")
+        + BaseEncoding.base16().lowerCase().encode(inetAddress.getAddress());
+  }
+}
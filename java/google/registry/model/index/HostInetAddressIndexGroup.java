@@ -0,0 +1,44 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static google.registry.model.index.HostInetAddressIndex.getSortableAddress;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.VirtualEntity;
+import java.net.InetAddress;
+
+/**
+ * A virtual entity grouping a shard of the {@link HostInetAddressIndex} entities for one IP
+ * address, so that they can be found with strongly consistent ancestor queries.
+ */
+@Entity
+@VirtualEntity
+public class HostInetAddressIndexGroup extends ImmutableObject {
+
+  /** The address, in the sortable form used by {@link HostInetAddressIndex}, and the shard. */
+  @Id
+  private String id;
+
+  /** Gets the key of the given shard of the group for the given address. */
+  static Key<HostInetAddressIndexGroup> getGroupKey(InetAddress inetAddress, int shard) {
+    return Key.create(
+        HostInetAddressIndexGroup.class,
+        String.format("%s-%d", getSortableAddress(inetAddress), shard));
+  }
+}
@@ -26,6 +26,7 @@ import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
@@ -75,6 +76,9 @@ class CommitLoggedWork<R> extends VoidWork {
    */
   protected ImmutableSet<ImmutableObject> mutations = ImmutableSet.of();
 
+  /** Actions registered by the last attempt, to be run once the transaction has committed. */
+  private ImmutableList<Runnable> afterCommitActions = ImmutableList.of();
+
   /** Lifecycle marker to track whether {@link #vrun} has been called. */
   private boolean vrunCalled;
 
@@ -106,6 +110,11 @@ class CommitLoggedWork<R> extends VoidWork {
     return mutations;
   }
 
+  ImmutableList<Runnable> getAfterCommitActions() {
+    checkState(vrunCalled, "Cannot call getAfterCommitActions() before vrun()");
+    return afterCommitActions;
+  }
+
   @Override
   public void vrun() {
     // The previous time will generally be null, except when using transactNew.
@@ -115,6 +124,7 @@ class CommitLoggedWork<R> extends VoidWork {
       Ofy.TRANSACTION_INFO.set(createNewTransactionInfo());
       result = work.run();
       saveCommitLog(Ofy.TRANSACTION_INFO.get());
+      afterCommitActions = Ofy.TRANSACTION_INFO.get().getAfterCommitActions();
     } finally {
       Ofy.TRANSACTION_INFO.set(previous);
     }
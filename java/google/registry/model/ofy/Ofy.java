@@ -220,7 +220,7 @@ public class Ofy {
         attempt++, sleepMillis *= 2) {
       try {
         ofy().transactNew(work);
-        return work.getResult();
+        return completeCommitLoggedWork(work);
       } catch (TransientFailureException
           | TimestampInversionException
           | DatastoreTimeoutException
@@ -230,7 +230,7 @@ public class Ofy {
         // However, Datastore exceptions might get thrown even if the transaction succeeded.
         if ((e instanceof DatastoreTimeoutException || e instanceof DatastoreFailureException)
             && checkIfAlreadySucceeded(work)) {
-          return work.getResult();
+          return completeCommitLoggedWork(work);
         }
         if (attempt == NUM_RETRIES) {
           throw e;  // Give up.
@@ -241,6 +241,15 @@ public class Ofy {
     }
   }
 
+  /** Runs the after-commit actions of a committed transaction and returns its result. */
+  private static <R> R completeCommitLoggedWork(CommitLoggedWork<R> work) {
+    R result = work.getResult();
+    for (Runnable action : work.getAfterCommitActions()) {
+      action.run();
+    }
+    return result;
+  }
+
   /**
    * We can determine whether a transaction has succeded by trying to read the commit log back in
    * its own retryable read-only transaction.
@@ -318,6 +327,18 @@ public class Ofy {
     return TRANSACTION_INFO.get().transactionTime;
   }
 
+  /**
+   * Runs an action once the current transaction has committed.
+   *
+   * <p>This is for side effects outside of Datastore, such as updating in-memory caches, which
+   * must not happen if the transaction rolls back. Actions registered by an attempt that doesn't
+   * commit are discarded, so a retried transaction runs only the actions of its final attempt.
+   */
+  public void afterCommit(Runnable action) {
+    assertInTransaction();
+    TRANSACTION_INFO.get().addAfterCommitAction(action);
+  }
+
   /** Returns key of {@link CommitLogManifest} that will be saved when the transaction ends. */
   public Key<CommitLogManifest> getCommitLogManifestKey() {
     assertInTransaction();
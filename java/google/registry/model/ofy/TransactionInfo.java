@@ -24,6 +24,7 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
@@ -55,6 +56,10 @@ class TransactionInfo {
    */
   private final ImmutableMap.Builder<Key<?>, Object> changesBuilder = new ImmutableMap.Builder<>();
 
+  /** Actions to run once the transaction has committed, in the order they were added. */
+  private final ImmutableList.Builder<Runnable> afterCommitActionsBuilder =
+      new ImmutableList.Builder<>();
+
   TransactionInfo(DateTime now) {
     this.transactionTime = now;
     ofy().load().key(bucketKey);  // Asynchronously load value into session cache.
@@ -79,6 +84,15 @@ class TransactionInfo {
     changesBuilder.putAll(toMap(keys, constant(TransactionInfo.Delete.SENTINEL)));
   }
 
+  void addAfterCommitAction(Runnable action) {
+    assertNotReadOnly();
+    afterCommitActionsBuilder.add(action);
+  }
+
+  ImmutableList<Runnable> getAfterCommitActions() {
+    return afterCommitActionsBuilder.build();
+  }
+
   ImmutableSet<Key<?>> getTouchedKeys() {
     return ImmutableSet.copyOf(changesBuilder.build().keySet());
   }
@@ -19,19 +19,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.equalTo;
 import static com.google.common.base.Predicates.not;
 import static google.registry.config.RegistryConfig.getSingletonCacheRefreshDuration;
+import static google.registry.model.CacheUtils.newRefreshAheadCache;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.joda.money.CurrencyUnit.USD;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
@@ -233,28 +232,28 @@ public class Registry extends ImmutableObject implements Buildable {
 
   /** A cache that loads the {@link Registry} for a given tld. */
   private static final LoadingCache<String, Optional<Registry>> CACHE =
-      CacheBuilder.newBuilder()
-          .expireAfterWrite(getSingletonCacheRefreshDuration().getMillis(), MILLISECONDS)
-          .build(
-              new CacheLoader<String, Optional<Registry>>() {
-                @Override
-                public Optional<Registry> load(final String tld) {
-                  // Enter a transactionless context briefly; we don't want to enroll every TLD in a
-                  // transaction that might be wrapping this call.
-                  return Optional.fromNullable(
-                      ofy()
-                          .doTransactionless(
-                              new Work<Registry>() {
-                                @Override
-                                public Registry run() {
-                                  return ofy()
-                                      .load()
-                                      .key(Key.create(getCrossTldKey(), Registry.class, tld))
-                                      .now();
-                                }
-                              }));
-                }
-              });
+      newRefreshAheadCache(
+          "registry",
+          getSingletonCacheRefreshDuration(),
+          new CacheLoader<String, Optional<Registry>>() {
+            @Override
+            public Optional<Registry> load(final String tld) {
+              // Enter a transactionless context briefly; we don't want to enroll every TLD in a
+              // transaction that might be wrapping this call.
+              return Optional.fromNullable(
+                  ofy()
+                      .doTransactionless(
+                          new Work<Registry>() {
+                            @Override
+                            public Registry run() {
+                              return ofy()
+                                  .load()
+                                  .key(Key.create(getCrossTldKey(), Registry.class, tld))
+                                  .now();
+                            }
+                          }));
+            }
+          });
 
   /**
    * The name of the pricing engine that this TLD uses.
@@ -18,6 +18,7 @@ import static com.google.common.hash.Funnels.unencodedCharsFunnel;
 import static google.registry.config.RegistryConfig.getDomainLabelListCacheDuration;
 import static google.registry.config.RegistryConfig.getSingletonCachePersistDuration;
 import static google.registry.config.RegistryConfig.getStaticPremiumListMaxCachedEntries;
+import static google.registry.model.CacheUtils.newRefreshAheadCache;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -30,6 +31,8 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.BloomFilter;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
@@ -45,6 +48,7 @@ import google.registry.util.NonFinalForTesting;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -134,9 +138,10 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
    * check if a new revision has been published, and if so, then use that.
    */
   static final LoadingCache<String, PremiumList> cachePremiumLists =
-      CacheBuilder.newBuilder()
-          .expireAfterWrite(getDomainLabelListCacheDuration().getMillis(), MILLISECONDS)
-          .build(new CacheLoader<String, PremiumList>() {
+      newRefreshAheadCache(
+          "premium_list",
+          getDomainLabelListCacheDuration(),
+          new CacheLoader<String, PremiumList>() {
             @Override
             public PremiumList load(final String listName) {
               return ofy().doTransactionless(new Work<PremiumList>() {
@@ -213,6 +218,29 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
                           }
                         });
               }
+
+              @Override
+              public Map<Key<PremiumListEntry>, Optional<PremiumListEntry>> loadAll(
+                  Iterable<? extends Key<PremiumListEntry>> entryKeys) {
+                final ImmutableSet<Key<PremiumListEntry>> keysToLoad =
+                    ImmutableSet.<Key<PremiumListEntry>>copyOf(entryKeys);
+                Map<Key<PremiumListEntry>, PremiumListEntry> entries =
+                    ofy()
+                        .doTransactionless(
+                            new Work<Map<Key<PremiumListEntry>, PremiumListEntry>>() {
+                              @Override
+                              public Map<Key<PremiumListEntry>, PremiumListEntry> run() {
+                                return ofy().load().keys(keysToLoad);
+                              }
+                            });
+                // Entries that don't exist are omitted by Objectify, but must be cached as absent.
+                ImmutableMap.Builder<Key<PremiumListEntry>, Optional<PremiumListEntry>> result =
+                    new ImmutableMap.Builder<>();
+                for (Key<PremiumListEntry> entryKey : keysToLoad) {
+                  result.put(entryKey, Optional.fromNullable(entries.get(entryKey)));
+                }
+                return result.build();
+              }
             });
   }
 
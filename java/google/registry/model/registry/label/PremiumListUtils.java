@@ -77,6 +77,44 @@ public final class PremiumListUtils {
     }
     DateTime startTime = DateTime.now(UTC);
     String listName = registry.getPremiumList().getName();
+    PremiumListRevision revision = loadPremiumListRevision(listName);
+    CheckResults checkResults = checkStatus(revision, label);
+    DomainLabelMetrics.recordPremiumListCheckOutcome(
+        registry.getTldStr(),
+        listName,
+        checkResults.checkOutcome(),
+        DateTime.now(UTC).getMillis() - startTime.getMillis());
+    return checkResults.premiumPrice();
+  }
+
+  /**
+   * Loads the premium list entries for all of the given labels that might be premium in the
+   * specified registry into the in-memory cache, using a single batched Datastore load.
+   *
+   * <p>This is an optimization for callers that are about to look up the premium prices of many
+   * labels at once, such as domain checks. Labels that the Bloom filter rules out, as well as those
+   * that are already cached, are not loaded. Subsequent calls to {@link #getPremiumPrice} for these
+   * labels will be served from the cache.
+   */
+  public static void prefetchPremiumPrices(Iterable<String> labels, Registry registry) {
+    if (registry.getPremiumList() == null) {
+      return;
+    }
+    PremiumListRevision revision = loadPremiumListRevision(registry.getPremiumList().getName());
+    ImmutableSet.Builder<Key<PremiumListEntry>> entryKeys = new ImmutableSet.Builder<>();
+    for (String label : labels) {
+      if (revision.getProbablePremiumLabels().mightContain(label)) {
+        entryKeys.add(Key.create(Key.create(revision), PremiumListEntry.class, label));
+      }
+    }
+    try {
+      cachePremiumListEntries.getAll(entryKeys.build());
+    } catch (InvalidCacheLoadException | ExecutionException e) {
+      throw new RuntimeException("Could not load premium list entries for " + labels, e);
+    }
+  }
+
+  private static PremiumListRevision loadPremiumListRevision(String listName) {
     Optional<PremiumList> optionalPremiumList = PremiumList.get(listName);
     checkState(optionalPremiumList.isPresent(), "Could not load premium list '%s'", listName);
     PremiumList premiumList = optionalPremiumList.get();
@@ -91,14 +129,7 @@ public final class PremiumListUtils {
         revision.getProbablePremiumLabels() != null,
         "Probable premium labels Bloom filter is null on revision '%s'",
         premiumList.getRevisionKey());
-
-    CheckResults checkResults = checkStatus(revision, label);
-    DomainLabelMetrics.recordPremiumListCheckOutcome(
-        registry.getTldStr(),
-        listName,
-        checkResults.checkOutcome(),
-        DateTime.now(UTC).getMillis() - startTime.getMillis());
-    return checkResults.premiumPrice();
+    return revision;
   }
 
   private static CheckResults checkStatus(PremiumListRevision premiumListRevision, String label) {
@@ -19,20 +19,19 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static google.registry.config.RegistryConfig.getDomainLabelListCacheDuration;
+import static google.registry.model.CacheUtils.newRefreshAheadCache;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED;
 import static google.registry.model.registry.label.ReservationType.NAMESERVER_RESTRICTED;
 import static google.registry.model.registry.label.ReservationType.RESERVED_FOR_ANCHOR_TENANT;
 import static google.registry.util.CollectionUtils.nullToEmpty;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
@@ -320,19 +319,19 @@ public final class ReservedList
   }
 
   private static LoadingCache<String, ReservedList> cache =
-      CacheBuilder.newBuilder()
-          .expireAfterWrite(getDomainLabelListCacheDuration().getMillis(), MILLISECONDS)
-          .build(
-              new CacheLoader<String, ReservedList>() {
-                @Override
-                public ReservedList load(String listName) {
-                  return ofy()
-                      .load()
-                      .type(ReservedList.class)
-                      .parent(getCrossTldKey())
-                      .id(listName)
-                      .now();
-                }});
+      newRefreshAheadCache(
+          "reserved_list",
+          getDomainLabelListCacheDuration(),
+          new CacheLoader<String, ReservedList>() {
+            @Override
+            public ReservedList load(String listName) {
+              return ofy()
+                  .load()
+                  .type(ReservedList.class)
+                  .parent(getCrossTldKey())
+                  .id(listName)
+                  .now();
+            }});
 
   /**
    * Gets the {@link ReservationType} of a label in a single ReservedList, or returns an absent
@@ -0,0 +1,64 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.server;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+
+/**
+ * The number of refreshes to send to one DNS writer for one TLD in each batch, as last adjusted
+ * from how long that writer's batches took to commit.
+ *
+ * <p>This is saved so that the instance which reads the DNS queue sees the feedback from the
+ * publishes, which generally ran on other instances. It isn't parented under an EntityGroupRoot,
+ * to avoid write contention between TLDs, and isn't backed up, since losing it only means starting
+ * over from the default size.
+ */
+@Entity
+@NotBackedUp(reason = Reason.TRANSIENT)
+public class DnsBatchSize extends ImmutableObject {
+
+  /** The TLD and DNS writer, in the form returned by {@link #makeId}. */
+  @Id
+  String id;
+
+  int batchSize;
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public static DnsBatchSize create(String tld, String dnsWriter, int batchSize) {
+    checkArgument(batchSize > 0, "Batch size must be positive");
+    DnsBatchSize instance = new DnsBatchSize();
+    instance.id = makeId(tld, dnsWriter);
+    instance.batchSize = batchSize;
+    return instance;
+  }
+
+  public static Key<DnsBatchSize> createKey(String tld, String dnsWriter) {
+    return Key.create(DnsBatchSize.class, makeId(tld, dnsWriter));
+  }
+
+  private static String makeId(String tld, String dnsWriter) {
+    return String.format("%s-%s", tld, dnsWriter);
+  }
+}
@@ -17,7 +17,7 @@ package google.registry.model.smd;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.isEmpty;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.model.CacheUtils.memoizeWithRefreshAhead;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -45,6 +45,7 @@ import google.registry.model.annotations.NotBackedUp.Reason;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.util.CollectionUtils;
 import java.util.Map;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
 /**
@@ -93,7 +94,7 @@ public class SignedMarkRevocationList extends ImmutableObject {
    * single {@link SignedMarkRevocationList} object.
    */
   private static final Supplier<SignedMarkRevocationList> CACHE =
-      memoizeWithShortExpiration(new Supplier<SignedMarkRevocationList>() {
+      memoizeWithRefreshAhead("smdrl", new Supplier<SignedMarkRevocationList>() {
         @Override
         public SignedMarkRevocationList get() {
           // Open a new transactional read even if we are in a transaction currently.
@@ -124,6 +125,19 @@ public class SignedMarkRevocationList extends ImmutableObject {
     return CACHE.get();
   }
 
+  /**
+   * Returns the creation time of the saved list, or null if no list has been saved yet.
+   *
+   * <p>Unlike {@link #get}, this loads only a single shard, so it can be used to cheaply check
+   * whether a downloaded list has already been saved.
+   */
+  @Nullable
+  public static DateTime getCurrentCreationTime() {
+    SignedMarkRevocationList shard =
+        ofy().load().type(SignedMarkRevocationList.class).ancestor(getCrossTldKey()).first().now();
+    return shard == null ? null : shard.creationTime;
+  }
+
   /** Create a new {@link SignedMarkRevocationList} without saving it. */
   public static SignedMarkRevocationList create(
       DateTime creationTime, ImmutableMap<String, DateTime> revokes) {
@@ -17,7 +17,7 @@ package google.registry.model.tmch;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.model.CacheUtils.memoizeWithRefreshAhead;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
@@ -26,6 +26,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -40,12 +41,13 @@ import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
 import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.common.CrossTldSingleton;
-import google.registry.util.CollectionUtils;
+import google.registry.util.CompactStringMap;
 import google.registry.util.Concurrent;
 import google.registry.util.NonFinalForTesting;
 import google.registry.util.Retrier;
 import google.registry.util.SystemSleeper;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -76,6 +78,15 @@ public class ClaimsListShard extends ImmutableObject {
   @NonFinalForTesting
   static int shardSize = 10000;
 
+  /**
+   * The number of shards to build and save at a time.
+   *
+   * <p>Each shard's map is only built when its turn comes, so that saving a list never holds more
+   * than this many shards' worth of copied entries on top of the list itself.
+   */
+  @VisibleForTesting
+  static final int SHARDS_PER_BATCH = 10;
+
   @Id
   long id;
 
@@ -85,7 +96,12 @@ public class ClaimsListShard extends ImmutableObject {
   /** When the claims list was last updated. */
   DateTime creationTime;
 
-  /** A map from labels to claims keys. */
+  /**
+   * A map from labels to claims keys.
+   *
+   * <p>This is an {@link ImmutableMap} for individual shards, and a {@link CompactStringMap} for
+   * the combined list returned by {@link #get}.
+   */
   @EmbedMap
   Map<String, String> labelsToKeys;
 
@@ -102,47 +118,54 @@ public class ClaimsListShard extends ImmutableObject {
           // Find the most recent revision.
           Key<ClaimsListRevision> revisionKey = getCurrentRevision();
 
-          Map<String, String> combinedLabelsToKeys = new HashMap<>();
+          final CompactStringMap.Builder combinedLabelsToKeys = CompactStringMap.builder();
           DateTime creationTime = START_OF_TIME;
           if (revisionKey != null) {
             // Grab all of the keys for the shards that belong to the current revision.
             final List<Key<ClaimsListShard>> shardKeys =
                 ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
 
-            // Load all of the shards concurrently, each in a separate transaction.
-            List<ClaimsListShard> shards =
+            // Load all of the shards concurrently, each in a separate transaction, and add each
+            // one's labels to the combined list as soon as it arrives so that the shards' own maps
+            // can be garbage collected without ever being copied into an intermediate map.
+            List<DateTime> shardCreationTimes =
                 Concurrent.transform(
                     shardKeys,
-                    new Function<Key<ClaimsListShard>, ClaimsListShard>() {
+                    new Function<Key<ClaimsListShard>, DateTime>() {
                       @Override
-                      public ClaimsListShard apply(final Key<ClaimsListShard> key) {
-                        return ofy()
-                            .transactNewReadOnly(
-                                new Work<ClaimsListShard>() {
-                                  @Override
-                                  public ClaimsListShard run() {
-                                    ClaimsListShard claimsListShard = ofy().load().key(key).now();
-                                    checkState(
-                                        claimsListShard != null,
-                                        "Key not found when loading claims list shards.");
-                                    return claimsListShard;
-                                  }
-                                });
+                      public DateTime apply(final Key<ClaimsListShard> key) {
+                        ClaimsListShard shard =
+                            ofy()
+                                .transactNewReadOnly(
+                                    new Work<ClaimsListShard>() {
+                                      @Override
+                                      public ClaimsListShard run() {
+                                        ClaimsListShard claimsListShard =
+                                            ofy().load().key(key).now();
+                                        checkState(
+                                            claimsListShard != null,
+                                            "Key not found when loading claims list shards.");
+                                        return claimsListShard;
+                                      }
+                                    });
+                        synchronized (combinedLabelsToKeys) {
+                          combinedLabelsToKeys.putAll(shard.labelsToKeys);
+                        }
+                        return shard.creationTime;
                       }
                     });
 
-            // Combine the shards together and return the concatenated ClaimsList.
-            if (!shards.isEmpty()) {
-              creationTime = shards.get(0).creationTime;
-              for (ClaimsListShard shard : shards) {
-                combinedLabelsToKeys.putAll(shard.labelsToKeys);
+            // Verify that the shards all belong to the same claims list.
+            if (!shardCreationTimes.isEmpty()) {
+              creationTime = shardCreationTimes.get(0);
+              for (DateTime shardCreationTime : shardCreationTimes) {
                 checkState(
-                    creationTime.equals(shard.creationTime),
+                    creationTime.equals(shardCreationTime),
                     "Inconsistent claims list shard creation times.");
               }
             }
           }
-          return create(creationTime, ImmutableMap.copyOf(combinedLabelsToKeys));
+          return create(creationTime, combinedLabelsToKeys.build());
         }
       };
 
@@ -151,7 +174,8 @@ public class ClaimsListShard extends ImmutableObject {
    * single {@link ClaimsListShard} object.
    */
   private static final Supplier<ClaimsListShard> CACHE =
-      memoizeWithShortExpiration(
+      memoizeWithRefreshAhead(
+          "claims_list",
           new Supplier<ClaimsListShard>() {
             @Override
             public ClaimsListShard get() {
@@ -185,21 +209,29 @@ public class ClaimsListShard extends ImmutableObject {
     final Key<ClaimsListRevision> oldRevision = getCurrentRevision();
     final Key<ClaimsListRevision> parentKey = ClaimsListRevision.createKey();
 
-    // Save the ClaimsList shards in separate transactions.
-    Concurrent.transform(CollectionUtils.partitionMap(labelsToKeys, shardSize),
-        new Function<ImmutableMap<String, String>, ClaimsListShard>() {
-          @Override
-          public ClaimsListShard apply(final ImmutableMap<String, String> labelsToKeysShard) {
-            return ofy().transactNew(new Work<ClaimsListShard>() {
-              @Override
-              public ClaimsListShard run() {
-                ClaimsListShard shard = create(creationTime, labelsToKeysShard);
-                shard.isShard = true;
-                shard.parent = parentKey;
-                ofy().saveWithoutBackup().entity(shard);
-                return shard;
-              }});
-          }});
+    // Save the ClaimsList shards in separate transactions, a batch of shards at a time.
+    Iterator<List<Map.Entry<String, String>>> shardEntries =
+        Iterables.partition(labelsToKeys.entrySet(), shardSize).iterator();
+    while (shardEntries.hasNext()) {
+      List<ImmutableMap<String, String>> batch = new ArrayList<>();
+      while (shardEntries.hasNext() && batch.size() < SHARDS_PER_BATCH) {
+        batch.add(ImmutableMap.copyOf(shardEntries.next()));
+      }
+      Concurrent.transform(batch,
+          new Function<ImmutableMap<String, String>, ClaimsListShard>() {
+            @Override
+            public ClaimsListShard apply(final ImmutableMap<String, String> labelsToKeysShard) {
+              return ofy().transactNew(new Work<ClaimsListShard>() {
+                @Override
+                public ClaimsListShard run() {
+                  ClaimsListShard shard = create(creationTime, labelsToKeysShard);
+                  shard.isShard = true;
+                  shard.parent = parentKey;
+                  ofy().saveWithoutBackup().entity(shard);
+                  return shard;
+                }});
+            }});
+    }
 
     // Persist the new revision, thus causing the newly created shards to go live.
     ofy().transactNew(new VoidWork() {
@@ -209,7 +241,7 @@ public class ClaimsListShard extends ImmutableObject {
             (getCurrentRevision() == null && oldRevision == null)
                 || getCurrentRevision().equals(oldRevision),
             "ClaimsList on Registries was updated by someone else while attempting to update.");
-        ofy().saveWithoutBackup().entity(ClaimsListSingleton.create(parentKey));
+        ofy().saveWithoutBackup().entity(ClaimsListSingleton.create(parentKey, creationTime));
         // Delete the old ClaimsListShard entities.
         if (oldRevision != null) {
           ofy().deleteWithoutBackup()
@@ -220,6 +252,21 @@ public class ClaimsListShard extends ImmutableObject {
 
   public static ClaimsListShard create(
       DateTime creationTime, ImmutableMap<String, String> labelsToKeys) {
+    return createInternal(creationTime, labelsToKeys);
+  }
+
+  /**
+   * Creates a claims list backed by a {@link CompactStringMap}.
+   *
+   * <p>This is how the combined list returned by {@link #get} is represented, since it can hold
+   * hundreds of thousands of labels and is retained in memory by every instance.
+   */
+  public static ClaimsListShard create(DateTime creationTime, CompactStringMap labelsToKeys) {
+    return createInternal(creationTime, labelsToKeys);
+  }
+
+  private static ClaimsListShard createInternal(
+      DateTime creationTime, Map<String, String> labelsToKeys) {
     ClaimsListShard instance = new ClaimsListShard();
     instance.id = allocateId();
     instance.creationTime = checkNotNull(creationTime);
@@ -274,9 +321,17 @@ public class ClaimsListShard extends ImmutableObject {
   public static class ClaimsListSingleton extends CrossTldSingleton {
     Key<ClaimsListRevision> activeRevision;
 
-    static ClaimsListSingleton create(Key<ClaimsListRevision> revision) {
+    /**
+     * When the active revision's claims list was created, as specified in the DNL CSV file.
+     *
+     * <p>This is null for singletons saved before it was recorded.
+     */
+    DateTime creationTime;
+
+    static ClaimsListSingleton create(Key<ClaimsListRevision> revision, DateTime creationTime) {
       ClaimsListSingleton instance = new ClaimsListSingleton();
       instance.activeRevision = revision;
+      instance.creationTime = creationTime;
       return instance;
     }
 
@@ -296,6 +351,19 @@ public class ClaimsListShard extends ImmutableObject {
     return singleton == null ? null : singleton.activeRevision;
   }
 
+  /**
+   * Returns the creation time of the live claims list, or null if no claims list has been persisted
+   * yet or its creation time wasn't recorded.
+   *
+   * <p>Unlike {@link #get}, this doesn't load any shards, so it can be used to cheaply check
+   * whether a downloaded claims list is already live.
+   */
+  @Nullable
+  public static DateTime getCurrentCreationTime() {
+    ClaimsListSingleton singleton = ofy().load().entity(new ClaimsListSingleton()).now();
+    return singleton == null ? null : singleton.creationTime;
+  }
+
   /** Exception when trying to directly save a {@link ClaimsListShard} without sharding. */
   public static class UnshardedSaveException extends RuntimeException {}
 }
@@ -22,12 +22,13 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
-import com.google.common.util.concurrent.AtomicLongMap;
-import com.google.common.util.concurrent.Striped;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import org.joda.time.Instant;
 
@@ -38,6 +39,10 @@ import org.joda.time.Instant;
  *
  * <p>The start of the {@link MetricPoint#interval()} of values of instances of this metric will be
  * set to the time that the metric was first set or last {@link #reset()}.
+ *
+ * <p>Increments are lock-free. Callers that increment the same label values many times can get an
+ * {@link IncrementableMetric.Incrementer} from {@link #forLabels} to skip the lookup of the label
+ * values as well.
  */
 @ThreadSafe
 public final class Counter extends AbstractMetric<Long>
@@ -46,28 +51,12 @@ public final class Counter extends AbstractMetric<Long>
   /**
    * A map of the {@link Counter} values, with a list of label values as the keys.
    *
-   * <p>This should be modified in a critical section with {@code valueStartTimestamps} so that the
-   * values are in sync.
-   */
-  private final AtomicLongMap<ImmutableList<String>> values = AtomicLongMap.create();
-
-  /**
-   * A map of the {@link Instant} that each value was created, with a list of label values as the
-   * keys. The start timestamp (as part of the {@link MetricPoint#interval()} can be used by
-   * implementations of {@link MetricWriter} to encode resets of monotonic counters.
+   * <p>Entries are never replaced or removed, since sets and resets happen in place. This is what
+   * allows an {@link IncrementableMetric.Incrementer} to hold on to its value.
    */
-  private final ConcurrentHashMap<ImmutableList<String>, Instant> valueStartTimestamps =
+  private final ConcurrentHashMap<ImmutableList<String>, Value> values =
       newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
 
-  /**
-   * A fine-grained lock to ensure that {@code values} and {@code valueStartTimestamps} are modified
-   * and read in a critical section. The initialization parameter is the concurrency level, set to
-   * match the default concurrency level of {@link ConcurrentHashMap}.
-   *
-   * @see Striped
-   */
-  private final Striped<Lock> valueLocks = Striped.lock(DEFAULT_CONCURRENCY_LEVEL);
-
   Counter(
       String name,
       String description,
@@ -78,15 +67,7 @@ public final class Counter extends AbstractMetric<Long>
 
   @VisibleForTesting
   void incrementBy(long offset, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      values.addAndGet(labelValues, offset);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getOrCreateValue(labelValues, startTimestamp).count.addAndGet(offset);
   }
 
   @Override
@@ -94,14 +75,21 @@ public final class Counter extends AbstractMetric<Long>
     MetricsUtils.checkLabelValuesLength(this, labelValues);
     checkArgument(offset >= 0, "The offset provided must be non-negative");
 
-    incrementBy(offset, Instant.now(), ImmutableList.copyOf(labelValues));
+    getOrCreateValue(Arrays.asList(labelValues)).count.addAndGet(offset);
   }
 
   @Override
   public final void increment(String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    incrementBy(1L, Instant.now(), ImmutableList.copyOf(labelValues));
+    getOrCreateValue(Arrays.asList(labelValues)).count.incrementAndGet();
+  }
+
+  @Override
+  public final Incrementer forLabels(String... labelValues) {
+    MetricsUtils.checkLabelValuesLength(this, labelValues);
+
+    return new CounterIncrementer(ImmutableList.copyOf(labelValues));
   }
 
   /**
@@ -121,15 +109,15 @@ public final class Counter extends AbstractMetric<Long>
   @VisibleForTesting
   final ImmutableList<MetricPoint<Long>> getTimestampedValues(Instant endTimestamp) {
     ImmutableList.Builder<MetricPoint<Long>> timestampedValues = new ImmutableList.Builder<>();
-    for (Entry<ImmutableList<String>, Long> entry : values.asMap().entrySet()) {
+    for (Entry<ImmutableList<String>, Value> entry : values.entrySet()) {
       ImmutableList<String> labelValues = entry.getKey();
-      valueLocks.get(labelValues).lock();
+      Value value = entry.getValue();
 
       Instant startTimestamp;
-      try {
-        startTimestamp = valueStartTimestamps.get(labelValues);
-      } finally {
-        valueLocks.get(labelValues).unlock();
+      long count;
+      synchronized (value) {
+        startTimestamp = value.startTimestamp;
+        count = value.count.get();
       }
 
       // There is an opportunity for endTimestamp to be less than startTimestamp if
@@ -139,7 +127,7 @@ public final class Counter extends AbstractMetric<Long>
       endTimestamp = Ordering.natural().max(startTimestamp, endTimestamp);
 
       timestampedValues.add(
-          MetricPoint.create(this, labelValues, startTimestamp, endTimestamp, entry.getValue()));
+          MetricPoint.create(this, labelValues, startTimestamp, endTimestamp, count));
 
     }
     return timestampedValues.build();
@@ -147,15 +135,7 @@ public final class Counter extends AbstractMetric<Long>
 
   @VisibleForTesting
   final void set(Long value, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, value);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getOrCreateValue(labelValues, startTimestamp).count.set(value);
   }
 
   @Override
@@ -166,22 +146,11 @@ public final class Counter extends AbstractMetric<Long>
   }
 
   @VisibleForTesting
-  final void reset(Instant startTimestamp) {
-    // Lock the entire set of values so that all existing values will have a consistent timestamp
-    // after this call, without the possibility of interleaving with another reset() call.
-    for (int i = 0; i < valueLocks.size(); i++) {
-      valueLocks.getAt(i).lock();
-    }
-
-    try {
-      for (ImmutableList<String> labelValues : values.asMap().keySet()) {
-        this.values.put(labelValues, 0);
-        this.valueStartTimestamps.put(labelValues, startTimestamp);
-      }
-    } finally {
-      for (int i = 0; i < valueLocks.size(); i++) {
-        valueLocks.getAt(i).unlock();
-      }
+  final synchronized void reset(Instant startTimestamp) {
+    // Synchronize on the metric so that all existing values will have a consistent timestamp after
+    // this call, without the possibility of interleaving with another reset() call.
+    for (Value value : values.values()) {
+      value.reset(startTimestamp);
     }
   }
 
@@ -192,15 +161,7 @@ public final class Counter extends AbstractMetric<Long>
 
   @VisibleForTesting
   final void reset(Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, 0);
-      this.valueStartTimestamps.put(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getOrCreateValue(labelValues, startTimestamp).reset(startTimestamp);
   }
 
   @Override
@@ -209,4 +170,81 @@ public final class Counter extends AbstractMetric<Long>
 
     reset(Instant.now(), ImmutableList.copyOf(labelValues));
   }
+
+  /** Returns the value for the given label values, creating it now if it doesn't exist yet. */
+  private Value getOrCreateValue(List<String> labelValues) {
+    Value value = values.get(labelValues);
+    return (value != null) ? value : getOrCreateValue(labelValues, Instant.now());
+  }
+
+  /** Returns the value for the given label values, starting it at the given time if it's new. */
+  private Value getOrCreateValue(List<String> labelValues, Instant startTimestamp) {
+    Value value = values.get(labelValues);
+    if (value == null) {
+      // Copy the label values, since they may be backed by the caller's varargs array.
+      Value newValue = new Value(startTimestamp);
+      value = values.putIfAbsent(ImmutableList.copyOf(labelValues), newValue);
+      if (value == null) {
+        value = newValue;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * The count and start timestamp for one list of label values.
+   *
+   * <p>The count is updated without holding this object's monitor, which only keeps resets and
+   * exports consistent with the start timestamp.
+   */
+  private static final class Value {
+
+    final AtomicLong count = new AtomicLong();
+
+    @GuardedBy("this")
+    Instant startTimestamp;
+
+    Value(Instant startTimestamp) {
+      this.startTimestamp = startTimestamp;
+    }
+
+    synchronized void reset(Instant newStartTimestamp) {
+      count.set(0);
+      startTimestamp = newStartTimestamp;
+    }
+  }
+
+  /** An {@link IncrementableMetric.Incrementer} for a fixed list of label values. */
+  private final class CounterIncrementer implements Incrementer {
+
+    private final ImmutableList<String> labelValues;
+
+    /** The value to increment, looked up on the first increment. */
+    private volatile Value value;
+
+    private CounterIncrementer(ImmutableList<String> labelValues) {
+      this.labelValues = labelValues;
+    }
+
+    @Override
+    public void increment() {
+      getValue().count.incrementAndGet();
+    }
+
+    @Override
+    public void incrementBy(long offset) {
+      checkArgument(offset >= 0, "The offset provided must be non-negative");
+
+      getValue().count.addAndGet(offset);
+    }
+
+    private Value getValue() {
+      Value currentValue = value;
+      if (currentValue == null) {
+        currentValue = getOrCreateValue(labelValues);
+        value = currentValue;
+      }
+      return currentValue;
+    }
+  }
 }
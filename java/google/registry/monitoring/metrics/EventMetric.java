@@ -21,11 +21,13 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
-import com.google.common.util.concurrent.Striped;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 import org.joda.time.Instant;
 
 /**
@@ -36,9 +38,13 @@ import org.joda.time.Instant;
  * quantitative aspect of an event. For example, this metric would be suitable for recording the
  * latency distribution for a request over the network.
  *
- * <p>The {@link MutableDistribution} values tracked by this metric can be reset with {@link
- * EventMetric#reset()}.
+ * <p>Recording a sample takes no locks shared with other threads. Callers that record under the
+ * same label values many times can get a {@link Recorder} from {@link #forLabels} to skip the
+ * lookup of the label values as well.
+ *
+ * <p>The values tracked by this metric can be reset with {@link EventMetric#reset()}.
  */
+@ThreadSafe
 public class EventMetric extends AbstractMetric<Distribution> {
 
   /**
@@ -48,21 +54,16 @@ public class EventMetric extends AbstractMetric<Distribution> {
    */
   public static final DistributionFitter DEFAULT_FITTER = ExponentialFitter.create(16, 4.0, 1.0);
 
-  private final ConcurrentHashMap<ImmutableList<String>, Instant> valueStartTimestamps =
-      newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
-  private final ConcurrentHashMap<ImmutableList<String>, MutableDistribution> values =
-      newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
-
-  private final DistributionFitter distributionFitter;
-
   /**
-   * A fine-grained lock to ensure that {@code values} and {@code valueStartTimestamps} are modified
-   * and read in a critical section. The initialization parameter is the concurrency level, set to
-   * match the default concurrency level of {@link ConcurrentHashMap}.
+   * The values of this metric, with a list of label values as the keys.
    *
-   * @see Striped
+   * <p>Entries are never replaced or removed, since resets happen in place. This is what allows a
+   * {@link Recorder} to hold on to its value.
    */
-  private final Striped<Lock> valueLocks = Striped.lock(DEFAULT_CONCURRENCY_LEVEL);
+  private final ConcurrentHashMap<ImmutableList<String>, Value> values =
+      newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
+
+  private final DistributionFitter distributionFitter;
 
   EventMetric(
       String name,
@@ -90,18 +91,15 @@ public class EventMetric extends AbstractMetric<Distribution> {
     ImmutableList.Builder<MetricPoint<Distribution>> timestampedValues =
         new ImmutableList.Builder<>();
 
-    for (Entry<ImmutableList<String>, MutableDistribution> entry : values.entrySet()) {
+    for (Entry<ImmutableList<String>, Value> entry : values.entrySet()) {
       ImmutableList<String> labelValues = entry.getKey();
-      Lock lock = valueLocks.get(labelValues);
-      lock.lock();
+      Value value = entry.getValue();
 
       Instant startTimestamp;
       ImmutableDistribution distribution;
-      try {
-        startTimestamp = valueStartTimestamps.get(labelValues);
-        distribution = ImmutableDistribution.copyOf(entry.getValue());
-      } finally {
-        lock.unlock();
+      synchronized (value) {
+        startTimestamp = value.startTimestamp;
+        distribution = value.distribution.snapshot();
       }
 
       // There is an opportunity for endTimestamp to be less than startTimestamp if
@@ -128,7 +126,7 @@ public class EventMetric extends AbstractMetric<Distribution> {
   public void record(double sample, String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    recordMultiple(sample, 1, Instant.now(), ImmutableList.copyOf(labelValues));
+    getOrCreateValue(Arrays.asList(labelValues)).distribution.add(sample, 1);
   }
 
   /**
@@ -143,25 +141,27 @@ public class EventMetric extends AbstractMetric<Distribution> {
   public void record(double sample, int count, String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    recordMultiple(sample, count, Instant.now(), ImmutableList.copyOf(labelValues));
+    getOrCreateValue(Arrays.asList(labelValues)).distribution.add(sample, count);
   }
 
   @VisibleForTesting
   void recordMultiple(
       double sample, int count, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
+    getOrCreateValue(labelValues, startTimestamp).distribution.add(sample, count);
+  }
 
-    try {
-      if (!values.containsKey(labelValues)) {
-        values.put(labelValues, new MutableDistribution(distributionFitter));
-      }
+  /**
+   * Returns a {@link Recorder} which adds samples to the {@link Distribution} for the given {@code
+   * labelValues}.
+   *
+   * <p>The {@link Distribution} isn't autovivified until the first sample is recorded.
+   *
+   * <p>The count of {@code labelValues} must be equal to the underlying metric's count of labels.
+   */
+  public Recorder forLabels(String... labelValues) {
+    MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-      values.get(labelValues).add(sample, count);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    return new Recorder(ImmutableList.copyOf(labelValues));
   }
 
   /**
@@ -175,22 +175,11 @@ public class EventMetric extends AbstractMetric<Distribution> {
   }
 
   @VisibleForTesting
-  final void reset(Instant startTime) {
-    // Lock the entire set of values so that all existing values will have a consistent timestamp
-    // after this call, without the possibility of interleaving with another reset() call.
-    for (int i = 0; i < valueLocks.size(); i++) {
-      valueLocks.getAt(i).lock();
-    }
-
-    try {
-      for (ImmutableList<String> labelValues : values.keySet()) {
-        this.values.put(labelValues, new MutableDistribution(distributionFitter));
-        this.valueStartTimestamps.put(labelValues, startTime);
-      }
-    } finally {
-      for (int i = 0; i < valueLocks.size(); i++) {
-        valueLocks.getAt(i).unlock();
-      }
+  final synchronized void reset(Instant startTime) {
+    // Synchronize on the metric so that all existing values will have a consistent timestamp after
+    // this call, without the possibility of interleaving with another reset() call.
+    for (Value value : values.values()) {
+      value.reset(startTime);
     }
   }
 
@@ -208,14 +197,83 @@ public class EventMetric extends AbstractMetric<Distribution> {
 
   @VisibleForTesting
   final void reset(Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, new MutableDistribution(distributionFitter));
-      this.valueStartTimestamps.put(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
+    getOrCreateValue(labelValues, startTimestamp).reset(startTimestamp);
+  }
+
+  /** Returns the value for the given label values, creating it now if it doesn't exist yet. */
+  private Value getOrCreateValue(List<String> labelValues) {
+    Value value = values.get(labelValues);
+    return (value != null) ? value : getOrCreateValue(labelValues, Instant.now());
+  }
+
+  /** Returns the value for the given label values, starting it at the given time if it's new. */
+  private Value getOrCreateValue(List<String> labelValues, Instant startTimestamp) {
+    Value value = values.get(labelValues);
+    if (value == null) {
+      // Copy the label values, since they may be backed by the caller's varargs array.
+      Value newValue = new Value(new StripedDistribution(distributionFitter), startTimestamp);
+      value = values.putIfAbsent(ImmutableList.copyOf(labelValues), newValue);
+      if (value == null) {
+        value = newValue;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * The {@link Distribution} and start timestamp for one list of label values.
+   *
+   * <p>Samples are added to the distribution without holding this object's monitor, which only
+   * keeps resets and exports consistent with the start timestamp.
+   */
+  private static final class Value {
+
+    final StripedDistribution distribution;
+
+    @GuardedBy("this")
+    Instant startTimestamp;
+
+    Value(StripedDistribution distribution, Instant startTimestamp) {
+      this.distribution = distribution;
+      this.startTimestamp = startTimestamp;
+    }
+
+    synchronized void reset(Instant newStartTimestamp) {
+      distribution.reset();
+      startTimestamp = newStartTimestamp;
+    }
+  }
+
+  /**
+   * A handle for recording samples under a fixed list of label values.
+   *
+   * <p>Instances are thread-safe, and are meant to be created once and kept in a field.
+   */
+  @ThreadSafe
+  public final class Recorder {
+
+    private final ImmutableList<String> labelValues;
+
+    /** The value the samples are added to, looked up when the first sample is recorded. */
+    private volatile Value value;
+
+    private Recorder(ImmutableList<String> labelValues) {
+      this.labelValues = labelValues;
+    }
+
+    /** Adds the given {@code sample} to the {@link Distribution}. */
+    public void record(double sample) {
+      record(sample, 1);
+    }
+
+    /** Adds {@code count} of the given {@code sample} to the {@link Distribution}. */
+    public void record(double sample, int count) {
+      Value currentValue = value;
+      if (currentValue == null) {
+        currentValue = getOrCreateValue(labelValues);
+        value = currentValue;
+      }
+      currentValue.distribution.add(sample, count);
     }
   }
 }
@@ -49,6 +49,15 @@ public interface IncrementableMetric extends Metric<Long> {
    */
   void incrementBy(long offset, String... labelValues);
 
+  /**
+   * Returns an {@link Incrementer} for the given label values.
+   *
+   * <p>The metric isn't defined for the given label values until the first increment.
+   *
+   * <p>The count of {@code labelValues} must be equal to the underlying metric's count of labels.
+   */
+  Incrementer forLabels(String... labelValues);
+
   /**
    * Resets the value and start timestamp of the metric for the given label values.
    *
@@ -64,4 +73,22 @@ public interface IncrementableMetric extends Metric<Long> {
    * transaction, for example.
    */
   void reset();
+
+  /**
+   * A handle for incrementing a metric under a fixed list of label values.
+   *
+   * <p>Instances are thread-safe, and are meant to be created once and kept in a field.
+   */
+  interface Incrementer {
+
+    /** Increments the metric by 1. */
+    void increment();
+
+    /**
+     * Increments the metric by the given non-negative offset.
+     *
+     * @throws IllegalArgumentException if the offset is negative.
+     */
+    void incrementBy(long offset);
+  }
 }
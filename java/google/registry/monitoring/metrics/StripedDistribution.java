@@ -0,0 +1,198 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.monitoring.metrics.MetricsUtils.checkDouble;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeMap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
+import com.google.common.math.IntMath;
+import com.google.common.primitives.Doubles;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A thread-safe accumulator of samples for an {@link EventMetric}, which is turned into an
+ * {@link ImmutableDistribution} at export time.
+ *
+ * <p>Samples are recorded into one of several stripes, chosen by the recording thread, so that
+ * concurrent requests almost never wait on each other. Each stripe keeps its own interval counts,
+ * mean and sum of squared deviation, and stripes are only created once a thread records into them.
+ * The stripes are merged when {@link #snapshot} is called.
+ *
+ * <p>Unlike {@link MutableDistribution}, recording a sample doesn't allocate.
+ */
+@ThreadSafe
+final class StripedDistribution {
+
+  /**
+   * The number of stripes, a power of two.
+   *
+   * <p>Each stripe is guarded by its own monitor. There are at least as many stripes as there are
+   * processors, since the App Engine Java 7 runtime has no {@code LongAdder} to spread the updates
+   * out dynamically.
+   */
+  @VisibleForTesting
+  static final int STRIPE_COUNT =
+      IntMath.ceilingPowerOfTwo(Math.max(8, Runtime.getRuntime().availableProcessors()));
+
+  private final DistributionFitter distributionFitter;
+  private final double[] boundaries;
+  private final ImmutableList<Range<Double>> intervals;
+  private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPE_COUNT);
+
+  /** Constructs an empty accumulator with the specified {@link DistributionFitter}. */
+  StripedDistribution(DistributionFitter distributionFitter) {
+    this.distributionFitter = checkNotNull(distributionFitter);
+    this.boundaries = Doubles.toArray(distributionFitter.boundaries());
+
+    checkArgument(boundaries.length > 0);
+    checkArgument(Ordering.natural().isOrdered(distributionFitter.boundaries()));
+
+    // The intervals are in ascending order: underflow, finite intervals, then overflow.
+    ImmutableList.Builder<Range<Double>> intervalsBuilder = new ImmutableList.Builder<>();
+    intervalsBuilder.add(Range.lessThan(boundaries[0]));
+    for (int i = 1; i < boundaries.length; i++) {
+      intervalsBuilder.add(Range.closedOpen(boundaries[i - 1], boundaries[i]));
+    }
+    intervalsBuilder.add(Range.atLeast(boundaries[boundaries.length - 1]));
+    this.intervals = intervalsBuilder.build();
+  }
+
+  /** Records {@code numSamples} occurrences of {@code value}. */
+  void add(double value, long numSamples) {
+    checkArgument(numSamples > 0, "numSamples must be greater than 0");
+    checkDouble(value);
+
+    getStripe().add(getInterval(value), value, numSamples);
+  }
+
+  /** Returns an immutable copy of the samples recorded so far, merged across all stripes. */
+  ImmutableDistribution snapshot() {
+    long[] intervalCounts = new long[intervals.size()];
+    long count = 0;
+    double mean = 0.0;
+    double sumOfSquaredDeviation = 0.0;
+
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      Stripe stripe = stripes.get(i);
+      if (stripe == null) {
+        continue;
+      }
+      synchronized (stripe) {
+        if (stripe.count == 0) {
+          continue;
+        }
+        for (int j = 0; j < intervalCounts.length; j++) {
+          intervalCounts[j] += stripe.intervalCounts[j];
+        }
+        if (count == 0) {
+          mean = stripe.mean;
+          sumOfSquaredDeviation = stripe.sumOfSquaredDeviation;
+        } else {
+          // Combine the two partial results, as described in Chan, Golub and LeVeque, "Updating
+          // Formulae and a Pairwise Algorithm for Computing Sample Variances" (1979).
+          double totalCount = count + stripe.count;
+          double delta = stripe.mean - mean;
+          mean += delta * stripe.count / totalCount;
+          sumOfSquaredDeviation +=
+              stripe.sumOfSquaredDeviation + delta * delta * count * stripe.count / totalCount;
+        }
+        count += stripe.count;
+      }
+    }
+
+    ImmutableRangeMap.Builder<Double, Long> intervalCountsBuilder = ImmutableRangeMap.builder();
+    for (int i = 0; i < intervalCounts.length; i++) {
+      intervalCountsBuilder.put(intervals.get(i), intervalCounts[i]);
+    }
+    return ImmutableDistribution.create(
+        mean, sumOfSquaredDeviation, count, intervalCountsBuilder.build(), distributionFitter);
+  }
+
+  /** Discards all samples recorded so far. */
+  void reset() {
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      Stripe stripe = stripes.get(i);
+      if (stripe != null) {
+        stripe.reset();
+      }
+    }
+  }
+
+  /** Returns the index into {@link #intervals} of the interval containing {@code value}. */
+  private int getInterval(double value) {
+    // Each finite interval is closed at its lower boundary, so a value equal to a boundary belongs
+    // to the interval above it.
+    int index = Arrays.binarySearch(boundaries, value);
+    return (index >= 0) ? index + 1 : -index - 1;
+  }
+
+  /** Returns the calling thread's stripe, creating it if necessary. */
+  private Stripe getStripe() {
+    // Thread IDs are handed out sequentially, so they spread threads evenly across the stripes.
+    int index = (int) Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+    Stripe stripe = stripes.get(index);
+    if (stripe == null) {
+      stripes.compareAndSet(index, null, new Stripe(intervals.size()));
+      stripe = stripes.get(index);
+    }
+    return stripe;
+  }
+
+  /** The samples recorded by the threads sharing one stripe. */
+  private static final class Stripe {
+
+    @GuardedBy("this")
+    private final long[] intervalCounts;
+
+    @GuardedBy("this")
+    private long count;
+
+    @GuardedBy("this")
+    private double mean;
+
+    @GuardedBy("this")
+    private double sumOfSquaredDeviation;
+
+    Stripe(int intervalCount) {
+      this.intervalCounts = new long[intervalCount];
+    }
+
+    synchronized void add(int interval, double value, long numSamples) {
+      intervalCounts[interval] += numSamples;
+      count += numSamples;
+
+      // Update mean and sumOfSquaredDeviation using Welford's method, as MutableDistribution does.
+      double delta = value - mean;
+      mean += delta * numSamples / count;
+      sumOfSquaredDeviation += delta * (value - mean) * numSamples;
+    }
+
+    synchronized void reset() {
+      Arrays.fill(intervalCounts, 0L);
+      count = 0;
+      mean = 0.0;
+      sumOfSquaredDeviation = 0.0;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.NonFinalForTesting;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.json.simple.JSONValue;
+
+/**
+ * An in-memory buffer of {@link BigQueryMetric} rows, which groups them into batches for
+ * {@link BigQueryMetricsEnqueuer} to send to BigQuery.
+ *
+ * <p>Rows are kept per table. A table's rows are handed back as a batch once there are enough of
+ * them to fill one, or once the oldest has waited for the maximum buffer age. A batch holds at
+ * most the configured number of rows, and no more than will fit in one push task. The age is only
+ * checked when a row is added, so the rows on an instance which stops receiving requests stay
+ * buffered until it gets another one, and are lost if it is shut down first.
+ *
+ * <p>A batch which couldn't be sent can be {@link #restore restored}, keeping its insert IDs so
+ * that BigQuery can still deduplicate its rows. No further batches are handed back for that table
+ * until the maximum buffer age has passed, so that a failing queue isn't retried on every request.
+ * Meanwhile, the buffer holds at most the configured maximum number of rows per table, and further
+ * rows are dropped and counted.
+ */
+@Singleton
+@ThreadSafe
+public class BigQueryMetricsBuffer {
+
+  /** Reasons a row may be dropped. */
+  enum DropReason {
+    /** The table's buffer was full when the row was added. */
+    BUFFER_FULL,
+
+    /** The row's batch couldn't be sent, and there wasn't room to buffer it again. */
+    SEND_FAILED
+  }
+
+  /** The largest batch to hand back, leaving room in the task for its URL and headers. */
+  private static final int MAX_BATCH_BYTES = QueueConstants.maxPushTaskSizeBytes() * 9 / 10;
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("table_id", "BigQuery table the row was destined for."),
+          LabelDescriptor.create("reason", "Why the row was dropped."));
+
+  @NonFinalForTesting
+  @VisibleForTesting
+  static IncrementableMetric droppedRows =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/bigquery_metrics/dropped_rows",
+              "Count of BigQuery metric rows dropped before being sent",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  private final int batchSize;
+  private final Duration maxBufferAge;
+  private final int maxBufferedRows;
+  private final ConcurrentMap<String, TableBuffer> tableBuffers = new ConcurrentHashMap<>();
+
+  @Inject
+  BigQueryMetricsBuffer(
+      @Config("bigQueryMetricsBatchSize") int batchSize,
+      @Config("bigQueryMetricsMaxBufferAge") Duration maxBufferAge,
+      @Config("bigQueryMetricsMaxBufferedRows") int maxBufferedRows) {
+    checkArgument(batchSize > 0, "Batch size must be positive");
+    checkArgument(
+        maxBufferedRows >= batchSize, "Maximum buffered rows must be at least the batch size");
+    this.batchSize = batchSize;
+    this.maxBufferAge = maxBufferAge;
+    this.maxBufferedRows = maxBufferedRows;
+  }
+
+  /** A row waiting to be sent, encoded as JSON. */
+  @AutoValue
+  abstract static class Row {
+    static Row create(String insertId, String json, DateTime addedTime) {
+      return new AutoValue_BigQueryMetricsBuffer_Row(
+          insertId, json, addedTime, getEncodedSize(insertId, json));
+    }
+
+    abstract String insertId();
+
+    abstract String json();
+
+    abstract DateTime addedTime();
+
+    /** Roughly how many bytes this row takes up as form parameters of a task. */
+    abstract int encodedSize();
+
+    private static int getEncodedSize(String insertId, String json) {
+      try {
+        return URLEncoder.encode(insertId, UTF_8.name()).length()
+            + URLEncoder.encode(json, UTF_8.name()).length()
+            + "&insertId=&row=".length();
+      } catch (UnsupportedEncodingException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  /** Rows for one table, to be sent together. */
+  @AutoValue
+  abstract static class Batch {
+    static Batch create(String tableId, ImmutableList<Row> rows) {
+      return new AutoValue_BigQueryMetricsBuffer_Batch(tableId, rows);
+    }
+
+    abstract String tableId();
+
+    abstract ImmutableList<Row> rows();
+  }
+
+  /**
+   * Adds a row for the given table, and returns any batches which are now ready to be sent.
+   *
+   * <p>The batches are removed from the buffer, so the caller must either send or {@link #restore}
+   * them.
+   */
+  ImmutableList<Batch> add(
+      String tableId, String insertId, ImmutableMap<String, String> row, DateTime now) {
+    TableBuffer tableBuffer = getTableBuffer(tableId);
+    tableBuffer.add(Row.create(insertId, JSONValue.toJSONString(row), now));
+    ImmutableList.Builder<Batch> batches = new ImmutableList.Builder<>();
+    // Also check the other tables, so that a quiet table's rows don't wait on a busy one.
+    for (TableBuffer buffer : tableBuffers.values()) {
+      batches.addAll(buffer.drainReadyBatches(now));
+    }
+    return batches.build();
+  }
+
+  /** Puts the rows of a batch which couldn't be sent back into the buffer, to be sent later. */
+  void restore(Batch batch, DateTime now) {
+    getTableBuffer(batch.tableId()).restore(batch.rows(), now);
+  }
+
+  private TableBuffer getTableBuffer(String tableId) {
+    TableBuffer tableBuffer = tableBuffers.get(tableId);
+    if (tableBuffer == null) {
+      tableBuffers.putIfAbsent(tableId, new TableBuffer(tableId));
+      tableBuffer = tableBuffers.get(tableId);
+    }
+    return tableBuffer;
+  }
+
+  /** The rows waiting to be sent to one table, oldest first. */
+  private final class TableBuffer {
+
+    private final String tableId;
+
+    @GuardedBy("this")
+    private final Deque<Row> rows = new ArrayDeque<>();
+
+    @GuardedBy("this")
+    private int bytes;
+
+    /** When a batch may next be handed back, after a batch couldn't be sent. */
+    @GuardedBy("this")
+    private DateTime retryTime;
+
+    TableBuffer(String tableId) {
+      this.tableId = tableId;
+    }
+
+    synchronized void add(Row row) {
+      if (rows.size() >= maxBufferedRows) {
+        droppedRows.increment(tableId, DropReason.BUFFER_FULL.name());
+        return;
+      }
+      rows.addLast(row);
+      bytes += row.encodedSize();
+    }
+
+    synchronized void restore(ImmutableList<Row> batchRows, DateTime now) {
+      retryTime = now.plus(maxBufferAge);
+      // The restored rows are older than any buffered since, so they go back on the front. If
+      // there isn't room for all of them, the newest are dropped.
+      int restoredCount = Math.min(batchRows.size(), maxBufferedRows - rows.size());
+      for (int i = restoredCount - 1; i >= 0; i--) {
+        rows.addFirst(batchRows.get(i));
+        bytes += batchRows.get(i).encodedSize();
+      }
+      if (restoredCount < batchRows.size()) {
+        droppedRows.incrementBy(
+            batchRows.size() - restoredCount, tableId, DropReason.SEND_FAILED.name());
+      }
+    }
+
+    synchronized ImmutableList<Batch> drainReadyBatches(DateTime now) {
+      if (rows.isEmpty() || (retryTime != null && now.isBefore(retryTime))) {
+        return ImmutableList.of();
+      }
+      ImmutableList.Builder<Batch> batches = new ImmutableList.Builder<>();
+      // Full batches are always sent. A partial batch is only sent once its oldest row is stale.
+      while (rows.size() >= batchSize || bytes >= MAX_BATCH_BYTES) {
+        batches.add(drainBatch());
+      }
+      if (!rows.isEmpty() && !now.isBefore(rows.getFirst().addedTime().plus(maxBufferAge))) {
+        batches.add(drainBatch());
+      }
+      return batches.build();
+    }
+
+    @GuardedBy("this")
+    private Batch drainBatch() {
+      ImmutableList.Builder<Row> batchRows = new ImmutableList.Builder<>();
+      int batchBytes = 0;
+      int batchRowCount = 0;
+      Iterator<Row> iterator = rows.iterator();
+      while (iterator.hasNext() && batchRowCount < batchSize) {
+        Row row = iterator.next();
+        int rowBytes = row.encodedSize();
+        // Always take at least one row, even if it's too big, so that the buffer makes progress.
+        if (batchRowCount > 0 && batchBytes + rowBytes > MAX_BATCH_BYTES) {
+          break;
+        }
+        iterator.remove();
+        batchRows.add(row);
+        batchBytes += rowBytes;
+        batchRowCount++;
+      }
+      bytes -= batchBytes;
+      return Batch.create(tableId, batchRows.build());
+    }
+  }
+}
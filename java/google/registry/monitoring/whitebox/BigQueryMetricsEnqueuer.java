@@ -21,15 +21,21 @@ import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.common.base.Supplier;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Batch;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Row;
+import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
-import java.util.Map.Entry;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.DateTime;
 
 /**
  * A collector of metric information. Enqueues collected metrics to a task queue to be written to
  * BigQuery asynchronously.
  *
+ * <p>Rows are collected in a {@link BigQueryMetricsBuffer} first, and each task carries a whole
+ * batch of them, so that there are far fewer tasks than metrics.
+ *
  * @see MetricsExportAction
  */
 public class BigQueryMetricsEnqueuer {
@@ -41,24 +47,34 @@ public class BigQueryMetricsEnqueuer {
   @Inject ModulesService modulesService;
   @Inject @Named("insertIdGenerator") Supplier<String> idGenerator;
   @Inject @Named(QUEUE_BIGQUERY_STREAMING_METRICS) Queue queue;
+  @Inject BigQueryMetricsBuffer buffer;
+  @Inject Clock clock;
 
   @Inject BigQueryMetricsEnqueuer() {}
 
   public void export(BigQueryMetric metric) {
+    DateTime now = clock.nowUtc();
+    for (Batch batch :
+        buffer.add(metric.getTableId(), idGenerator.get(), metric.getBigQueryRowEncoding(), now)) {
+      enqueue(batch, now);
+    }
+  }
+
+  private void enqueue(Batch batch, DateTime now) {
     try {
       String hostname = modulesService.getVersionHostname("backend", null);
       TaskOptions opts =
           withUrl(MetricsExportAction.PATH)
               .header("Host", hostname)
-              .param("insertId", idGenerator.get());
-      for (Entry<String, String> entry : metric.getBigQueryRowEncoding().entrySet()) {
-        opts.param(entry.getKey(), entry.getValue());
+              .param("tableId", batch.tableId());
+      for (Row row : batch.rows()) {
+        opts.param("insertId", row.insertId()).param("row", row.json());
       }
-      opts.param("tableId", metric.getTableId());
       queue.add(opts);
     } catch (TransientFailureException e) {
-      // Log and swallow. We may drop some metrics here but this should be rare.
+      // Keep the rows to try again later. Some may be dropped if this keeps happening.
       logger.info(e, e.getMessage());
+      buffer.restore(batch, now);
     }
   }
 }
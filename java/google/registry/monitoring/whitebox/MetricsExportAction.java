@@ -14,6 +14,7 @@
 
 package google.registry.monitoring.whitebox;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Multimaps.filterKeys;
@@ -39,10 +40,18 @@ import google.registry.request.ParameterMap;
 import google.registry.request.auth.Auth;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import javax.inject.Inject;
+import org.json.simple.JSONValue;
 
-/** Action for exporting metrics to BigQuery. */
+/**
+ * Action for exporting metrics to BigQuery.
+ *
+ * <p>Each task carries a batch of rows from {@link BigQueryMetricsEnqueuer}, as matching lists of
+ * {@code insertId} and {@code row} parameters, with each row encoded as a JSON object. Older tasks
+ * carry a single row, as one parameter for each of its fields.
+ */
 @Action(
   path = MetricsExportAction.PATH,
   method = POST,
@@ -53,7 +62,8 @@ public class MetricsExportAction implements Runnable {
   public static final String PATH = "/_dr/task/metrics";
   private static final FormattingLogger logger = getLoggerForCallerClass();
   private static final String DATASET_ID = "metrics";
-  private static final ImmutableSet<String> SPECIAL_PARAMS = ImmutableSet.of("tableId", "insertId");
+  private static final ImmutableSet<String> SPECIAL_PARAMS =
+      ImmutableSet.of("tableId", "insertId", "row");
 
   @Inject @Parameter("tableId") String tableId;
   @Inject @Parameter("insertId") String insertId;
@@ -67,21 +77,12 @@ public class MetricsExportAction implements Runnable {
   public void run() {
     try {
       Bigquery bigquery = bigqueryFactory.create(projectId, DATASET_ID, tableId);
-      // Filter out the special parameters that the Action is called with.  Everything that's left
-      // is returned in a Map that is suitable to pass to Bigquery as row data.
-      Map<String, Object> jsonRows =
-          ImmutableMap.<String, Object>copyOf(
-              filterKeys(parameters, not(in(SPECIAL_PARAMS))).entries());
       TableDataInsertAllResponse response = bigquery.tabledata()
           .insertAll(
               projectId,
               DATASET_ID,
               tableId,
-              new TableDataInsertAllRequest()
-                  .setRows(
-                      ImmutableList.of(new TableDataInsertAllRequest.Rows()
-                          .setInsertId(insertId)
-                          .setJson(jsonRows))))
+              new TableDataInsertAllRequest().setRows(getRows()))
           .execute();
 
       if (response.getInsertErrors() != null && !response.getInsertErrors().isEmpty()) {
@@ -102,4 +103,31 @@ public class MetricsExportAction implements Runnable {
       logger.warningfmt("Caught Unknown Exception: %s", e);
     }
   }
+
+  /** Returns the rows carried by this task. */
+  private ImmutableList<TableDataInsertAllRequest.Rows> getRows() {
+    List<String> encodedRows = parameters.get("row");
+    if (encodedRows.isEmpty()) {
+      // Filter out the special parameters that the Action is called with.  Everything that's left
+      // is returned in a Map that is suitable to pass to Bigquery as row data.
+      Map<String, Object> jsonRows =
+          ImmutableMap.<String, Object>copyOf(
+              filterKeys(parameters, not(in(SPECIAL_PARAMS))).entries());
+      return ImmutableList.of(
+          new TableDataInsertAllRequest.Rows().setInsertId(insertId).setJson(jsonRows));
+    }
+    List<String> insertIds = parameters.get("insertId");
+    checkArgument(
+        insertIds.size() == encodedRows.size(),
+        "Got %s insert IDs for %s rows",
+        insertIds.size(),
+        encodedRows.size());
+    ImmutableList.Builder<TableDataInsertAllRequest.Rows> rows = new ImmutableList.Builder<>();
+    for (int i = 0; i < encodedRows.size(); i++) {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> json = (Map<String, Object>) JSONValue.parse(encodedRows.get(i));
+      rows.add(new TableDataInsertAllRequest.Rows().setInsertId(insertIds.get(i)).setJson(json));
+    }
+    return rows.build();
+  }
 }
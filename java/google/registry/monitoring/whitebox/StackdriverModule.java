@@ -40,7 +40,7 @@ public final class StackdriverModule {
 
   // We need a fake GCE zone to appease Stackdriver's resource model.
   // TODO(b/31021585): Revisit this if/when gae_instance exists.
-  private static final String SPOOFED_GCE_ZONE = "us-central1-f";
+  public static final String SPOOFED_GCE_ZONE = "us-central1-f";
 
   @Provides
   static Monitoring provideMonitoring(
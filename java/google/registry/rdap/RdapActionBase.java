@@ -16,17 +16,23 @@ package google.registry.rdap;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.net.HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static google.registry.model.EppResourceUtils.loadByForeignKeys;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.findTldForName;
 import static google.registry.model.registry.Registries.getTlds;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.util.DomainNameUtils.canonicalizeDomainName;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.BaseEncoding;
 import com.google.common.net.InternetDomainName;
 import com.google.common.net.MediaType;
 import com.google.re2j.Pattern;
@@ -46,11 +52,17 @@ import google.registry.request.auth.AuthResult;
 import google.registry.request.auth.UserAuthInfo;
 import google.registry.ui.server.registrar.SessionUtils;
 import google.registry.util.FormattingLogger;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.List;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
+import org.joda.time.DateTime;
 import org.json.simple.JSONValue;
 
 /**
@@ -69,8 +81,16 @@ public abstract class RdapActionBase implements Runnable {
    */
   static final Pattern LDH_PATTERN = Pattern.compile("[-.a-zA-Z0-9*]+");
 
+  /**
+   * How many times the result set size limit a search may read, when some of what it reads can't
+   * be returned, such as deleted domains or hosts that don't match a wildcard suffix.
+   */
+  public static final int RESULT_SET_SIZE_SCALING_FACTOR = 30;
+
   private static final MediaType RESPONSE_MEDIA_TYPE = MediaType.create("application", "rdap+json");
 
+  private static final BaseEncoding CURSOR_ENCODING = BaseEncoding.base64Url().omitPadding();
+
   @Inject HttpServletRequest request;
   @Inject Response response;
   @Inject @RequestMethod Action.Method requestMethod;
@@ -120,9 +140,13 @@ public abstract class RdapActionBase implements Runnable {
               pathProper.substring(getActionPath().length()),
               requestMethod == Action.Method.HEAD,
               rdapLinkBase);
+      // Search results are only built as they are rendered, so render the payload before setting
+      // the status, so that a failure still gets an RDAP error response. HEAD requests render it
+      // too, so that they fail whenever the equivalent GET would.
+      String payload = toJsonString(rdapJson);
       response.setStatus(SC_OK);
       if (requestMethod != Action.Method.HEAD) {
-        response.setPayload(JSONValue.toJSONString(rdapJson));
+        response.setPayload(payload);
       }
       response.setContentType(RESPONSE_MEDIA_TYPE);
     } catch (HttpException e) {
@@ -135,6 +159,17 @@ public abstract class RdapActionBase implements Runnable {
     }
   }
 
+  /** Renders a JSON object, including any {@link RdapSearchResults} in it, as a string. */
+  private static String toJsonString(ImmutableMap<String, Object> rdapJson) {
+    StringWriter writer = new StringWriter();
+    try {
+      JSONValue.writeJSONString(rdapJson, writer);
+    } catch (IOException e) {
+      throw new AssertionError(e);  // StringWriter doesn't throw.
+    }
+    return writer.toString();
+  }
+
   void setError(int status, String title, String description) {
     response.setStatus(status);
     try {
@@ -189,6 +224,76 @@ public abstract class RdapActionBase implements Runnable {
     return name;
   }
 
+  /**
+   * Decodes the opaque cursor passed back by a client continuing a paged search.
+   *
+   * <p>The cursor is just the base64url-encoded name or handle of the last result on the previous
+   * page, so the next page starts with the result after it.
+   *
+   * @throws BadRequestException if the cursor isn't one we could have handed out
+   */
+  static Optional<String> decodeCursor(Optional<String> cursorParam) {
+    if (!cursorParam.isPresent()) {
+      return Optional.absent();
+    }
+    try {
+      String cursor = new String(CURSOR_ENCODING.decode(cursorParam.get()), UTF_8);
+      if (cursor.isEmpty()) {
+        throw new IllegalArgumentException("Empty cursor");
+      }
+      return Optional.of(cursor);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid value of cursor parameter");
+    }
+  }
+
+  /** Encodes the name or handle of the last result on a page as an opaque cursor. */
+  static String encodeCursor(String lastResult) {
+    return CURSOR_ENCODING.encode(lastResult.getBytes(UTF_8));
+  }
+
+  /**
+   * Adds the RFC 8977 paging metadata for a search, with a link to the next page if there is one.
+   *
+   * @param builder the top-level JSON object of the search response
+   * @param results the page of search results
+   * @param queryParameter the name of the query parameter which specified the search
+   * @param queryValue the value of the query parameter, as the client passed it
+   * @return true if paging metadata was added, i.e. if there is a next page
+   */
+  boolean addPagingMetadata(
+      ImmutableMap.Builder<String, Object> builder,
+      RdapSearchResults results,
+      String queryParameter,
+      String queryValue) {
+    if (!results.nextCursor().isPresent()) {
+      return false;
+    }
+    // The link base ends with a slash, and the action path starts with "/rdap/".
+    String searchLink;
+    try {
+      searchLink = String.format(
+          "%s%s?%s=%s",
+          rdapLinkBase,
+          getActionPath().substring(getActionPath().lastIndexOf('/') + 1),
+          queryParameter,
+          URLEncoder.encode(queryValue, UTF_8.name()));
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+    builder.put(
+        "paging_metadata",
+        ImmutableMap.<String, Object>of(
+            "pageSize", results.results().size(),
+            "links", ImmutableList.of(
+                ImmutableMap.<String, Object>of(
+                    "value", searchLink,
+                    "rel", "next",
+                    "href", searchLink + "&cursor=" + results.nextCursor().get(),
+                    "type", "application/rdap+json"))));
+    return true;
+  }
+
   /**
    * Handles prefix searches in cases where there are no pending deletes. In such cases, it is
    * sufficient to check whether {@code deletionTime} is equal to {@code END_OF_TIME}, because any
@@ -209,6 +314,25 @@ public abstract class RdapActionBase implements Runnable {
       String filterField,
       RdapSearchPattern partialStringQuery,
       int resultSetMaxSize) {
+    return queryUndeleted(clazz, filterField, partialStringQuery, Optional.<String>absent())
+        .limit(resultSetMaxSize);
+  }
+
+  /**
+   * Handles prefix searches in cases where there are no pending deletes, without a limit, starting
+   * after a cursor.
+   *
+   * <p>Wildcard results are in {@code filterField} order, so a caller can read them lazily and stop
+   * as soon as it has enough, and can page through them by passing the last value it returned as
+   * the cursor.
+   *
+   * @see #queryUndeleted(Class, String, RdapSearchPattern, int)
+   */
+  static <T extends EppResource> Query<T> queryUndeleted(
+      Class<T> clazz,
+      String filterField,
+      RdapSearchPattern partialStringQuery,
+      Optional<String> cursor) {
     if (partialStringQuery.getInitialString().length()
         < RdapSearchPattern.MIN_INITIAL_STRING_LENGTH) {
       throw new UnprocessableEntityException(
@@ -220,16 +344,42 @@ public abstract class RdapActionBase implements Runnable {
       return ofy().load()
           .type(clazz)
           .filter(filterField, partialStringQuery.getInitialString())
-          .filter("deletionTime", END_OF_TIME)
-          .limit(resultSetMaxSize);
+          .filter("deletionTime", END_OF_TIME);
     } else {
       // Ignore the suffix; the caller will need to filter on the suffix, if any.
-      return ofy().load()
+      Query<T> query = ofy().load()
           .type(clazz)
           .filter(filterField + " >=", partialStringQuery.getInitialString())
           .filter(filterField + " <", partialStringQuery.getNextInitialString())
-          .filter("deletionTime", END_OF_TIME)
-          .limit(resultSetMaxSize);
+          .filter("deletionTime", END_OF_TIME);
+      if (cursor.isPresent()) {
+        query = query.filter(filterField + " >", cursor.get());
+      }
+      return query;
     }
   }
+
+  /**
+   * Lazily loads the resources with the given foreign keys, in order, leaving out any which don't
+   * exist at the given time.
+   *
+   * <p>The resources are loaded in batches as they are iterated over, so a caller which stops
+   * after a page of results only loads about that many.
+   *
+   * @param clazz the type of resource to load
+   * @param foreignKeys the foreign keys of the resources, which are read lazily
+   * @param batchSize how many resources to load per Datastore round trip
+   * @param now the time at which the resources must exist
+   */
+  static <T extends EppResource> Iterable<T> loadByForeignKeysLazily(
+      final Class<T> clazz, Iterable<String> foreignKeys, int batchSize, final DateTime now) {
+    return Iterables.concat(
+        Iterables.transform(
+            Iterables.partition(foreignKeys, batchSize),
+            new Function<List<String>, Iterable<T>>() {
+              @Override
+              public Iterable<T> apply(List<String> batch) {
+                return loadByForeignKeys(clazz, batch, now).values();
+              }}));
+  }
 }
@@ -14,7 +14,7 @@
 
 package google.registry.rdap;
 
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.EppResourceUtils.loadByForeignKeyCached;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
 
@@ -59,7 +59,8 @@ public class RdapDomainAction extends RdapActionBase {
     pathSearchString = canonicalizeName(pathSearchString);
     validateDomainName(pathSearchString);
     // The query string is not used; the RDAP syntax is /rdap/domain/mydomain.com.
-    DomainResource domainResource = loadByForeignKey(DomainResource.class, pathSearchString, now);
+    DomainResource domainResource =
+        loadByForeignKeyCached(DomainResource.class, pathSearchString, now);
     if (domainResource == null) {
       throw new NotFoundException(pathSearchString + " not found");
     }
@@ -16,13 +16,15 @@ package google.registry.rdap;
 
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.index.ForeignKeyIndex.loadAndGetKey;
+import static google.registry.model.index.HostInetAddressIndex.loadHostKeysByInetAddress;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.rdap.RdapIcannStandardInformation.TRUNCATION_NOTICES;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
-import static google.registry.util.DateTimeUtils.END_OF_TIME;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -49,6 +51,7 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -71,14 +74,13 @@ public class RdapDomainSearchAction extends RdapActionBase {
 
   public static final String PATH = "/rdap/domains";
 
-  public static final int RESULT_SET_SIZE_SCALING_FACTOR = 30;
-
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   @Inject Clock clock;
   @Inject @Parameter("name") Optional<String> nameParam;
   @Inject @Parameter("nsLdhName") Optional<String> nsLdhNameParam;
   @Inject @Parameter("nsIp") Optional<InetAddress> nsIpParam;
+  @Inject @Parameter("cursor") Optional<String> cursorParam;
   @Inject @Config("rdapResultSetMaxSize") int rdapResultSetMaxSize;
   @Inject RdapDomainSearchAction() {}
 
@@ -96,6 +98,8 @@ public class RdapDomainSearchAction extends RdapActionBase {
    * Parses the parameters and calls the appropriate search function.
    *
    * <p>The RDAP spec allows for domain search by domain name, nameserver name or nameserver IP.
+   * Only searches by domain name can be paged through with a cursor, since the other two are
+   * ordered by the nameservers found rather than by the domains themselves.
    */
   @Override
   public ImmutableMap<String, Object> getJsonObjectForResource(
@@ -120,7 +124,8 @@ public class RdapDomainSearchAction extends RdapActionBase {
       } catch (Exception e) {
         throw new BadRequestException("Invalid value of nsLdhName parameter");
       }
-      results = searchByDomainName(RdapSearchPattern.create(asciiName, true), now);
+      results = searchByDomainName(
+          RdapSearchPattern.create(asciiName, true), decodeCursor(cursorParam), now);
     } else if (nsLdhNameParam.isPresent()) {
       // syntax: /rdap/domains?nsLdhName=ns1.exam*.com
       // RFC 7482 appears to say that Unicode domains must be specified using punycode when
@@ -134,18 +139,21 @@ public class RdapDomainSearchAction extends RdapActionBase {
       // syntax: /rdap/domains?nsIp=1.2.3.4
       results = searchByNameserverIp(nsIpParam.get(), now);
     }
-    if (results.jsonList().isEmpty()) {
+    if (results.isEmpty()) {
       throw new NotFoundException("No domains found");
     }
     ImmutableMap.Builder<String, Object> builder = new ImmutableMap.Builder<>();
     builder.put("domainSearchResults", results.jsonList());
+    boolean hasPagingMetadata =
+        nameParam.isPresent() && addPagingMetadata(builder, results, "name", nameParam.get());
     rdapJsonFormatter.addTopLevelEntries(
         builder,
         BoilerplateType.DOMAIN,
         results.isTruncated()
             ? TRUNCATION_NOTICES : ImmutableList.<ImmutableMap<String, Object>>of(),
         ImmutableList.<ImmutableMap<String, Object>>of(),
-        rdapLinkBase);
+        rdapLinkBase,
+        hasPagingMetadata);
     return builder.build();
   }
 
@@ -157,9 +165,12 @@ public class RdapDomainSearchAction extends RdapActionBase {
    * characters (e.g. "ex*"), to avoid queries for all domains in the system. If the TLD is present,
    * the initial string is not required (e.g. "*.tld" is valid), because the search will be
    * restricted to a single TLD.
+   *
+   * <p>Wildcard results are returned in name order, so if the cursor is present, the search picks
+   * up with the first domain name after it.
    */
   private RdapSearchResults searchByDomainName(
-      final RdapSearchPattern partialStringQuery, final DateTime now) {
+      final RdapSearchPattern partialStringQuery, Optional<String> cursor, final DateTime now) {
     // Handle queries without a wildcard -- just load by foreign key.
     if (!partialStringQuery.getHasWildcard()) {
       DomainResource domainResource =
@@ -168,59 +179,76 @@ public class RdapDomainSearchAction extends RdapActionBase {
           ? ImmutableList.<DomainResource>of()
           : ImmutableList.of(domainResource);
       return makeSearchResults(results, false /* isTruncated */, now);
-    // Handle queries with a wildcard and no initial string.
-    } else if (partialStringQuery.getInitialString().isEmpty()) {
-      if (partialStringQuery.getSuffix() == null) {
+    }
+    // Handle queries with a wildcard. Without a TLD suffix, there must be an initial string, and it
+    // must be long enough not to match a large fraction of all domains.
+    if (partialStringQuery.getSuffix() == null) {
+      if (partialStringQuery.getInitialString().isEmpty()) {
         throw new UnprocessableEntityException(
             "Initial search string is required for wildcard domain searches without a TLD suffix");
       }
-      // Since we aren't searching on fullyQualifiedDomainName, we can perform our one allowed
-      // inequality query on deletion time.
-      Query<DomainResource> query = ofy().load()
-          .type(DomainResource.class)
-          .filter("tld", partialStringQuery.getSuffix())
-          .filter("deletionTime >", now)
-          .limit(rdapResultSetMaxSize + 1);
-      return makeSearchResults(query.list(), false /* isTruncated */, now);
-    // Handle queries with a wildcard and an initial string.
-    } else {
-      if ((partialStringQuery.getSuffix() == null)
-          && (partialStringQuery.getInitialString().length()
-              < RdapSearchPattern.MIN_INITIAL_STRING_LENGTH)) {
+      if (partialStringQuery.getInitialString().length()
+          < RdapSearchPattern.MIN_INITIAL_STRING_LENGTH) {
         throw new UnprocessableEntityException(
             String.format(
-                "Initial search string must be at least %d characters for wildcard domain searches"
-                    + " without a TLD suffix",
+                "Initial search string must be at least %d characters for wildcard domain"
+                    + " searches without a TLD suffix",
                 RdapSearchPattern.MIN_INITIAL_STRING_LENGTH));
       }
-
-      // We can't query for undeleted domains as part of the query itself; that would require an
-      // inequality query on deletion time, and we are already using inequality queries on
-      // fullyQualifiedDomainName. So we instead pick an arbitrary limit of
-      // RESULT_SET_SIZE_SCALING_FACTOR times the result set size limit, fetch up to that many, and
-      // weed out all deleted domains. If there still isn't a full result set's worth of domains, we
-      // give up and return just the ones we found.
-      // TODO(b/31546493): Add metrics to figure out how well this works.
-      List<DomainResource> domainList = new ArrayList<>();
-      Query<DomainResource> query = ofy().load()
-          .type(DomainResource.class)
+    }
+    Query<DomainResource> query = ofy().load().type(DomainResource.class);
+    if (!partialStringQuery.getInitialString().isEmpty()) {
+      query = query
           .filter("fullyQualifiedDomainName <", partialStringQuery.getNextInitialString())
           .filter("fullyQualifiedDomainName >=", partialStringQuery.getInitialString());
-      if (partialStringQuery.getSuffix() != null) {
-        query = query.filter("tld", partialStringQuery.getSuffix());
-      }
-      // TODO(mountford): Investigate fetching by foreign key instead of the domain itself.
-      for (DomainResource domain :
-          query.limit(RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize)) {
-        if (EppResourceUtils.isActive(domain, now)) {
-          if (domainList.size() >= rdapResultSetMaxSize) {
-            return makeSearchResults(ImmutableList.copyOf(domainList), true /* isTruncated */, now);
+    }
+    if (partialStringQuery.getSuffix() != null) {
+      query = query.filter("tld", partialStringQuery.getSuffix());
+    }
+    if (cursor.isPresent()) {
+      query = query.filter("fullyQualifiedDomainName >", cursor.get());
+    }
+    // We can't query for undeleted domains as part of the query itself; that would require an
+    // inequality query on deletion time, and we are already using inequality queries on
+    // fullyQualifiedDomainName. So we instead read the keys of up to RESULT_SET_SIZE_SCALING_FACTOR
+    // times the result set size limit, in name order, and load the domains a page at a time to weed
+    // out the deleted ones, stopping as soon as we have one more domain than fits in the result
+    // set. If we run out of keys to read first, there may be more matches further on, so the
+    // results are marked as truncated.
+    int readLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+    int readCount = 0;
+    List<DomainResource> domains = new ArrayList<>();
+    Iterable<Key<DomainResource>> domainKeys =
+        query.order("fullyQualifiedDomainName").limit(readLimit).keys();
+    for (List<Key<DomainResource>> keyBatch :
+        Iterables.partition(domainKeys, rdapResultSetMaxSize + 1)) {
+      Map<Key<DomainResource>, DomainResource> loadedDomains = ofy().load().keys(keyBatch);
+      for (Key<DomainResource> domainKey : keyBatch) {
+        readCount++;
+        DomainResource domain = loadedDomains.get(domainKey);
+        if ((domain != null) && EppResourceUtils.isActive(domain, now)) {
+          domains.add(domain);
+          if (domains.size() > rdapResultSetMaxSize) {
+            break;
           }
-          domainList.add(domain);
         }
       }
-      return makeSearchResults(domainList, false /* isTruncated */, now);
+      if (domains.size() > rdapResultSetMaxSize) {
+        break;
+      }
+    }
+    if ((domains.size() <= rdapResultSetMaxSize) && (readCount < readLimit)) {
+      return makeSearchResults(domains, false /* isTruncated */, now);
     }
+    List<DomainResource> page =
+        domains.subList(0, Math.min(domains.size(), rdapResultSetMaxSize));
+    return makeSearchResults(
+        page,
+        true /* isTruncated */,
+        page.isEmpty()
+            ? Optional.<String>absent()
+            : Optional.of(encodeCursor(Iterables.getLast(page).getFullyQualifiedDomainName())),
+        now);
   }
 
   /**
@@ -231,11 +259,11 @@ public class RdapDomainSearchAction extends RdapActionBase {
    */
   private RdapSearchResults searchByNameserverLdhName(
       final RdapSearchPattern partialStringQuery, final DateTime now) {
-    Iterable<Key<HostResource>> hostKeys = getNameserverRefsByLdhName(partialStringQuery, now);
-    if (Iterables.isEmpty(hostKeys)) {
+    HostKeys hostKeys = getNameserverRefsByLdhName(partialStringQuery, now);
+    if (hostKeys.keys().isEmpty()) {
       throw new NotFoundException("No matching nameservers found");
     }
-    return searchByNameserverRefs(hostKeys, now);
+    return searchByNameserverRefs(hostKeys.keys(), hostKeys.isTruncated(), now);
   }
 
   /**
@@ -248,16 +276,16 @@ public class RdapDomainSearchAction extends RdapActionBase {
    * initial string is not required (e.g. "*.example.tld" is valid), because we can look up the
    * domain and just list all of its subordinate hosts.
    */
-  private Iterable<Key<HostResource>> getNameserverRefsByLdhName(
+  private HostKeys getNameserverRefsByLdhName(
       final RdapSearchPattern partialStringQuery, final DateTime now) {
     // Handle queries without a wildcard; just load the host by foreign key in the usual way.
     if (!partialStringQuery.getHasWildcard()) {
       Key<HostResource> hostKey = loadAndGetKey(
           HostResource.class, partialStringQuery.getInitialString(), now);
       if (hostKey == null) {
-        return ImmutableList.of();
+        return HostKeys.create(ImmutableList.<Key<HostResource>>of(), false);
       } else {
-        return ImmutableList.of(hostKey);
+        return HostKeys.create(ImmutableList.of(hostKey), false);
       }
     // Handle queries with a wildcard.
     } else {
@@ -281,32 +309,38 @@ public class RdapDomainSearchAction extends RdapActionBase {
               }
             }
           }
-          return builder.build();
+          return HostKeys.create(builder.build(), false);
         }
       }
-      // If there's no suffix, or it isn't a domain we manage, query the host resources. Query the
-      // resources themselves, rather than the foreign key indexes, because then we have an index on
-      // fully qualified host name and deletion time, so we can check the deletion status in the
-      // query itself. There are no pending deletes for hosts, so we can call queryUndeleted. In
-      // this case, the initial string must be present, to avoid querying every host in the system.
-      // This restriction is enforced by queryUndeleted().
-      // TODO (b/24463238): figure out how to limit the size of these queries effectively
-      Iterable<Key<HostResource>> keys =
-          queryUndeleted(HostResource.class, "fullyQualifiedHostName", partialStringQuery, 1000)
-              .keys();
-      // queryUndeleted() ignores suffixes, so if one was specified, we must filter on the partial
-      // string query.
+      // If there's no suffix, or it isn't a domain we manage, query the host resources. There are
+      // no pending deletes for hosts, so we can call queryUndeleted. In this case, the initial
+      // string must be present, to avoid querying every host in the system. This restriction is
+      // enforced by queryUndeleted(). We read at most RESULT_SET_SIZE_SCALING_FACTOR times the
+      // result set size limit, and if we reach that limit, the domain results are marked as
+      // truncated, since there may be more matching hosts further on.
+      int readLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+      Query<HostResource> query =
+          queryUndeleted(
+                  HostResource.class,
+                  "fullyQualifiedHostName",
+                  partialStringQuery,
+                  Optional.<String>absent())
+              .limit(readLimit);
       if (partialStringQuery.getSuffix() == null) {
-        return keys;
-      } else {
-        ImmutableList.Builder<Key<HostResource>> filteredKeys = new ImmutableList.Builder<>();
-        for (Key<HostResource> key : keys) {
-          if (partialStringQuery.matches(key.getName())) {
-            filteredKeys.add(key);
-          }
+        ImmutableList<Key<HostResource>> hostKeys = ImmutableList.copyOf(query.keys());
+        return HostKeys.create(hostKeys, hostKeys.size() >= readLimit);
+      }
+      // queryUndeleted() ignores suffixes, so if one was specified, we must load the hosts to
+      // filter on the partial string query.
+      ImmutableList.Builder<Key<HostResource>> builder = new ImmutableList.Builder<>();
+      int readCount = 0;
+      for (HostResource host : query) {
+        readCount++;
+        if (partialStringQuery.matches(host.getFullyQualifiedHostName())) {
+          builder.add(Key.create(host));
         }
-        return filteredKeys.build();
       }
+      return HostKeys.create(builder.build(), readCount >= readLimit);
     }
   }
 
@@ -318,30 +352,24 @@ public class RdapDomainSearchAction extends RdapActionBase {
    */
   private RdapSearchResults searchByNameserverIp(
       final InetAddress inetAddress, final DateTime now) {
-    // In theory, we could filter on the deletion time being in the future. But we can't do that in
-    // the query on nameserver name (because we're already using an inequality query), and it seems
-    // dangerous and confusing to filter on deletion time differently between the two queries.
-    // Find all domains that link to any of these hosts, and return information about them.
-    // TODO (b/24463238): figure out how to limit the size of these queries effectively
-    return searchByNameserverRefs(
-        ofy()
-            .load()
-            .type(HostResource.class)
-            .filter("inetAddresses", inetAddress.getHostAddress())
-            .filter("deletionTime", END_OF_TIME)
-            .limit(1000)
-            .keys(),
-        now);
+    // Find all domains that link to any of these hosts, and return information about them. The
+    // hosts are read lazily, a batch at a time, so we only read as many as it takes to fill the
+    // result set.
+    return searchByNameserverRefs(loadHostKeysByInetAddress(inetAddress, now), false, now);
   }
 
   /**
    * Locates all domains which are linked to a set of host keys.
    *
    * <p>This method is called by {@link #searchByNameserverLdhName} and
-   * {@link #searchByNameserverIp} after they assemble the relevant host keys.
+   * {@link #searchByNameserverIp} after they assemble the relevant host keys. If the host keys
+   * were themselves cut short, {@code hostKeysTruncated} should be true, so that the results are
+   * marked as truncated.
    */
   private RdapSearchResults searchByNameserverRefs(
-      final Iterable<Key<HostResource>> hostKeys, final DateTime now) {
+      final Iterable<Key<HostResource>> hostKeys,
+      boolean hostKeysTruncated,
+      final DateTime now) {
     // We must break the query up into chunks, because the in operator is limited to 30 subqueries.
     // Since it is possible for the same domain to show up more than once in our result list (if
     // we do a wildcard nameserver search that returns multiple nameservers used by the same
@@ -362,26 +390,52 @@ public class RdapDomainSearchAction extends RdapActionBase {
         }
       }
     }
-    return makeSearchResults(ImmutableList.copyOf(domains), false /* isTruncated */, now);
+    return makeSearchResults(ImmutableList.copyOf(domains), hostKeysTruncated, now);
+  }
+
+  private RdapSearchResults makeSearchResults(
+      List<DomainResource> domains, boolean isTruncated, DateTime now) {
+    return makeSearchResults(domains, isTruncated, Optional.<String>absent(), now);
   }
 
   /**
    * Output JSON for a list of domains.
    *
    * <p>The isTruncated parameter should be true if the search found more results than are in the
-   * list, meaning that the truncation notice should be added.
+   * list, meaning that the truncation notice should be added. The JSON for each domain is only
+   * built when the response is written.
    */
   private RdapSearchResults makeSearchResults(
-      List<DomainResource> domains, boolean isTruncated, DateTime now) {
-    OutputDataType outputDataType =
+      List<DomainResource> domains,
+      boolean isTruncated,
+      Optional<String> nextCursor,
+      final DateTime now) {
+    final OutputDataType outputDataType =
         (domains.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
-    RdapAuthorization authorization = getAuthorization();
-    ImmutableList.Builder<ImmutableMap<String, Object>> jsonBuilder = new ImmutableList.Builder<>();
-    for (DomainResource domain : domains) {
+    final RdapAuthorization authorization = getAuthorization();
+    ImmutableList.Builder<Supplier<ImmutableMap<String, Object>>> jsonBuilder =
+        new ImmutableList.Builder<>();
+    for (final DomainResource domain : domains) {
       jsonBuilder.add(
-          rdapJsonFormatter.makeRdapJsonForDomain(
-              domain, false, rdapLinkBase, rdapWhoisServer, now, outputDataType, authorization));
+          new Supplier<ImmutableMap<String, Object>>() {
+            @Override
+            public ImmutableMap<String, Object> get() {
+              return rdapJsonFormatter.makeRdapJsonForDomain(
+                  domain, false, rdapLinkBase, rdapWhoisServer, now, outputDataType, authorization);
+            }});
+    }
+    return RdapSearchResults.create(jsonBuilder.build(), isTruncated, nextCursor);
+  }
+
+  /** Keys of the hosts found by a nameserver search, and whether the search was cut short. */
+  @AutoValue
+  abstract static class HostKeys {
+    static HostKeys create(ImmutableList<Key<HostResource>> keys, boolean isTruncated) {
+      return new AutoValue_RdapDomainSearchAction_HostKeys(keys, isTruncated);
     }
-    return RdapSearchResults.create(jsonBuilder.build(), isTruncated);
+
+    abstract ImmutableList<Key<HostResource>> keys();
+
+    abstract boolean isTruncated();
   }
 }
@@ -23,12 +23,14 @@ import static google.registry.util.DateTimeUtils.END_OF_TIME;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Booleans;
 import com.google.common.primitives.Longs;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DesignatedContact;
@@ -69,6 +71,7 @@ public class RdapEntitySearchAction extends RdapActionBase {
   @Inject Clock clock;
   @Inject @Parameter("fn") Optional<String> fnParam;
   @Inject @Parameter("handle") Optional<String> handleParam;
+  @Inject @Parameter("cursor") Optional<String> cursorParam;
   @Inject @Config("rdapResultSetMaxSize") int rdapResultSetMaxSize;
   @Inject RdapEntitySearchAction() {}
 
@@ -82,7 +85,12 @@ public class RdapEntitySearchAction extends RdapActionBase {
     return PATH;
   }
 
-  /** Parses the parameters and calls the appropriate search function. */
+  /**
+   * Parses the parameters and calls the appropriate search function.
+   *
+   * <p>Only wildcard searches by handle can be paged through with a cursor. Name searches are
+   * ordered by contact name, which isn't unique, and take in registrars as well as contacts.
+   */
   @Override
   public ImmutableMap<String, Object> getJsonObjectForResource(
       String pathSearchString, boolean isHeadRequest, String linkBase) {
@@ -103,20 +111,25 @@ public class RdapEntitySearchAction extends RdapActionBase {
     } else {
       // syntax: /rdap/entities?handle=12345-*
       // The handle is either the contact roid or the registrar clientId.
-      results = searchByHandle(RdapSearchPattern.create(handleParam.get(), false), now);
+      results = searchByHandle(
+          RdapSearchPattern.create(handleParam.get(), false), decodeCursor(cursorParam), now);
     }
-    if (results.jsonList().isEmpty()) {
+    if (results.isEmpty()) {
       throw new NotFoundException("No entities found");
     }
     ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("entitySearchResults", results.jsonList());
+    boolean hasPagingMetadata =
+        handleParam.isPresent()
+            && addPagingMetadata(jsonBuilder, results, "handle", handleParam.get());
     rdapJsonFormatter.addTopLevelEntries(
         jsonBuilder,
         BoilerplateType.ENTITY,
         results.isTruncated()
             ? TRUNCATION_NOTICES : ImmutableList.<ImmutableMap<String, Object>>of(),
         ImmutableList.<ImmutableMap<String, Object>>of(),
-        rdapLinkBase);
+        rdapLinkBase,
+        hasPagingMetadata);
     return jsonBuilder.build();
   }
 
@@ -164,12 +177,18 @@ public class RdapEntitySearchAction extends RdapActionBase {
       queryUndeleted(
           ContactResource.class, "searchName", partialStringQuery, rdapResultSetMaxSize + 1).list(),
       registrarMatches,
+      false,
       now);
   }
 
-  /** Searches for entities by handle, returning a JSON array of entity info maps. */
+  /**
+   * Searches for entities by handle, returning a JSON array of entity info maps.
+   *
+   * <p>Wildcard results are returned in handle order, so if the cursor is present, the search picks
+   * up with the first contact handle after it.
+   */
   private RdapSearchResults searchByHandle(
-      final RdapSearchPattern partialStringQuery, DateTime now) {
+      final RdapSearchPattern partialStringQuery, Optional<String> cursor, DateTime now) {
     // Handle queries without a wildcard -- load by ID.
     if (!partialStringQuery.getHasWildcard()) {
       ContactResource contactResource = ofy().load()
@@ -182,6 +201,7 @@ public class RdapEntitySearchAction extends RdapActionBase {
           ((contactResource == null) || !contactResource.getDeletionTime().isEqual(END_OF_TIME))
               ? ImmutableList.<ContactResource>of() : ImmutableList.of(contactResource),
           registrars,
+          false,
           now);
     // Handle queries with a wildcard, but no suffix. For contact resources, the deletion time will
     // always be END_OF_TIME for non-deleted records; unlike domain resources, we don't need to
@@ -195,18 +215,18 @@ public class RdapEntitySearchAction extends RdapActionBase {
         throw new UnprocessableEntityException(
             "Initial search string required in wildcard entity handle searches");
       }
-      return makeSearchResults(
-          ofy().load()
-              .type(ContactResource.class)
-              .filterKey(
-                  ">=", Key.create(ContactResource.class, partialStringQuery.getInitialString()))
-              .filterKey(
-                  "<", Key.create(ContactResource.class, partialStringQuery.getNextInitialString()))
-              .filter("deletionTime", END_OF_TIME)
-              .limit(rdapResultSetMaxSize + 1)
-              .list(),
-          ImmutableList.<Registrar>of(),
-          now);
+      Query<ContactResource> query = ofy().load()
+          .type(ContactResource.class)
+          .filterKey(
+              ">=", Key.create(ContactResource.class, partialStringQuery.getInitialString()))
+          .filterKey(
+              "<", Key.create(ContactResource.class, partialStringQuery.getNextInitialString()))
+          .filter("deletionTime", END_OF_TIME)
+          .limit(rdapResultSetMaxSize + 1);
+      if (cursor.isPresent()) {
+        query = query.filterKey(">", Key.create(ContactResource.class, cursor.get()));
+      }
+      return makeSearchResults(query.list(), ImmutableList.<Registrar>of(), true, now);
     // Don't allow suffixes in entity handle search queries.
     } else {
       throw new UnprocessableEntityException("Suffixes not allowed in entity handle searches");
@@ -225,9 +245,18 @@ public class RdapEntitySearchAction extends RdapActionBase {
     return ImmutableList.of();
   }
 
-  /** Builds a JSON array of entity info maps based on the specified contacts and registrars. */
+  /**
+   * Builds a JSON array of entity info maps based on the specified contacts and registrars.
+   *
+   * <p>The JSON for each entity is only built when the response is written. If the results are
+   * truncated among the contacts and {@code isPageable} is true, they include a cursor for the
+   * next page.
+   */
   private RdapSearchResults makeSearchResults(
-      List<ContactResource> contacts, List<Registrar> registrars, DateTime now) {
+      List<ContactResource> contacts,
+      List<Registrar> registrars,
+      boolean isPageable,
+      final DateTime now) {
 
     // Determine what output data type to use, depending on whether more than one entity will be
     // returned.
@@ -254,31 +283,47 @@ public class RdapEntitySearchAction extends RdapActionBase {
     // There can be more results than our max size, partially because we have two pools to draw from
     // (contacts and registrars), and partially because we try to fetch one more than the max size,
     // so we can tell whether to display the truncation notification.
-    RdapAuthorization authorization = getAuthorization();
-    List<ImmutableMap<String, Object>> jsonOutputList = new ArrayList<>();
-    for (ContactResource contact : contacts) {
+    final OutputDataType finalOutputDataType = outputDataType;
+    final RdapAuthorization authorization = getAuthorization();
+    List<Supplier<ImmutableMap<String, Object>>> jsonOutputList = new ArrayList<>();
+    for (final ContactResource contact : contacts) {
       if (jsonOutputList.size() >= rdapResultSetMaxSize) {
-        return RdapSearchResults.create(ImmutableList.copyOf(jsonOutputList), true);
+        return RdapSearchResults.create(
+            ImmutableList.copyOf(jsonOutputList),
+            true,
+            isPageable
+                ? Optional.of(encodeCursor(contacts.get(rdapResultSetMaxSize - 1).getRepoId()))
+                : Optional.<String>absent());
       }
       // As per Andy Newton on the regext mailing list, contacts by themselves have no role, since
       // they are global, and might have different roles for different domains.
-      jsonOutputList.add(rdapJsonFormatter.makeRdapJsonForContact(
-          contact,
-          false,
-          Optional.<DesignatedContact.Type>absent(),
-          rdapLinkBase,
-          rdapWhoisServer,
-          now,
-          outputDataType,
-          authorization));
+      jsonOutputList.add(
+          new Supplier<ImmutableMap<String, Object>>() {
+            @Override
+            public ImmutableMap<String, Object> get() {
+              return rdapJsonFormatter.makeRdapJsonForContact(
+                  contact,
+                  false,
+                  Optional.<DesignatedContact.Type>absent(),
+                  rdapLinkBase,
+                  rdapWhoisServer,
+                  now,
+                  finalOutputDataType,
+                  authorization);
+            }});
     }
-    for (Registrar registrar : registrars) {
+    for (final Registrar registrar : registrars) {
       if (registrar.isActiveAndPubliclyVisible()) {
         if (jsonOutputList.size() >= rdapResultSetMaxSize) {
           return RdapSearchResults.create(ImmutableList.copyOf(jsonOutputList), true);
         }
-        jsonOutputList.add(rdapJsonFormatter.makeRdapJsonForRegistrar(
-            registrar, false, rdapLinkBase, rdapWhoisServer, now, outputDataType));
+        jsonOutputList.add(
+            new Supplier<ImmutableMap<String, Object>>() {
+              @Override
+              public ImmutableMap<String, Object> get() {
+                return rdapJsonFormatter.makeRdapJsonForRegistrar(
+                    registrar, false, rdapLinkBase, rdapWhoisServer, now, finalOutputDataType);
+              }});
       }
     }
     return RdapSearchResults.create(ImmutableList.copyOf(jsonOutputList));
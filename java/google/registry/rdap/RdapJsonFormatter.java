@@ -16,6 +16,7 @@ package google.registry.rdap;
 
 import static com.google.common.base.Strings.nullToEmpty;
 import static google.registry.model.EppResourceUtils.isLinked;
+import static google.registry.model.EppResourceUtils.loadInOneBatch;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.union;
 import static google.registry.util.DomainNameUtils.ACE_PREFIX;
@@ -111,6 +112,7 @@ public class RdapJsonFormatter {
   }
 
   private static final String RDAP_CONFORMANCE_LEVEL = "rdap_level_0";
+  private static final String RDAP_PAGING_CONFORMANCE = "paging";
   private static final String VCARD_VERSION_NUMBER = "4.0";
   static final String NOTICES = "notices";
   private static final String REMARKS = "remarks";
@@ -268,6 +270,10 @@ public class RdapJsonFormatter {
   private static final ImmutableList<String> CONFORMANCE_LIST =
       ImmutableList.of(RDAP_CONFORMANCE_LEVEL);
 
+  /** Conformance list for responses carrying RFC 8977 paging metadata. */
+  private static final ImmutableList<String> CONFORMANCE_LIST_WITH_PAGING =
+      ImmutableList.of(RDAP_CONFORMANCE_LEVEL, RDAP_PAGING_CONFORMANCE);
+
   private static final ImmutableList<String> STATUS_LIST_ACTIVE =
       ImmutableList.of(RdapStatus.ACTIVE.rfc7483String);
   private static final ImmutableMap<String, ImmutableList<String>> PHONE_TYPE_VOICE =
@@ -334,7 +340,24 @@ public class RdapJsonFormatter {
       List<ImmutableMap<String, Object>> notices,
       List<ImmutableMap<String, Object>> remarks,
       String rdapLinkBase) {
-    jsonBuilder.put("rdapConformance", CONFORMANCE_LIST);
+    addTopLevelEntries(jsonBuilder, boilerplateType, notices, remarks, rdapLinkBase, false);
+  }
+
+  /**
+   * Adds the required top-level boilerplate, as above, to a response which may carry RFC 8977
+   * paging metadata. RFC 8977 § 2 requires such responses to list "paging" in rdapConformance.
+   *
+   * @param hasPagingMetadata true if the response includes a paging_metadata member
+   */
+  void addTopLevelEntries(
+      ImmutableMap.Builder<String, Object> jsonBuilder,
+      BoilerplateType boilerplateType,
+      List<ImmutableMap<String, Object>> notices,
+      List<ImmutableMap<String, Object>> remarks,
+      String rdapLinkBase,
+      boolean hasPagingMetadata) {
+    jsonBuilder.put(
+        "rdapConformance", hasPagingMetadata ? CONFORMANCE_LIST_WITH_PAGING : CONFORMANCE_LIST);
     ImmutableList.Builder<ImmutableMap<String, Object>> noticesBuilder =
         new ImmutableList.Builder<>();
     ImmutableMap<String, Object> tosNotice = getJsonTosNotice(rdapLinkBase);
@@ -483,20 +506,28 @@ public class RdapJsonFormatter {
       if (!events.isEmpty()) {
         jsonBuilder.put("events", events);
       }
-      // Kick off the database loads of the nameservers that we will need, so it can load
-      // asynchronously while we load and process the contacts.
-      Map<Key<HostResource>, HostResource> loadedHosts =
-          ofy().load().keys(domainResource.getNameservers());
-      // Load the registrant and other contacts and add them to the data.
+      // Load the nameservers and contacts that we will need in a single batch, rather than one
+      // round trip per kind, and then the superordinate domains of any subordinate nameservers in
+      // a second batch, rather than one at a time as each nameserver is formatted.
+      Map<Key<EppResource>, EppResource> loadedResources =
+          loadInOneBatch(
+              domainResource.getNameservers(),
+              displayContacts
+                  ? domainResource.getReferencedContacts()
+                  : ImmutableSet.<Key<ContactResource>>of());
+      ImmutableList<HostResource> loadedHosts =
+          FluentIterable.from(loadedResources.values()).filter(HostResource.class).toList();
+      Map<Key<DomainResource>, DomainResource> superordinateDomains =
+          loadSuperordinateDomains(loadedHosts);
+      // Add the registrant and other contacts to the data.
       if (displayContacts) {
-        Map<Key<ContactResource>, ContactResource> loadedContacts =
-            ofy().load().keys(domainResource.getReferencedContacts());
         ImmutableList.Builder<Object> entitiesBuilder = new ImmutableList.Builder<>();
         for (DesignatedContact designatedContact :
             FluentIterable.from(domainResource.getContacts())
                 .append(DesignatedContact.create(Type.REGISTRANT, domainResource.getRegistrant()))
                 .toSortedList(DESIGNATED_CONTACT_ORDERING)) {
-          ContactResource loadedContact = loadedContacts.get(designatedContact.getContactKey());
+          ContactResource loadedContact =
+              (ContactResource) loadedResources.get(designatedContact.getContactKey());
           entitiesBuilder.add(makeRdapJsonForContact(
               loadedContact,
               false,
@@ -514,10 +545,9 @@ public class RdapJsonFormatter {
       }
       // Add the nameservers to the data; the load was kicked off above for efficiency.
       ImmutableList.Builder<Object> nsBuilder = new ImmutableList.Builder<>();
-      for (HostResource hostResource
-          : HOST_RESOURCE_ORDERING.immutableSortedCopy(loadedHosts.values())) {
+      for (HostResource hostResource : HOST_RESOURCE_ORDERING.immutableSortedCopy(loadedHosts)) {
         nsBuilder.add(makeRdapJsonForHost(
-            hostResource, false, linkBase, null, now, outputDataType));
+            hostResource, false, linkBase, null, now, outputDataType, superordinateDomains));
       }
       ImmutableList<Object> ns = nsBuilder.build();
       if (!ns.isEmpty()) {
@@ -557,6 +587,34 @@ public class RdapJsonFormatter {
       @Nullable String whoisServer,
       DateTime now,
       OutputDataType outputDataType) {
+    return makeRdapJsonForHost(
+        hostResource,
+        isTopLevel,
+        linkBase,
+        whoisServer,
+        now,
+        outputDataType,
+        loadSuperordinateDomains(ImmutableList.of(hostResource)));
+  }
+
+  /**
+   * Creates a JSON object for a {@link HostResource}, using superordinate domains which have
+   * already been loaded.
+   *
+   * <p>This lets a caller formatting several hosts load all of their superordinate domains at once,
+   * using {@link #loadSuperordinateDomains}.
+   *
+   * @param superordinateDomains the loaded superordinate domains, which must include the host's
+   *        own if it is subordinate
+   */
+  ImmutableMap<String, Object> makeRdapJsonForHost(
+      HostResource hostResource,
+      boolean isTopLevel,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType,
+      Map<Key<DomainResource>, DomainResource> superordinateDomains) {
     ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("objectClassName", "nameserver");
     jsonBuilder.put("handle", hostResource.getRepoId());
@@ -572,9 +630,10 @@ public class RdapJsonFormatter {
       statuses.add(StatusValue.LINKED);
     }
     if (hostResource.isSubordinate()
-        && ofy().load().key(hostResource.getSuperordinateDomain()).now().cloneProjectedAtTime(now)
+        && superordinateDomains.get(hostResource.getSuperordinateDomain())
+            .cloneProjectedAtTime(now)
             .getStatusValues()
-                .contains(StatusValue.PENDING_TRANSFER)) {
+            .contains(StatusValue.PENDING_TRANSFER)) {
       statuses.add(StatusValue.PENDING_TRANSFER);
     }
     jsonBuilder.put("status", makeStatusValueList(statuses.build()));
@@ -915,6 +974,23 @@ public class RdapJsonFormatter {
         || registrarContact.getVisibleInWhoisAsTech();
   }
 
+  /**
+   * Starts loading the superordinate domains of any subordinate hosts among the given hosts, as a
+   * single batch.
+   *
+   * <p>The load is asynchronous, so the returned map only blocks when it is first read.
+   */
+  static Map<Key<DomainResource>, DomainResource> loadSuperordinateDomains(
+      Iterable<HostResource> hosts) {
+    ImmutableSet.Builder<Key<DomainResource>> keys = new ImmutableSet.Builder<>();
+    for (HostResource host : hosts) {
+      if (host.isSubordinate()) {
+        keys.add(host.getSuperordinateDomain());
+      }
+    }
+    return ofy().load().keys(keys.build());
+  }
+
   /**
    * Creates an event list for a domain, host or contact resource.
    */
@@ -19,6 +19,7 @@ import dagger.Module;
 import dagger.Provides;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
+import google.registry.util.CidrAddressBlock;
 import java.net.InetAddress;
 import javax.servlet.http.HttpServletRequest;
 
@@ -46,8 +47,8 @@ public final class RdapModule {
 
   @Provides
   @Parameter("ip")
-  static Optional<InetAddress> provideIp(HttpServletRequest req) {
-    return RequestParameters.extractOptionalInetAddressParameter(req, "ip");
+  static Optional<CidrAddressBlock> provideIp(HttpServletRequest req) {
+    return RequestParameters.extractOptionalCidrAddressBlockParameter(req, "ip");
   }
 
   @Provides
@@ -61,4 +62,10 @@ public final class RdapModule {
   static Optional<String> provideHandle(HttpServletRequest req) {
     return RequestParameters.extractOptionalParameter(req, "handle");
   }
+
+  @Provides
+  @Parameter("cursor")
+  static Optional<String> provideCursor(HttpServletRequest req) {
+    return RequestParameters.extractOptionalParameter(req, "cursor");
+  }
 }
@@ -15,32 +15,40 @@
 package google.registry.rdap;
 
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
-import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByCidrAddressBlock;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByInetAddress;
 import static google.registry.rdap.RdapIcannStandardInformation.TRUNCATION_NOTICES;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
-import static google.registry.util.DateTimeUtils.END_OF_TIME;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.primitives.Booleans;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
 import google.registry.request.Action;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.HttpException.NotFoundException;
+import google.registry.request.HttpException.UnprocessableEntityException;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
+import google.registry.util.CidrAddressBlock;
 import google.registry.util.Clock;
 import google.registry.util.Idn;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -65,7 +73,8 @@ public class RdapNameserverSearchAction extends RdapActionBase {
 
   @Inject Clock clock;
   @Inject @Parameter("name") Optional<String> nameParam;
-  @Inject @Parameter("ip") Optional<InetAddress> ipParam;
+  @Inject @Parameter("ip") Optional<CidrAddressBlock> ipParam;
+  @Inject @Parameter("cursor") Optional<String> cursorParam;
   @Inject @Config("rdapResultSetMaxSize") int rdapResultSetMaxSize;
   @Inject RdapNameserverSearchAction() {}
 
@@ -82,7 +91,9 @@ public class RdapNameserverSearchAction extends RdapActionBase {
   /**
    * Parses the parameters and calls the appropriate search function.
    *
-   * <p>The RDAP spec allows nameserver search by either name or IP address.
+   * <p>The RDAP spec allows nameserver search by either name or IP address. Once reads of the
+   * {@link HostInetAddressIndex} are enabled, we also allow searching for a block of IP addresses
+   * in CIDR notation. Only searches by name can be paged through with a cursor.
    */
   @Override
   public ImmutableMap<String, Object> getJsonObjectForResource(
@@ -104,29 +115,42 @@ public class RdapNameserverSearchAction extends RdapActionBase {
             "Name parameter must contain only letters, dots"
                 + " and hyphens, and an optional single wildcard");
       }
-      results = searchByName(RdapSearchPattern.create(Idn.toASCII(nameParam.get()), true), now);
+      results = searchByName(
+          RdapSearchPattern.create(Idn.toASCII(nameParam.get()), true),
+          decodeCursor(cursorParam),
+          now);
     } else {
-      // syntax: /rdap/nameservers?ip=1.2.3.4
+      // syntax: /rdap/nameservers?ip=1.2.3.4 or /rdap/nameservers?ip=1.2.3.0/24
       results = searchByIp(ipParam.get(), now);
     }
-    if (results.jsonList().isEmpty()) {
+    if (results.isEmpty()) {
       throw new NotFoundException("No nameservers found");
     }
     ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("nameserverSearchResults", results.jsonList());
+    boolean hasPagingMetadata =
+        nameParam.isPresent() && addPagingMetadata(jsonBuilder, results, "name", nameParam.get());
     rdapJsonFormatter.addTopLevelEntries(
         jsonBuilder,
         BoilerplateType.NAMESERVER,
         results.isTruncated()
             ? TRUNCATION_NOTICES : ImmutableList.<ImmutableMap<String, Object>>of(),
         ImmutableList.<ImmutableMap<String, Object>>of(),
-        rdapLinkBase);
+        rdapLinkBase,
+        hasPagingMetadata);
     return jsonBuilder.build();
   }
 
-  /** Searches for nameservers by name, returning a JSON array of nameserver info maps. */
+  /**
+   * Searches for nameservers by name, returning a JSON array of nameserver info maps.
+   *
+   * <p>Wildcard results are returned in name order, so if the cursor is present, the search picks
+   * up with the first matching name after it.
+   */
   private RdapSearchResults searchByName(
-      final RdapSearchPattern partialStringQuery, final DateTime now) {
+      final RdapSearchPattern partialStringQuery,
+      Optional<String> cursor,
+      final DateTime now) {
     // Handle queries without a wildcard -- just load by foreign key.
     if (!partialStringQuery.getHasWildcard()) {
       HostResource hostResource =
@@ -134,10 +158,7 @@ public class RdapNameserverSearchAction extends RdapActionBase {
       if (hostResource == null) {
         throw new NotFoundException("No nameservers found");
       }
-      return RdapSearchResults.create(
-          ImmutableList.of(
-              rdapJsonFormatter.makeRdapJsonForHost(
-                  hostResource, false, rdapLinkBase, rdapWhoisServer, now, OutputDataType.FULL)));
+      return makeSearchResults(ImmutableList.of(hostResource), false, now);
     // Handle queries with a wildcard.
     } else {
       // If there is a suffix, it should be a domain. If it happens to be a domain that we manage,
@@ -146,71 +167,155 @@ public class RdapNameserverSearchAction extends RdapActionBase {
       if (partialStringQuery.getSuffix() != null) {
         DomainResource domainResource =
             loadByForeignKey(DomainResource.class, partialStringQuery.getSuffix(), now);
-        ImmutableList.Builder<HostResource> hostListBuilder = new ImmutableList.Builder<>();
-        if (domainResource != null) {
-          for (String fqhn : ImmutableSortedSet.copyOf(domainResource.getSubordinateHosts())) {
-            // We can't just check that the host name starts with the initial query string, because
-            // then the query ns.exam*.example.com would match against nameserver ns.example.com.
-            if (partialStringQuery.matches(fqhn)) {
-              HostResource hostResource = loadByForeignKey(HostResource.class, fqhn, now);
-              if (hostResource != null) {
-                hostListBuilder.add(hostResource);
-              }
-            }
-          }
-        } else {
-          // If we don't recognize the domain, call queryUndeleted and filter.
-          // TODO(mountford): figure out how to size this correctly
-          for (HostResource hostResource :
-              queryUndeleted(
-                  HostResource.class, "fullyQualifiedHostName", partialStringQuery, 1000)) {
-            if (partialStringQuery.matches(hostResource.getFullyQualifiedHostName())) {
-              hostListBuilder.add(hostResource);
-            }
+        if (domainResource == null) {
+          // If we don't recognize the domain, query the hosts and filter on the suffix.
+          return searchUndeletedHosts(partialStringQuery, cursor, now);
+        }
+        List<String> matchingNames = new ArrayList<>();
+        for (String fqhn : ImmutableSortedSet.copyOf(domainResource.getSubordinateHosts())) {
+          // We can't just check that the host name starts with the initial query string, because
+          // then the query ns.exam*.example.com would match against nameserver ns.example.com.
+          if (partialStringQuery.matches(fqhn)
+              && (!cursor.isPresent() || fqhn.compareTo(cursor.get()) > 0)) {
+            matchingNames.add(fqhn);
           }
         }
-        return makeSearchResults(hostListBuilder.build(), now);
-      // Handle queries with a wildcard, but no suffix. There are no pending deletes for hosts, so
-      // we can call queryUndeleted.
-      } else {
+        // Add 1 so we can detect truncation.
         return makeSearchResults(
-            // Add 1 so we can detect truncation.
-            queryUndeleted(
-                    HostResource.class,
-                    "fullyQualifiedHostName",
-                    partialStringQuery,
-                    rdapResultSetMaxSize + 1)
-                .list(),
+            ImmutableList.copyOf(
+                Iterables.limit(
+                    loadByForeignKeysLazily(
+                        HostResource.class, matchingNames, rdapResultSetMaxSize + 1, now),
+                    rdapResultSetMaxSize + 1)),
+            true,
             now);
+      // Handle queries with a wildcard, but no suffix.
+      } else {
+        return searchUndeletedHosts(partialStringQuery, cursor, now);
+      }
+    }
+  }
+
+  /**
+   * Searches for nameservers by querying the host resources, in name order.
+   *
+   * <p>There are no pending deletes for hosts, so we can call queryUndeleted, which also makes sure
+   * that the initial string is present, to avoid querying every host in the system. If there is a
+   * suffix, the hosts are filtered on it as they are read. Since hosts that don't match still have
+   * to be read, at most RESULT_SET_SIZE_SCALING_FACTOR times the result set size limit are read.
+   * If that limit is reached first, the results are marked as truncated, and the cursor picks up
+   * after the last host read.
+   */
+  private RdapSearchResults searchUndeletedHosts(
+      final RdapSearchPattern partialStringQuery, Optional<String> cursor, DateTime now) {
+    Query<HostResource> query =
+        queryUndeleted(HostResource.class, "fullyQualifiedHostName", partialStringQuery, cursor);
+    if (partialStringQuery.getSuffix() == null) {
+      // Add 1 so we can detect truncation.
+      return makeSearchResults(
+          ImmutableList.copyOf(query.limit(rdapResultSetMaxSize + 1)), true, now);
+    }
+    // queryUndeleted() ignores suffixes, so we must filter on the partial string query.
+    int readLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+    int readCount = 0;
+    String lastNameRead = null;
+    List<HostResource> hosts = new ArrayList<>();
+    for (HostResource host : query.limit(readLimit)) {
+      readCount++;
+      lastNameRead = host.getFullyQualifiedHostName();
+      if (partialStringQuery.matches(lastNameRead)) {
+        hosts.add(host);
+        // Stop at one more host than fits, so we can detect truncation.
+        if (hosts.size() > rdapResultSetMaxSize) {
+          break;
+        }
       }
     }
+    if ((hosts.size() <= rdapResultSetMaxSize) && (readCount >= readLimit)) {
+      return makeSearchResults(hosts, true, Optional.of(lastNameRead), now);
+    }
+    return makeSearchResults(hosts, true, now);
   }
 
-  /** Searches for nameservers by IP address, returning a JSON array of nameserver info maps. */
-  private RdapSearchResults searchByIp(final InetAddress inetAddress, DateTime now) {
+  /**
+   * Searches for nameservers by IP address or CIDR block, returning a JSON array of nameserver info
+   * maps.
+   *
+   * <p>A search for a larger block than one address is a range query on the {@link
+   * HostInetAddressIndex}, so it is rejected until reads of the index are enabled.
+   */
+  private RdapSearchResults searchByIp(CidrAddressBlock block, DateTime now) {
+    InetAddress inetAddress = block.getInetAddress();
+    boolean isSingleAddress = (block.getNetmask() == inetAddress.getAddress().length * 8);
+    if (!isSingleAddress && !HostInetAddressIndex.isCidrAddressBlockLookupEnabled()) {
+      throw new UnprocessableEntityException("Searching by IP address block is not supported");
+    }
+    // Add 1 so we can detect truncation.
+    int limit = rdapResultSetMaxSize + 1;
     return makeSearchResults(
-        // Add 1 so we can detect truncation.
-        ofy().load()
-            .type(HostResource.class)
-            .filter("inetAddresses", inetAddress.getHostAddress())
-            .filter("deletionTime", END_OF_TIME)
-            .limit(rdapResultSetMaxSize + 1)
-            .list(),
+        isSingleAddress
+            ? loadHostsByInetAddress(inetAddress, limit, now)
+            : loadHostsByCidrAddressBlock(block, limit, now),
+        false,
         now);
   }
 
-  /** Output JSON for a list of hosts. */
-  private RdapSearchResults makeSearchResults(List<HostResource> hosts, DateTime now) {
-    OutputDataType outputDataType =
+  private RdapSearchResults makeSearchResults(
+      List<HostResource> hosts, boolean isPageable, DateTime now) {
+    return makeSearchResults(hosts, isPageable, Optional.<String>absent(), now);
+  }
+
+  /**
+   * Output JSON for a list of hosts, which may have one more host than fits in the result set.
+   *
+   * <p>The JSON for each host is only built when the response is written, but the superordinate
+   * domains of the whole page are loaded up front in one batch, rather than once per host. If the
+   * list was truncated and {@code isPageable} is true, the results include a cursor for the next
+   * page.
+   *
+   * <p>If the search stopped at its read limit before filling the result set, {@code lastNameRead}
+   * should be the name of the last host it read. The results are then marked as truncated, and the
+   * cursor picks up after that host.
+   */
+  private RdapSearchResults makeSearchResults(
+      List<HostResource> hosts,
+      boolean isPageable,
+      Optional<String> lastNameRead,
+      final DateTime now) {
+    final OutputDataType outputDataType =
         (hosts.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
-    ImmutableList.Builder<ImmutableMap<String, Object>> jsonListBuilder =
+    ImmutableList.Builder<Supplier<ImmutableMap<String, Object>>> jsonListBuilder =
         new ImmutableList.Builder<>();
-    for (HostResource host : Iterables.limit(hosts, rdapResultSetMaxSize)) {
+    List<HostResource> page = hosts.subList(0, Math.min(hosts.size(), rdapResultSetMaxSize));
+    final Map<Key<DomainResource>, DomainResource> superordinateDomains =
+        RdapJsonFormatter.loadSuperordinateDomains(page);
+    for (final HostResource host : page) {
       jsonListBuilder.add(
-          rdapJsonFormatter.makeRdapJsonForHost(
-              host, false, rdapLinkBase, rdapWhoisServer, now, outputDataType));
+          new Supplier<ImmutableMap<String, Object>>() {
+            @Override
+            public ImmutableMap<String, Object> get() {
+              return rdapJsonFormatter.makeRdapJsonForHost(
+                  host,
+                  false,
+                  rdapLinkBase,
+                  rdapWhoisServer,
+                  now,
+                  outputDataType,
+                  superordinateDomains);
+            }});
+    }
+    if (lastNameRead.isPresent()) {
+      return RdapSearchResults.create(
+          jsonListBuilder.build(),
+          true,
+          isPageable ? Optional.of(encodeCursor(lastNameRead.get())) : Optional.<String>absent());
     }
-    ImmutableList<ImmutableMap<String, Object>> jsonList = jsonListBuilder.build();
-    return RdapSearchResults.create(jsonList, jsonList.size() < hosts.size());
+    boolean isTruncated = page.size() < hosts.size();
+    return RdapSearchResults.create(
+        jsonListBuilder.build(),
+        isTruncated,
+        (isTruncated && isPageable)
+            ? Optional.of(encodeCursor(Iterables.getLast(page).getFullyQualifiedHostName()))
+            : Optional.<String>absent());
   }
 }
@@ -15,30 +15,72 @@
 package google.registry.rdap;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.Writer;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
 
 /**
  * Holds domain, nameserver and entity search results.
- * 
+ *
  * <p>We need to know not only the list of things we found, but also whether the result set was
- * truncated to the limit. If it is, we must add the ICANN-mandated notice to that effect.
+ * truncated to the limit. If it is, we must add the ICANN-mandated notice to that effect, and if
+ * the search can be continued, a cursor for the next page.
+ *
+ * <p>Each result is only turned into JSON when the results are written out, so only one result's
+ * JSON object exists at a time, however many there are.
  */
 @AutoValue
 abstract class RdapSearchResults {
-  
-  static RdapSearchResults create(ImmutableList<ImmutableMap<String, Object>> jsonList) {
-    return create(jsonList, false);
+
+  static RdapSearchResults create(ImmutableList<Supplier<ImmutableMap<String, Object>>> results) {
+    return create(results, false);
+  }
+
+  static RdapSearchResults create(
+      ImmutableList<Supplier<ImmutableMap<String, Object>>> results, boolean isTruncated) {
+    return create(results, isTruncated, Optional.<String>absent());
   }
-  
+
   static RdapSearchResults create(
-      ImmutableList<ImmutableMap<String, Object>> jsonList, boolean isTruncated) {
-    return new AutoValue_RdapSearchResults(jsonList, isTruncated);
+      ImmutableList<Supplier<ImmutableMap<String, Object>>> results,
+      boolean isTruncated,
+      Optional<String> nextCursor) {
+    return new AutoValue_RdapSearchResults(results, isTruncated, nextCursor);
   }
 
-  /** List of JSON result object representations. */
-  abstract ImmutableList<ImmutableMap<String, Object>> jsonList();
-  
+  /** Suppliers of the JSON result object representations, which are built on demand. */
+  abstract ImmutableList<Supplier<ImmutableMap<String, Object>>> results();
+
   /** True if the result set was truncated to the maximum size limit. */
   abstract boolean isTruncated();
+
+  /** Opaque cursor from which the search can be continued, if it was truncated and can be. */
+  abstract Optional<String> nextCursor();
+
+  boolean isEmpty() {
+    return results().isEmpty();
+  }
+
+  /** Returns the results as a JSON array, which builds each result as it writes it. */
+  JSONStreamAware jsonList() {
+    return new JSONStreamAware() {
+      @Override
+      public void writeJSONString(Writer out) throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (Supplier<ImmutableMap<String, Object>> result : results()) {
+          if (!first) {
+            out.write(',');
+          }
+          first = false;
+          JSONValue.writeJSONString(result.get(), out);
+        }
+        out.write(']');
+      }};
+  }
 }
@@ -14,6 +14,7 @@
 
 package google.registry.rde;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractOptionalIntParameter;
@@ -28,6 +29,7 @@ import com.google.common.collect.ImmutableSet;
 import dagger.Module;
 import dagger.Provides;
 import google.registry.request.Parameter;
+import java.util.concurrent.ThreadFactory;
 import javax.inject.Named;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
@@ -89,6 +91,12 @@ public final class RdeModule {
     return extractBooleanParameter(req, PARAM_REVISION);
   }
 
+  @Provides
+  @Named("rdeStagingThreadFactory")
+  static ThreadFactory provideRdeStagingThreadFactory() {
+    return currentRequestThreadFactory();
+  }
+
   @Provides
   @Named("brda")
   static Queue provideQueueBrda() {
@@ -83,6 +83,14 @@ import org.joda.time.Duration;
  * <p>To generate escrow deposits manually and locally, use the {@code nomulus} tool command
  * {@code GenerateEscrowDepositCommand}.
  *
+ * <h3>Streaming Operation</h3>
+ *
+ * <p>If {@code rde.streamingStagingEnabled} is set in the config, the deposits are instead staged
+ * by {@link RdeStagingPipeline} within this request, which avoids the mapreduce shuffle entirely.
+ * The pipeline uses the same mapper and reducer code, so its deposits, locks and cursors behave
+ * the same way. If there are more pending deposits than it can stage at once, the mapreduce is
+ * used anyway.
+ *
  * <h3>Logging</h3>
  *
  * <p>To identify the reduce worker request for a deposit in App Engine's log viewer, you can use
@@ -200,9 +208,11 @@ public final class RdeStagingAction implements Runnable {
   @Inject Clock clock;
   @Inject PendingDepositChecker pendingDepositChecker;
   @Inject RdeStagingReducer reducer;
+  @Inject RdeStagingPipeline pipeline;
   @Inject Response response;
   @Inject MapreduceRunner mrRunner;
   @Inject @Config("transactionCooldown") Duration transactionCooldown;
+  @Inject @Config("rdeStreamingStagingEnabled") boolean streamingStagingEnabled;
   @Inject @Parameter(RdeModule.PARAM_MANUAL) boolean manual;
   @Inject @Parameter(RdeModule.PARAM_DIRECTORY) Optional<String> directory;
   @Inject @Parameter(RdeModule.PARAM_MODE) ImmutableSet<String> modeStrings;
@@ -227,6 +237,18 @@ public final class RdeStagingAction implements Runnable {
     for (PendingDeposit pending : pendings.values()) {
       logger.infofmt("%s", pending);
     }
+    if (streamingStagingEnabled) {
+      if (pendings.size() <= RdeStagingPipeline.MAX_DEPOSITS) {
+        pipeline.run(pendings, lenient ? LENIENT : STRICT);
+        String message = String.format("Staged %d deposits", pendings.size());
+        logger.info(message);
+        response.setPayload(message);
+        return;
+      }
+      logger.warningfmt(
+          "Too many deposits to stream in one request (%d); falling back to mapreduce",
+          pendings.size());
+    }
     RdeStagingMapper mapper = new RdeStagingMapper(lenient ? LENIENT : STRICT, pendings);
 
     response.sendJavaScriptRedirect(createJobPath(mrRunner
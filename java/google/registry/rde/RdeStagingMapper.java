@@ -55,6 +55,21 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
 
   @Override
   public final void map(final EppResource resource) {
+    map(resource, new FragmentEmitter() {
+      @Override
+      public void emit(PendingDeposit pending, DepositFragment fragment) {
+        RdeStagingMapper.this.emit(pending, fragment);
+      }});
+  }
+
+  /**
+   * Turns {@code resource} into XML fragments for each pending deposit it belongs in, and hands
+   * them to {@code emitter}.
+   *
+   * <p>This is the body of {@link #map(EppResource)}, and is also used by {@link
+   * RdeStagingPipeline}, which has no mapreduce context to emit to.
+   */
+  void map(final EppResource resource, FragmentEmitter emitter) {
     // The mapreduce has one special input that provides a null resource. This is used as a sentinel
     // to indicate that we should emit the Registrar objects on this map shard, as these need to be
     // added to every deposit. It is important that these be emitted as part of the mapreduce and
@@ -65,7 +80,7 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       for (Registrar registrar : Registrar.loadAllCached()) {
         DepositFragment fragment = marshaller.marshalRegistrar(registrar);
         for (PendingDeposit pending : pendings.values()) {
-          emit(pending, fragment);
+          emitter.emit(pending, fragment);
         }
       }
       return;
@@ -130,7 +145,7 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
         }
         for (DepositFragment fragment
             : fragmenter.marshal(pending.watermark(), pending.mode()).asSet()) {
-          emit(pending, fragment);
+          emitter.emit(pending, fragment);
         }
       }
     }
@@ -139,6 +154,11 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
     ofy().clearSessionCache();
   }
 
+  /** Receiver of the XML fragments for each pending deposit. */
+  interface FragmentEmitter {
+    void emit(PendingDeposit pending, DepositFragment fragment);
+  }
+
   /** Loading cache that turns a resource into XML for the various points in time and modes. */
   private class Fragmenter {
     private final Map<WatermarkModePair, Optional<DepositFragment>> cache = new HashMap<>();
@@ -0,0 +1,301 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.EppResource;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.rde.RdeStagingMapper.FragmentEmitter;
+import google.registry.util.FormattingLogger;
+import google.registry.xml.ValidationMode;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Stages escrow deposits within a single request, as an alternative to the {@link RdeStagingAction}
+ * mapreduce.
+ *
+ * <p>Worker threads scan the {@link EppResourceIndexBucket} shards in parallel, and turn each
+ * resource into XML fragments with {@link RdeStagingMapper}. Instead of being shuffled to a reduce
+ * stage, each fragment goes straight into a bounded queue for its deposit. One writer thread per
+ * deposit drains that queue into the ghostryde output with {@link RdeStagingReducer}. When a
+ * writer falls behind, its full queue makes the workers wait, so memory use stays bounded no
+ * matter how large the deposit is.
+ *
+ * <p>Deposits are written, locked, and their cursors rolled forward exactly as the mapreduce does.
+ * If any worker fails, every writer fails too, so that no cursor is rolled forward past a partial
+ * deposit.
+ *
+ * <p>This needs a long-running request, so it should only be used on a module with basic or manual
+ * scaling. Each deposit takes up a thread, on top of the workers, and App Engine caps the number
+ * of threads per request, so at most {@link #MAX_DEPOSITS} deposits can be staged at once.
+ */
+final class RdeStagingPipeline {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Maximum number of deposits which can be staged in one run. */
+  static final int MAX_DEPOSITS = 30;
+
+  /** Number of threads scanning buckets and marshalling resources. */
+  private static final int WORKER_THREADS = 10;
+
+  /** Number of {@link EppResourceIndex} entities loaded per batch. */
+  private static final int BATCH_SIZE = 100;
+
+  /** Number of fragments which can be waiting for each deposit's writer. */
+  private static final int QUEUE_CAPACITY = 1000;
+
+  /** How long a blocked thread waits before checking whether the other side has gone away. */
+  private static final long POLL_SECONDS = 1;
+
+  private final RdeStagingReducer reducer;
+  private final ThreadFactory threadFactory;
+
+  @Inject
+  RdeStagingPipeline(
+      RdeStagingReducer reducer, @Named("rdeStagingThreadFactory") ThreadFactory threadFactory) {
+    this.reducer = reducer;
+    this.threadFactory = threadFactory;
+  }
+
+  /** Stages all of the given deposits, returning once they have all been written. */
+  void run(
+      final ImmutableSetMultimap<String, PendingDeposit> pendings,
+      final ValidationMode validationMode) {
+    checkArgument(
+        pendings.size() <= MAX_DEPOSITS,
+        "Can't stage %s deposits at once, the maximum is %s",
+        pendings.size(),
+        MAX_DEPOSITS);
+    ImmutableMap.Builder<PendingDeposit, DepositQueue> queuesBuilder = new ImmutableMap.Builder<>();
+    for (PendingDeposit pending : pendings.values()) {
+      queuesBuilder.put(pending, new DepositQueue());
+    }
+    final ImmutableMap<PendingDeposit, DepositQueue> queues = queuesBuilder.build();
+    final FragmentEmitter emitter = new FragmentEmitter() {
+      @Override
+      public void emit(PendingDeposit pending, DepositFragment fragment) {
+        queues.get(pending).put(fragment);
+      }};
+
+    ExecutorService writerExecutor = newFixedThreadPool(queues.size(), threadFactory);
+    ExecutorService workerExecutor = newFixedThreadPool(WORKER_THREADS, threadFactory);
+    try {
+      List<Future<?>> writers = new ArrayList<>();
+      for (final Map.Entry<PendingDeposit, DepositQueue> entry : queues.entrySet()) {
+        writers.add(writerExecutor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            try {
+              reducer.stageDeposit(entry.getKey(), entry.getValue());
+            } finally {
+              // If the deposit was skipped or failed, stop the workers from waiting on it.
+              entry.getValue().close();
+            }
+            return null;
+          }}));
+      }
+
+      List<Future<?>> workers = new ArrayList<>();
+      workers.add(workerExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // The null resource makes the mapper emit the registrars to every deposit.
+          new RdeStagingMapper(validationMode, pendings).map(null, emitter);
+          return null;
+        }}));
+      for (final Key<EppResourceIndexBucket> bucketKey : EppResourceIndexBucket.getAllBuckets()) {
+        workers.add(workerExecutor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            mapBucket(bucketKey, new RdeStagingMapper(validationMode, pendings), emitter);
+            return null;
+          }}));
+      }
+
+      RuntimeException failure = getFirstFailure(workers);
+      for (DepositQueue queue : queues.values()) {
+        if (failure == null) {
+          queue.finish();
+        } else {
+          queue.abort();
+        }
+      }
+      RuntimeException writerFailure = getFirstFailure(writers);
+      if (failure != null) {
+        throw failure;
+      }
+      if (writerFailure != null) {
+        throw writerFailure;
+      }
+    } finally {
+      workerExecutor.shutdownNow();
+      writerExecutor.shutdownNow();
+    }
+  }
+
+  /** Maps every resource in the given bucket, in batches. */
+  private static void mapBucket(
+      Key<EppResourceIndexBucket> bucketKey, RdeStagingMapper mapper, FragmentEmitter emitter) {
+    Cursor cursor = null;
+    do {
+      Query<EppResourceIndex> query =
+          ofy().load().type(EppResourceIndex.class).ancestor(bucketKey).limit(BATCH_SIZE);
+      if (cursor != null) {
+        query = query.startAt(cursor);
+      }
+      QueryResultIterator<EppResourceIndex> indexes = query.iterator();
+      List<Key<EppResource>> keys = new ArrayList<>();
+      while (indexes.hasNext()) {
+        @SuppressWarnings("unchecked")
+        Key<EppResource> key = (Key<EppResource>) indexes.next().getKey();
+        keys.add(key);
+      }
+      cursor = (keys.size() == BATCH_SIZE) ? indexes.getCursor() : null;
+      Map<Key<EppResource>, EppResource> resources = ofy().load().keys(keys);
+      for (Key<EppResource> key : keys) {
+        EppResource resource = resources.get(key);
+        if (resource != null) {
+          // The mapper clears the session cache after each resource.
+          mapper.map(resource, emitter);
+        }
+      }
+    } while (cursor != null);
+  }
+
+  /** Waits for all of the given tasks, and returns the first failure among them, if any. */
+  private static RuntimeException getFirstFailure(List<Future<?>> futures) {
+    RuntimeException failure = null;
+    for (Future<?> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = new RuntimeException("RDE staging failed", e.getCause());
+        } else {
+          logger.severe(e.getCause(), "Additional RDE staging failure");
+        }
+      }
+    }
+    return failure;
+  }
+
+  /**
+   * A bounded queue of fragments for one deposit, read by its writer as an {@link Iterator}.
+   *
+   * <p>Both sides poll rather than block indefinitely, so that neither can be stranded by the
+   * other going away: workers stop waiting once the writer has {@link #close closed} the queue, and
+   * the writer throws once the workers have {@link #abort aborted}.
+   */
+  private static final class DepositQueue implements Iterator<DepositFragment> {
+
+    /** Marks the end of the fragments. */
+    private static final DepositFragment END =
+        DepositFragment.create(RdeResourceType.REGISTRAR, "", "");
+
+    private final BlockingQueue<DepositFragment> queue =
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean closed;
+    private volatile boolean aborted;
+    private DepositFragment next;
+
+    /** Adds a fragment, waiting for room unless the writer has stopped reading. */
+    void put(DepositFragment fragment) {
+      try {
+        while (!closed) {
+          if (queue.offer(fragment, POLL_SECONDS, TimeUnit.SECONDS)) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+
+    /** Tells the writer that all fragments have been added. */
+    void finish() {
+      put(END);
+    }
+
+    /** Tells the writer that the deposit is incomplete and must not be written. */
+    void abort() {
+      aborted = true;
+    }
+
+    /** Tells the workers that the writer has stopped reading. */
+    void close() {
+      closed = true;
+      queue.clear();
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        while (next == null) {
+          if (aborted) {
+            throw new IllegalStateException("RDE staging aborted; deposit is incomplete");
+          }
+          next = queue.poll(POLL_SECONDS, TimeUnit.SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      // Compare by identity, since a real fragment could have the same contents.
+      return next != END;
+    }
+
+    @Override
+    public DepositFragment next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      DepositFragment fragment = next;
+      next = null;
+      return fragment;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
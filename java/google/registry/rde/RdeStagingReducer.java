@@ -48,6 +48,7 @@ import google.registry.util.FormattingLogger;
 import google.registry.util.TaskEnqueuer;
 import google.registry.xjc.rdeheader.XjcRdeHeader;
 import google.registry.xjc.rdeheader.XjcRdeHeaderElement;
+import google.registry.xml.ValidationMode;
 import google.registry.xml.XmlException;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -77,7 +78,7 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
   private final int ghostrydeBufferSize;
   private final Duration lockTimeout;
   private final byte[] stagingKeyBytes;
-  private final RdeMarshaller marshaller;
+  private final ValidationMode validationMode;
 
   @Inject
   RdeStagingReducer(
@@ -96,11 +97,23 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
     this.ghostrydeBufferSize = ghostrydeBufferSize;
     this.lockTimeout = lockTimeout;
     this.stagingKeyBytes = stagingKeyBytes;
-    this.marshaller = new RdeMarshaller(lenient ? LENIENT : STRICT);
+    this.validationMode = lenient ? LENIENT : STRICT;
   }
 
   @Override
   public void reduce(final PendingDeposit key, final ReducerInput<DepositFragment> fragments) {
+    stageDeposit(key, fragments);
+  }
+
+  /**
+   * Writes the deposit for {@code key} from {@code fragments}, holding the staging lock for its
+   * TLD.
+   *
+   * <p>If the lock is in use, this returns without reading any fragments.
+   *
+   * @see RdeStagingPipeline
+   */
+  void stageDeposit(final PendingDeposit key, final Iterator<DepositFragment> fragments) {
     Callable<Void> lockRunner = new Callable<Void>() {
       @Override
       public Void call() throws Exception {
@@ -119,7 +132,9 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
     // Normally this is done by BackendServlet but it's not present in MapReduceServlet.
     Security.addProvider(new BouncyCastleProvider());
 
-    // Construct things that Dagger would inject if this wasn't serialized.
+    // Construct things that Dagger would inject if this wasn't serialized. The marshaller isn't
+    // thread-safe, and RdeStagingPipeline writes several deposits at once, so each gets its own.
+    RdeMarshaller marshaller = new RdeMarshaller(validationMode);
     Ghostryde ghostryde = new Ghostryde(ghostrydeBufferSize);
     PGPPublicKey stagingKey = PgpHelper.loadPublicKeyBytes(stagingKeyBytes);
     GcsUtils cloudStorage =
@@ -89,6 +89,8 @@ def domain_registry_repositories(
     omit_javax_xml_bind_jaxb_api=False,
     omit_joda_time=False,
     omit_junit=False,
+    omit_net_sf_jopt_simple=False,
+    omit_org_apache_commons_math3=False,
     omit_org_apache_ftpserver_core=False,
     omit_org_apache_httpcomponents_httpclient=False,
     omit_org_apache_httpcomponents_httpcore=False,
@@ -106,6 +108,8 @@ def domain_registry_repositories(
     omit_org_mortbay_jetty=False,
     omit_org_mortbay_jetty_servlet_api=False,
     omit_org_mortbay_jetty_util=False,
+    omit_org_openjdk_jmh_core=False,
+    omit_org_openjdk_jmh_generator_annprocess=False,
     omit_org_slf4j_api=False,
     omit_org_yaml_snakeyaml=False,
     omit_com_google_template_soy=False):
@@ -245,6 +249,10 @@ def domain_registry_repositories(
     joda_time()
   if not omit_junit:
     junit()
+  if not omit_net_sf_jopt_simple:
+    net_sf_jopt_simple()
+  if not omit_org_apache_commons_math3:
+    org_apache_commons_math3()
   if not omit_org_apache_ftpserver_core:
     org_apache_ftpserver_core()
   if not omit_org_apache_httpcomponents_httpclient:
@@ -279,6 +287,10 @@ def domain_registry_repositories(
     org_mortbay_jetty_servlet_api()
   if not omit_org_mortbay_jetty_util:
     org_mortbay_jetty_util()
+  if not omit_org_openjdk_jmh_core:
+    org_openjdk_jmh_core()
+  if not omit_org_openjdk_jmh_generator_annprocess:
+    org_openjdk_jmh_generator_annprocess()
   if not omit_org_slf4j_api:
     org_slf4j_api()
   if not omit_org_yaml_snakeyaml:
@@ -1394,6 +1406,30 @@ def junit():
       deps = ["@org_hamcrest_core"],
   )
 
+def net_sf_jopt_simple():
+  java_import_external(
+      name = "net_sf_jopt_simple",
+      jar_sha256 = "3fcfbe3203c2ea521bf7640484fd35d6303186ea2e08e72f032d640ca067ffda",
+      jar_urls = [
+          "http://repo1.maven.org/maven2/net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar",
+          "http://maven.ibiblio.org/maven2/net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar",
+      ],
+      licenses = ["notice"],  # The MIT License
+      testonly_ = True,
+  )
+
+def org_apache_commons_math3():
+  java_import_external(
+      name = "org_apache_commons_math3",
+      jar_sha256 = "6268a9a0ea3e769fc493a21446664c0ef668e48c93d126791f6f3f757978fee2",
+      jar_urls = [
+          "http://repo1.maven.org/maven2/org/apache/commons/commons-math3/3.2/commons-math3-3.2.jar",
+          "http://maven.ibiblio.org/maven2/org/apache/commons/commons-math3/3.2/commons-math3-3.2.jar",
+      ],
+      licenses = ["notice"],  # The Apache Software License, Version 2.0
+      testonly_ = True,
+  )
+
 def org_apache_ftpserver_core():
   java_import_external(
       name = "org_apache_ftpserver_core",
@@ -1631,6 +1667,53 @@ def org_mortbay_jetty_util():
       deps = ["@org_mortbay_jetty_servlet_api"],
   )
 
+def org_openjdk_jmh_core():
+  java_import_external(
+      name = "org_openjdk_jmh_core",
+      jar_sha256 = "5b920f4033b55f78af121c6594e2afcc84c16f2030beef6d035463b126fc9f46",
+      jar_urls = [
+          "http://repo1.maven.org/maven2/org/openjdk/jmh/jmh-core/1.19/jmh-core-1.19.jar",
+          "http://maven.ibiblio.org/maven2/org/openjdk/jmh/jmh-core/1.19/jmh-core-1.19.jar",
+      ],
+      licenses = ["restricted"],  # GNU General Public License, version 2, with the Classpath Exception
+      testonly_ = True,
+      deps = [
+          "@net_sf_jopt_simple",
+          "@org_apache_commons_math3",
+      ],
+  )
+
+def org_openjdk_jmh_generator_annprocess():
+  java_import_external(
+      name = "org_openjdk_jmh_generator_annprocess",
+      jar_sha256 = "b104c8c3c971d6aa4ff4c7a73e70cfb3e6201084332e4007ba9516a43f27003e",
+      jar_urls = [
+          "http://repo1.maven.org/maven2/org/openjdk/jmh/jmh-generator-annprocess/1.19/jmh-generator-annprocess-1.19.jar",
+          "http://maven.ibiblio.org/maven2/org/openjdk/jmh/jmh-generator-annprocess/1.19/jmh-generator-annprocess-1.19.jar",
+      ],
+      licenses = ["restricted"],  # GNU General Public License, version 2, with the Classpath Exception
+      testonly_ = True,
+      neverlink = True,
+      generated_rule_name = "compile",
+      generated_linkable_rule_name = "processor",
+      deps = ["@org_openjdk_jmh_core"],
+      extra_build_file_content = "\n".join([
+          "java_plugin(",
+          "    name = \"BenchmarkProcessor\",",
+          "    testonly = True,",
+          "    processor_class = \"org.openjdk.jmh.generators.BenchmarkProcessor\",",
+          "    deps = [\":processor\"],",
+          ")",
+          "",
+          "java_library(",
+          "    name = \"org_openjdk_jmh_generator_annprocess\",",
+          "    testonly = True,",
+          "    exported_plugins = [\":BenchmarkProcessor\"],",
+          "    exports = [\"@org_openjdk_jmh_core\"],",
+          ")",
+      ]),
+  )
+
 def org_slf4j_api():
   java_import_external(
       name = "org_slf4j_api",
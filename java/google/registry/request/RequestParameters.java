@@ -23,6 +23,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InetAddresses;
 import google.registry.request.HttpException.BadRequestException;
+import google.registry.util.CidrAddressBlock;
 import java.net.InetAddress;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
@@ -221,6 +222,27 @@ public final class RequestParameters {
     }
   }
 
+  /**
+   * Returns first request parameter associated with {@code name} parsed as an optional
+   * {@link CidrAddressBlock}. A bare address is parsed as a block containing only that address,
+   * and host bits set in a block's address are ignored.
+   *
+   * @throws BadRequestException if request parameter named {@code name} is present but could not
+   *     be parsed as an IPv4 or IPv6 address or CIDR block
+   */
+  public static Optional<CidrAddressBlock> extractOptionalCidrAddressBlockParameter(
+      HttpServletRequest req, String name) {
+    Optional<String> paramVal = extractOptionalParameter(req, name);
+    if (!paramVal.isPresent()) {
+      return Optional.absent();
+    }
+    try {
+      return Optional.of(CidrAddressBlock.create(paramVal.get()));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Not an IPv4 or IPv6 address or CIDR block: " + name);
+    }
+  }
+
   private static boolean equalsFalse(@Nullable String value) {
     return nullToEmpty(value).equalsIgnoreCase("false");
   }
@@ -17,8 +17,11 @@ package google.registry.tmch;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharSource;
+import com.google.common.io.LineProcessor;
 import google.registry.model.tmch.ClaimsListShard;
+import google.registry.util.CompactStringMap;
+import java.io.IOException;
 import java.util.List;
 import org.joda.time.DateTime;
 
@@ -28,6 +31,9 @@ import org.joda.time.DateTime;
  * <p>This is a quick and dirty CSV parser made specifically for the DNL CSV format defined in the
  * TMCH specification. It doesn't support any fancy CSV features like quotes.
  *
+ * <p>Lines are parsed one at a time straight into a {@link CompactStringMap}, so a {@link
+ * CharSource} of the file can be parsed without ever holding all of its lines as strings.
+ *
  * @see <a href="http://tools.ietf.org/html/draft-lozano-tmch-func-spec-08#section-6.1">
  *     TMCH functional specifications - DNL List file</a>
  */
@@ -39,10 +45,37 @@ public class ClaimsListParser {
    * <p>Please note that this does <b>not</b> insert the object into Datastore.
    */
   public static ClaimsListShard parse(List<String> lines) {
-    ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+    ClaimsListLineProcessor processor = new ClaimsListLineProcessor();
+    for (String line : lines) {
+      processor.processLine(line);
+    }
+    return processor.getResult();
+  }
+
+  /**
+   * Reads the DNL CSV file line by line into a {@link ClaimsListShard} object.
+   *
+   * <p>Please note that this does <b>not</b> insert the object into Datastore.
+   */
+  public static ClaimsListShard parse(CharSource csv) throws IOException {
+    return csv.readLines(new ClaimsListLineProcessor());
+  }
 
-    // First line: <version>,<DNL List creation datetime>
-    List<String> firstLine = Splitter.on(',').splitToList(lines.get(0));
+  /**
+   * Reads only the creation time from the first line of the DNL CSV file.
+   *
+   * <p>This lets a caller tell whether a list is one it already has before paying for parsing the
+   * rest of the file, which holds one line per claim.
+   */
+  public static DateTime parseCreationTime(CharSource csv) throws IOException {
+    String firstLine = csv.readFirstLine();
+    checkArgument(firstLine != null, "Expected at least 2 lines, found 0");
+    return parseFirstLine(firstLine);
+  }
+
+  /** Parses and checks the first line: {@code <version>,<DNL List creation datetime>}. */
+  private static DateTime parseFirstLine(String line) {
+    List<String> firstLine = Splitter.on(',').splitToList(line);
     checkArgument(firstLine.size() == 2, String.format(
         "Line 1: Expected 2 elements, found %d", firstLine.size()));
 
@@ -50,30 +83,51 @@ public class ClaimsListParser {
     DateTime creationTime = DateTime.parse(firstLine.get(1));
     checkArgument(version == 1, String.format(
         "Line 1: Expected version 1, found %d", version));
+    return creationTime;
+  }
 
-    // Second line contains headers: DNL,lookup-key,insertion-datetime
-    List<String> secondLine = Splitter.on(',').splitToList(lines.get(1));
-    checkArgument(secondLine.size() == 3, String.format(
-        "Line 2: Expected 3 elements, found %d", secondLine.size()));
-    checkArgument("DNL".equals(secondLine.get(0)), String.format(
-        "Line 2: Expected header \"DNL\", found \"%s\"", secondLine.get(0)));
-    checkArgument("lookup-key".equals(secondLine.get(1)), String.format(
-        "Line 2: Expected header \"lookup-key\", found \"%s\"", secondLine.get(1)));
-    checkArgument("insertion-datetime".equals(secondLine.get(2)), String.format(
-        "Line 2: Expected header \"insertion-datetime\", found \"%s\"", secondLine.get(2)));
+  /** Parses and checks each line of the DNL CSV file as it is read. */
+  private static final class ClaimsListLineProcessor implements LineProcessor<ClaimsListShard> {
 
-    // Subsequent lines: <DNL>,<lookup key>,<DNL insertion datetime>
-    for (int i = 2; i < lines.size(); i++) {
-      List<String> currentLine = Splitter.on(',').splitToList(lines.get(i));
-      checkArgument(currentLine.size() == 3, String.format(
-          "Line %d: Expected 3 elements, found %d", i + 1, currentLine.size()));
+    private final CompactStringMap.Builder builder = CompactStringMap.builder();
+    private int lineNumber;
+    private DateTime creationTime;
 
-      String label = currentLine.get(0);
-      String lookupKey = currentLine.get(1);
-      DateTime.parse(currentLine.get(2));  // This is the insertion time, currently unused.
-      builder.put(label, lookupKey);
+    @Override
+    public boolean processLine(String line) {
+      lineNumber++;
+      if (lineNumber == 1) {
+        creationTime = parseFirstLine(line);
+      } else if (lineNumber == 2) {
+        // Second line contains headers: DNL,lookup-key,insertion-datetime
+        List<String> secondLine = Splitter.on(',').splitToList(line);
+        checkArgument(secondLine.size() == 3, String.format(
+            "Line 2: Expected 3 elements, found %d", secondLine.size()));
+        checkArgument("DNL".equals(secondLine.get(0)), String.format(
+            "Line 2: Expected header \"DNL\", found \"%s\"", secondLine.get(0)));
+        checkArgument("lookup-key".equals(secondLine.get(1)), String.format(
+            "Line 2: Expected header \"lookup-key\", found \"%s\"", secondLine.get(1)));
+        checkArgument("insertion-datetime".equals(secondLine.get(2)), String.format(
+            "Line 2: Expected header \"insertion-datetime\", found \"%s\"",
+            secondLine.get(2)));
+      } else {
+        // Subsequent lines: <DNL>,<lookup key>,<DNL insertion datetime>
+        List<String> currentLine = Splitter.on(',').splitToList(line);
+        checkArgument(currentLine.size() == 3, String.format(
+            "Line %d: Expected 3 elements, found %d", lineNumber, currentLine.size()));
+
+        String label = currentLine.get(0);
+        String lookupKey = currentLine.get(1);
+        DateTime.parse(currentLine.get(2));  // This is the insertion time, currently unused.
+        builder.put(label, lookupKey);
+      }
+      return true;
     }
 
-    return ClaimsListShard.create(creationTime, builder.build());
+    @Override
+    public ClaimsListShard getResult() {
+      checkArgument(lineNumber >= 2, "Expected at least 2 lines, found %s", lineNumber);
+      return ClaimsListShard.create(creationTime, builder.build());
+    }
   }
 }
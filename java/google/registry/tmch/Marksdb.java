@@ -26,6 +26,7 @@ import com.google.appengine.api.urlfetch.HTTPResponse;
 import com.google.appengine.api.urlfetch.URLFetchService;
 import com.google.common.base.Optional;
 import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.keyring.api.KeyModule.Key;
 import google.registry.util.UrlFetchException;
@@ -34,7 +35,6 @@ import java.io.IOException;
 import java.net.URL;
 import java.security.Security;
 import java.security.SignatureException;
-import java.util.List;
 import javax.annotation.Tainted;
 import javax.inject.Inject;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -115,12 +115,18 @@ public final class Marksdb {
     return rsp.getContent();
   }
 
-  List<String> fetchSignedCsv(
+  /**
+   * Fetches a CSV file and its signature, and returns the verified file.
+   *
+   * <p>The file is returned as a {@link CharSource} over the downloaded bytes, so that callers can
+   * parse it a line at a time rather than splitting it into a list of lines first.
+   */
+  CharSource fetchSignedCsv(
       Optional<String> login, String csvPath, String sigPath)
       throws IOException, SignatureException, PGPException {
     byte[] csv = fetch(new URL(tmchMarksdbUrl + csvPath), login);
     byte[] sig = fetch(new URL(tmchMarksdbUrl + sigPath), login);
     pgpVerifySignature(csv, sig, marksdbPublicKey);
-    return ByteSource.wrap(csv).asCharSource(US_ASCII).readLines();
+    return ByteSource.wrap(csv).asCharSource(US_ASCII);
   }
 }
@@ -20,6 +20,9 @@ import static google.registry.config.RegistryConfig.getSingletonCacheRefreshDura
 import static google.registry.util.ResourceUtils.readResourceUtf8;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -37,6 +40,7 @@ import java.util.concurrent.ExecutionException;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
+import org.joda.time.Duration;
 
 /**
  * Helper methods for accessing ICANN's TMCH root certificate and revocation list.
@@ -47,6 +51,11 @@ import javax.inject.Inject;
  *
  * <p>The CRTs do not change and are included as files in the codebase that are not refreshed. They
  * were downloaded from https://ca.icann.org/tmch.crt and https://ca.icann.org/tmch_pilot.crt
+ *
+ * <p>Certificates which pass {@link #verify} are remembered by their SHA-256 fingerprint, along
+ * with the root and CRL they were checked against, so that the many signed marks sharing a
+ * signing certificate don't each repeat its signature and revocation checks. Once the CRL is
+ * reloaded, previously verified certificates are checked again.
  */
 @Immutable
 @ThreadSafe
@@ -73,50 +82,86 @@ public final class TmchCertificateAuthority {
    * correspond to the correct CRL for the given TMCH CA mode because {@link TmchCrlAction} can
    * only persist the correct one for this given environment.
    */
-  private static final LoadingCache<TmchCaMode, X509CRL> CRL_CACHE =
-      CacheBuilder.newBuilder()
-          .expireAfterWrite(getSingletonCacheRefreshDuration().getMillis(), MILLISECONDS)
-          .build(
-              new CacheLoader<TmchCaMode, X509CRL>() {
-                @Override
-                public X509CRL load(final TmchCaMode tmchCaMode) throws GeneralSecurityException {
-                  TmchCrl storedCrl = TmchCrl.get();
-                  String crlContents;
-                  if (storedCrl == null) {
-                    String file = (tmchCaMode == PILOT) ? CRL_PILOT_FILE : CRL_FILE;
-                    crlContents = readResourceUtf8(TmchCertificateAuthority.class, file);
+  @NonFinalForTesting @VisibleForTesting
+  static LoadingCache<TmchCaMode, X509CRL> crlCache =
+      createCrlCache(getSingletonCacheRefreshDuration());
+
+  @VisibleForTesting
+  static LoadingCache<TmchCaMode, X509CRL> createCrlCache(Duration cacheRefreshDuration) {
+    return CacheBuilder.newBuilder()
+        .expireAfterWrite(cacheRefreshDuration.getMillis(), MILLISECONDS)
+        .build(
+            new CacheLoader<TmchCaMode, X509CRL>() {
+              @Override
+              public X509CRL load(final TmchCaMode tmchCaMode) throws GeneralSecurityException {
+                TmchCrl storedCrl = TmchCrl.get();
+                String crlContents;
+                if (storedCrl == null) {
+                  String file = (tmchCaMode == PILOT) ? CRL_PILOT_FILE : CRL_FILE;
+                  crlContents = readResourceUtf8(TmchCertificateAuthority.class, file);
+                } else {
+                  crlContents = storedCrl.getCrl();
+                }
+                X509CRL crl = X509Utils.loadCrl(crlContents);
+                try {
+                  crl.verify(rootCache.get(tmchCaMode).getPublicKey());
+                  return crl;
+                } catch (ExecutionException e) {
+                  if (e.getCause() instanceof GeneralSecurityException) {
+                    throw (GeneralSecurityException) e.getCause();
                   } else {
-                    crlContents = storedCrl.getCrl();
-                  }
-                  X509CRL crl = X509Utils.loadCrl(crlContents);
-                  try {
-                    crl.verify(ROOT_CACHE.get(tmchCaMode).getPublicKey());
-                    return crl;
-                  } catch (ExecutionException e) {
-                    if (e.getCause() instanceof GeneralSecurityException) {
-                      throw (GeneralSecurityException) e.getCause();
-                    } else {
-                      throw new RuntimeException("Unexpected exception while loading CRL", e);
-                    }
+                    throw new RuntimeException("Unexpected exception while loading CRL", e);
                   }
-                }});
+                }
+              }});
+  }
 
   /** A cached function that loads the CRT from a jar resource. */
-  private static final LoadingCache<TmchCaMode, X509Certificate> ROOT_CACHE =
-      CacheBuilder.newBuilder()
-          .expireAfterWrite(getSingletonCachePersistDuration().getMillis(), MILLISECONDS)
-          .build(
-              new CacheLoader<TmchCaMode, X509Certificate>() {
-                @Override
-                public X509Certificate load(final TmchCaMode tmchCaMode)
-                    throws GeneralSecurityException {
-                  String file = (tmchCaMode == PILOT) ? ROOT_CRT_PILOT_FILE : ROOT_CRT_FILE;
-                  X509Certificate root =
-                      X509Utils.loadCertificate(
-                          readResourceUtf8(TmchCertificateAuthority.class, file));
-                  root.checkValidity(clock.nowUtc().toDate());
-                  return root;
-                }});
+  @NonFinalForTesting @VisibleForTesting
+  static LoadingCache<TmchCaMode, X509Certificate> rootCache =
+      createRootCache(getSingletonCachePersistDuration());
+
+  @VisibleForTesting
+  static LoadingCache<TmchCaMode, X509Certificate> createRootCache(
+      Duration cachePersistDuration) {
+    return CacheBuilder.newBuilder()
+        .expireAfterWrite(cachePersistDuration.getMillis(), MILLISECONDS)
+        .build(
+            new CacheLoader<TmchCaMode, X509Certificate>() {
+              @Override
+              public X509Certificate load(final TmchCaMode tmchCaMode)
+                  throws GeneralSecurityException {
+                String file = (tmchCaMode == PILOT) ? ROOT_CRT_PILOT_FILE : ROOT_CRT_FILE;
+                X509Certificate root =
+                    X509Utils.loadCertificate(
+                        readResourceUtf8(TmchCertificateAuthority.class, file));
+                root.checkValidity(clock.nowUtc().toDate());
+                return root;
+              }});
+  }
+
+  /** Maximum number of verified certificates to remember. */
+  private static final int MAX_VERIFIED_CERTIFICATES = 1000;
+
+  /**
+   * Certificates that have passed {@link #verify}, keyed by fingerprint.
+   *
+   * <p>The cached value records which root and CRL instances the certificate was checked against.
+   * Those instances are replaced whenever {@link #crlCache} or {@link #rootCache} reloads, so
+   * comparing them by identity is enough to tell that the certificate must be checked again.
+   */
+  @NonFinalForTesting @VisibleForTesting
+  static Cache<String, VerifiedCertificate> verifiedCertificateCache =
+      createVerifiedCertificateCache(getSingletonCacheRefreshDuration());
+
+  @VisibleForTesting
+  static Cache<String, VerifiedCertificate> createVerifiedCertificateCache(
+      Duration cacheRefreshDuration) {
+    return CacheBuilder.newBuilder()
+        .expireAfterWrite(cacheRefreshDuration.getMillis(), MILLISECONDS)
+        .maximumSize(MAX_VERIFIED_CERTIFICATES)
+        .build();
+  }
 
   @NonFinalForTesting
   private static Clock clock = new SystemClock();
@@ -126,14 +171,24 @@ public final class TmchCertificateAuthority {
    *
    * <p>Support for certificate chains has not been implemented.
    *
+   * <p>This doesn't take any locks, so concurrent callers can verify in parallel. The validity
+   * period of a previously verified certificate is still checked on every call.
+   *
    * @throws GeneralSecurityException for unsupported protocols, certs not signed by the TMCH,
    *         incorrect keys, and for invalid, old, not-yet-valid or revoked certificates.
    * @see X509Utils#verifyCertificate
    */
   public void verify(X509Certificate cert) throws GeneralSecurityException {
-    synchronized (TmchCertificateAuthority.class) {
-      X509Utils.verifyCertificate(getRoot(), getCrl(), cert, clock.nowUtc().toDate());
+    X509Certificate root = getRoot();
+    X509CRL crl = getCrl();
+    String fingerprint = X509Utils.getCertificateHash(cert);
+    VerifiedCertificate verified = verifiedCertificateCache.getIfPresent(fingerprint);
+    if (verified != null && verified.isVerifiedAgainst(root, crl)) {
+      cert.checkValidity(clock.nowUtc().toDate());
+      return;
     }
+    X509Utils.verifyCertificate(root, crl, cert, clock.nowUtc().toDate());
+    verifiedCertificateCache.put(fingerprint, VerifiedCertificate.create(root, crl));
   }
 
   /**
@@ -141,8 +196,8 @@ public final class TmchCertificateAuthority {
    *
    * <p>Your ASCII-armored CRL must be signed by the current ICANN root certificate.
    *
-   * <p>This will not take effect (either on this instance or on others) until the CRL_CACHE next
-   * refreshes itself.
+   * <p>This takes effect on this instance straight away, but won't take effect on others until
+   * their CRL cache next refreshes itself.
    *
    * @throws GeneralSecurityException for unsupported protocols, certs not signed by the TMCH,
    *         incorrect keys, and for invalid, old, not-yet-valid or revoked certificates.
@@ -152,11 +207,12 @@ public final class TmchCertificateAuthority {
     X509CRL crl = X509Utils.loadCrl(asciiCrl);
     X509Utils.verifyCrl(getRoot(), getCrl(), crl, clock.nowUtc().toDate());
     TmchCrl.set(asciiCrl, url);
+    crlCache.invalidate(tmchCaMode);
   }
 
   public X509Certificate getRoot() throws GeneralSecurityException {
     try {
-      return ROOT_CACHE.get(tmchCaMode);
+      return rootCache.get(tmchCaMode);
     } catch (Exception e) {
       if (e.getCause() instanceof GeneralSecurityException) {
         throw (GeneralSecurityException) e.getCause();
@@ -169,7 +225,7 @@ public final class TmchCertificateAuthority {
 
   public X509CRL getCrl() throws GeneralSecurityException {
     try {
-      return CRL_CACHE.get(tmchCaMode);
+      return crlCache.get(tmchCaMode);
     } catch (Exception e) {
       if (e.getCause() instanceof GeneralSecurityException) {
         throw (GeneralSecurityException) e.getCause();
@@ -179,4 +235,21 @@ public final class TmchCertificateAuthority {
       throw new RuntimeException(e);
     }
   }
+
+  /** The root and CRL that a certificate was successfully verified against. */
+  @AutoValue
+  abstract static class VerifiedCertificate {
+    static VerifiedCertificate create(X509Certificate root, X509CRL crl) {
+      return new AutoValue_TmchCertificateAuthority_VerifiedCertificate(root, crl);
+    }
+
+    abstract X509Certificate root();
+
+    abstract X509CRL crl();
+
+    /** Returns whether the certificate was verified against these exact root and CRL instances. */
+    boolean isVerifiedAgainst(X509Certificate currentRoot, X509CRL currentCrl) {
+      return root() == currentRoot && crl() == currentCrl;
+    }
+  }
 }
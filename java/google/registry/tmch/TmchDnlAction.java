@@ -17,6 +17,7 @@ package google.registry.tmch;
 import static google.registry.request.Action.Method.POST;
 
 import com.google.common.base.Optional;
+import com.google.common.io.CharSource;
 import google.registry.keyring.api.KeyModule.Key;
 import google.registry.model.tmch.ClaimsListShard;
 import google.registry.request.Action;
@@ -24,9 +25,9 @@ import google.registry.request.auth.Auth;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.security.SignatureException;
-import java.util.List;
 import javax.inject.Inject;
 import org.bouncycastle.openpgp.PGPException;
+import org.joda.time.DateTime;
 
 /** Action to download the latest domain name list (aka claims list) from MarksDB. */
 @Action(
@@ -45,16 +46,28 @@ public final class TmchDnlAction implements Runnable {
   @Inject @Key("marksdbDnlLogin") Optional<String> marksdbDnlLogin;
   @Inject TmchDnlAction() {}
 
-  /** Synchronously fetches latest domain name list and saves it to Datastore. */
+  /**
+   * Synchronously fetches latest domain name list and saves it to Datastore.
+   *
+   * <p>If the list has the same creation time as the live one, it's already been saved, so it
+   * isn't saved again.
+   */
   @Override
   public void run() {
-    List<String> lines;
+    ClaimsListShard claims;
     try {
-      lines = marksdb.fetchSignedCsv(marksdbDnlLogin, DNL_CSV_PATH, DNL_SIG_PATH);
+      CharSource csv = marksdb.fetchSignedCsv(marksdbDnlLogin, DNL_CSV_PATH, DNL_SIG_PATH);
+      // Check the header before parsing the body, so an unchanged list costs one line, not all.
+      DateTime creationTime = ClaimsListParser.parseCreationTime(csv);
+      DateTime liveCreationTime = ClaimsListShard.getCurrentCreationTime();
+      if (liveCreationTime != null && liveCreationTime.isEqual(creationTime)) {
+        logger.infofmt("Claims list created at %s is already live", creationTime);
+        return;
+      }
+      claims = ClaimsListParser.parse(csv);
     } catch (SignatureException | IOException | PGPException e) {
       throw new RuntimeException(e);
     }
-    ClaimsListShard claims = ClaimsListParser.parse(lines);
     claims.save();
     logger.infofmt("Inserted %,d claims into Datastore, created at %s",
         claims.size(), claims.getCreationTime());
@@ -17,6 +17,7 @@ package google.registry.tmch;
 import static google.registry.request.Action.Method.POST;
 
 import com.google.common.base.Optional;
+import com.google.common.io.CharSource;
 import google.registry.keyring.api.KeyModule.Key;
 import google.registry.model.smd.SignedMarkRevocationList;
 import google.registry.request.Action;
@@ -24,9 +25,9 @@ import google.registry.request.auth.Auth;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.security.SignatureException;
-import java.util.List;
 import javax.inject.Inject;
 import org.bouncycastle.openpgp.PGPException;
+import org.joda.time.DateTime;
 
 /** Action to download the latest signed mark revocation list from MarksDB. */
 @Action(
@@ -45,16 +46,26 @@ public final class TmchSmdrlAction implements Runnable {
   @Inject @Key("marksdbSmdrlLogin") Optional<String> marksdbSmdrlLogin;
   @Inject TmchSmdrlAction() {}
 
-  /** Synchronously fetches latest signed mark revocation list and saves it to Datastore. */
+  /**
+   * Synchronously fetches latest signed mark revocation list and saves it to Datastore.
+   *
+   * <p>If the list has the same creation time as the saved one, it isn't saved again.
+   */
   @Override
   public void run() {
-    List<String> lines;
+    SignedMarkRevocationList smdrl;
     try {
-      lines = marksdb.fetchSignedCsv(marksdbSmdrlLogin, SMDRL_CSV_PATH, SMDRL_SIG_PATH);
+      CharSource csv = marksdb.fetchSignedCsv(marksdbSmdrlLogin, SMDRL_CSV_PATH, SMDRL_SIG_PATH);
+      DateTime creationTime = SmdrlCsvParser.parseCreationTime(csv);
+      DateTime savedCreationTime = SignedMarkRevocationList.getCurrentCreationTime();
+      if (savedCreationTime != null && savedCreationTime.isEqual(creationTime)) {
+        logger.infofmt("SMD revocation list created at %s is already saved", creationTime);
+        return;
+      }
+      smdrl = SmdrlCsvParser.parse(csv);
     } catch (SignatureException | IOException | PGPException e) {
       throw new RuntimeException(e);
     }
-    SignedMarkRevocationList smdrl = SmdrlCsvParser.parse(lines);
     smdrl.save();
     logger.infofmt("Inserted %,d smd revocations into Datastore, created at %s",
         smdrl.size(), smdrl.getCreationTime());
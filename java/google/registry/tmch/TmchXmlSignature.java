@@ -47,6 +47,7 @@ import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
 import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.validation.Schema;
@@ -69,6 +70,14 @@ public class TmchXmlSignature {
   private static final Schema SCHEMA =
       loadXmlSchemas(ImmutableList.of("mark.xsd", "dsig.xsd", "smd.xsd"));
 
+  /**
+   * Per-thread {@link DocumentBuilder}, validating against {@link #SCHEMA}.
+   *
+   * <p>Looking up and configuring a {@link DocumentBuilderFactory} is expensive, and builders
+   * aren't thread-safe, so each thread reuses its own builder, resetting it after each parse.
+   */
+  private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+
   /**
    * Verifies that signed mark data contains a valid signature.
    *
@@ -111,11 +120,26 @@ public class TmchXmlSignature {
 
   private static Document parseSmdDocument(InputStream input)
       throws SAXException, IOException, ParserConfigurationException {
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-    dbf.setSchema(SCHEMA);
-    dbf.setAttribute("http://apache.org/xml/features/validation/schema/normalized-value", false);
-    dbf.setNamespaceAware(true);
-    return dbf.newDocumentBuilder().parse(input);
+    DocumentBuilder builder = getDocumentBuilder();
+    try {
+      return builder.parse(input);
+    } finally {
+      builder.reset();
+    }
+  }
+
+  /** Get this thread's {@link DocumentBuilder}. */
+  private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+    DocumentBuilder builder = documentBuilders.get();
+    if (builder == null) {
+      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+      dbf.setSchema(SCHEMA);
+      dbf.setAttribute("http://apache.org/xml/features/validation/schema/normalized-value", false);
+      dbf.setNamespaceAware(true);
+      builder = dbf.newDocumentBuilder();
+      documentBuilders.set(builder);
+    }
+    return builder;
   }
 
   private static String explainValidationProblem(
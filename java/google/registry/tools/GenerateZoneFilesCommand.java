@@ -22,6 +22,7 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.google.common.collect.ImmutableMap;
 import google.registry.tools.params.DateParameter;
+import google.registry.tools.params.DateTimeParameter;
 import google.registry.tools.server.GenerateZoneFilesAction;
 import java.io.IOException;
 import java.util.List;
@@ -45,6 +46,14 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
       validateWith = DateParameter.class)
   private DateTime exportDate = DateTime.now(UTC).minus(standardMinutes(2)).withTimeAtStartOfDay();
 
+  @Parameter(
+      names = "--previous_export_time",
+      description = "If set, roll the zone files generated at this time forward to the export time "
+          + "using commit logs, instead of regenerating them. The export time may then be any "
+          + "time, not just midnight.",
+      validateWith = DateTimeParameter.class)
+  private DateTime previousExportTime;
+
   private Connection connection;
 
   @Override
@@ -55,19 +64,33 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
   @Override
   public void run() throws IOException {
     assertTldsExist(mainParameters);
-    ImmutableMap<String, Object> params = ImmutableMap.of(
-        "tlds", mainParameters,
-        "exportTime", exportDate.toString());
-    Map<String, Object> response = connection.sendJson(GenerateZoneFilesAction.PATH, params);
-    System.out.printf(
-        "Job started at %s%s\n",
-        connection.getServerUrl(),
-        response.get("jobPath"));
+    ImmutableMap.Builder<String, Object> params = new ImmutableMap.Builder<String, Object>()
+        .put("tlds", mainParameters)
+        .put("exportTime", exportDate.toString());
+    if (previousExportTime != null) {
+      params.put("previousExportTime", previousExportTime.toString());
+    }
+    Map<String, Object> response =
+        connection.sendJson(GenerateZoneFilesAction.PATH, params.build());
+    if (response.containsKey("jobPath")) {
+      System.out.printf(
+          "Job started at %s%s\n",
+          connection.getServerUrl(),
+          response.get("jobPath"));
+    }
     System.out.println("Output files:");
     @SuppressWarnings("unchecked")
     List<String> filenames = (List<String>) response.get("filenames");
     for (String filename : filenames) {
       System.out.println(filename);
     }
+    if (response.containsKey("diffFilenames")) {
+      System.out.println("Diff files:");
+      @SuppressWarnings("unchecked")
+      List<String> diffFilenames = (List<String>) response.get("diffFilenames");
+      for (String diffFilename : diffFilenames) {
+        System.out.println(diffFilename);
+      }
+    }
   }
 }
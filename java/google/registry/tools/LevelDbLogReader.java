@@ -14,17 +14,28 @@
 
 package google.registry.tools;
 
+import static java.nio.file.StandardOpenOption.READ;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
 
 /**
- * Reads records from a set of LevelDB files and builds a gigantic ImmutableList from them.
+ * Reads records from LevelDB files.
+ *
+ * <p>An instance reads records from a set of files and builds a gigantic ImmutableList from them.
+ * For files too big for that, {@link #readRecords(Path)} instead memory-maps a file and returns an
+ * iterator which reads its records lazily, so that only the current record is held in memory.
  *
  * <p>See <a
  * href="https://github.com/google/leveldb/blob/master/doc/log_format.md">log_format.md</a> for the
@@ -46,13 +57,20 @@ public final class LevelDbLogReader {
   private final ByteArrayOutputStream recordContents = new ByteArrayOutputStream();
   private final ImmutableList.Builder<byte[]> recordListBuilder = new ImmutableList.Builder<>();
 
+  /**
+   * Maximum size of each memory-mapped segment of a file, which must be a multiple of the block
+   * size. A single mapping can't be larger than 2 GB.
+   */
+  private static final int SEGMENT_SIZE = 1 << 30;
+
   /** Read a complete block, which must be exactly 32 KB. */
   private void processBlock(byte[] block) {
+    ByteBuffer buffer = ByteBuffer.wrap(block);
     // Read records from the block until there is no longer enough space for a record (i.e. until
     // we're at HEADER_SIZE - 1 bytes from the end of the block).
     int i = 0;
     while (i < BLOCK_SIZE - (HEADER_SIZE - 1)) {
-      RecordHeader recordHeader = readRecordHeader(block, i);
+      RecordHeader recordHeader = readRecordHeader(buffer, i);
       if (recordHeader.type == ChunkType.END) {
         // A type of zero indicates that we've reached the padding zeroes at the end of the block.
         break;
@@ -76,12 +94,12 @@ public final class LevelDbLogReader {
    *
    * <p>Java bytes are signed, which doesn't work very well for our bit-shifting operations.
    */
-  private int getUnsignedByte(byte[] block, int pos) {
-    return block[pos] & 0xFF;
+  private static int getUnsignedByte(ByteBuffer block, int pos) {
+    return block.get(pos) & 0xFF;
   }
 
   /** Reads the 7 byte record header. */
-  private RecordHeader readRecordHeader(byte[] block, int pos) {
+  private static RecordHeader readRecordHeader(ByteBuffer block, int pos) {
     // Read checksum (4 bytes, LE).
     int checksum =
         getUnsignedByte(block, pos)
@@ -122,6 +140,34 @@ public final class LevelDbLogReader {
     readFrom(FileSystems.getDefault().getPath(filename));
   }
 
+  /**
+   * Returns an iterator over the records in the file specified by "path", which reads them lazily.
+   *
+   * <p>The file is memory-mapped rather than read, so no blocks are copied, and each record is
+   * copied once, when the iterator reaches it. The file may be larger than 2 GB, and its last block
+   * may be partial. The mapping is made up front, so the iterator doesn't hold the file open.
+   */
+  public static Iterator<byte[]> readRecords(Path path) throws IOException {
+    return readRecords(path, SEGMENT_SIZE);
+  }
+
+  @VisibleForTesting
+  static Iterator<byte[]> readRecords(Path path, int segmentSize) throws IOException {
+    ImmutableList.Builder<ByteBuffer> segments = new ImmutableList.Builder<>();
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      long size = channel.size();
+      for (long offset = 0; offset < size; offset += segmentSize) {
+        segments.add(channel.map(MapMode.READ_ONLY, offset, Math.min(segmentSize, size - offset)));
+      }
+    }
+    return new RecordIterator(segments.build().iterator());
+  }
+
+  /** Returns an iterator over the records in the buffer, from its position to its limit. */
+  static Iterator<byte[]> readRecords(ByteBuffer buffer) {
+    return new RecordIterator(ImmutableList.of(buffer.slice()).iterator());
+  }
+
   /**
    * Gets the list of records constructed so far.
    *
@@ -132,6 +178,73 @@ public final class LevelDbLogReader {
     return recordListBuilder.build();
   }
 
+  /**
+   * Iterator over the records in a sequence of buffers, which together hold a complete file.
+   *
+   * <p>Every buffer but the last must be a whole number of blocks long. A record can be split into
+   * chunks across blocks, and therefore across buffers.
+   */
+  private static final class RecordIterator extends AbstractIterator<byte[]> {
+
+    private final Iterator<ByteBuffer> segments;
+    private final ByteArrayOutputStream recordContents = new ByteArrayOutputStream();
+    private ByteBuffer segment;
+
+    RecordIterator(Iterator<ByteBuffer> segments) {
+      this.segments = segments;
+    }
+
+    @Override
+    protected byte[] computeNext() {
+      while (true) {
+        if (segment == null || !segment.hasRemaining()) {
+          if (!segments.hasNext()) {
+            return endOfData();
+          }
+          segment = segments.next();
+        }
+        int pos = segment.position();
+        int endOfBlock = Math.min(segment.limit(), pos - pos % BLOCK_SIZE + BLOCK_SIZE);
+        if (endOfBlock - pos < HEADER_SIZE) {
+          // There isn't room for another record in this block, so the rest of it is padding.
+          segment.position(endOfBlock);
+          continue;
+        }
+        RecordHeader recordHeader = readRecordHeader(segment, pos);
+        if (recordHeader.type == ChunkType.END) {
+          // A type of zero indicates that we've reached the padding zeroes at the end of the block.
+          segment.position(endOfBlock);
+          continue;
+        }
+        if (recordHeader.size > endOfBlock - pos - HEADER_SIZE) {
+          throw new IllegalStateException(
+              String.format("Chunk of size %d overruns its block", recordHeader.size));
+        }
+        byte[] chunk = new byte[recordHeader.size];
+        segment.position(pos + HEADER_SIZE);
+        segment.get(chunk);
+        switch (recordHeader.type) {
+          case FULL:
+            return chunk;
+          case FIRST:
+            recordContents.reset();
+            recordContents.write(chunk, 0, chunk.length);
+            break;
+          case MIDDLE:
+            recordContents.write(chunk, 0, chunk.length);
+            break;
+          case LAST:
+            recordContents.write(chunk, 0, chunk.length);
+            byte[] record = recordContents.toByteArray();
+            recordContents.reset();
+            return record;
+          default:
+            throw new AssertionError(recordHeader.type);
+        }
+      }
+    }
+  }
+
   /** Aggregates the fields in a record header. */
   private static final class RecordHeader {
     final int checksum;
@@ -0,0 +1,100 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.CallNotFoundException;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * {@link Delegate} which only lets through the App Engine API calls needed to read Datastore.
+ *
+ * <p>The remote API only accepts the credentials of an app admin, so a process that reads Datastore
+ * through it holds credentials that could write anything. Wrapping the remote API delegate in this
+ * one means that nothing running in the process can use them for more than reads: Datastore puts
+ * and deletes, and all calls to other services except memcache, fail with a {@link
+ * CallNotFoundException}.
+ */
+final class ReadOnlyApiProxyDelegate implements Delegate<Environment> {
+
+  private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+  /** Services which can be called freely; Objectify keeps entities in memcache as it reads them. */
+  private static final ImmutableSet<String> ALLOWED_PACKAGES = ImmutableSet.of("memcache");
+
+  /** Datastore methods which write. */
+  private static final ImmutableSet<String> DATASTORE_WRITE_METHODS =
+      ImmutableSet.of("Put", "Delete");
+
+  private final Delegate<Environment> delegate;
+
+  private ReadOnlyApiProxyDelegate(Delegate<Environment> delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Wraps the currently installed delegate, so that only reads get through it. */
+  @SuppressWarnings("unchecked")
+  static void install() {
+    ApiProxy.setDelegate(new ReadOnlyApiProxyDelegate(ApiProxy.getDelegate()));
+  }
+
+  private static void checkAllowed(String packageName, String methodName) {
+    boolean allowed = packageName.equals(DATASTORE_PACKAGE)
+        ? !DATASTORE_WRITE_METHODS.contains(methodName)
+        : ALLOWED_PACKAGES.contains(packageName);
+    if (!allowed) {
+      throw new CallNotFoundException(packageName, methodName);
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(
+      Environment environment, String packageName, String methodName, byte[] request) {
+    checkAllowed(packageName, methodName);
+    return delegate.makeSyncCall(environment, packageName, methodName, request);
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(
+      Environment environment,
+      String packageName,
+      String methodName,
+      byte[] request,
+      ApiConfig apiConfig) {
+    checkAllowed(packageName, methodName);
+    return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+  }
+
+  @Override
+  public void log(Environment environment, LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+}
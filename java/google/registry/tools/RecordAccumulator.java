@@ -18,12 +18,17 @@ import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.common.collect.ImmutableSet;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 
-/** Utility class that accumulates Entity records from level db files. */
+/**
+ * Utility class that accumulates Entity records from level db files.
+ *
+ * <p>Each file is streamed with {@link LevelDbLogReader#readRecords}, and its records are turned
+ * into entities as they are read, so only the entities themselves are held in memory.
+ */
 class RecordAccumulator {
-  private final LevelDbLogReader reader = new LevelDbLogReader();
+  private final ImmutableSet.Builder<ComparableEntity> entities = new ImmutableSet.Builder<>();
 
   /** Recursively reads all records in the directory. */
   public final RecordAccumulator readDirectory(File dir) {
@@ -31,29 +36,29 @@ class RecordAccumulator {
       if (child.isDirectory()) {
         readDirectory(child);
       } else if (child.isFile()) {
-        try {
-          reader.readFrom(new FileInputStream(child));
-        } catch (IOException e) {
-          throw new RuntimeException("IOException reading from file: " + child, e);
-        }
+        readFile(child);
       }
     }
-
     return this;
   }
 
-  /** Creates an entity set from the current set of raw records. */
-  ImmutableSet<ComparableEntity> getComparableEntitySet() {
-    ImmutableSet.Builder<ComparableEntity> builder = new ImmutableSet.Builder<>();
-    for (byte[] rawRecord : reader.getRecords()) {
+  private void readFile(File file) {
+    Iterator<byte[]> records;
+    try {
+      records = LevelDbLogReader.readRecords(file.toPath());
+    } catch (IOException e) {
+      throw new RuntimeException("IOException reading from file: " + file, e);
+    }
+    while (records.hasNext()) {
       // Parse the entity proto and create an Entity object from it.
       EntityProto proto = new EntityProto();
-      proto.parseFrom(rawRecord);
-      ComparableEntity entity = new ComparableEntity(EntityTranslator.createFromPb(proto));
-
-      builder.add(entity);
+      proto.parseFrom(records.next());
+      entities.add(new ComparableEntity(EntityTranslator.createFromPb(proto)));
     }
+  }
 
-    return builder.build();
+  /** Returns the set of entities read so far. */
+  ImmutableSet<ComparableEntity> getComparableEntitySet() {
+    return entities.build();
   }
 }
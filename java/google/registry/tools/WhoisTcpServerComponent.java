@@ -0,0 +1,137 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static google.registry.monitoring.whitebox.StackdriverModule.SPOOFED_GCE_ZONE;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.monitoring.v3.Monitoring;
+import com.google.api.services.monitoring.v3.MonitoringScopes;
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.config.RegistryConfig.ConfigModule;
+import google.registry.monitoring.metrics.MetricReporter;
+import google.registry.monitoring.metrics.MetricWriter;
+import google.registry.monitoring.metrics.stackdriver.StackdriverWriter;
+import google.registry.util.SystemClock.SystemClockModule;
+import google.registry.util.SystemSleeper.SystemSleeperModule;
+import google.registry.whois.WhoisModule;
+import google.registry.whois.WhoisTcpServer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadFactory;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.joda.time.Duration;
+
+/** Dagger component for the standalone {@link WhoisTcpServer} run by {@link WhoisTcpServerMain}. */
+@Singleton
+@Component(
+  modules = {
+    ConfigModule.class,
+    SystemClockModule.class,
+    SystemSleeperModule.class,
+    WhoisModule.class,
+    WhoisTcpServerComponent.WhoisTcpServerModule.class,
+  }
+)
+interface WhoisTcpServerComponent {
+  WhoisTcpServer whoisTcpServer();
+  MetricReporter metricReporter();
+
+  /**
+   * Dagger module for the threads and metrics of the standalone {@link WhoisTcpServer}.
+   *
+   * <p>The server runs outside App Engine, where neither its {@code ThreadManager} nor its app
+   * identity is available, so this module supplies plain JVM threads, and writes metrics to
+   * Stackdriver as the service account the server reads Datastore as.
+   */
+  @Module
+  static final class WhoisTcpServerModule {
+
+    /** The service account credential, which is absent when the server runs against localhost. */
+    private final Optional<GoogleCredential> credential;
+
+    WhoisTcpServerModule(Optional<GoogleCredential> credential) {
+      this.credential = credential;
+    }
+
+    @Provides
+    @Named("whoisTcpThreadFactory")
+    static ThreadFactory provideWhoisTcpThreadFactory() {
+      return new ThreadFactoryBuilder().setNameFormat("whois-tcp-%d").build();
+    }
+
+    @Provides
+    @Named("metricsBackgroundThreadFactory")
+    static ThreadFactory provideMetricsThreadFactory() {
+      return new ThreadFactoryBuilder().setNameFormat("metrics-%d").setDaemon(true).build();
+    }
+
+    @Provides
+    @Named("metricsWriteInterval")
+    static long provideMetricsWriteInterval(
+        @Config("metricsWriteInterval") Duration metricsWriteInterval) {
+      return metricsWriteInterval.getStandardSeconds();
+    }
+
+    @Provides
+    Monitoring provideMonitoring(@Config("projectId") String projectId) {
+      return new Monitoring.Builder(
+              new NetHttpTransport(),
+              JacksonFactory.getDefaultInstance(),
+              credential.get().createScoped(MonitoringScopes.all()))
+          .setApplicationName(projectId)
+          .build();
+    }
+
+    /**
+     * Provides a {@link MetricWriter} which labels points with this machine's host name, in the
+     * same spoofed GCE instance resource that {@code StackdriverModule} uses for App Engine.
+     */
+    @Provides
+    static MetricWriter provideMetricWriter(
+        Monitoring monitoringClient,
+        @Config("projectId") String projectId,
+        @Config("stackdriverMaxQps") int maxQps,
+        @Config("stackdriverMaxPointsPerRequest") int maxPointsPerRequest) {
+      String hostName;
+      try {
+        hostName = InetAddress.getLocalHost().getHostName();
+      } catch (UnknownHostException e) {
+        hostName = "unknown";
+      }
+      return new StackdriverWriter(
+          monitoringClient,
+          projectId,
+          new MonitoredResource()
+              .setType("gce_instance")
+              .setLabels(
+                  ImmutableMap.of(
+                      "zone", SPOOFED_GCE_ZONE,
+                      "instance_id", "whois-tcp:" + hostName)),
+          maxQps,
+          maxPointsPerRequest);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.appengine.tools.remoteapi.RemoteApiInstaller;
+import com.google.appengine.tools.remoteapi.RemoteApiOptions;
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import google.registry.model.ofy.ObjectifyService;
+import google.registry.monitoring.metrics.MetricReporter;
+import google.registry.tools.WhoisTcpServerComponent.WhoisTcpServerModule;
+import google.registry.tools.params.ParameterFactory;
+import google.registry.tools.params.PathParameter;
+import google.registry.util.FormattingLogger;
+import google.registry.whois.WhoisTcpServer;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the standalone port-43 {@link WhoisTcpServer} outside App Engine.
+ *
+ * <p>App Engine standard can't accept inbound sockets, so the server runs on its own machine and
+ * reads Datastore through the remote API of the App Engine app given by {@code --server}. It serves
+ * until the process is killed.
+ *
+ * <p>This is a trade-off. Every Datastore read is an HTTPS round trip to the app, which is much
+ * slower than reading Datastore from inside App Engine; the server's response cache absorbs most
+ * of that for the repeated queries that dominate port-43 traffic. The alternative, serving from
+ * infrastructure with direct Datastore access, would mean running and securing a second copy of
+ * the registry's data access outside App Engine, which this tree has no support for.
+ *
+ * <p>The remote API also only accepts the credentials of an app admin, and the server is a public,
+ * unauthenticated listener. So the credentials are restricted as far as they can be:
+ *
+ * <ul>
+ *   <li>The server authenticates as the service account whose JSON key is given by {@code
+ *       --credential}, never as whoever happens to be logged in through application default
+ *       credentials. That account should be dedicated to the WHOIS server, with no roles beyond
+ *       the App Engine access the remote API needs and writing Stackdriver metrics, and its key
+ *       should exist only on the server's machine.
+ *   <li>The remote API is wrapped in a {@link ReadOnlyApiProxyDelegate}, so nothing in the process
+ *       can use the credentials to write Datastore or call other App Engine services.
+ * </ul>
+ *
+ * <p>The server's {@link google.registry.whois.WhoisMetrics} are exported to Stackdriver by a
+ * {@link MetricReporter}, as the same service account.
+ */
+@Parameters(separators = " =")
+public final class WhoisTcpServerMain {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  @Parameter(
+      names = {"-e", "--environment"},
+      description = "Sets the environment whose registry the server answers for.")
+  private RegistryToolEnvironment environment = RegistryToolEnvironment.PRODUCTION;
+
+  @Parameter(
+      names = "--credential",
+      description = "JSON key file of the service account to read Datastore and write metrics as. "
+          + "Required unless --server is localhost.",
+      validateWith = PathParameter.InputFile.class)
+  private Path credentialPath;
+
+  // Do not make this final - compile-time constant inlining may interfere with JCommander.
+  @ParametersDelegate
+  private AppEngineConnectionFlags appEngineConnectionFlags = new AppEngineConnectionFlags();
+
+  // Do not make this final - compile-time constant inlining may interfere with JCommander.
+  @ParametersDelegate
+  private LoggingParameters loggingParams = new LoggingParameters();
+
+  public static void main(String[] args) throws Exception {
+    RegistryToolEnvironment.parseFromArgs(args).setup();
+    new WhoisTcpServerMain().run(args);
+  }
+
+  private void run(String[] args) throws Exception {
+    JCommander jcommander = new JCommander(this);
+    jcommander.addConverterFactory(new ParameterFactory());
+    jcommander.setProgramName("nomulus_whois");
+    jcommander.parse(args);
+    loggingParams.configureLogging();  // Must be called after parameters are parsed.
+
+    HostAndPort server = appEngineConnectionFlags.getServer().withDefaultPort(443);
+    RemoteApiOptions options = new RemoteApiOptions();
+    options.server(server.getHost(), server.getPort());
+    Optional<GoogleCredential> credential = Optional.absent();
+    if (credentialPath != null) {
+      try (InputStream in = Files.newInputStream(credentialPath)) {
+        credential = Optional.of(GoogleCredential.fromStream(in));
+      }
+    }
+    if (server.getHost().equals("localhost")) {
+      // Use dev credentials for localhost.
+      options.useDevelopmentServerCredential();
+    } else {
+      checkArgument(credential.isPresent(), "--credential is required for a remote server");
+      options.useServiceAccountCredential(
+          credential.get().getServiceAccountId(), credential.get().getServiceAccountPrivateKey());
+    }
+    // Queries are executed on the server's worker threads, not this one, so every thread needs the
+    // remote API installed.
+    new RemoteApiInstaller().installOnAllThreads(options);
+    ReadOnlyApiProxyDelegate.install();
+
+    // Ensure that all entity classes are loaded before any query is executed.
+    ObjectifyService.initOfy();
+
+    WhoisTcpServerComponent component =
+        DaggerWhoisTcpServerComponent.builder()
+            .whoisTcpServerModule(new WhoisTcpServerModule(credential))
+            .build();
+    final Optional<MetricReporter> metricReporter =
+        credential.isPresent()
+            ? Optional.of(component.metricReporter())
+            : Optional.<MetricReporter>absent();
+    if (metricReporter.isPresent()) {
+      metricReporter.get().startAsync().awaitRunning(10, TimeUnit.SECONDS);
+      logger.info("Started up MetricReporter");
+    } else {
+      logger.warning("No --credential given, so metrics won't be exported");
+    }
+    final WhoisTcpServer whoisServer = component.whoisTcpServer();
+    whoisServer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          whoisServer.stop();
+          if (metricReporter.isPresent()) {
+            // Stopping the reporter flushes the metrics of the last queries served.
+            metricReporter.get().stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+          logger.severefmt("Failed to stop MetricReporter: %s", e);
+        }
+      }});
+  }
+}
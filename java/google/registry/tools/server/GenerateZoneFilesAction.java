@@ -69,6 +69,12 @@ import org.joda.time.Duration;
  * <p>Zone files for each requested TLD are written to GCS. TLDs without entries produce zone files
  * with only a header. The export time must be at least two minutes in the past and no more than
  * 29 days in the past, and must be at midnight UTC.
+ *
+ * <p>If a {@code previousExportTime} is also given, the zone files generated for that time are
+ * updated incrementally instead, using {@link IncrementalZoneFileGenerator}. This doesn't run a
+ * MapReduce, and the export time need not be at midnight, so zone files can be kept fresh by
+ * repeatedly rolling them forward a few minutes at a time. The previous export time must still be
+ * within the commit log retention period.
  */
 @Action(
   path = GenerateZoneFilesAction.PATH,
@@ -80,13 +86,13 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   public static final String PATH = "/_dr/task/generateZoneFiles";
 
   /** Format for the zone file name. */
-  private static final String FILENAME_FORMAT = "%s-%s.zone";
+  static final String FILENAME_FORMAT = "%s-%s.zone";
 
   /** Format for the GCS path to a file. */
-  private static final String GCS_PATH_FORMAT = "gs://%s/%s";
+  static final String GCS_PATH_FORMAT = "gs://%s/%s";
 
   /** Format for the zone file header. */
-  private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
+  static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
 
   /** Format for NS records. */
   private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
@@ -105,6 +111,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   @Inject @Config("dnsDefaultATtl") Duration dnsDefaultATtl;
   @Inject @Config("dnsDefaultNsTtl") Duration dnsDefaultNsTtl;
   @Inject @Config("dnsDefaultDsTtl") Duration dnsDefaultDsTtl;
+  @Inject IncrementalZoneFileGenerator incrementalGenerator;
   @Inject Clock clock;
   @Inject GenerateZoneFilesAction() {}
 
@@ -125,6 +132,10 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     if (exportTime.isAfter(now.minusMinutes(2))) {
       throw new BadRequestException("Invalid export time: must be > 2 minutes ago");
     }
+    if (json.get("previousExportTime") != null) {
+      return handleIncrementalRequest(
+          tlds, DateTime.parse(json.get("previousExportTime").toString()), exportTime);
+    }
     if (exportTime.isBefore(now.minus(datastoreRetention))) {
       throw new BadRequestException(String.format(
           "Invalid export time: must be < %d days ago",
@@ -160,6 +171,43 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         "filenames", filenames);
   }
 
+  /** Rolls the zone files forward from the previous export time, using commit logs. */
+  private Map<String, Object> handleIncrementalRequest(
+      ImmutableSet<String> tlds, DateTime previousExportTime, DateTime exportTime) {
+    // Every change after the previous export time has to still be in the commit logs.
+    if (previousExportTime.isBefore(clock.nowUtc().minus(datastoreRetention))) {
+      throw new BadRequestException(String.format(
+          "Invalid previous export time: must be < %d days ago",
+          datastoreRetention.getStandardDays()));
+    }
+    if (!previousExportTime.isBefore(exportTime)) {
+      throw new BadRequestException(
+          "Invalid previous export time: must be before the export time");
+    }
+    ImmutableList.Builder<String> filenames = new ImmutableList.Builder<>();
+    ImmutableList.Builder<String> diffFilenames = new ImmutableList.Builder<>();
+    for (String tld : tlds) {
+      if (!incrementalGenerator.previousZoneFileExists(tld, previousExportTime)) {
+        throw new BadRequestException(String.format(
+            "No zone file for %s at previous export time %s", tld, previousExportTime));
+      }
+      filenames.add(String.format(
+          GCS_PATH_FORMAT, bucket, String.format(FILENAME_FORMAT, tld, exportTime)));
+      diffFilenames.add(String.format(
+          GCS_PATH_FORMAT,
+          bucket,
+          String.format(
+              IncrementalZoneFileGenerator.DIFF_FILENAME_FORMAT,
+              tld,
+              previousExportTime,
+              exportTime)));
+    }
+    incrementalGenerator.generate(tlds, previousExportTime, exportTime);
+    return ImmutableMap.<String, Object>of(
+        "filenames", filenames.build(),
+        "diffFilenames", diffFilenames.build());
+  }
+
   /** Mapper to find domains that were active at a given time. */
   static class GenerateBindFileMapper extends Mapper<EppResource, String, String> {
 
@@ -285,15 +333,32 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
       DateTime exportTime,
       Duration dnsDefaultNsTtl,
       Duration dnsDefaultDsTtl) {
+    ImmutableList.Builder<String> nameserverNames = new ImmutableList.Builder<>();
+    for (HostResource nameserver : ofy().load().keys(domain.getNameservers()).values()) {
+      // Load the nameservers at the export time in case they've been renamed or deleted.
+      nameserverNames.add(
+          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName());
+    }
+    return domainStanza(domain, nameserverNames.build(), dnsDefaultNsTtl, dnsDefaultDsTtl);
+  }
+
+  /**
+   * Generates DNS records for a domain (NS and DS), given the names of its nameservers as of the
+   * export time.
+   */
+  static String domainStanza(
+      DomainResource domain,
+      Iterable<String> nameserverNames,
+      Duration dnsDefaultNsTtl,
+      Duration dnsDefaultDsTtl) {
     StringBuilder result = new StringBuilder();
     String domainLabel = stripTld(domain.getFullyQualifiedDomainName(), domain.getTld());
-    for (HostResource nameserver : ofy().load().keys(domain.getNameservers()).values()) {
+    for (String nameserverName : nameserverNames) {
       result.append(String.format(
           NS_FORMAT,
           domainLabel,
           dnsDefaultNsTtl.getStandardSeconds(),
-          // Load the nameservers at the export time in case they've been renamed or deleted.
-          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
+          nameserverName));
     }
     for (DelegationSignerData dsData : domain.getDsData()) {
       result.append(String.format(
@@ -317,7 +382,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    *   ns.foo.tld 3600 IN AAAA 0:0:0:0:0:0:0:1
    * }
    */
-  private static String hostStanza(HostResource host, Duration dnsDefaultATtl, String tld) {
+  static String hostStanza(HostResource host, Duration dnsDefaultATtl, String tld) {
     StringBuilder result = new StringBuilder();
     for (InetAddress addr : host.getInetAddresses()) {
       // must be either IPv4 or IPv6
@@ -342,7 +407,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    * If, for some unforeseen reason, the TLD is not present, indicate an error condition, so that
    * our process for comparing Datastore and DNS data will realize that something is amiss.
    */
-  private static String stripTld(String fullyQualifiedName, String tld) {
+  static String stripTld(String fullyQualifiedName, String tld) {
     return fullyQualifiedName.endsWith(tld)
         ? fullyQualifiedName.substring(0, fullyQualifiedName.length() - tld.length() - 1)
         : (fullyQualifiedName + "***");
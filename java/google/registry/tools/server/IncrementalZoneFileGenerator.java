@@ -0,0 +1,411 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.EppResourceUtils.queryForLinkedDomains;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.tools.server.GenerateZoneFilesAction.FILENAME_FORMAT;
+import static google.registry.tools.server.GenerateZoneFilesAction.HEADER_FORMAT;
+import static google.registry.tools.server.GenerateZoneFilesAction.domainStanza;
+import static google.registry.tools.server.GenerateZoneFilesAction.hostStanza;
+import static google.registry.tools.server.GenerateZoneFilesAction.stripTld;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SetMultimap;
+import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.EppResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.util.FormattingLogger;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Rolls BIND zone files forward from one export time to a later one, using the commit logs written
+ * in between.
+ *
+ * <p>Only the domains touched by those commit logs are regenerated: domains which were saved
+ * themselves, the superordinate domains of hosts which were saved (for their glue records), and
+ * the domains using those hosts as nameservers (in case they were renamed). Every other record is
+ * copied over from the previous zone file. Alongside the new zone file, a diff file lists the
+ * records deleted and then the records added, in the manner of an IXFR response.
+ *
+ * <p>Resources are taken as of the export time from their last commit log mutation before it.
+ * Resources which weren't saved in the window fall back to {@link
+ * google.registry.model.EppResourceUtils#loadAtPointInTime}, which is exact unless they have been
+ * saved again since the export time. Looking up the domains which use a host is an eventually
+ * consistent query.
+ */
+class IncrementalZoneFileGenerator {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Format for the diff file name, from the TLD and the previous and new export times. */
+  static final String DIFF_FILENAME_FORMAT = "%s-%s-%s.zonediff";
+
+  /** Format for the diff file header. */
+  private static final String DIFF_HEADER_FORMAT = "$ORIGIN\t%s.\n; Changes from %s to %s\n\n";
+
+  private static final String DOMAIN_KIND = Key.getKind(DomainBase.class);
+  private static final String HOST_KIND = Key.getKind(HostResource.class);
+
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+
+  private final GcsUtils gcsUtils;
+  private final String bucket;
+  private final Duration dnsDefaultATtl;
+  private final Duration dnsDefaultNsTtl;
+  private final Duration dnsDefaultDsTtl;
+
+  @Inject
+  IncrementalZoneFileGenerator(
+      GcsUtils gcsUtils,
+      @Config("zoneFilesBucket") String bucket,
+      @Config("dnsDefaultATtl") Duration dnsDefaultATtl,
+      @Config("dnsDefaultNsTtl") Duration dnsDefaultNsTtl,
+      @Config("dnsDefaultDsTtl") Duration dnsDefaultDsTtl) {
+    this.gcsUtils = gcsUtils;
+    this.bucket = bucket;
+    this.dnsDefaultATtl = dnsDefaultATtl;
+    this.dnsDefaultNsTtl = dnsDefaultNsTtl;
+    this.dnsDefaultDsTtl = dnsDefaultDsTtl;
+  }
+
+  /** Returns whether there is a zone file for the given TLD to roll forward from. */
+  boolean previousZoneFileExists(String tld, DateTime previousExportTime) {
+    return gcsUtils.existsAndNotEmpty(getZoneFilename(tld, previousExportTime));
+  }
+
+  /**
+   * Writes zone files and diff files for the given TLDs at the export time, from the zone files
+   * previously written at the previous export time.
+   */
+  void generate(ImmutableSet<String> tlds, DateTime previousExportTime, DateTime exportTime) {
+    Map<Key<EppResource>, Change> changes = loadChanges(previousExportTime, exportTime);
+
+    // Work out which domains might have different records than in the previous zone files.
+    Set<Key<EppResource>> domainKeys = new HashSet<>();
+    Set<Key<EppResource>> hostKeys = new HashSet<>();
+    for (Key<EppResource> key : changes.keySet()) {
+      if (key.getKind().equals(DOMAIN_KIND)) {
+        domainKeys.add(key);
+      } else {
+        hostKeys.add(key);
+      }
+    }
+    for (Map.Entry<Key<EppResource>, EppResource> entry
+        : loadLatest(hostKeys, changes).entrySet()) {
+      EppResource host = loadAtPointInTime(entry.getValue(), exportTime).now();
+      if (host != null && ((HostResource) host).isSubordinate()) {
+        domainKeys.add(asResourceKey(((HostResource) host).getSuperordinateDomain()));
+      }
+    }
+    for (Key<EppResource> hostKey : hostKeys) {
+      for (Key<DomainBase> domainKey : queryForLinkedDomains(hostKey, exportTime).keys()) {
+        domainKeys.add(asResourceKey(domainKey));
+      }
+    }
+
+    // Regenerate the records of those domains as of the export time.
+    SetMultimap<String, String> changedLabels =
+        MultimapBuilder.hashKeys().hashSetValues().build();
+    List<DomainResource> publishedDomains = new ArrayList<>();
+    Set<Key<EppResource>> nameserverKeys = new HashSet<>();
+    for (EppResource resource : loadLatest(domainKeys, changes).values()) {
+      // Domain applications share the domain kind, but never appear in zone files.
+      if (!(resource instanceof DomainResource)
+          || !tlds.contains(((DomainResource) resource).getTld())) {
+        continue;
+      }
+      DomainResource domain = (DomainResource) resource;
+      changedLabels.put(
+          domain.getTld(), stripTld(domain.getFullyQualifiedDomainName(), domain.getTld()));
+      domain = loadAtPointInTime(domain, exportTime).now();
+      // A null means the domain was deleted (or not created) at this time.
+      if (domain != null && domain.shouldPublishToDns()) {
+        publishedDomains.add(domain);
+        for (Key<HostResource> nameserverKey : domain.getNameservers()) {
+          nameserverKeys.add(asResourceKey(nameserverKey));
+        }
+      }
+    }
+    Map<Key<EppResource>, EppResource> nameservers = loadLatest(nameserverKeys, changes);
+    Map<String, ListMultimap<String, String>> recordsByTld = new HashMap<>();
+    for (String tld : changedLabels.keySet()) {
+      recordsByTld.put(tld, MultimapBuilder.hashKeys().arrayListValues().<String, String>build());
+    }
+    for (DomainResource domain : publishedDomains) {
+      ImmutableList.Builder<String> nameserverNames = new ImmutableList.Builder<>();
+      List<String> glueStanzas = new ArrayList<>();
+      for (Key<HostResource> nameserverKey : domain.getNameservers()) {
+        EppResource nameserver = nameservers.get(asResourceKey(nameserverKey));
+        HostResource host = (nameserver == null)
+            ? null
+            : (HostResource) loadAtPointInTime(nameserver, exportTime).now();
+        // A null means the host was deleted (or not created) at this time.
+        if (host != null) {
+          nameserverNames.add(host.getFullyQualifiedHostName());
+          if (domain.getSubordinateHosts().contains(host.getFullyQualifiedHostName())) {
+            glueStanzas.add(hostStanza(host, dnsDefaultATtl, domain.getTld()));
+          }
+        }
+      }
+      String label = stripTld(domain.getFullyQualifiedDomainName(), domain.getTld());
+      ListMultimap<String, String> records = recordsByTld.get(domain.getTld());
+      records.putAll(
+          label,
+          LINE_SPLITTER.split(
+              domainStanza(domain, nameserverNames.build(), dnsDefaultNsTtl, dnsDefaultDsTtl)));
+      for (String glueStanza : glueStanzas) {
+        records.putAll(label, LINE_SPLITTER.split(glueStanza));
+      }
+    }
+
+    for (String tld : tlds) {
+      ListMultimap<String, String> records = recordsByTld.get(tld);
+      updateZoneFile(
+          tld,
+          previousExportTime,
+          exportTime,
+          changedLabels.get(tld),
+          (records == null)
+              ? MultimapBuilder.hashKeys().arrayListValues().<String, String>build()
+              : records);
+    }
+  }
+
+  /**
+   * Loads the last change to each domain and host within the window between the export times, by
+   * scanning every commit log bucket.
+   */
+  private static Map<Key<EppResource>, Change> loadChanges(
+      DateTime previousExportTime, DateTime exportTime) {
+    Map<Key<EppResource>, Change> changes = new HashMap<>();
+    for (Key<CommitLogBucket> bucketKey : CommitLogBucket.getAllBucketKeys()) {
+      // Manifests are keyed on their commit times, so the window is a range of keys, and the
+      // mutations within it are the descendants of the manifests in that range.
+      Key<CommitLogManifest> lowerBound =
+          CommitLogManifest.createKey(bucketKey, previousExportTime.plusMillis(1));
+      Key<CommitLogManifest> upperBound =
+          CommitLogManifest.createKey(bucketKey, exportTime.plusMillis(1));
+      for (CommitLogManifest manifest : ofy().load()
+          .type(CommitLogManifest.class)
+          .ancestor(bucketKey)
+          .filterKey(">=", lowerBound)
+          .filterKey("<", upperBound)) {
+        for (Key<?> key : manifest.getDeletions()) {
+          if (isZoneKind(key.getKind())) {
+            recordChange(changes, asResourceKey(key), manifest.getCommitTime(), null);
+          }
+        }
+      }
+      for (CommitLogMutation mutation : ofy().load()
+          .type(CommitLogMutation.class)
+          .ancestor(bucketKey)
+          .filterKey(">=", lowerBound)
+          .filterKey("<", upperBound)) {
+        com.google.appengine.api.datastore.Entity entity = mutation.getEntity();
+        // Only deserialize the entities which can affect zone files.
+        if (isZoneKind(entity.getKey().getKind())) {
+          Key<CommitLogManifest> manifestKey = Key.create(mutation).getParent();
+          recordChange(
+              changes,
+              Key.<EppResource>create(entity.getKey()),
+              CommitLogManifest.extractCommitTime(manifestKey),
+              ofy().load().<EppResource>fromEntity(entity));
+        }
+      }
+    }
+    return changes;
+  }
+
+  private static boolean isZoneKind(String kind) {
+    return kind.equals(DOMAIN_KIND) || kind.equals(HOST_KIND);
+  }
+
+  private static void recordChange(
+      Map<Key<EppResource>, Change> changes,
+      Key<EppResource> key,
+      DateTime commitTime,
+      @Nullable EppResource resource) {
+    Change previous = changes.get(key);
+    if (previous == null || commitTime.isAfter(previous.commitTime)) {
+      changes.put(key, new Change(commitTime, resource));
+    }
+  }
+
+  /**
+   * Returns the last saved version of each resource as of the export time, without projecting it
+   * to that time, omitting any which don't exist.
+   */
+  private static Map<Key<EppResource>, EppResource> loadLatest(
+      Set<Key<EppResource>> keys, Map<Key<EppResource>, Change> changes) {
+    Map<Key<EppResource>, EppResource> resources = new HashMap<>();
+    List<Key<EppResource>> unchangedKeys = new ArrayList<>();
+    for (Key<EppResource> key : keys) {
+      Change change = changes.get(key);
+      if (change == null) {
+        unchangedKeys.add(key);
+      } else if (change.resource != null) {
+        resources.put(key, change.resource);
+      } else {
+        // Only wipeout tools hard-delete resources, so there's no name to remove records for.
+        logger.warningfmt("Ignoring hard-deleted resource %s", key);
+      }
+    }
+    resources.putAll(ofy().load().keys(unchangedKeys));
+    return resources;
+  }
+
+  /**
+   * Copies the previous zone file, replacing the records of the changed domains, and writes a diff
+   * file of the replaced records.
+   *
+   * <p>The previous zone file is streamed rather than loaded, since it can be very large. Records
+   * of changed domains are dropped from wherever they were in it, and their new records are
+   * appended.
+   */
+  private void updateZoneFile(
+      String tld,
+      DateTime previousExportTime,
+      DateTime exportTime,
+      Set<String> changedLabels,
+      ListMultimap<String, String> newRecords) {
+    ListMultimap<String, String> oldRecords = MultimapBuilder.hashKeys().arrayListValues().build();
+    GcsFilename previousFilename = getZoneFilename(tld, previousExportTime);
+    try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(gcsUtils.openInputStream(previousFilename), UTF_8));
+        OutputStream gcsOutput = gcsUtils.openOutputStream(getZoneFilename(tld, exportTime));
+        Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
+        PrintWriter writer = new PrintWriter(osWriter)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        // Owners are either a domain label or, for glue records, a host name under one.
+        int ownerEnd = line.indexOf('\t');
+        if (ownerEnd > 0 && !line.startsWith("$") && !line.startsWith(";")) {
+          String owner = line.substring(0, ownerEnd);
+          String label = owner.substring(owner.lastIndexOf('.') + 1);
+          if (changedLabels.contains(label)) {
+            oldRecords.put(label, line);
+            continue;
+          }
+        }
+        writer.println(line);
+      }
+      for (String label : changedLabels) {
+        List<String> records = newRecords.get(label);
+        if (!records.isEmpty()) {
+          for (String record : records) {
+            writer.println(record);
+          }
+          writer.println();
+        }
+      }
+      writer.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    int deleted = 0;
+    int added = 0;
+    GcsFilename diffFilename = new GcsFilename(
+        bucket, String.format(DIFF_FILENAME_FORMAT, tld, previousExportTime, exportTime));
+    try (OutputStream gcsOutput = gcsUtils.openOutputStream(diffFilename);
+        Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
+        PrintWriter writer = new PrintWriter(osWriter)) {
+      writer.printf(DIFF_HEADER_FORMAT, tld, previousExportTime, exportTime);
+      writer.println("; Deleted");
+      for (String label : changedLabels) {
+        for (String record : oldRecords.get(label)) {
+          if (!newRecords.containsEntry(label, record)) {
+            writer.println(record);
+            deleted++;
+          }
+        }
+      }
+      writer.println();
+      writer.println("; Added");
+      for (String label : changedLabels) {
+        for (String record : newRecords.get(label)) {
+          if (!oldRecords.containsEntry(label, record)) {
+            writer.println(record);
+            added++;
+          }
+        }
+      }
+      writer.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    logger.infofmt(
+        "Rolled %s zone forward from %s to %s: %d domains changed, %d records deleted, %d added",
+        tld,
+        previousExportTime,
+        exportTime,
+        changedLabels.size(),
+        deleted,
+        added);
+  }
+
+  private GcsFilename getZoneFilename(String tld, DateTime exportTime) {
+    return new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, exportTime));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Key<EppResource> asResourceKey(Key<?> key) {
+    return (Key<EppResource>) key;
+  }
+
+  /** The last change to a resource within the window. */
+  private static final class Change {
+
+    final DateTime commitTime;
+
+    /** The resource as saved, or null if it was deleted. */
+    @Nullable final EppResource resource;
+
+    Change(DateTime commitTime, @Nullable EppResource resource) {
+      this.commitTime = commitTime;
+      this.resource = resource;
+    }
+  }
+}
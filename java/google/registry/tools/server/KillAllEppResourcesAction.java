@@ -27,9 +27,11 @@ import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.EppResourceInputs;
 import google.registry.model.EppResource;
 import google.registry.model.domain.DomainApplication;
+import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
@@ -82,6 +84,7 @@ public class KillAllEppResourcesAction implements Runnable {
      *   <li>All {@link ForeignKeyIndex} types
      *   <li>{@link DomainApplicationIndex}
      *   <li>{@link EppResourceIndex}
+     *   <li>{@link HostInetAddressIndex}
      *   <li>All {@link EppResource} types
      *   <li>{@code HistoryEntry}
      *   <li>All {@code BillingEvent} types
@@ -102,6 +105,11 @@ public class KillAllEppResourcesAction implements Runnable {
           ? DomainApplicationIndex.createKey((DomainApplication) resource)
           : ForeignKeyIndex.createKey(resource);
       emitAndIncrementCounter(indexKey, indexKey);
+      if (resource instanceof HostResource) {
+        for (Key<?> addressIndexKey : HostInetAddressIndex.createKeys((HostResource) resource)) {
+          emitAndIncrementCounter(addressIndexKey, addressIndexKey);
+        }
+      }
     }
 
     private void emitAndIncrementCounter(Key<?> ancestor, Key<?> child) {
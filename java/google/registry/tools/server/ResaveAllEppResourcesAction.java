@@ -24,6 +24,8 @@ import com.googlecode.objectify.VoidWork;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.EppResourceInputs;
 import google.registry.model.EppResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
@@ -34,7 +36,8 @@ import javax.inject.Inject;
  *
  * <p>This is useful for completing data migrations on EppResource fields that are accomplished
  * with @OnSave or @OnLoad annotations, and also guarantees that all EppResources will get fresh
- * commit logs (for backup purposes).
+ * commit logs (for backup purposes). It also saves the {@link HostInetAddressIndex} entities of
+ * all hosts which haven't been deleted, so it can be used to populate that index.
  *
  * <p>Because there are no auth settings in the {@link Action} annotation, this command can only be
  * run internally, or by pretending to be internal by setting the X-AppEngine-QueueName header,
@@ -73,7 +76,12 @@ public class ResaveAllEppResourcesAction implements Runnable {
       ofy().transact(new VoidWork() {
         @Override
         public void vrun() {
-          ofy().save().entity(ofy().load().key(resourceKey).now()).now();
+          EppResource resource = ofy().load().key(resourceKey).now();
+          ofy().save().entity(resource).now();
+          if (resource instanceof HostResource
+              && ofy().getTransactionTime().isBefore(resource.getDeletionTime())) {
+            ofy().save().entities(HostInetAddressIndex.createAll((HostResource) resource)).now();
+          }
         }});
       getContext().incrementCounter(String.format("%s entities re-saved", resourceKey.getKind()));
     }
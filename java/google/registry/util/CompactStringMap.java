@@ -0,0 +1,367 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable, memory-efficient map from strings to strings.
+ *
+ * <p>All keys and values are stored as UTF-8 bytes packed into two byte arrays, sorted by key, with
+ * a single {@code int} offset per entry into each array. This avoids the per-entry node, {@link
+ * String} and {@code char[]} objects of a {@link java.util.HashMap} or {@link
+ * com.google.common.collect.ImmutableMap}, which for very large maps of short ASCII strings (such
+ * as the TMCH claims list) reduces retained heap several times over. Lookups go through an
+ * open-addressed table of entry positions hashed on the key bytes, so {@link #get} and {@link
+ * #containsKey} are O(1) and cost a few more {@code int}s per entry.
+ *
+ * <p>Iteration is in order of the keys' Unicode code points. Null keys and values are not allowed.
+ * Strings are materialized on every access, so this is a poor fit for maps that are iterated over
+ * frequently.
+ */
+public final class CompactStringMap extends AbstractMap<String, String> {
+
+  private static final CompactStringMap EMPTY = new Builder().build();
+
+  private final int size;
+  private final byte[] keyBytes;
+  private final int[] keyOffsets;
+  private final byte[] valueBytes;
+  private final int[] valueOffsets;
+
+  /**
+   * Hash table of entry indexes plus one, with zero marking an empty slot.
+   *
+   * <p>The length is a power of two at least twice the size, and collisions are resolved by linear
+   * probing.
+   */
+  private final int[] table;
+
+  private CompactStringMap(
+      int size, byte[] keyBytes, int[] keyOffsets, byte[] valueBytes, int[] valueOffsets) {
+    this.size = size;
+    this.keyBytes = keyBytes;
+    this.keyOffsets = keyOffsets;
+    this.valueBytes = valueBytes;
+    this.valueOffsets = valueOffsets;
+    this.table = new int[Integer.highestOneBit(Math.max(size, 1) * 2 - 1) * 2];
+    int mask = table.length - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = hashBytes(keyBytes, keyOffsets[i], keyOffsets[i + 1]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  /** Returns an empty map. */
+  public static CompactStringMap of() {
+    return EMPTY;
+  }
+
+  /** Returns a map containing the same entries as the given map. */
+  public static CompactStringMap copyOf(Map<String, String> map) {
+    if (map instanceof CompactStringMap) {
+      return (CompactStringMap) map;
+    }
+    return new Builder().putAll(map).build();
+  }
+
+  /** Returns a new builder. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(@Nullable Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  @Nullable
+  public String get(@Nullable Object key) {
+    int index = indexOf(key);
+    return (index < 0) ? null : getValue(index);
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<Entry<String, String>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        return new Iterator<Entry<String, String>>() {
+          int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < size;
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            int index = next++;
+            return new SimpleImmutableEntry<>(getKey(index), getValue(index));
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  private String getKey(int index) {
+    return new String(
+        keyBytes, keyOffsets[index], keyOffsets[index + 1] - keyOffsets[index], UTF_8);
+  }
+
+  private String getValue(int index) {
+    return new String(
+        valueBytes, valueOffsets[index], valueOffsets[index + 1] - valueOffsets[index], UTF_8);
+  }
+
+  /** Returns the index of the given key, or a negative number if it isn't present. */
+  private int indexOf(@Nullable Object key) {
+    if (!(key instanceof String)) {
+      return -1;
+    }
+    String string = (String) key;
+    // ASCII keys (the common case) are hashed and compared against the packed bytes directly,
+    // avoiding the cost of encoding them on every lookup.
+    byte[] target = isAscii(string) ? null : string.getBytes(UTF_8);
+    int mask = table.length - 1;
+    int slot = ((target == null) ? hashAscii(string) : hashBytes(target, 0, target.length)) & mask;
+    for (int entry = table[slot]; entry != 0; entry = table[slot]) {
+      int index = entry - 1;
+      boolean matches =
+          (target == null)
+              ? compareAscii(keyBytes, keyOffsets[index], keyOffsets[index + 1], string) == 0
+              : compareBytes(
+                      keyBytes, keyOffsets[index], keyOffsets[index + 1], target, 0, target.length)
+                  == 0;
+      if (matches) {
+        return index;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private static boolean isAscii(String string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (string.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Hashes a byte range, spreading the result so that its low bits can index the table. */
+  private static int hashBytes(byte[] bytes, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + (bytes[i] & 0xff);
+    }
+    return spread(hash);
+  }
+
+  /** Hashes an ASCII string, consistently with {@link #hashBytes} over its encoding. */
+  private static int hashAscii(String string) {
+    int hash = 0;
+    for (int i = 0; i < string.length(); i++) {
+      hash = 31 * hash + string.charAt(i);
+    }
+    return spread(hash);
+  }
+
+  private static int spread(int hash) {
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /** Compares a byte range to an ASCII string, consistently with {@link #compareBytes}. */
+  private static int compareAscii(byte[] left, int leftStart, int leftEnd, String right) {
+    int leftLength = leftEnd - leftStart;
+    int length = Math.min(leftLength, right.length());
+    for (int i = 0; i < length; i++) {
+      int difference = (left[leftStart + i] & 0xff) - right.charAt(i);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return leftLength - right.length();
+  }
+
+  /**
+   * Compares two byte ranges lexicographically as unsigned bytes.
+   *
+   * <p>For UTF-8 encoded strings this is the same as ordering them by Unicode code point.
+   */
+  private static int compareBytes(
+      byte[] left, int leftStart, int leftEnd, byte[] right, int rightStart, int rightEnd) {
+    int leftLength = leftEnd - leftStart;
+    int rightLength = rightEnd - rightStart;
+    int length = Math.min(leftLength, rightLength);
+    for (int i = 0; i < length; i++) {
+      int difference = (left[leftStart + i] & 0xff) - (right[rightStart + i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return leftLength - rightLength;
+  }
+
+  /**
+   * Builder for {@link CompactStringMap}.
+   *
+   * <p>Entries are appended to growable packed arrays as they are added, so a map can be built
+   * incrementally from several sources (such as the shards of a list) without first collecting
+   * them into an intermediate map. Duplicate keys are not allowed. This class is not thread-safe.
+   */
+  public static final class Builder {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+    private byte[] keyBytes = new byte[INITIAL_CAPACITY * 16];
+    private int[] keyOffsets = new int[INITIAL_CAPACITY + 1];
+    private byte[] valueBytes = new byte[INITIAL_CAPACITY * 16];
+    private int[] valueOffsets = new int[INITIAL_CAPACITY + 1];
+
+    private Builder() {}
+
+    /** Adds a single entry. */
+    public Builder put(String key, String value) {
+      byte[] encodedKey = checkNotNull(key, "key").getBytes(UTF_8);
+      byte[] encodedValue = checkNotNull(value, "value").getBytes(UTF_8);
+      if (size + 1 == keyOffsets.length) {
+        keyOffsets = Arrays.copyOf(keyOffsets, keyOffsets.length * 2);
+        valueOffsets = Arrays.copyOf(valueOffsets, valueOffsets.length * 2);
+      }
+      keyBytes = append(keyBytes, keyOffsets[size], encodedKey);
+      valueBytes = append(valueBytes, valueOffsets[size], encodedValue);
+      keyOffsets[size + 1] = keyOffsets[size] + encodedKey.length;
+      valueOffsets[size + 1] = valueOffsets[size] + encodedValue.length;
+      size++;
+      return this;
+    }
+
+    /** Adds all of the entries of the given map. */
+    public Builder putAll(Map<String, String> map) {
+      for (Entry<String, String> entry : map.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+
+    /** Returns the number of entries added so far. */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns a new map containing the entries added so far.
+     *
+     * @throws IllegalArgumentException if the same key was added more than once
+     */
+    public CompactStringMap build() {
+      // Sort an index of the entries by key, then copy them into exactly-sized arrays in order.
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(
+          order,
+          new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+              return compareKeys(left, right);
+            }
+          });
+      byte[] sortedKeyBytes = new byte[keyOffsets[size]];
+      int[] sortedKeyOffsets = new int[size + 1];
+      byte[] sortedValueBytes = new byte[valueOffsets[size]];
+      int[] sortedValueOffsets = new int[size + 1];
+      for (int i = 0; i < size; i++) {
+        int index = order[i];
+        if (i > 0 && compareKeys(order[i - 1], index) == 0) {
+          throw new IllegalArgumentException(
+              "Duplicate key: "
+                  + new String(
+                      keyBytes,
+                      keyOffsets[index],
+                      keyOffsets[index + 1] - keyOffsets[index],
+                      UTF_8));
+        }
+        sortedKeyOffsets[i + 1] =
+            copyRange(keyBytes, keyOffsets, index, sortedKeyBytes, sortedKeyOffsets[i]);
+        sortedValueOffsets[i + 1] =
+            copyRange(valueBytes, valueOffsets, index, sortedValueBytes, sortedValueOffsets[i]);
+      }
+      return new CompactStringMap(
+          size, sortedKeyBytes, sortedKeyOffsets, sortedValueBytes, sortedValueOffsets);
+    }
+
+    private int compareKeys(int left, int right) {
+      return compareBytes(
+          keyBytes, keyOffsets[left], keyOffsets[left + 1],
+          keyBytes, keyOffsets[right], keyOffsets[right + 1]);
+    }
+
+    /** Appends {@code data} at {@code position}, growing the array if needed. */
+    private static byte[] append(byte[] array, int position, byte[] data) {
+      if (position + data.length > array.length) {
+        array = Arrays.copyOf(array, Math.max(array.length * 2, position + data.length));
+      }
+      System.arraycopy(data, 0, array, position, data.length);
+      return array;
+    }
+
+    /** Copies entry {@code index} to {@code position} in {@code dest} and returns its end. */
+    private static int copyRange(
+        byte[] source, int[] sourceOffsets, int index, byte[] dest, int position) {
+      int length = sourceOffsets[index + 1] - sourceOffsets[index];
+      System.arraycopy(source, sourceOffsets[index], dest, position, length);
+      return position + length;
+    }
+  }
+}
@@ -17,17 +17,20 @@ package google.registry.whois;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.tryFind;
-import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.EppResourceUtils.loadInOneBatch;
 import static google.registry.util.CollectionUtils.isNullOrEmpty;
 import static google.registry.xml.UtcDateTimeAdapter.getFormattedString;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
 import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
 import google.registry.model.contact.ContactPhoneNumber;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.contact.PostalInfo;
@@ -36,10 +39,12 @@ import google.registry.model.domain.DesignatedContact.Type;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.GracePeriod;
 import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.host.HostResource;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.RegistrarContact;
 import google.registry.model.translators.EnumToAttributeAdapter.EppEnum;
 import google.registry.util.FormattingLogger;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -75,6 +80,10 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
         "Could not load registrar %s",
         domain.getCurrentSponsorClientId());
     Registrar registrar = registrarOptional.get();
+    // Load the contacts and nameservers in a single batch up front, rather than one round trip per
+    // contact as each one is emitted.
+    final Map<Key<EppResource>, EppResource> loadedResources =
+        loadInOneBatch(domain.getReferencedContacts(), domain.getNameservers());
     Optional<RegistrarContact> abuseContact =
         Iterables.tryFind(
             registrar.getContacts(),
@@ -109,13 +118,24 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
                 "Registrar Abuse Contact Phone",
                 abuseContact.isPresent() ? abuseContact.get().getPhoneNumber() : null)
             .emitStatusValues(domain.getStatusValues(), domain.getGracePeriods())
-            .emitContact("Registrant", domain.getRegistrant(), preferUnicode)
-            .emitContact("Admin", getContactReference(Type.ADMIN), preferUnicode)
-            .emitContact("Tech", getContactReference(Type.TECH), preferUnicode)
-            .emitContact("Billing", getContactReference(Type.BILLING), preferUnicode)
+            .emitContact("Registrant", domain.getRegistrant(), loadedResources, preferUnicode)
+            .emitContact(
+                "Admin", getContactReference(Type.ADMIN), loadedResources, preferUnicode)
+            .emitContact("Tech", getContactReference(Type.TECH), loadedResources, preferUnicode)
+            .emitContact(
+                "Billing", getContactReference(Type.BILLING), loadedResources, preferUnicode)
             .emitSet(
                 "Name Server",
-                domain.loadNameserverFullyQualifiedHostNames(),
+                FluentIterable.from(loadedResources.values())
+                    .filter(HostResource.class)
+                    .transform(
+                        new Function<HostResource, String>() {
+                          @Override
+                          public String apply(HostResource host) {
+                            return host.getFullyQualifiedHostName();
+                          }
+                        })
+                    .toSortedSet(Ordering.natural()),
                 new Function<String, String>() {
                   @Override
                   public String apply(String hostName) {
@@ -156,10 +176,11 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
               ImmutableList.of(contactType, title, "Ext"), phoneNumber.getExtension());
     }
 
-    /** Emit the contact entry of the given type. */
+    /** Emit the contact entry of the given type, which must be among the loaded resources. */
     DomainEmitter emitContact(
         String contactType,
         @Nullable Key<ContactResource> contact,
+        Map<Key<EppResource>, EppResource> loadedResources,
         boolean preferUnicode) {
       if (contact == null) {
         return this;
@@ -167,7 +188,7 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
       // If we refer to a contact that doesn't exist, that's a bug. It means referential integrity
       // has somehow been broken. We skip the rest of this contact, but log it to hopefully bring it
       // someone's attention.
-      ContactResource contactResource = ofy().load().key(contact).now();
+      ContactResource contactResource = (ContactResource) loadedResources.get(contact);
       if (contactResource == null) {
         logger.severefmt("(BUG) Broken reference found from domain %s to contact %s",
             domain.getFullyQualifiedDomainName(), contact);
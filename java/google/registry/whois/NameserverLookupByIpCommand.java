@@ -15,7 +15,7 @@
 package google.registry.whois;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static google.registry.model.EppResourceUtils.queryNotDeleted;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByInetAddress;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -24,20 +24,28 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.InternetDomainName;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.registry.Registries;
+import google.registry.util.NonFinalForTesting;
 import java.net.InetAddress;
 import org.joda.time.DateTime;
 
 /**
  * Represents a WHOIS lookup for a nameserver based on its IP.
  *
- * <p>Both IPv4 and IPv6 addresses are supported. Unlike other WHOIS commands, this is an eventually
- * consistent query.
+ * <p>Both IPv4 and IPv6 addresses are supported. The nameservers are found through the
+ * {@link HostInetAddressIndex}.
  *
- * <p><b>Note:</b> There may be multiple nameservers with the same IP.
+ * <p><b>Note:</b> There may be multiple nameservers with the same IP. As in RDAP nameserver
+ * searches, at most {@link #maxResults} of them are returned, and the response says when there
+ * were more.
  */
 final class NameserverLookupByIpCommand implements WhoisCommand {
 
+  /** The maximum number of nameservers returned for one address. */
+  @NonFinalForTesting @VisibleForTesting
+  static int maxResults = 100;
+
   @VisibleForTesting
   final InetAddress ipAddress;
 
@@ -47,8 +55,13 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
 
   @Override
   public WhoisResponse executeQuery(DateTime now) throws WhoisException {
+    // Load one more host than will be returned, to find out whether the results are truncated.
+    ImmutableList<HostResource> loadedHosts =
+        loadHostsByInetAddress(ipAddress, maxResults + 1, now);
+    boolean isTruncated = loadedHosts.size() > maxResults;
     ImmutableList<HostResource> hosts = FluentIterable
-        .from(queryNotDeleted(HostResource.class, now, "inetAddresses", ipAddress))
+        .from(loadedHosts)
+        .limit(maxResults)
         .filter(new Predicate<HostResource>() {
           @Override
           public boolean apply(final HostResource host) {
@@ -60,6 +73,6 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
     if (hosts.isEmpty()) {
       throw new WhoisException(now, SC_NOT_FOUND, "No nameservers found.");
     }
-    return new NameserverWhoisResponse(hosts, now);
+    return new NameserverWhoisResponse(hosts, isTruncated, now);
   }
 }
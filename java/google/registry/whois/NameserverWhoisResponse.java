@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -30,9 +31,16 @@ import org.joda.time.DateTime;
 /** Container for WHOIS responses to a nameserver lookup queries. */
 final class NameserverWhoisResponse extends WhoisResponseImpl {
 
+  @VisibleForTesting
+  static final String TRUNCATION_NOTICE =
+      "More nameservers matched the query than are shown; only the first ones are listed.";
+
   /** Nameserver(s) which were the target of this WHOIS command. */
   private final ImmutableList<HostResource> hosts;
 
+  /** Whether more nameservers matched the query than are in {@link #hosts}. */
+  private final boolean isTruncated;
+
   /** Creates new WHOIS nameserver response on the given host. */
   NameserverWhoisResponse(HostResource host, DateTime timestamp) {
     this(ImmutableList.of(checkNotNull(host, "host")), timestamp);
@@ -40,8 +48,18 @@ final class NameserverWhoisResponse extends WhoisResponseImpl {
 
   /** Creates new WHOIS nameserver response on the given list of hosts. */
   NameserverWhoisResponse(ImmutableList<HostResource> hosts, DateTime timestamp) {
+    this(hosts, false, timestamp);
+  }
+
+  /**
+   * Creates new WHOIS nameserver response on the given list of hosts, which may be only some of
+   * the hosts matching the query.
+   */
+  NameserverWhoisResponse(
+      ImmutableList<HostResource> hosts, boolean isTruncated, DateTime timestamp) {
     super(timestamp);
     this.hosts = checkNotNull(hosts, "hosts");
+    this.isTruncated = isTruncated;
   }
 
   @Override
@@ -76,6 +94,9 @@ final class NameserverWhoisResponse extends WhoisResponseImpl {
         emitter.emitNewline();
       }
     }
+    if (isTruncated) {
+      emitter.emitNewline().emitRawLine(TRUNCATION_NOTICE);
+    }
     String plaintext = emitter.emitLastUpdated(getTimestamp()).emitFooter(disclaimer).toString();
     return WhoisResponseResults.create(plaintext, hosts.size());
   }
@@ -0,0 +1,462 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.whois;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import google.registry.util.Retrier;
+import google.registry.whois.WhoisException.UncheckedWhoisException;
+import google.registry.whois.WhoisMetrics.WhoisMetric;
+import google.registry.whois.WhoisResponse.WhoisResponseResults;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Standalone server for WHOIS queries on port 43, as an alternative to the HTTP hop through the
+ * proxy and {@link WhoisServer}.
+ *
+ * <p>All commands and responses conform to the WHOIS spec as defined in RFC 3912: the client sends
+ * a single query terminated by CRLF, and the server writes the response and closes the connection.
+ *
+ * <p>One thread runs a non-blocking NIO selector, which accepts connections, reads their queries
+ * and writes their responses, so slow or idle clients don't tie up a thread each. Queries hit
+ * Datastore, so they are executed on a pool of worker threads, which hand the rendered responses
+ * back to the selector thread.
+ *
+ * <p>Rendered responses are cached for a short time, keyed by the normalized query, so that a query
+ * which scrapers send over and over is only executed once per cache lifetime. Each client IP
+ * address is also rate limited; a client over its limit gets a refusal instead of an answer. Only
+ * executed queries are recorded in {@link WhoisMetrics}, not those answered from the cache.
+ *
+ * <p>App Engine standard can't accept inbound sockets, so the server is run on its own machine by
+ * {@code google.registry.tools.WhoisTcpServerMain}, which reads Datastore over the remote API.
+ *
+ * @see <a href="http://www.ietf.org/rfc/rfc3912.txt">RFC 3912: WHOIS Protocol Specification</a>
+ */
+@ThreadSafe
+public final class WhoisTcpServer {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Longest query we will read; real queries are a few dozen bytes. */
+  @VisibleForTesting
+  static final int MAX_QUERY_BYTES = 1024;
+
+  /** Number of threads executing queries. */
+  private static final int WORKER_THREADS = 10;
+
+  /** How long a client has to send its query and read the response before it is disconnected. */
+  private static final long CONNECTION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** How long to wait for a client to close its end after it has been sent its response. */
+  private static final long LINGER_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /** How long the selector waits for activity before checking for timed-out connections. */
+  private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+  /** How often connections are checked for timeouts, however busy the selector is. */
+  private static final long TIMEOUT_CHECK_INTERVAL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT_MILLIS);
+
+  /** How many client IP addresses to keep rate limiters for. */
+  private static final int MAX_RATE_LIMITED_CLIENTS = 100000;
+
+  @VisibleForTesting
+  static final String RATE_LIMITED_RESPONSE =
+      "Query rate limit exceeded; please try again later.\r\n";
+
+  @VisibleForTesting
+  static final String QUERY_TOO_LONG_RESPONSE = "Query too long.\r\n";
+
+  @VisibleForTesting
+  static final String INTERNAL_ERROR_RESPONSE = "Internal Server Error\r\n";
+
+  private final Clock clock;
+  private final Retrier retrier;
+  private final WhoisReader whoisReader;
+  private final WhoisMetrics whoisMetrics;
+  private final String disclaimer;
+  private final int port;
+  private final ThreadFactory threadFactory;
+  private final Cache<String, String> responseCache;
+  private final LoadingCache<InetAddress, RateLimiter> rateLimiters;
+
+  /** Connections whose responses are ready, waiting for the selector thread to start writing. */
+  private final Queue<Connection> answeredConnections = new ConcurrentLinkedQueue<>();
+
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private ExecutorService workers;
+  private Thread selectorThread;
+  private volatile boolean stopped;
+
+  @Inject
+  WhoisTcpServer(
+      Clock clock,
+      Retrier retrier,
+      WhoisReader whoisReader,
+      WhoisMetrics whoisMetrics,
+      @Config("whoisDisclaimer") String disclaimer,
+      @Config("whoisTcpPort") int port,
+      @Config("whoisTcpResponseCacheExpiry") Duration responseCacheExpiry,
+      @Config("whoisTcpResponseCacheMaxEntries") int responseCacheMaxEntries,
+      @Config("whoisTcpQueriesPerSecondPerIp") final double queriesPerSecondPerIp,
+      @Named("whoisTcpThreadFactory") ThreadFactory threadFactory) {
+    this.clock = clock;
+    this.retrier = retrier;
+    this.whoisReader = whoisReader;
+    this.whoisMetrics = whoisMetrics;
+    this.disclaimer = disclaimer;
+    this.port = port;
+    this.threadFactory = threadFactory;
+    this.responseCache =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(responseCacheExpiry.getMillis(), TimeUnit.MILLISECONDS)
+            .maximumSize(responseCacheMaxEntries)
+            .build();
+    this.rateLimiters =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .maximumSize(MAX_RATE_LIMITED_CLIENTS)
+            .build(
+                new CacheLoader<InetAddress, RateLimiter>() {
+                  @Override
+                  public RateLimiter load(InetAddress address) {
+                    return RateLimiter.create(queriesPerSecondPerIp);
+                  }});
+  }
+
+  /** Starts listening for queries, and returns the port the server is listening on. */
+  public synchronized int start() throws IOException {
+    checkState(selector == null, "WHOIS server was already started");
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().bind(new InetSocketAddress(port));
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    workers = newFixedThreadPool(WORKER_THREADS, threadFactory);
+    selectorThread = threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        runSelector();
+      }});
+    selectorThread.start();
+    logger.infofmt("WHOIS server listening on port %d", serverChannel.socket().getLocalPort());
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /** Stops listening, and drops any connections which are still open. */
+  public synchronized void stop() throws InterruptedException {
+    checkState(selector != null, "WHOIS server was never started");
+    stopped = true;
+    selector.wakeup();
+    selectorThread.join();
+    workers.shutdownNow();
+  }
+
+  /** Accepts, reads and writes connections until the server is stopped. */
+  private void runSelector() {
+    long nextTimeoutCheck = System.nanoTime();
+    try {
+      while (!stopped) {
+        selector.select(SELECT_TIMEOUT_MILLIS);
+        Connection answered;
+        while ((answered = answeredConnections.poll()) != null) {
+          if (answered.key.isValid()) {
+            answered.key.interestOps(SelectionKey.OP_WRITE);
+          }
+        }
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+          SelectionKey key = selectedKeys.next();
+          selectedKeys.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            } else if (key.isAcceptable()) {
+              accept();
+            } else if (key.isReadable()) {
+              read(key);
+            } else if (key.isWritable()) {
+              write(key);
+            }
+          } catch (IOException e) {
+            // The client went away, or reset the connection; either way, there's no one to answer.
+            close(key);
+          }
+        }
+        if (System.nanoTime() - nextTimeoutCheck >= 0) {
+          closeTimedOutConnections();
+          nextTimeoutCheck = System.nanoTime() + TIMEOUT_CHECK_INTERVAL_NANOS;
+        }
+      }
+    } catch (Throwable t) {
+      logger.severe(t, "WHOIS server selector crashed");
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        close(key);
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.warning(e, "Error closing WHOIS server selector");
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = serverChannel.accept()) != null) {
+      channel.configureBlocking(false);
+      InetAddress address = channel.socket().getInetAddress();
+      Connection connection = new Connection();
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+      if (!rateLimiters.getUnchecked(address).tryAcquire()) {
+        logger.infofmt("Refusing WHOIS query from %s, which is over its rate limit", address);
+        connection.respond(RATE_LIMITED_RESPONSE);
+      }
+    }
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    final Connection connection = (Connection) key.attachment();
+    if (connection.lingering) {
+      connection.input.clear();
+    }
+    if (((SocketChannel) key.channel()).read(connection.input) < 0) {
+      close(key);
+      return;
+    }
+    if (connection.lingering) {
+      // Discard whatever else the client sends until it closes its end.
+      return;
+    }
+    int queryLength = findLineEnd(connection.input);
+    if (queryLength < 0) {
+      if (!connection.input.hasRemaining()) {
+        connection.respond(QUERY_TOO_LONG_RESPONSE);
+      }
+      return;
+    }
+    final String query = new String(connection.input.array(), 0, queryLength, UTF_8);
+    // Stop selecting the connection until its response is ready; the timeout doesn't apply while
+    // the query is running.
+    key.interestOps(0);
+    connection.executing = true;
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          connection.output = ByteBuffer.wrap(lookup(query).getBytes(UTF_8));
+        } finally {
+          connection.executing = false;
+          answeredConnections.add(connection);
+          selector.wakeup();
+        }
+      }});
+  }
+
+  private void write(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    SocketChannel channel = (SocketChannel) key.channel();
+    channel.write(connection.output);
+    if (!connection.output.hasRemaining()) {
+      // Closing a socket with unread input resets it, which can destroy the response before the
+      // client reads it, as when a refused client's query was never read. So half-close it, and
+      // wait for the client to close its end.
+      channel.socket().shutdownOutput();
+      connection.lingering = true;
+      connection.deadline = System.nanoTime() + LINGER_NANOS;
+      key.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  private void closeTimedOutConnections() {
+    long now = System.nanoTime();
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof Connection) {
+        Connection connection = (Connection) key.attachment();
+        if (!connection.executing && now - connection.deadline > 0) {
+          close(key);
+        }
+      }
+    }
+  }
+
+  private static void close(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // Nothing more can go wrong with this connection.
+    }
+  }
+
+  /** Returns the length of the first line in the buffer, or -1 if it has no complete line yet. */
+  private static int findLineEnd(ByteBuffer buffer) {
+    byte[] bytes = buffer.array();
+    for (int i = 0; i < buffer.position(); i++) {
+      if (bytes[i] == '\n') {
+        return (i > 0 && bytes[i - 1] == '\r') ? i - 1 : i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the response to the given query, from the cache if the same query was answered
+   * recently.
+   */
+  @VisibleForTesting
+  String lookup(final String query) {
+    try {
+      return responseCache.get(
+          normalizeQuery(query),
+          new Callable<String>() {
+            @Override
+            public String call() {
+              return executeQuery(query);
+            }});
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      // Failed queries aren't cached, so the next identical query will try again.
+      logger.severe(e.getCause(), "WHOIS request crashed");
+      return INTERNAL_ERROR_RESPONSE;
+    }
+  }
+
+  /**
+   * Normalizes a query for use as a cache key.
+   *
+   * <p>Command keywords, domain and host names and registrar names are all matched without regard
+   * to case or spacing, so queries differing only in those are answered identically.
+   */
+  @VisibleForTesting
+  static String normalizeQuery(String query) {
+    return Ascii.toLowerCase(
+        Joiner.on(' ').join(Splitter.on(CharMatcher.whitespace()).omitEmptyStrings().split(query)));
+  }
+
+  /**
+   * Executes a query, in the same way as {@link WhoisServer}.
+   *
+   * <p>WHOIS errors, like a domain not being found, are rendered as responses like any other, so
+   * they are cached. Unexpected failures are thrown, so that they aren't.
+   */
+  private String executeQuery(String query) {
+    final DateTime now = clock.nowUtc();
+    WhoisMetric.Builder metricBuilder = WhoisMetric.builderForRequest(clock);
+    try {
+      final WhoisCommand command = whoisReader.readCommand(new StringReader(query), now);
+      metricBuilder.setCommand(command);
+      WhoisResponseResults results =
+          retrier.callWithRetry(
+              new Callable<WhoisResponseResults>() {
+                @Override
+                public WhoisResponseResults call() {
+                  try {
+                    return command
+                        .executeQuery(now)
+                        .getResponse(WhoisServer.PREFER_UNICODE, disclaimer);
+                  } catch (WhoisException e) {
+                    throw new UncheckedWhoisException(e);
+                  }
+                }
+              },
+              DatastoreTimeoutException.class,
+              DatastoreFailureException.class);
+      metricBuilder.setNumResults(results.numResults()).setStatus(SC_OK);
+      return results.plainTextOutput();
+    } catch (UncheckedWhoisException u) {
+      return renderWhoisException((WhoisException) u.getCause(), metricBuilder);
+    } catch (WhoisException e) {
+      return renderWhoisException(e, metricBuilder);
+    } catch (IOException e) {
+      throw new AssertionError("Can't fail reading from a string", e);
+    } catch (RuntimeException e) {
+      metricBuilder.setNumResults(0).setStatus(SC_INTERNAL_SERVER_ERROR);
+      throw e;
+    } finally {
+      whoisMetrics.recordWhoisMetric(metricBuilder.build());
+    }
+  }
+
+  private String renderWhoisException(WhoisException e, WhoisMetric.Builder metricBuilder) {
+    metricBuilder.setNumResults(0).setStatus(e.getStatus());
+    return e.getResponse(WhoisServer.PREFER_UNICODE, disclaimer).plainTextOutput();
+  }
+
+  /** The state of one client connection, only touched by the selector thread except as noted. */
+  private static final class Connection {
+
+    final ByteBuffer input = ByteBuffer.allocate(MAX_QUERY_BYTES);
+    long deadline = System.nanoTime() + CONNECTION_TIMEOUT_NANOS;
+    SelectionKey key;
+
+    /** Whether the response has been written, and the client is expected to close its end. */
+    boolean lingering;
+
+    /** Set by a worker thread, before the connection is handed back to the selector thread. */
+    volatile ByteBuffer output;
+
+    /** Whether a worker thread is executing the query. */
+    volatile boolean executing;
+
+    /** Answers without executing a query. */
+    void respond(String response) {
+      output = ByteBuffer.wrap(response.getBytes(UTF_8));
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+  }
+}
@@ -32,6 +32,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -45,6 +46,7 @@ import javax.xml.bind.helpers.DefaultValidationEventHandler;
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -54,12 +56,32 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-/** Static methods for marshaling, unmarshaling, and validating XML. */
+/**
+ * Static methods for marshaling, unmarshaling, and validating XML.
+ *
+ * <p>{@link Marshaller}, {@link Unmarshaller} and {@link Validator} instances are not thread-safe
+ * but are expensive to create, so each thread keeps its own preconfigured instances for the
+ * lifetime of the transformer. An instance that fails mid-operation is discarded rather than
+ * reused, so that it can't leak state into later requests.
+ */
 public class XmlTransformer {
 
+  /** The preset configurations of the per-thread {@link Marshaller} instances. */
+  private enum MarshallerKind {
+    /** Character output without an XML declaration. */
+    FRAGMENT,
+
+    /** Byte output with an XML declaration, whose encoding is set on each use. */
+    DOCUMENT,
+
+    /** Output to an arbitrary {@link Result}. */
+    RESULT
+  }
+
   /** Default for {@link StreamSource#setSystemId(String)} so error reporting works. */
   private static final String SYSTEM_ID = "<default system id>";
 
@@ -75,6 +97,21 @@ public class XmlTransformer {
   /** A {@link Schema} to validate XML. */
   private final Schema schema;
 
+  /** Per-thread {@link Unmarshaller}, validating against {@link #schema}. */
+  private final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<>();
+
+  /** Per-thread {@link Marshaller} instances, by preset configuration. */
+  private final ThreadLocal<Map<MarshallerKind, Marshaller>> marshallers =
+      new ThreadLocal<Map<MarshallerKind, Marshaller>>() {
+        @Override
+        protected Map<MarshallerKind, Marshaller> initialValue() {
+          return new EnumMap<>(MarshallerKind.class);
+        }
+      };
+
+  /** Per-thread {@link Validator} for {@link #schema}. */
+  private final ThreadLocal<Validator> validators = new ThreadLocal<>();
+
   /**
    * Create a new XmlTransformer that validates using the given schemas, but uses the given classes
    * (rather than generated ones) for marshaling and unmarshaling.
@@ -125,10 +162,17 @@ public class XmlTransformer {
    * @throws XmlException if XML input was invalid or root element doesn't match {@code expect}.
    */
   public void validate(String xml) throws XmlException {
+    Validator validator = validators.get();
+    if (validator == null) {
+      validator = schema.newValidator();
+      validators.set(validator);
+    }
     try {
-      schema.newValidator().validate(new StreamSource(new StringReader(xml)));
+      validator.validate(new StreamSource(new StringReader(xml)));
     } catch (SAXException | IOException e) {
       throw new XmlException(e);
+    } finally {
+      validator.reset();
     }
   }
 
@@ -144,8 +188,39 @@ public class XmlTransformer {
    */
   public <T> T unmarshal(Class<T> clazz, InputStream stream) throws XmlException {
     try (InputStream autoClosingStream = stream) {
-      return clazz.cast(getUnmarshaller().unmarshal(
-          XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID))));
+      return unmarshal(
+          clazz,
+          XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID)));
+    } catch (XMLStreamException | IOException e) {
+      throw new XmlException(e);
+    }
+  }
+
+  /**
+   * Turns the element at the current position of {@code reader} into an object, validating it
+   * against the hard-coded xml {@link #schema}s as it is read.
+   *
+   * <p>Validation happens in the same pass as unmarshaling, so the input is only parsed once. The
+   * caller owns {@code reader}, which is left positioned after the unmarshaled element and is not
+   * closed. Readers that aren't hardened against XXE attacks the way {@link #XML_INPUT_FACTORY} is
+   * should not be used for untrusted input.
+   *
+   * @param clazz the XML class you expect to receive as the root element
+   * @throws XmlException if the XML input is invalid or the root element doesn't match
+   *         {@code expect}.
+   */
+  public <T> T unmarshal(Class<T> clazz, XMLStreamReader reader) throws XmlException {
+    Unmarshaller unmarshaller;
+    try {
+      unmarshaller = getUnmarshaller();
+    } catch (JAXBException e) {
+      throw new XmlException(e);
+    }
+    boolean succeeded = false;
+    try {
+      T result = clazz.cast(unmarshaller.unmarshal(checkNotNull(reader, "reader")));
+      succeeded = true;
+      return result;
     } catch (UnmarshalException e) {
       // Plain old parsing exceptions have a SAXParseException with no further cause.
       if (e.getLinkedException() instanceof SAXParseException
@@ -169,8 +244,12 @@ public class XmlTransformer {
                 .replaceAll("&quot;", "")));
       }
       throw new XmlException(e);
-    } catch (JAXBException | XMLStreamException | IOException e) {
+    } catch (JAXBException e) {
       throw new XmlException(e);
+    } finally {
+      if (!succeeded) {
+        unmarshallers.remove();
+      }
     }
   }
 
@@ -188,14 +267,20 @@ public class XmlTransformer {
    * @throws XmlException to rethrow {@link JAXBException}.
    */
   public void marshal(Object root, Writer writer, ValidationMode validation) throws XmlException {
+    checkNotNull(root, "root");
+    checkNotNull(writer, "writer");
+    boolean succeeded = false;
     try {
       // Omit XML declaration because character-oriented output prevents us from knowing.
-      getMarshaller(
-          STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true)).marshal(
-              checkNotNull(root, "root"), checkNotNull(writer, "writer"));
+      getMarshaller(MarshallerKind.FRAGMENT, STRICT.equals(validation) ? schema : null)
+          .marshal(root, writer);
+      succeeded = true;
     } catch (JAXBException e) {
       throw new XmlException(e);
+    } finally {
+      if (!succeeded) {
+        discardMarshaller(MarshallerKind.FRAGMENT);
+      }
     }
   }
 
@@ -216,13 +301,21 @@ public class XmlTransformer {
    */
   public void marshal(Object root, OutputStream out, Charset charset, ValidationMode validation)
       throws XmlException {
+    checkNotNull(root, "root");
+    checkNotNull(out, "out");
+    boolean succeeded = false;
     try {
-      getMarshaller(
-          STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString())).marshal(
-              checkNotNull(root, "root"), checkNotNull(out, "out"));
+      Marshaller marshaller =
+          getMarshaller(MarshallerKind.DOCUMENT, STRICT.equals(validation) ? schema : null);
+      marshaller.setProperty(Marshaller.JAXB_ENCODING, charset.toString());
+      marshaller.marshal(root, out);
+      succeeded = true;
     } catch (JAXBException e) {
       throw new XmlException(e);
+    } finally {
+      if (!succeeded) {
+        discardMarshaller(MarshallerKind.DOCUMENT);
+      }
     }
   }
 
@@ -239,11 +332,18 @@ public class XmlTransformer {
    * @throws XmlException to rethrow {@link JAXBException}.
    */
   public void marshalStrict(Object root, Result result) throws XmlException {
+    checkNotNull(root, "root");
+    checkNotNull(result, "result");
+    boolean succeeded = false;
     try {
-      getMarshaller(schema, ImmutableMap.<String, Object>of())
-          .marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
+      getMarshaller(MarshallerKind.RESULT, schema).marshal(root, result);
+      succeeded = true;
     } catch (JAXBException e) {
       throw new XmlException(e);
+    } finally {
+      if (!succeeded) {
+        discardMarshaller(MarshallerKind.RESULT);
+      }
     }
   }
 
@@ -274,29 +374,43 @@ public class XmlTransformer {
     return JAXBContext.newInstance(prefix + Joiner.on(':' + prefix).join(schemaNames));
   }
 
-  /** Get a {@link Unmarshaller} instance with the default configuration. */
+  /** Get this thread's {@link Unmarshaller} instance with the default configuration. */
   private Unmarshaller getUnmarshaller() throws JAXBException {
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-    unmarshaller.setSchema(schema);
-    // This handler was the default in JAXB 1.0. It fails on any exception thrown while
-    // unmarshalling. In JAXB 2.0 some errors are considered recoverable and are ignored, which is
-    // not what we want, so we have to set this explicitly.
-    unmarshaller.setEventHandler(new DefaultValidationEventHandler());
+    Unmarshaller unmarshaller = unmarshallers.get();
+    if (unmarshaller == null) {
+      unmarshaller = jaxbContext.createUnmarshaller();
+      unmarshaller.setSchema(schema);
+      // This handler was the default in JAXB 1.0. It fails on any exception thrown while
+      // unmarshalling. In JAXB 2.0 some errors are considered recoverable and are ignored, which
+      // is not what we want, so we have to set this explicitly.
+      unmarshaller.setEventHandler(new DefaultValidationEventHandler());
+      unmarshallers.set(unmarshaller);
+    }
     return unmarshaller;
   }
 
-  /** Get a {@link Marshaller} instance with the given configuration. */
-  private Marshaller getMarshaller(@Nullable Schema schemaParam, Map<String, ?> properties)
+  /** Get this thread's {@link Marshaller} instance of the given kind, validating if needed. */
+  private Marshaller getMarshaller(MarshallerKind kind, @Nullable Schema schemaParam)
       throws JAXBException {
-    Marshaller marshaller = jaxbContext.createMarshaller();
-    for (Map.Entry<String, ?> entry : properties.entrySet()) {
-      marshaller.setProperty(entry.getKey(), entry.getValue());
+    Map<MarshallerKind, Marshaller> threadMarshallers = marshallers.get();
+    Marshaller marshaller = threadMarshallers.get(kind);
+    if (marshaller == null) {
+      marshaller = jaxbContext.createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+      if (kind == MarshallerKind.FRAGMENT) {
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+      }
+      threadMarshallers.put(kind, marshaller);
     }
-    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
     marshaller.setSchema(schemaParam);
     return marshaller;
   }
 
+  /** Drops this thread's {@link Marshaller} of the given kind after it failed mid-operation. */
+  private void discardMarshaller(MarshallerKind kind) {
+    marshallers.get().remove(kind);
+  }
+
   /** Pretty print xml. */
   public static String prettyPrint(String xmlString) {
     StringWriter prettyXml = new StringWriter();
@@ -0,0 +1,177 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.googlecode.objectify.Key;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeSleeper;
+import google.registry.testing.TestObject;
+import google.registry.util.Retrier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CommitLogReplayer}. */
+@RunWith(JUnit4.class)
+public class CommitLogReplayerTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private final DateTime now = DateTime.now(UTC);
+  private final FakeClock clock = new FakeClock(now);
+  private ListeningExecutorService executor = newDirectExecutorService();
+
+  @After
+  public void after() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testReplay_nonConflictingTransactions_writtenInOneBatch() throws Exception {
+    CommitLogReplayer replayer = createReplayer(false);
+    replaySave(replayer, 1, now.minusMinutes(2), "a", "1");
+    replaySave(replayer, 2, now.minusMinutes(1), "b", "1");
+    replaySave(replayer, 1, now, "c", "1");
+    replayer.flush();
+    assertThat(replayer.getNumBatches()).isEqualTo(1);
+    assertThat(loadTestObjects()).containsExactly("a", "1", "b", "1", "c", "1");
+    assertThat(replayer.getBucketTimestamps()).containsExactly(1, now, 2, now.minusMinutes(1));
+  }
+
+  @Test
+  public void testReplay_conflictingTransactions_writtenInSeparateBatches() throws Exception {
+    CommitLogReplayer replayer = createReplayer(false);
+    replaySave(replayer, 1, now.minusMinutes(3), "a", "1");
+    replaySave(replayer, 2, now.minusMinutes(2), "b", "1");
+    replaySave(replayer, 3, now.minusMinutes(1), "a", "2");
+    replayDelete(replayer, 1, now, "b");
+    replayer.flush();
+    assertThat(replayer.getNumBatches()).isEqualTo(2);
+    assertThat(loadTestObjects()).containsExactly("a", "2");
+  }
+
+  @Test
+  public void testReplay_manyConflictingTransactionsInParallel_preservesOrderPerEntity()
+      throws Exception {
+    executor = listeningDecorator(newFixedThreadPool(4, createRequestThreadFactory()));
+    CommitLogReplayer replayer = createReplayer(false);
+    Map<String, String> expected = new HashMap<>();
+    DateTime commitTime = now.minusMinutes(10);
+    for (int i = 0; i < 500; i++) {
+      commitTime = commitTime.plusMillis(1);
+      String id = "entity" + (i % 37);
+      if (i % 5 == 4) {
+        replayDelete(replayer, i % 3 + 1, commitTime, id);
+        expected.remove(id);
+      } else {
+        replaySave(replayer, i % 3 + 1, commitTime, id, Integer.toString(i));
+        expected.put(id, Integer.toString(i));
+      }
+    }
+    replayer.flush();
+    assertThat(replayer.getNumBatches()).isGreaterThan(1);
+    assertThat(replayer.getNumBatches()).isLessThan(500);
+    assertThat(loadTestObjects()).containsExactlyEntriesIn(expected);
+  }
+
+  @Test
+  public void testReplay_dryRun_writesNothing() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("a", "existing")).now();
+    CommitLogReplayer replayer = createReplayer(true);
+    replaySave(replayer, 1, now.minusMinutes(1), "b", "1");
+    replayDelete(replayer, 1, now, "a");
+    replayer.flush();
+    assertThat(loadTestObjects()).containsExactly("a", "existing");
+    assertThat(ofy().load().type(CommitLogManifest.class).count()).isEqualTo(0);
+  }
+
+  private CommitLogReplayer createReplayer(boolean dryRun) {
+    return new CommitLogReplayer(
+        DatastoreServiceFactory.getDatastoreService(),
+        executor,
+        new Retrier(new FakeSleeper(clock), 1),
+        clock,
+        dryRun);
+  }
+
+  private static void replaySave(
+      CommitLogReplayer replayer, int bucketId, DateTime commitTime, String id, String field) {
+    CommitLogManifest manifest = CommitLogManifest.create(getBucketKey(bucketId), commitTime, null);
+    replayer.add(
+        manifest,
+        ImmutableList.of(
+            CommitLogMutation.create(Key.create(manifest), TestObject.create(id, field))));
+  }
+
+  private static void replayDelete(
+      CommitLogReplayer replayer, int bucketId, DateTime commitTime, String id) {
+    replayer.add(
+        CommitLogManifest.create(
+            getBucketKey(bucketId),
+            commitTime,
+            ImmutableSet.<Key<?>>of(Key.create(TestObject.create(id)))),
+        ImmutableList.<CommitLogMutation>of());
+  }
+
+  private static ImmutableMap<String, String> loadTestObjects() {
+    ofy().clearSessionCache();
+    ImmutableMap.Builder<String, String> objects = new ImmutableMap.Builder<>();
+    for (TestObject object : ofy().load().type(TestObject.class)) {
+      objects.put(object.getId(), object.getField());
+    }
+    return objects.build();
+  }
+
+  /** Returns a factory for threads which can use App Engine services, like request threads. */
+  private static ThreadFactory createRequestThreadFactory() {
+    final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+            runnable.run();
+          }});
+      }};
+  }
+}
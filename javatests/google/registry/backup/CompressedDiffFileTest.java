@@ -0,0 +1,198 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Functions.constant;
+import static com.google.common.collect.Maps.toMap;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.DIFF_FORMAT;
+import static google.registry.backup.BackupUtils.serializeEntity;
+import static google.registry.model.ofy.CommitLogBucket.getBucketIds;
+import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static java.util.Arrays.asList;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.collect.ImmutableList;
+import google.registry.backup.CompressedDiffFile.BlockInfo;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.TestObject;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CompressedDiffFile}. */
+@RunWith(JUnit4.class)
+public class CompressedDiffFileTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final GcsService gcsService = createGcsService();
+  private final GcsFilename filename = new GcsFilename("gcs bucket", "diff");
+  private final DateTime now = DateTime.now(UTC);
+  private CommitLogCheckpoint checkpoint;
+
+  @Before
+  public void before() {
+    checkpoint = CommitLogCheckpoint.create(now, toMap(getBucketIds(), constant(now)));
+  }
+
+  @Test
+  public void testWriteAndRead_checkpointOnly() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CompressedDiffFile.Writer writer = new CompressedDiffFile.Writer(output, 1024);
+    writer.writeCheckpoint(checkpoint);
+    writer.finish();
+    saveFile(output.toByteArray(), CompressedDiffFile.FORMAT);
+
+    ImmutableList<BlockInfo> blocks = readIndex();
+    assertThat(blocks).hasSize(1);
+    assertThat(blocks.get(0).offset()).isEqualTo(0);
+    assertThat(blocks.get(0).numTransactions()).isEqualTo(0);
+    assertThat(readBlock(blocks.get(0))).containsExactly(checkpoint);
+  }
+
+  @Test
+  public void testWriteAndRead_smallBlocks_eachTransactionInItsOwnBlock() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CompressedDiffFile.Writer writer = new CompressedDiffFile.Writer(output, 1);
+    writer.writeCheckpoint(checkpoint);
+    CommitLogManifest manifest1 = createManifest(1, now.minusMinutes(2));
+    CommitLogManifest manifest2 = createManifest(2, now.minusMinutes(1));
+    CommitLogManifest manifest3 = createManifest(1, now);
+    writer.writeTransaction(manifest1, createMutations(manifest1, "a", "b"));
+    writer.writeTransaction(manifest2, ImmutableList.<CommitLogMutation>of());
+    writer.writeTransaction(manifest3, createMutations(manifest3, "c"));
+    writer.finish();
+    saveFile(output.toByteArray(), CompressedDiffFile.FORMAT);
+
+    ImmutableList<BlockInfo> blocks = readIndex();
+    assertThat(blocks).hasSize(4);
+    for (int i = 1; i < blocks.size(); i++) {
+      assertThat(blocks.get(i).numTransactions()).isEqualTo(1);
+      assertThat(blocks.get(i).offset())
+          .isEqualTo(blocks.get(i - 1).offset() + blocks.get(i - 1).length());
+    }
+    // Each block can be read on its own, without reading the ones before it.
+    assertThat(readBlock(blocks.get(3)))
+        .containsExactlyElementsIn(asList(manifest3, createMutations(manifest3, "c").get(0)))
+        .inOrder();
+    assertThat(readBlock(blocks.get(2))).containsExactly(manifest2);
+    assertThat(readBlock(blocks.get(1)))
+        .containsExactly(
+            manifest1,
+            createMutations(manifest1, "a").get(0),
+            createMutations(manifest1, "b").get(0))
+        .inOrder();
+  }
+
+  @Test
+  public void testWriteAndRead_largeBlocks_groupsTransactions() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CompressedDiffFile.Writer writer =
+        new CompressedDiffFile.Writer(output, CompressedDiffFile.DEFAULT_BLOCK_SIZE);
+    writer.writeCheckpoint(checkpoint);
+    for (int i = 0; i < 10; i++) {
+      CommitLogManifest manifest = createManifest(1, now.minusMinutes(10 - i));
+      writer.writeTransaction(manifest, createMutations(manifest, "entity" + i));
+    }
+    writer.finish();
+    saveFile(output.toByteArray(), CompressedDiffFile.FORMAT);
+
+    ImmutableList<BlockInfo> blocks = readIndex();
+    assertThat(blocks).hasSize(2);
+    assertThat(blocks.get(1).numTransactions()).isEqualTo(10);
+    assertThat(readBlock(blocks.get(1))).hasSize(20);
+  }
+
+  @Test
+  public void testIsCompressed() throws Exception {
+    saveFile(new byte[0], CompressedDiffFile.FORMAT);
+    assertThat(CompressedDiffFile.isCompressed(gcsService.getMetadata(filename))).isTrue();
+    saveFile(new byte[0], null);
+    assertThat(CompressedDiffFile.isCompressed(gcsService.getMetadata(filename))).isFalse();
+  }
+
+  @Test
+  public void testFailure_readIndexOfUncompressedFile() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    serializeEntity(checkpoint, output);
+    saveFile(output.toByteArray(), null);
+    thrown.expect(IllegalStateException.class, "has no index");
+    readIndex();
+  }
+
+  @Test
+  public void testFailure_writeTransactionBeforeCheckpoint() throws Exception {
+    CompressedDiffFile.Writer writer =
+        new CompressedDiffFile.Writer(new ByteArrayOutputStream(), 1024);
+    CommitLogManifest manifest = createManifest(1, now);
+    thrown.expect(IllegalStateException.class, "The checkpoint must be written first");
+    writer.writeTransaction(manifest, createMutations(manifest, "a"));
+  }
+
+  private CommitLogManifest createManifest(int bucketNum, DateTime commitTime) {
+    return CommitLogManifest.create(getBucketKey(bucketNum), commitTime, null);
+  }
+
+  private ImmutableList<CommitLogMutation> createMutations(
+      CommitLogManifest manifest, String... ids) {
+    ImmutableList.Builder<CommitLogMutation> mutations = new ImmutableList.Builder<>();
+    for (String id : ids) {
+      mutations.add(CommitLogMutation.create(
+          CommitLogManifest.createKey(
+              getBucketKey(manifest.getBucketId()), manifest.getCommitTime()),
+          TestObject.create(id)));
+    }
+    return mutations.build();
+  }
+
+  private void saveFile(byte[] bytes, String format) throws Exception {
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder();
+    if (format != null) {
+      options.addUserMetadata(DIFF_FORMAT, format);
+    }
+    gcsService.createOrReplace(filename, options.build(), ByteBuffer.wrap(bytes));
+  }
+
+  private ImmutableList<BlockInfo> readIndex() throws Exception {
+    return CompressedDiffFile.readIndex(gcsService, gcsService.getMetadata(filename));
+  }
+
+  private List<ImmutableObject> readBlock(BlockInfo block) throws Exception {
+    return ImmutableList.copyOf(CompressedDiffFile.decompressBlock(
+        CompressedDiffFile.readBlock(gcsService, filename, block)));
+  }
+}
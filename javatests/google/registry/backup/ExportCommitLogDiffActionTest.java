@@ -16,6 +16,8 @@ package google.registry.backup;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.DIFF_FORMAT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
@@ -27,8 +29,11 @@ import static org.joda.time.DateTimeZone.UTC;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
 import com.googlecode.objectify.Key;
+import google.registry.backup.CompressedDiffFile.BlockInfo;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
@@ -37,6 +42,7 @@ import google.registry.model.ofy.CommitLogMutation;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.GcsTestingUtils;
 import google.registry.testing.TestObject;
+import java.util.ArrayList;
 import java.util.List;
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -67,6 +73,8 @@ public class ExportCommitLogDiffActionTest {
     task.gcsService = gcsService;
     task.gcsBucket = "gcs bucket";
     task.batchSize = 5;
+    task.compressionEnabled = false;
+    task.executor = newDirectExecutorService();
   }
 
   @Test
@@ -364,6 +372,96 @@ public class ExportCommitLogDiffActionTest {
             .inOrder();
   }
 
+  @Test
+  public void testRun_compressionEnabled_noCommitHistory_onlyUpperCheckpointExported()
+      throws Exception {
+    task.compressionEnabled = true;
+    task.lowerCheckpointTime = oneMinuteAgo;
+    task.upperCheckpointTime = now;
+
+    persistResource(CommitLogCheckpoint.create(
+        oneMinuteAgo,
+        ImmutableMap.of(1, oneMinuteAgo, 2, oneMinuteAgo, 3, oneMinuteAgo)));
+    CommitLogCheckpoint upperCheckpoint = persistResource(CommitLogCheckpoint.create(
+        now,
+        ImmutableMap.of(1, now, 2, now, 3, now)));
+
+    task.run();
+
+    GcsFilename expectedFilename = new GcsFilename("gcs bucket", "commit_diff_until_" + now);
+    ImmutableList<BlockInfo> blocks =
+        CompressedDiffFile.readIndex(gcsService, gcsService.getMetadata(expectedFilename));
+    assertThat(blocks).hasSize(1);
+    assertThat(blocks.get(0).numTransactions()).isEqualTo(0);
+    assertThat(readCompressedDiffFile(expectedFilename)).containsExactly(upperCheckpoint);
+  }
+
+  @Test
+  public void testRun_compressionEnabled_exportsCorrectCheckpointDiff() throws Exception {
+    task.compressionEnabled = true;
+    task.lowerCheckpointTime = oneMinuteAgo;
+    task.upperCheckpointTime = now;
+
+    persistResource(CommitLogCheckpoint.create(
+        oneMinuteAgo,
+        ImmutableMap.of(1, oneMinuteAgo, 2, oneMinuteAgo, 3, oneMinuteAgo)));
+    CommitLogCheckpoint upperCheckpoint = persistResource(CommitLogCheckpoint.create(
+        now,
+        ImmutableMap.of(1, now, 2, now, 3, now)));
+
+    // These shouldn't be in the diff because they are outside the bounds.
+    persistManifestAndMutation(1, oneMinuteAgo);
+    persistManifestAndMutation(2, now.plusMillis(1));
+    // These should be in the diff, interleaved across buckets in time order.
+    persistManifestAndMutation(3, now.minusSeconds(3));
+    persistManifestAndMutation(1, now.minusSeconds(2));
+    persistManifestAndMutation(2, now.minusSeconds(1));
+    persistManifestAndMutation(1, now);
+    persistManifestAndMutation(3, now);
+
+    task.run();
+
+    GcsFilename expectedFilename = new GcsFilename("gcs bucket", "commit_diff_until_" + now);
+    assertThat(gcsService.getMetadata(expectedFilename).getOptions().getUserMetadata())
+        .containsExactly(
+            LOWER_BOUND_CHECKPOINT,
+            oneMinuteAgo.toString(),
+            UPPER_BOUND_CHECKPOINT,
+            now.toString(),
+            NUM_TRANSACTIONS,
+            "5",
+            DIFF_FORMAT,
+            CompressedDiffFile.FORMAT);
+    CommitLogManifest manifest1 = createManifest(3, now.minusSeconds(3));
+    CommitLogManifest manifest2 = createManifest(1, now.minusSeconds(2));
+    CommitLogManifest manifest3 = createManifest(2, now.minusSeconds(1));
+    CommitLogManifest manifest4 = createManifest(1, now);
+    CommitLogManifest manifest5 = createManifest(3, now);
+    assertThat(readCompressedDiffFile(expectedFilename)).containsExactly(
+        upperCheckpoint,
+        manifest1,
+        createMutation(manifest1),
+        manifest2,
+        createMutation(manifest2),
+        manifest3,
+        createMutation(manifest3),
+        manifest4,
+        createMutation(manifest4),
+        manifest5,
+        createMutation(manifest5))
+            .inOrder();
+  }
+
+  private List<ImmutableObject> readCompressedDiffFile(GcsFilename filename) throws Exception {
+    List<ImmutableObject> entities = new ArrayList<>();
+    for (BlockInfo block :
+        CompressedDiffFile.readIndex(gcsService, gcsService.getMetadata(filename))) {
+      Iterators.addAll(entities, CompressedDiffFile.decompressBlock(
+          CompressedDiffFile.readBlock(gcsService, filename, block)));
+    }
+    return entities;
+  }
+
   private CommitLogManifest createManifest(int bucketNum, DateTime commitTime) {
     return CommitLogManifest.create(CommitLogBucket.getBucketKey(bucketNum), commitTime, null);
   }
@@ -20,6 +20,7 @@ import static com.google.common.collect.Iterables.transform;
 import static com.google.common.collect.Maps.toMap;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.DIFF_FORMAT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.serializeEntity;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
@@ -34,6 +35,7 @@ import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
@@ -89,6 +91,8 @@ public class RestoreCommitLogsActionTest {
     action.diffLister.gcsService = gcsService;
     action.diffLister.gcsBucket = GCS_BUCKET;
     action.diffLister.executor = newDirectExecutorService();
+    action.executor = newDirectExecutorService();
+    action.clock = new FakeClock(now);
   }
 
   @Test
@@ -247,6 +251,69 @@ public class RestoreCommitLogsActionTest {
     assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
   }
 
+  @Test
+  public void testRestore_compressedAndUncompressedDiffFiles() throws Exception {
+    ofy().saveWithoutBackup().entities(
+        TestObject.create("previous to keep"),
+        TestObject.create("previous to delete")).now();
+    // Create 3 transactions, across a compressed and an uncompressed diff file.
+    // Before: {"previous to keep", "previous to delete"}
+    // 1a: Add {"a", "b"}, Delete {"previous to delete"}
+    // 1b: Add {"c", "d"}, Delete {"a"}
+    // 2:  Add {"e", "f"}, Delete {"c"}
+    // After:  {"previous to keep", "b", "d", "e", "f"}
+    Key<CommitLogManifest> manifest1aKey =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(3));
+    Key<CommitLogManifest> manifest1bKey =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMinutes(2));
+    Key<CommitLogManifest> manifest2Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(1));
+    saveDiffFileNotToRestore(now.minusMinutes(2));
+    Iterable<ImmutableObject> file1CommitLogs = saveCompressedDiffFile(
+        createCheckpoint(now.minusMinutes(1)),
+        CommitLogManifest.create(
+            getBucketKey(1),
+            now.minusMinutes(3),
+            ImmutableSet.<Key<?>>of(Key.create(TestObject.create("previous to delete")))),
+        CommitLogMutation.create(manifest1aKey, TestObject.create("a")),
+        CommitLogMutation.create(manifest1aKey, TestObject.create("b")),
+        CommitLogManifest.create(
+            getBucketKey(2),
+            now.minusMinutes(2),
+            ImmutableSet.<Key<?>>of(Key.create(TestObject.create("a")))),
+        CommitLogMutation.create(manifest1bKey, TestObject.create("c")),
+        CommitLogMutation.create(manifest1bKey, TestObject.create("d")));
+    Iterable<ImmutableObject> file2CommitLogs = saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(
+            getBucketKey(1),
+            now.minusMinutes(1),
+            ImmutableSet.<Key<?>>of(Key.create(TestObject.create("c")))),
+        CommitLogMutation.create(manifest2Key, TestObject.create("e")),
+        CommitLogMutation.create(manifest2Key, TestObject.create("f")));
+    action.fromTime = now.minusMinutes(1).minusMillis(1);
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep", "b", "d", "e", "f");
+    assertInDatastore(file1CommitLogs);
+    assertInDatastore(file2CommitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now.minusMinutes(1), 2, now.minusMinutes(2)));
+  }
+
+  @Test
+  public void testRestore_compressedDiffFile_noManifests() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("previous to keep")).now();
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveCompressedDiffFile(createCheckpoint(now));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep");
+    assertInDatastore(commitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.<Integer, DateTime>of());
+  }
+
   private CommitLogCheckpoint createCheckpoint(DateTime now) {
     return CommitLogCheckpoint.create(now, toMap(getBucketIds(), constant(now)));
   }
@@ -268,6 +335,32 @@ public class RestoreCommitLogsActionTest {
     return allEntities;
   }
 
+  /** Saves a diff file in the block-compressed format, with one transaction per block. */
+  private Iterable<ImmutableObject> saveCompressedDiffFile(
+      CommitLogCheckpoint checkpoint, ImmutableObject... entities) throws IOException {
+    DateTime now = checkpoint.getCheckpointTime();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CompressedDiffFile.Writer writer = new CompressedDiffFile.Writer(output, 1);
+    writer.writeCheckpoint(checkpoint);
+    for (int i = 0; i < entities.length; ) {
+      CommitLogManifest manifest = (CommitLogManifest) entities[i++];
+      ImmutableList.Builder<CommitLogMutation> mutations = new ImmutableList.Builder<>();
+      while (i < entities.length && entities[i] instanceof CommitLogMutation) {
+        mutations.add((CommitLogMutation) entities[i++]);
+      }
+      writer.writeTransaction(manifest, mutations.build());
+    }
+    writer.finish();
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
+            .addUserMetadata(DIFF_FORMAT, CompressedDiffFile.FORMAT)
+            .build(),
+        ByteBuffer.wrap(output.toByteArray()));
+    return Lists.<ImmutableObject>asList(checkpoint, entities);
+  }
+
   private void saveDiffFileNotToRestore(DateTime now) throws Exception {
     saveDiffFile(
         createCheckpoint(now),
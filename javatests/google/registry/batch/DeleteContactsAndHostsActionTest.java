@@ -62,6 +62,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
 import google.registry.batch.DeleteContactsAndHostsAction.DeleteEppResourceReducer;
 import google.registry.flows.async.AsyncFlowEnqueuer;
@@ -78,6 +79,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse.ResponseData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.poll.PendingActionNotificationResponse;
 import google.registry.model.poll.PendingActionNotificationResponse.ContactPendingActionNotificationResponse;
@@ -619,7 +621,9 @@ public class DeleteContactsAndHostsActionTest
             persistHostPendingDelete("ns2.example.tld")
                 .asBuilder()
                 .setSuperordinateDomain(Key.create(domain))
+                .setInetAddresses(ImmutableSet.of(InetAddresses.forString("192.0.2.1")))
                 .build());
+    assertThat(ofy().load().keys(HostInetAddressIndex.createKeys(host))).hasSize(1);
     enqueuer.enqueueAsyncDelete(
         host,
         clock.nowUtc(),
@@ -635,6 +639,7 @@ public class DeleteContactsAndHostsActionTest
                 .getSubordinateHosts())
         .isEmpty();
     assertDnsTasksEnqueued("ns2.example.tld");
+    assertThat(ofy().load().keys(HostInetAddressIndex.createKeys(host))).isEmpty();
     HostResource hostBeforeDeletion =
         loadByForeignKey(HostResource.class, "ns2.example.tld", clock.nowUtc().minusDays(1));
     assertAboutHosts()
@@ -0,0 +1,113 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.benchmarks;
+
+import com.google.appengine.api.modules.ModulesService;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import dagger.Subcomponent;
+import google.registry.config.RegistryConfig.ConfigModule;
+import google.registry.flows.EppController;
+import google.registry.flows.FlowComponent;
+import google.registry.flows.ServerTridProviderModule;
+import google.registry.flows.custom.CustomLogicFactoryModule;
+import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
+import google.registry.monitoring.whitebox.EppMetric;
+import google.registry.request.RequestScope;
+import google.registry.util.Clock;
+import google.registry.util.SystemClock.SystemClockModule;
+import google.registry.util.SystemSleeper.SystemSleeperModule;
+import java.lang.reflect.Method;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Dagger component for running EPP commands in benchmarks.
+ *
+ * <p>This wires up the production {@link EppController} and flows, except that the App Engine
+ * services used to export BigQuery metrics are replaced with no-ops, so that queued tasks don't
+ * pile up in memory over millions of benchmark invocations.
+ */
+@Singleton
+@Component(
+    modules = {
+        BenchmarkComponent.NoOpServicesModule.class,
+        ConfigModule.class,
+        CustomLogicFactoryModule.class,
+        ServerTridProviderModule.class,
+        SystemClockModule.class,
+        SystemSleeperModule.class,
+    })
+interface BenchmarkComponent {
+
+  RequestComponent startRequest();
+
+  /** Subcomponent for request scoped injections. */
+  @RequestScope
+  @Subcomponent
+  interface RequestComponent {
+    EppController eppController();
+    FlowComponent.Builder flowComponentBuilder();
+  }
+
+  /** Module providing no-op implementations of App Engine services. */
+  @Module
+  static class NoOpServicesModule {
+
+    @Provides
+    static EppMetric.Builder provideEppMetricBuilder(Clock clock) {
+      return EppMetric.builderForRequest("benchmark-request", clock);
+    }
+
+    @Provides
+    @Named("insertIdGenerator")
+    static Supplier<String> provideInsertIdGenerator() {
+      return Suppliers.ofInstance("benchmark-insert-id");
+    }
+
+    @Provides
+    @Named(BigQueryMetricsEnqueuer.QUEUE_BIGQUERY_STREAMING_METRICS)
+    static Queue provideBigQueryStreamingMetricsQueue() {
+      return createNoOp(Queue.class);
+    }
+
+    @Provides
+    static ModulesService provideModulesService() {
+      return createNoOp(ModulesService.class);
+    }
+
+    /**
+     * Returns an implementation of {@code type} whose methods do nothing.
+     *
+     * <p>Methods returning strings return an empty string, and all other methods return null.
+     */
+    private static <T> T createNoOp(Class<T> type) {
+      return Reflection.newProxy(
+          type,
+          new AbstractInvocationHandler() {
+            @Override
+            protected Object handleInvocation(Object proxy, Method method, Object[] args) {
+              return method.getReturnType().equals(String.class) ? "" : null;
+            }
+          });
+    }
+  }
+}
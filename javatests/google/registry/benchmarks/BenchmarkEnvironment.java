@@ -0,0 +1,59 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.benchmarks;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.ObjectifyFilter;
+import google.registry.model.ofy.ObjectifyService;
+import google.registry.testing.AppEngineRule;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory App Engine environment for benchmarks, with the same Datastore setup and initial
+ * data as {@link AppEngineRule}.
+ *
+ * <p>App Engine API calls only work on the thread that created the environment, so benchmarks
+ * using this must keep their state in {@code Scope.Thread} and set it up in a trial-level setup
+ * method. Logging below {@link Level#WARNING} is turned off so that it doesn't drown out the JMH
+ * output; note that this also skips the cost of formatting the many log messages that EPP flows
+ * write at {@link Level#INFO} in production.
+ */
+final class BenchmarkEnvironment {
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig()
+              // We need to set this to allow cross entity group transactions.
+              .setApplyAllHighRepJobPolicy());
+
+  private BenchmarkEnvironment() {}
+
+  /** Sets up a new environment, which must be torn down with {@link #tearDown}. */
+  static BenchmarkEnvironment setUp() {
+    Logger.getLogger("").setLevel(Level.WARNING);
+    BenchmarkEnvironment environment = new BenchmarkEnvironment();
+    environment.helper.setUp();
+    ObjectifyService.initOfy();
+    AppEngineRule.loadInitialData();
+    return environment;
+  }
+
+  void tearDown() {
+    ObjectifyFilter.complete();
+    helper.tearDown();
+  }
+}
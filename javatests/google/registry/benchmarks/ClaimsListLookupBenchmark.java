@@ -0,0 +1,153 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import google.registry.util.CompactStringMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares claims list lookups against an {@link ImmutableMap} (the old representation of the
+ * combined claims list) and a {@link CompactStringMap} (the current one).
+ *
+ * <p>The labels and keys are synthetic but shaped like the real DNL: short ASCII labels and claim
+ * keys. Approximate retained heap for each representation is printed during setup, since JMH
+ * itself only measures time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ClaimsListLookupBenchmark {
+
+  /** Number of lookups to precompute, so choosing a label doesn't dominate the measurement. */
+  private static final int NUM_QUERIES = 1 << 14;
+
+  @Param({"ImmutableMap", "CompactStringMap"})
+  public String implementation;
+
+  @Param({"500000"})
+  public int size;
+
+  /**
+   * The labels and keys to build the claims list from.
+   *
+   * <p>These are fields rather than local variables so that they remain reachable while the heap
+   * is measured, and don't get counted as memory freed by building the claims list.
+   */
+  private String[] labels;
+  private String[] keys;
+
+  private Map<String, String> claimsList;
+  private String[] presentLabels;
+  private String[] absentLabels;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    labels = new String[size];
+    keys = new String[size];
+    for (int i = 0; i < size; i++) {
+      labels[i] = "label" + i;
+      keys[i] = createClaimKey(random, i);
+    }
+    long usedBefore = usedHeap();
+    claimsList = createClaimsList();
+    long retained = usedHeap() - usedBefore;
+    System.out.printf(
+        "%n%s with %d entries retains approximately %,d bytes%n", implementation, size, retained);
+    presentLabels = new String[NUM_QUERIES];
+    absentLabels = new String[NUM_QUERIES];
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      presentLabels[i] = labels[random.nextInt(size)];
+      absentLabels[i] = presentLabels[i] + "x";
+    }
+    labels = null;
+    keys = null;
+  }
+
+  /** Builds the claims list, copying every string so none of it is shared with the inputs. */
+  private Map<String, String> createClaimsList() {
+    switch (implementation) {
+      case "ImmutableMap":
+        ImmutableMap.Builder<String, String> immutableMap = new ImmutableMap.Builder<>();
+        for (int i = 0; i < size; i++) {
+          immutableMap.put(
+              new String(labels[i].toCharArray()), new String(keys[i].toCharArray()));
+        }
+        return immutableMap.build();
+      case "CompactStringMap":
+        CompactStringMap.Builder compactMap = CompactStringMap.builder();
+        for (int i = 0; i < size; i++) {
+          compactMap.put(labels[i], keys[i]);
+        }
+        return compactMap.build();
+      default:
+        throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+  }
+
+  @Benchmark
+  public String lookupPresent() {
+    return claimsList.get(presentLabels[next++ & (NUM_QUERIES - 1)]);
+  }
+
+  @Benchmark
+  public String lookupAbsent() {
+    return claimsList.get(absentLabels[next++ & (NUM_QUERIES - 1)]);
+  }
+
+  /** Returns a claim key in the same format as the DNL, e.g. 2013041500/2/6/9/rJ1NrDO92vDsAzf7. */
+  private static String createClaimKey(Random random, int i) {
+    StringBuilder key =
+        new StringBuilder(String.format("2013041500/%d/%d/%d/", i % 10, i % 7, i % 3));
+    for (int j = 0; j < 16; j++) {
+      key.append((char) ('A' + random.nextInt(26)));
+    }
+    return key.toString();
+  }
+
+  /** Returns the heap in use once garbage collection stops freeing any more memory. */
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 20; i++) {
+      System.gc();
+      long usedNow = runtime.totalMemory() - runtime.freeMemory();
+      if (usedNow >= used) {
+        break;
+      }
+      used = usedNow;
+    }
+    return used;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.dns.writer.dnsupdate.DnsConnectionPool;
+import google.registry.dns.writer.dnsupdate.DnsMessageTransport;
+import google.registry.dns.writer.dnsupdate.FakeDnsServer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Update;
+
+/**
+ * Measures how many DNS UPDATE messages per second {@link DnsMessageTransport} can send to a
+ * {@link FakeDnsServer} on a loopback connection with simulated network latency.
+ *
+ * <p>With {@code maxInFlight} set to 1 the transport waits for each response before sending the
+ * next message, which is how it used to behave (apart from reusing the connection), so throughput
+ * is bounded by the latency. Higher values pipeline the messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnsMessageTransportBenchmark {
+
+  /** Number of messages sent by each benchmark invocation. */
+  private static final int BATCH_SIZE = 100;
+
+  @Param({"1", "16", "64"})
+  public int maxInFlight;
+
+  @Param({"1"})
+  public int latencyMillis;
+
+  private FakeDnsServer server;
+  private DnsMessageTransport transport;
+  private ImmutableList<Message> batch;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = FakeDnsServer.start(Duration.millis(latencyMillis));
+    transport = new DnsMessageTransport(
+        server.getSocketFactory(),
+        new DnsConnectionPool(1),
+        "localhost",
+        Duration.standardSeconds(10),
+        maxInFlight);
+    ImmutableList.Builder<Message> batchBuilder = new ImmutableList.Builder<>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      batchBuilder.add(createUpdate(i));
+    }
+    batch = batchBuilder.build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public ImmutableList<Message> sendBatch() throws IOException {
+    return transport.sendAll(batch);
+  }
+
+  private static Update createUpdate(int i) throws TextParseException {
+    Update update = new Update(Name.fromString("tld", Name.root));
+    update.delete(Name.fromString("example" + i + ".tld", Name.root));
+    return update;
+  }
+}
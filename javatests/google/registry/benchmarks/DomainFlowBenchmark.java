@@ -0,0 +1,139 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.benchmarks;
+
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.flows.EppXmlTransformer.marshal;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.util.ResourceUtils.readResourceBytes;
+
+import google.registry.flows.EppController;
+import google.registry.flows.EppRequestSource;
+import google.registry.flows.PasswordOnlyTransportCredentials;
+import google.registry.flows.SessionMetadata;
+import google.registry.flows.StatelessRequestSessionMetadata;
+import google.registry.flows.domain.DomainCheckFlow;
+import google.registry.flows.domain.DomainInfoFlow;
+import google.registry.model.eppcommon.ProtocolDefinition;
+import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.tmch.ClaimsListShard.ClaimsListSingleton;
+import google.registry.xml.ValidationMode;
+import google.registry.xml.XmlException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link DomainCheckFlow} and {@link DomainInfoFlow} end-to-end, and the marshalling of
+ * their responses.
+ *
+ * <p>Each command goes through {@link EppController}, as it would for a registrar connected over
+ * TLS, so the measurement includes unmarshalling and validating the command, running the flow
+ * against the in-memory Datastore, and recording metrics. The forked JVM uses the {@code local}
+ * environment, whose caches are configured as in production rather than disabled as in unit
+ * tests. Objectify's session cache is cleared before every command, as it is between requests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dgoogle.registry.environment=local")
+public class DomainFlowBenchmark {
+
+  private final BenchmarkComponent component = DaggerBenchmarkComponent.create();
+
+  private final SessionMetadata sessionMetadata =
+      new StatelessRequestSessionMetadata(
+          "TheRegistrar", ProtocolDefinition.getVisibleServiceExtensionUris());
+
+  private BenchmarkEnvironment environment;
+  private byte[] domainCheckXml;
+  private byte[] domainInfoXml;
+  private EppOutput domainCheckOutput;
+  private EppOutput domainInfoOutput;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    environment = BenchmarkEnvironment.setUp();
+    ofy().saveWithoutBackup().entity(new ClaimsListSingleton()).now();
+    createTld("tld");
+    persistActiveDomain("example.tld");
+    domainCheckXml = loadInput("domain_check_fee.xml");
+    domainInfoXml = loadInput("domain_info.xml");
+    domainCheckOutput = runCommand(domainCheckXml);
+    domainInfoOutput = runCommand(domainInfoXml);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    environment.tearDown();
+  }
+
+  @Benchmark
+  public EppOutput runDomainCheckFlow() {
+    return runCommand(domainCheckXml);
+  }
+
+  @Benchmark
+  public EppOutput runDomainInfoFlow() {
+    return runCommand(domainInfoXml);
+  }
+
+  @Benchmark
+  public byte[] marshalDomainCheckResponse() throws XmlException {
+    return marshal(domainCheckOutput, ValidationMode.STRICT);
+  }
+
+  @Benchmark
+  public byte[] marshalDomainInfoResponse() throws XmlException {
+    return marshal(domainInfoOutput, ValidationMode.STRICT);
+  }
+
+  private static byte[] loadInput(String filename) throws IOException {
+    return readResourceBytes(DomainFlowBenchmark.class, "testdata/" + filename).read();
+  }
+
+  private EppOutput runCommand(byte[] inputXml) {
+    ofy().clearSessionCache();
+    EppController eppController = component.startRequest().eppController();
+    EppOutput output =
+        eppController.handleEppCommand(
+            sessionMetadata,
+            new PasswordOnlyTransportCredentials(),
+            EppRequestSource.TLS,
+            false,
+            false,
+            inputXml);
+    checkState(
+        output.isResponse() && output.getResponse().getResult().getCode().isSuccess(),
+        "EPP command failed: %s",
+        output);
+    return output;
+  }
+}
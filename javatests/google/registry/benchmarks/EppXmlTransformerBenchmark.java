@@ -0,0 +1,69 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.benchmarks;
+
+import static google.registry.flows.EppXmlTransformer.unmarshal;
+import static google.registry.util.ResourceUtils.readResourceBytes;
+
+import google.registry.flows.EppException;
+import google.registry.flows.EppXmlTransformer;
+import google.registry.model.eppinput.EppInput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing and schema validation of EPP commands by {@link EppXmlTransformer}.
+ *
+ * <p>The inputs are a multi-name domain check with the fee extension, a sunrise domain create with
+ * the secDNS and launch extensions and an encoded signed mark, and a domain transfer request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EppXmlTransformerBenchmark {
+
+  @Param({
+    "domain_check_fee.xml",
+    "domain_create_secdns_launch.xml",
+    "domain_transfer_request.xml",
+  })
+  public String inputFile;
+
+  private byte[] inputXml;
+
+  @Setup
+  public void setUp() throws IOException {
+    inputXml = readResourceBytes(EppXmlTransformerBenchmark.class, "testdata/" + inputFile).read();
+  }
+
+  @Benchmark
+  public EppInput unmarshalCommand() throws EppException {
+    return unmarshal(EppInput.class, inputXml);
+  }
+}
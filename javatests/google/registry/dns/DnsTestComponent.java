@@ -22,7 +22,9 @@ import google.registry.module.backend.BackendModule;
 import google.registry.request.RequestModule;
 import google.registry.util.SystemClock.SystemClockModule;
 import google.registry.util.SystemSleeper.SystemSleeperModule;
+import javax.inject.Singleton;
 
+@Singleton
 @Component(modules = {
     SystemClockModule.class,
     ConfigModule.class,
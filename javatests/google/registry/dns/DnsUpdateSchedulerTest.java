@@ -0,0 +1,161 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import google.registry.dns.DnsConstants.TargetType;
+import google.registry.dns.ReadDnsQueueAction.RefreshItem;
+import google.registry.model.server.DnsBatchSize;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DnsUpdateScheduler}. */
+@RunWith(JUnit4.class)
+public class DnsUpdateSchedulerTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private static final Duration FAST = Duration.millis(100);
+  private static final Duration TARGET = Duration.standardSeconds(20);
+
+  private final DnsUpdateScheduler scheduler = new DnsUpdateScheduler(100, 1000, TARGET);
+  private final DateTime now = DateTime.parse("2000-01-01TZ");
+  private final RefreshItem item = RefreshItem.create(TargetType.DOMAIN, "example.tld");
+
+  @Test
+  public void testGetBatchSize_initial() throws Exception {
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(100);
+  }
+
+  @Test
+  public void testRecordCommit_fastFullBatch_grows() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, FAST, true);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(200);
+    scheduler.recordCommit("tld", "writer", 200, FAST, true);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(400);
+  }
+
+  @Test
+  public void testRecordCommit_grows_cappedAtMaximum() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      scheduler.recordCommit("tld", "writer", 1000, FAST, true);
+    }
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(1000);
+  }
+
+  @Test
+  public void testRecordCommit_fastSmallBatch_doesntGrow() throws Exception {
+    scheduler.recordCommit("tld", "writer", 10, FAST, true);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(100);
+  }
+
+  @Test
+  public void testRecordCommit_withinTarget_unchanged() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, Duration.standardSeconds(15), true);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(100);
+  }
+
+  @Test
+  public void testRecordCommit_slow_shrinksProportionally() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, Duration.standardSeconds(80), true);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(25);
+  }
+
+  @Test
+  public void testRecordCommit_verySlow_atLeastOne() throws Exception {
+    scheduler.recordCommit("tld", "writer", 1, Duration.standardHours(1), true);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordCommit_failure_halves() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, FAST, false);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(50);
+    scheduler.recordCommit("tld", "writer", 50, FAST, false);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(25);
+  }
+
+  @Test
+  public void testRecordCommit_separatePerTldAndWriter() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, FAST, false);
+    assertThat(scheduler.getBatchSize("tld", "writer")).isEqualTo(50);
+    assertThat(scheduler.getBatchSize("tld", "otherWriter")).isEqualTo(100);
+    assertThat(scheduler.getBatchSize("other", "writer")).isEqualTo(100);
+  }
+
+  @Test
+  public void testRecordCommit_sharedBetweenInstances() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, FAST, true);
+    assertThat(new DnsUpdateScheduler(100, 1000, TARGET).getBatchSize("tld", "writer"))
+        .isEqualTo(200);
+  }
+
+  @Test
+  public void testRecordCommit_unchanged_notSaved() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, Duration.standardSeconds(15), true);
+    assertThat(ofy().load().key(DnsBatchSize.createKey("tld", "writer")).now()).isNull();
+  }
+
+  @Test
+  public void testGetBatchSize_cappedAtLoweredMaximum() throws Exception {
+    scheduler.recordCommit("tld", "writer", 100, FAST, true);
+    assertThat(new DnsUpdateScheduler(100, 150, TARGET).getBatchSize("tld", "writer"))
+        .isEqualTo(150);
+  }
+
+  @Test
+  public void testIsPublishPending_notScheduled() throws Exception {
+    assertThat(scheduler.isPublishPending("tld", "writer", item, now)).isFalse();
+  }
+
+  @Test
+  public void testIsPublishPending_beforeEta() throws Exception {
+    scheduler.recordPublishScheduled("tld", "writer", item, now.plusSeconds(30));
+    assertThat(scheduler.isPublishPending("tld", "writer", item, now)).isTrue();
+    assertThat(scheduler.isPublishPending("tld", "otherWriter", item, now)).isFalse();
+    assertThat(
+            scheduler.isPublishPending(
+                "tld", "writer", RefreshItem.create(TargetType.HOST, "example.tld"), now))
+        .isFalse();
+  }
+
+  @Test
+  public void testIsPublishPending_atOrAfterEta() throws Exception {
+    scheduler.recordPublishScheduled("tld", "writer", item, now);
+    assertThat(scheduler.isPublishPending("tld", "writer", item, now)).isFalse();
+    assertThat(scheduler.isPublishPending("tld", "writer", item, now.plusSeconds(1))).isFalse();
+  }
+
+  @Test
+  public void testFailure_maxSmallerThanInitial() throws Exception {
+    thrown.expect(
+        IllegalArgumentException.class, "Maximum batch size must be at least the initial size");
+    new DnsUpdateScheduler(100, 10, TARGET);
+  }
+}
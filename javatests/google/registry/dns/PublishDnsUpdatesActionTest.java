@@ -14,10 +14,13 @@
 
 package google.registry.dns;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveSubordinateHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -25,6 +28,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import google.registry.dns.DnsMetrics.CommitStatus;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.model.domain.DomainResource;
@@ -90,6 +94,7 @@ public class PublishDnsUpdatesActionTest {
     action.dnsWriterProxy = new DnsWriterProxy(ImmutableMap.of("mock", dnsWriter));
     action.dnsMetrics = dnsMetrics;
     action.lockHandler = lockHandler;
+    action.clock = clock;
     return action;
   }
 
@@ -104,6 +109,8 @@ public class PublishDnsUpdatesActionTest {
     verifyNoMoreInteractions(dnsWriter);
 
     verify(dnsMetrics).incrementPublishHostRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordCommit("xn--q9jyb4c", "mock", CommitStatus.SUCCESS, Duration.ZERO, 1);
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -118,6 +125,8 @@ public class PublishDnsUpdatesActionTest {
     verifyNoMoreInteractions(dnsWriter);
 
     verify(dnsMetrics).incrementPublishDomainRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordCommit("xn--q9jyb4c", "mock", CommitStatus.SUCCESS, Duration.ZERO, 1);
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -139,6 +148,8 @@ public class PublishDnsUpdatesActionTest {
 
     verify(dnsMetrics, times(2)).incrementPublishDomainRequests("xn--q9jyb4c", Status.ACCEPTED);
     verify(dnsMetrics, times(3)).incrementPublishHostRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordCommit("xn--q9jyb4c", "mock", CommitStatus.SUCCESS, Duration.ZERO, 5);
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -154,6 +165,8 @@ public class PublishDnsUpdatesActionTest {
 
     verify(dnsMetrics, times(2)).incrementPublishDomainRequests("xn--q9jyb4c", Status.REJECTED);
     verify(dnsMetrics, times(3)).incrementPublishHostRequests("xn--q9jyb4c", Status.REJECTED);
+    verify(dnsMetrics)
+        .recordCommit("xn--q9jyb4c", "mock", CommitStatus.SUCCESS, Duration.ZERO, 5);
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -166,4 +179,38 @@ public class PublishDnsUpdatesActionTest {
     action.lockHandler = new FakeLockHandler(false);
     action.run();
   }
+
+  @Test
+  public void testWriterFailure_recordsFailedCommit() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c", "example2.xn--q9jyb4c");
+    doThrow(new RuntimeException("Commit failed")).when(dnsWriter).commit();
+    try {
+      action.run();
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Commit failed");
+    }
+
+    verify(dnsMetrics, times(2)).incrementPublishDomainRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordCommit("xn--q9jyb4c", "mock", CommitStatus.FAILURE, Duration.ZERO, 2);
+    verifyNoMoreInteractions(dnsMetrics);
+  }
+
+  @Test
+  public void testLockIsntAvailable_doesntRecordCommit() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    action.lockHandler = new FakeLockHandler(false);
+    try {
+      action.run();
+      fail("Expected ServiceUnavailableException");
+    } catch (ServiceUnavailableException e) {
+      // Expected.
+    }
+
+    verifyNoMoreInteractions(dnsWriter);
+    verifyNoMoreInteractions(dnsMetrics);
+  }
 }
@@ -63,6 +63,7 @@ public class ReadDnsQueueActionTest {
 
   private static final int TEST_TLD_UPDATE_BATCH_SIZE = 100;
   private DnsQueue dnsQueue;
+  private DnsUpdateScheduler dnsUpdateScheduler;
   private FakeClock clock = new FakeClock(DateTime.now(DateTimeZone.UTC));
 
   @Rule
@@ -98,16 +99,23 @@ public class ReadDnsQueueActionTest {
             .setDnsWriters(ImmutableSet.of("exampleWriter"))
             .build());
     dnsQueue = DnsQueue.create();
+    dnsUpdateScheduler =
+        new DnsUpdateScheduler(TEST_TLD_UPDATE_BATCH_SIZE, 1000, Duration.standardSeconds(20));
   }
 
   private void run(boolean keepTasks) throws Exception {
+    run(keepTasks, Optional.<Integer>absent());
+  }
+
+  private void run(boolean keepTasks, Optional<Integer> jitterSeconds) throws Exception {
     ReadDnsQueueAction action = new ReadDnsQueueAction();
-    action.tldUpdateBatchSize = TEST_TLD_UPDATE_BATCH_SIZE;
     action.writeLockTimeout = Duration.standardSeconds(10);
     action.dnsQueue = dnsQueue;
+    action.dnsUpdateScheduler = dnsUpdateScheduler;
+    action.clock = clock;
     action.dnsPublishPushQueue = QueueFactory.getQueue(DNS_PUBLISH_PUSH_QUEUE_NAME);
     action.taskEnqueuer = new TaskEnqueuer(new Retrier(null, 1));
-    action.jitterSeconds = Optional.absent();
+    action.jitterSeconds = jitterSeconds;
     action.keepTasks = keepTasks;
     // Advance the time a little, to ensure that leaseTasks() returns all tasks.
     clock.setTo(DateTime.now(DateTimeZone.UTC).plusMillis(1));
@@ -224,8 +232,8 @@ public class ReadDnsQueueActionTest {
     for (String tld : ImmutableList.of("com", "net")) {
       int refreshItemsInTask = 0;
       TaskMatcher task = null;
-      // 0: domain; 1: host 1; 2: host 2
-      for (int thingType = 0; thingType < 3; thingType++) {
+      // 0: domain; 1: host 1; 2: host 2. Hosts are published ahead of domains.
+      for (int thingType : ImmutableList.of(1, 2, 0)) {
         for (int i = 0; i < 150; i++) {
           String domainName = String.format("domain%04d.%s", i, tld);
           // If we don't have an existing task into which to dump new refreshes, create one.
@@ -263,4 +271,75 @@ public class ReadDnsQueueActionTest {
     assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
     assertTasksEnqueued(DNS_PUBLISH_PUSH_QUEUE_NAME, expectedTasks);
   }
+
+  @Test
+  public void testSuccess_batchSizeAdaptsPerDnsWriter() throws Exception {
+    persistResource(
+        Registry.get("com")
+            .asBuilder()
+            .setDnsWriters(ImmutableSet.of("comWriter", "otherWriter"))
+            .build());
+    // A failure halves comWriter's batch size, but leaves otherWriter's alone.
+    dnsUpdateScheduler.recordCommit("com", "comWriter", 100, Duration.ZERO, false);
+    for (int i = 0; i < 150; i++) {
+      dnsQueue.addDomainRefreshTask(String.format("domain%04d.com", i));
+    }
+    run(false);
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertTldsEnqueuedInPushQueue(
+        ImmutableMultimap.<String, String>builder()
+            .putAll("com", "comWriter", "comWriter", "comWriter")
+            .putAll("com", "otherWriter", "otherWriter")
+            .build());
+  }
+
+  @Test
+  public void testSuccess_pendingPublish_coalesced() throws Exception {
+    dnsUpdateScheduler.recordPublishScheduled(
+        "com",
+        "comWriter",
+        ReadDnsQueueAction.RefreshItem.create(TargetType.DOMAIN, "domain.com"),
+        DateTime.now(DateTimeZone.UTC).plusMinutes(1));
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addDomainRefreshTask("other.com");
+    run(false);
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertTasksEnqueued(
+        DNS_PUBLISH_PUSH_QUEUE_NAME,
+        new TaskMatcher()
+            .url(PublishDnsUpdatesAction.PATH)
+            .param("tld", "com")
+            .param("domains", "other.com"));
+  }
+
+  @Test
+  public void testSuccess_startedPublish_notCoalesced() throws Exception {
+    dnsUpdateScheduler.recordPublishScheduled(
+        "com",
+        "comWriter",
+        ReadDnsQueueAction.RefreshItem.create(TargetType.DOMAIN, "domain.com"),
+        DateTime.now(DateTimeZone.UTC).minusMinutes(1));
+    dnsQueue.addDomainRefreshTask("domain.com");
+    run(false);
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertTasksEnqueued(
+        DNS_PUBLISH_PUSH_QUEUE_NAME,
+        new TaskMatcher()
+            .url(PublishDnsUpdatesAction.PATH)
+            .param("tld", "com")
+            .param("domains", "domain.com"));
+  }
+
+  @Test
+  public void testSuccess_hostsNotDelayed_publishedAgainOnNextRun() throws Exception {
+    dnsQueue.addHostRefreshTask("ns1.domain.com");
+    run(false, Optional.of(3600));
+    dnsQueue.addHostRefreshTask("ns1.domain.com");
+    run(false, Optional.of(3600));
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertTasksEnqueued(
+        DNS_PUBLISH_PUSH_QUEUE_NAME,
+        new TaskMatcher().url(PublishDnsUpdatesAction.PATH).param("hosts", "ns1.domain.com"),
+        new TaskMatcher().url(PublishDnsUpdatesAction.PATH).param("hosts", "ns1.domain.com"));
+  }
 }
@@ -20,21 +20,33 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import com.google.api.services.dns.Dns;
 import com.google.api.services.dns.model.Change;
 import com.google.api.services.dns.model.ResourceRecordSet;
 import com.google.api.services.dns.model.ResourceRecordSetsListResponse;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.RateLimiter;
@@ -53,8 +65,16 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
@@ -107,6 +127,8 @@ public class CloudDnsWriterTest {
             DEFAULT_NS_TTL,
             DEFAULT_DS_TTL,
             RateLimiter.create(20),
+            100,
+            Executors.defaultThreadFactory(),
             new SystemClock(),
             new Retrier(new SystemSleeper(), 5));
 
@@ -471,4 +493,303 @@ public class CloudDnsWriterTest {
 
     verifyZone(ImmutableSet.<ResourceRecordSet>of());
   }
+
+  @Test
+  public void testLoadHost_twoHostsOfSameDomain() throws Exception {
+    persistResource(
+        fakeDomain(
+            "example.tld",
+            ImmutableSet.of(
+                persistResource(fakeHost("0.ip4.example.tld", IPv4)),
+                persistResource(fakeHost("1.ip4.example.tld", IPv4))),
+            0));
+    writer.publishHost("0.ip4.example.tld");
+    writer.publishHost("1.ip4.example.tld");
+
+    verifyZone(fakeDomainRecords("example.tld", 2, 0, 0, 0));
+  }
+
+  /** Persists domains which each have one subordinate nameserver, and returns their records. */
+  private static ImmutableSet<ResourceRecordSet> persistDomainsWithGlue(int count) {
+    ImmutableSet.Builder<ResourceRecordSet> records = new ImmutableSet.Builder<>();
+    for (int i = 0; i < count; i++) {
+      String domainName = String.format("domain%d.tld", i);
+      persistResource(
+          fakeDomain(
+              domainName,
+              ImmutableSet.of(persistResource(fakeHost("0.ip4." + domainName, IPv4))),
+              0));
+      records.addAll(fakeDomainRecords(domainName, 1, 0, 0, 0));
+    }
+    return records.build();
+  }
+
+  /** Returns a writer which talks to the given fake, with at most four record sets per change. */
+  private static CloudDnsWriter createWriterForFake(FakeCloudDns fakeCloudDns) {
+    return new CloudDnsWriter(
+        fakeCloudDns.dns,
+        "projectId",
+        "zoneName",
+        DEFAULT_A_TTL,
+        DEFAULT_NS_TTL,
+        DEFAULT_DS_TTL,
+        RateLimiter.create(1000),
+        4,
+        Executors.defaultThreadFactory(),
+        new SystemClock(),
+        new Retrier(new SystemSleeper(), 5));
+  }
+
+  private static void publishDomains(CloudDnsWriter writer, int count) {
+    for (int i = 0; i < count; i++) {
+      writer.publishDomain(String.format("domain%d.tld", i));
+    }
+  }
+
+  @Test
+  public void testCommit_largeBatch_splitIntoChangesByDomain() throws Exception {
+    ImmutableSet<ResourceRecordSet> expectedRecords = persistDomainsWithGlue(10);
+    FakeCloudDns fakeCloudDns = new FakeCloudDns();
+    CloudDnsWriter writer = createWriterForFake(fakeCloudDns);
+    publishDomains(writer, 10);
+    writer.commit();
+
+    assertThat(fakeCloudDns.getZone()).containsExactlyElementsIn(expectedRecords);
+    // Each domain's NS record and glue take two record sets, so two domains fit in each change.
+    List<Change> changes = fakeCloudDns.getAppliedChanges();
+    assertThat(changes).hasSize(5);
+    // Every domain is written by exactly one change, together with its glue.
+    Set<String> domainsWritten = new HashSet<>();
+    for (Change change : changes) {
+      assertThat(change.getDeletions()).isEmpty();
+      assertThat(change.getAdditions()).hasSize(4);
+      for (ResourceRecordSet record : change.getAdditions()) {
+        if (record.getType().equals("NS")) {
+          assertThat(domainsWritten.add(record.getName())).isTrue();
+          assertThat(getNames(change.getAdditions())).contains("0.ip4." + record.getName());
+        }
+      }
+    }
+    assertThat(domainsWritten).hasSize(10);
+  }
+
+  @Test
+  public void testCommit_conflictInOneChange_onlyThatChangeRetried() throws Exception {
+    ImmutableSet<ResourceRecordSet> expectedRecords = persistDomainsWithGlue(10);
+    FakeCloudDns fakeCloudDns = new FakeCloudDns();
+    fakeCloudDns.failChangesTo("domain3.tld.", 412, "preconditionFailed", 1);
+    CloudDnsWriter writer = createWriterForFake(fakeCloudDns);
+    publishDomains(writer, 10);
+    writer.commit();
+
+    assertThat(fakeCloudDns.getZone()).containsExactlyElementsIn(expectedRecords);
+    assertThat(fakeCloudDns.getAppliedChanges()).hasSize(5);
+    // Only the names in the conflicting change were read again.
+    Multiset<String> listRequests = fakeCloudDns.getListRequests();
+    assertThat(listRequests.count("domain3.tld.")).isEqualTo(2);
+    assertThat(listRequests.count("domain0.tld.")).isEqualTo(1);
+    assertThat(listRequests.count("domain9.tld.")).isEqualTo(1);
+  }
+
+  @Test
+  public void testCommit_badChange_otherChangesWritten() throws Exception {
+    persistDomainsWithGlue(10);
+    FakeCloudDns fakeCloudDns = new FakeCloudDns();
+    fakeCloudDns.failChangesTo("domain3.tld.", 400, "invalid", Integer.MAX_VALUE);
+    CloudDnsWriter writer = createWriterForFake(fakeCloudDns);
+    publishDomains(writer, 10);
+    try {
+      writer.commit();
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Cloud DNS change failed");
+    }
+
+    assertThat(fakeCloudDns.getAppliedChanges()).hasSize(4);
+    Set<String> names = getNames(fakeCloudDns.getZone());
+    assertThat(names).hasSize(16);
+    assertThat(names).contains("domain0.tld.");
+    assertThat(names).doesNotContain("domain3.tld.");
+  }
+
+  @Test
+  public void testCommit_afterPartialFailure_onlyFailedChangeRewritten() throws Exception {
+    ImmutableSet<ResourceRecordSet> expectedRecords = persistDomainsWithGlue(10);
+    FakeCloudDns fakeCloudDns = new FakeCloudDns();
+    fakeCloudDns.failChangesTo("domain3.tld.", 400, "invalid", 1);
+    CloudDnsWriter writer = createWriterForFake(fakeCloudDns);
+    publishDomains(writer, 10);
+    try {
+      writer.commit();
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+
+    // Publishing the whole batch again only sends the change which failed.
+    writer = createWriterForFake(fakeCloudDns);
+    publishDomains(writer, 10);
+    writer.commit();
+
+    assertThat(fakeCloudDns.getZone()).containsExactlyElementsIn(expectedRecords);
+    List<Change> changes = fakeCloudDns.getAppliedChanges();
+    assertThat(changes).hasSize(5);
+    assertThat(getNames(changes.get(4).getAdditions())).contains("domain3.tld.");
+  }
+
+  private static Set<String> getNames(Iterable<ResourceRecordSet> records) {
+    Set<String> names = new HashSet<>();
+    for (ResourceRecordSet record : records) {
+      names.add(record.getName());
+    }
+    return names;
+  }
+
+  /**
+   * A fake Cloud DNS service holding a single zone, which the real {@link Dns} client talks to
+   * through a {@link MockHttpTransport}.
+   *
+   * <p>Unlike the Mockito stubs used by the other tests, this is safe to call from several threads
+   * at once. Each change is applied atomically, and rejected if it deletes records which don't
+   * exist or adds records which do.
+   */
+  private static final class FakeCloudDns {
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    @GuardedBy("this")
+    private final Set<ResourceRecordSet> zone = new HashSet<>();
+
+    @GuardedBy("this")
+    private final List<Change> appliedChanges = new ArrayList<>();
+
+    @GuardedBy("this")
+    private final Multiset<String> listRequests = HashMultiset.create();
+
+    /** Names whose changes should fail, with the error to fail them with. */
+    @GuardedBy("this")
+    private final Map<String, InjectedFailure> failures = new HashMap<>();
+
+    final Dns dns =
+        new Dns.Builder(
+                new MockHttpTransport() {
+                  @Override
+                  public LowLevelHttpRequest buildRequest(String method, final String url) {
+                    return new MockLowLevelHttpRequest(url) {
+                      @Override
+                      public LowLevelHttpResponse execute() throws IOException {
+                        return url.contains("/changes")
+                            ? createChange(getContentAsString())
+                            : listRecords(url);
+                      }
+                    };
+                  }
+                },
+                jsonFactory,
+                null)
+            .setApplicationName("test")
+            .build();
+
+    synchronized ImmutableSet<ResourceRecordSet> getZone() {
+      return ImmutableSet.copyOf(zone);
+    }
+
+    synchronized ImmutableList<Change> getAppliedChanges() {
+      return ImmutableList.copyOf(appliedChanges);
+    }
+
+    synchronized Multiset<String> getListRequests() {
+      return HashMultiset.create(listRequests);
+    }
+
+    /** Makes the next {@code times} changes which touch {@code name} fail with the given error. */
+    synchronized void failChangesTo(String name, int statusCode, String reason, int times) {
+      failures.put(name, new InjectedFailure(statusCode, reason, times));
+    }
+
+    private synchronized LowLevelHttpResponse listRecords(String url) throws IOException {
+      String name = (String) new GenericUrl(url).getFirst("name");
+      listRequests.add(name);
+      List<ResourceRecordSet> records = new ArrayList<>();
+      for (ResourceRecordSet record : zone) {
+        if (record.getName().equals(name)) {
+          records.add(record);
+        }
+      }
+      return createResponse(new ResourceRecordSetsListResponse().setRrsets(records));
+    }
+
+    private synchronized LowLevelHttpResponse createChange(String content) throws IOException {
+      Change change = jsonFactory.fromString(content, Change.class);
+      List<ResourceRecordSet> additions = nullToEmpty(change.getAdditions());
+      List<ResourceRecordSet> deletions = nullToEmpty(change.getDeletions());
+      for (ResourceRecordSet record : Iterables.concat(additions, deletions)) {
+        InjectedFailure failure = failures.get(record.getName());
+        if (failure != null && failure.remaining > 0) {
+          failure.remaining--;
+          return createErrorResponse(failure.statusCode, failure.reason);
+        }
+      }
+      for (ResourceRecordSet record : deletions) {
+        if (!zone.contains(record)) {
+          return createErrorResponse(404, "notFound");
+        }
+      }
+      for (ResourceRecordSet record : additions) {
+        if (findRecord(record.getName(), record.getType()) != null
+            && !deletions.contains(findRecord(record.getName(), record.getType()))) {
+          return createErrorResponse(409, "alreadyExists");
+        }
+      }
+      zone.removeAll(deletions);
+      zone.addAll(additions);
+      appliedChanges.add(change);
+      return createResponse(change);
+    }
+
+    @GuardedBy("this")
+    @Nullable
+    private ResourceRecordSet findRecord(String name, String type) {
+      for (ResourceRecordSet record : zone) {
+        if (record.getName().equals(name) && record.getType().equals(type)) {
+          return record;
+        }
+      }
+      return null;
+    }
+
+    private LowLevelHttpResponse createResponse(Object content) throws IOException {
+      return new MockLowLevelHttpResponse()
+          .setContentType("application/json; charset=UTF-8")
+          .setContent(jsonFactory.toString(content));
+    }
+
+    private static LowLevelHttpResponse createErrorResponse(int statusCode, String reason) {
+      return new MockLowLevelHttpResponse()
+          .setStatusCode(statusCode)
+          .setContentType("application/json; charset=UTF-8")
+          .setContent(
+              String.format(
+                  "{\"error\": {\"code\": %d, \"message\": \"%s\", "
+                      + "\"errors\": [{\"reason\": \"%s\", \"message\": \"%s\"}]}}",
+                  statusCode, reason, reason, reason));
+    }
+
+    private static List<ResourceRecordSet> nullToEmpty(@Nullable List<ResourceRecordSet> list) {
+      return (list == null) ? ImmutableList.<ResourceRecordSet>of() : list;
+    }
+
+    /** An error to return for changes touching a particular name. */
+    private static final class InjectedFailure {
+      final int statusCode;
+      final String reason;
+      int remaining;
+
+      InjectedFailure(int statusCode, String reason, int remaining) {
+        this.statusCode = statusCode;
+        this.reason = reason;
+        this.remaining = remaining;
+      }
+    }
+  }
 }
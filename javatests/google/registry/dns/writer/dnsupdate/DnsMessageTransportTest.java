@@ -18,10 +18,14 @@ import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Bytes;
 import google.registry.testing.ExceptionRule;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -31,7 +35,9 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import javax.net.SocketFactory;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -58,6 +64,7 @@ public class DnsMessageTransportTest {
 
   private final SocketFactory mockFactory = mock(SocketFactory.class);
   private final Socket mockSocket = mock(Socket.class);
+  private final DnsConnectionPool connectionPool = new DnsConnectionPool(1);
 
   private Message simpleQuery;
   private Message expectedResponse;
@@ -73,7 +80,7 @@ public class DnsMessageTransportTest {
     expectedResponse = responseMessageWithCode(simpleQuery, Rcode.NOERROR);
     when(mockFactory.createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT))
         .thenReturn(mockSocket);
-    resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, Duration.ZERO);
+    resolver = new DnsMessageTransport(mockFactory, connectionPool, UPDATE_HOST, Duration.ZERO, 16);
   }
 
   @Test
@@ -127,7 +134,8 @@ public class DnsMessageTransportTest {
     when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
 
     Duration testTimeout = Duration.standardSeconds(1);
-    DnsMessageTransport resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, testTimeout);
+    DnsMessageTransport resolver =
+        new DnsMessageTransport(mockFactory, connectionPool, UPDATE_HOST, testTimeout, 16);
     Message expectedQuery = new Message();
     try {
       resolver.send(expectedQuery);
@@ -183,6 +191,119 @@ public class DnsMessageTransportTest {
     resolver.send(simpleQuery);
   }
 
+  @Test
+  public void testSend_reusesConnection() throws Exception {
+    Message secondQuery = new Message();
+    when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(Bytes.concat(
+        messageToBytesWithLength(expectedResponse),
+        messageToBytesWithLength(responseMessageWithCode(secondQuery, Rcode.NOERROR)))));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    resolver.send(simpleQuery);
+    assertThat(connectionPool.getIdleConnectionCount()).isEqualTo(1);
+    resolver.send(secondQuery);
+
+    verify(mockFactory, times(1))
+        .createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT);
+    verify(mockSocket, never()).close();
+  }
+
+  @Test
+  public void testSend_failure_closesConnection() throws Exception {
+    when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    try {
+      resolver.send(simpleQuery);
+      fail("exception expected");
+    } catch (EOFException e) {
+      verify(mockSocket).close();
+    }
+    assertThat(connectionPool.getIdleConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSendAll_responsesOutOfOrder_areMatchedToQueries() throws Exception {
+    Message secondQuery = new Message();
+    Message secondResponse = responseMessageWithCode(secondQuery, Rcode.SERVFAIL);
+    when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(Bytes.concat(
+        messageToBytesWithLength(secondResponse), messageToBytesWithLength(expectedResponse))));
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    when(mockSocket.getOutputStream()).thenReturn(outputStream);
+
+    List<Message> responses = resolver.sendAll(ImmutableList.of(simpleQuery, secondQuery));
+
+    assertThat(responses).hasSize(2);
+    assertThat(base16().encode(responses.get(0).toWire()))
+        .isEqualTo(base16().encode(expectedResponse.toWire()));
+    assertThat(base16().encode(responses.get(1).toWire()))
+        .isEqualTo(base16().encode(secondResponse.toWire()));
+    // Both queries were sent before either response was read.
+    assertThat(outputStream.toByteArray()).isEqualTo(Bytes.concat(
+        messageToBytesWithLength(simpleQuery), messageToBytesWithLength(secondQuery)));
+  }
+
+  @Test
+  public void testSendAll_pipelinesOverOneConnection() throws Exception {
+    try (FakeDnsServer server = FakeDnsServer.start(Duration.millis(1))) {
+      DnsMessageTransport transport = createTransport(server, 16);
+      List<Message> queries = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        queries.add(new Update(Name.fromString("tld", Name.root)));
+      }
+
+      List<Message> responses = transport.sendAll(queries);
+
+      assertThat(responses).hasSize(queries.size());
+      for (int i = 0; i < queries.size(); i++) {
+        assertThat(responses.get(i).getHeader().getID())
+            .isEqualTo(queries.get(i).getHeader().getID());
+        assertThat(responses.get(i).getRcode()).isEqualTo(Rcode.NOERROR);
+      }
+      assertThat(server.getMessageCount()).isEqualTo(queries.size());
+      assertThat(server.getConnectionCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testSendAll_duplicateIds_areNotInFlightTogether() throws Exception {
+    try (FakeDnsServer server = FakeDnsServer.start(Duration.ZERO)) {
+      DnsMessageTransport transport = createTransport(server, 16);
+      Message query = new Message(1234);
+      Message sameIdQuery = new Message(1234);
+
+      List<Message> responses = transport.sendAll(ImmutableList.of(query, sameIdQuery));
+
+      assertThat(responses).hasSize(2);
+      assertThat(responses.get(0).getHeader().getID()).isEqualTo(1234);
+      assertThat(responses.get(1).getHeader().getID()).isEqualTo(1234);
+    }
+  }
+
+  @Test
+  public void testSend_connectionClosedByServer_retriesOnNewConnection() throws Exception {
+    try (FakeDnsServer server = FakeDnsServer.start(Duration.ZERO)) {
+      DnsMessageTransport transport = createTransport(server, 16);
+      transport.send(new Message());
+      assertThat(connectionPool.getIdleConnectionCount()).isEqualTo(1);
+      server.closeConnections();
+
+      Message response = transport.send(new Message());
+
+      assertThat(response.getRcode()).isEqualTo(Rcode.NOERROR);
+      assertThat(server.getConnectionCount()).isEqualTo(2);
+    }
+  }
+
+  private DnsMessageTransport createTransport(FakeDnsServer server, int maxInFlight) {
+    return new DnsMessageTransport(
+        server.getSocketFactory(),
+        connectionPool,
+        UPDATE_HOST,
+        Duration.standardSeconds(10),
+        maxInFlight);
+  }
+
   private Message responseMessageWithCode(Message query, int responseCode) {
     Message message = new Message(query.getHeader().getID());
     message.getHeader().setOpcode(query.getHeader().getOpcode());
@@ -27,6 +27,7 @@ import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
 import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -47,6 +48,7 @@ import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -56,7 +58,9 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Opcode;
@@ -87,6 +91,9 @@ public class DnsUpdateWriterTest {
   @Captor
   private ArgumentCaptor<Update> updateCaptor;
 
+  @Captor
+  private ArgumentCaptor<List<Update>> updatesCaptor;
+
   private final FakeClock clock = new FakeClock(DateTime.parse("1971-01-01TZ"));
 
   private DnsUpdateWriter writer;
@@ -410,6 +417,66 @@ public class DnsUpdateWriterTest {
     writer.commit();
   }
 
+  @Test
+  public void testPublishBatchTooLargeForOneMessage_splitsBetweenNames() throws Exception {
+    ImmutableSet.Builder<DelegationSignerData> dsData = new ImmutableSet.Builder<>();
+    for (int i = 0; i < 200; i++) {
+      dsData.add(DelegationSignerData.create(i, 8, 2, new byte[32]));
+    }
+    HostResource host = persistActiveHost("ns1.example.com");
+    for (int i = 0; i < 10; i++) {
+      persistResource(
+          persistActiveDomain("example" + i + ".tld")
+              .asBuilder()
+              .setNameservers(ImmutableSet.of(Key.create(host)))
+              .setDsData(dsData.build())
+              .build());
+    }
+    when(mockResolver.sendAll(anyListOf(Update.class)))
+        .thenAnswer(new Answer<ImmutableList<Message>>() {
+      @Override
+      public ImmutableList<Message> answer(InvocationOnMock invocation) {
+        ImmutableList.Builder<Message> responses = new ImmutableList.Builder<>();
+        for (int i = 0; i < ((List<?>) invocation.getArguments()[0]).size(); i++) {
+          responses.add(messageWithResponseCode(Rcode.NOERROR));
+        }
+        return responses.build();
+      }});
+
+    for (int i = 0; i < 10; i++) {
+      writer.publishDomain("example" + i + ".tld");
+    }
+    writer.commit();
+
+    verify(mockResolver).sendAll(updatesCaptor.capture());
+    List<Update> updates = updatesCaptor.getValue();
+    assertThat(updates.size()).isGreaterThan(1);
+    int totalSets = 0;
+    for (Update update : updates) {
+      assertThatUpdatedZoneIs(update, "tld.");
+      assertThat(update.toWire().length).isAtMost(DnsMessageTransport.MESSAGE_MAXIMUM_LENGTH);
+      totalSets += update.getSectionRRsets(Section.UPDATE).length;
+    }
+    // Each domain's delete, NS and DS sets are all in the same message.
+    assertThat(totalSets).isEqualTo(30);
+    for (int i = 0; i < 10; i++) {
+      boolean found = false;
+      for (Update update : updates) {
+        for (RRset set : update.getSectionRRsets(Section.UPDATE)) {
+          if (set.getName().toString().equals("example" + i + ".tld.")) {
+            assertThat(found).isFalse();
+            assertThatUpdateDeletes(update, "example" + i + ".tld.", Type.ANY);
+            assertThatUpdateAdds(update, "example" + i + ".tld.", Type.NS, "ns1.example.com.");
+            assertThat(findUpdateRecords(update, "example" + i + ".tld.", Type.DS)).hasSize(200);
+            found = true;
+            break;
+          }
+        }
+      }
+      assertThat(found).isTrue();
+    }
+  }
+
   private void assertThatUpdatedZoneIs(Update update, String zoneName) {
     Record[] zoneRecords = update.getSectionArray(Section.ZONE);
     assertThat(zoneRecords[0].getName().toString()).isEqualTo(zoneName);
@@ -0,0 +1,194 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.dnsupdate;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.SocketFactory;
+import org.joda.time.Duration;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+
+/**
+ * A DNS server on a local TCP port, which answers every message it receives with a NOERROR
+ * response after a fixed latency.
+ *
+ * <p>Responses are scheduled independently of each other, so messages pipelined on one connection
+ * are answered in parallel, as a real server across a network would appear to, and not necessarily
+ * in the order they were sent.
+ */
+public final class FakeDnsServer implements AutoCloseable {
+
+  private final ServerSocket serverSocket;
+  private final Duration latency;
+  private final ExecutorService connectionExecutor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-dns-%d").build());
+  private final ScheduledExecutorService responseExecutor =
+      Executors.newScheduledThreadPool(
+          4, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-dns-reply-%d").build());
+  private final Queue<Socket> connections = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final AtomicInteger messageCount = new AtomicInteger();
+
+  private FakeDnsServer(Duration latency) throws IOException {
+    this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    this.latency = latency;
+  }
+
+  /** Starts a server listening on an ephemeral port, answering after the given latency. */
+  public static FakeDnsServer start(Duration latency) throws IOException {
+    final FakeDnsServer server = new FakeDnsServer(latency);
+    server.connectionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        server.acceptConnections();
+      }});
+    return server;
+  }
+
+  /** Returns a factory for sockets connected to this server, whatever address they ask for. */
+  public SocketFactory getSocketFactory() {
+    return new SocketFactory() {
+      @Override
+      public Socket createSocket(String host, int port) throws IOException {
+        return createSocket();
+      }
+
+      @Override
+      public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+          throws IOException {
+        return createSocket();
+      }
+
+      @Override
+      public Socket createSocket(InetAddress host, int port) throws IOException {
+        return createSocket();
+      }
+
+      @Override
+      public Socket createSocket(
+          InetAddress address, int port, InetAddress localAddress, int localPort)
+          throws IOException {
+        return createSocket();
+      }
+
+      @Override
+      public Socket createSocket() throws IOException {
+        return new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+      }};
+  }
+
+  /** Returns the number of connections accepted so far. */
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  /** Returns the number of messages received so far. */
+  public int getMessageCount() {
+    return messageCount.get();
+  }
+
+  /** Closes every connection accepted so far, as a server does to idle connections. */
+  public void closeConnections() throws IOException {
+    for (Socket socket = connections.poll(); socket != null; socket = connections.poll()) {
+      socket.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    closeConnections();
+    connectionExecutor.shutdownNow();
+    responseExecutor.shutdownNow();
+  }
+
+  private void acceptConnections() {
+    try {
+      while (true) {
+        final Socket socket = serverSocket.accept();
+        connections.add(socket);
+        connectionCount.incrementAndGet();
+        connectionExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            serve(socket);
+          }});
+      }
+    } catch (IOException e) {
+      // The server has been closed.
+    }
+  }
+
+  private void serve(final Socket socket) {
+    try {
+      DataInputStream input = new DataInputStream(socket.getInputStream());
+      final OutputStream output = socket.getOutputStream();
+      while (true) {
+        byte[] queryData = new byte[input.readUnsignedShort()];
+        input.readFully(queryData);
+        messageCount.incrementAndGet();
+        final byte[] responseData = createResponse(new Message(queryData));
+        responseExecutor.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  synchronized (output) {
+                    output.write(responseData);
+                    output.flush();
+                  }
+                } catch (IOException e) {
+                  // The connection has been closed.
+                }
+              }},
+            latency.getMillis(),
+            TimeUnit.MILLISECONDS);
+      }
+    } catch (EOFException e) {
+      // The client closed the connection.
+    } catch (IOException e) {
+      // The connection has been closed.
+    }
+  }
+
+  private static byte[] createResponse(Message query) {
+    Message response = new Message(query.getHeader().getID());
+    response.getHeader().setOpcode(query.getHeader().getOpcode());
+    response.getHeader().setFlag(Flags.QR);
+    response.getHeader().setRcode(Rcode.NOERROR);
+    byte[] data = response.toWire();
+    ByteBuffer buffer = ByteBuffer.allocate(data.length + 2);
+    buffer.putShort((short) data.length);
+    buffer.put(data);
+    return buffer.array();
+  }
+}
@@ -18,11 +18,22 @@ package google.registry.flows;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.flows.EppXmlTransformer.unmarshal;
 import static google.registry.util.ResourceUtils.readResourceBytes;
+import static google.registry.xml.ValidationMode.LENIENT;
+import static google.registry.xml.ValidationMode.STRICT;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import google.registry.flows.EppXmlTransformer.GenericSyntaxErrorException;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.ShardableTestCase;
+import google.registry.xml.XmlException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -48,4 +59,61 @@ public class EppXmlTransformerTest extends ShardableTestCase {
     EppXmlTransformer.unmarshal(
         EppOutput.class, readResourceBytes(getClass(), "testdata/contact_info.xml").read());
   }
+
+  @Test
+  public void testUnmarshalingAfterSyntaxError_succeeds() throws Exception {
+    try {
+      unmarshal(EppInput.class, "<epp><command>".getBytes(UTF_8));
+      throw new AssertionError("Expected a syntax error");
+    } catch (GenericSyntaxErrorException expected) {
+      // The per-thread unmarshaller must not carry any state over into the next document.
+    }
+    EppInput input = unmarshal(
+        EppInput.class, readResourceBytes(getClass(), "testdata/contact_info.xml").read());
+    assertThat(input.getCommandType()).isEqualTo("info");
+  }
+
+  @Test
+  public void testMarshalingAfterValidationFailure_producesSameOutput() throws Exception {
+    EppInput input = unmarshal(
+        EppInput.class, readResourceBytes(getClass(), "testdata/contact_info.xml").read());
+    byte[] lenient = EppXmlTransformer.marshalInput(input, LENIENT);
+    try {
+      // Marshaling this command back out doesn't satisfy the schema, so strict mode fails.
+      EppXmlTransformer.marshalInput(input, STRICT);
+      throw new AssertionError("Expected a validation failure");
+    } catch (XmlException expected) {
+      // The failed marshaller must be discarded rather than reused.
+    }
+    assertThat(EppXmlTransformer.marshalInput(input, LENIENT)).isEqualTo(lenient);
+  }
+
+  @Test
+  public void testValidatingRepeatedly_succeeds() throws Exception {
+    String xml =
+        readResourceBytes(getClass(), "testdata/contact_info.xml").asCharSource(UTF_8).read();
+    EppXmlTransformer.validateInput(xml);
+    EppXmlTransformer.validateInput(xml);
+  }
+
+  @Test
+  public void testUnmarshalingConcurrently_succeeds() throws Exception {
+    final byte[] xml = readResourceBytes(getClass(), "testdata/contact_info.xml").read();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        results.add(executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return unmarshal(EppInput.class, xml).getCommandType();
+          }}));
+      }
+      for (Future<String> result : results) {
+        assertThat(result.get()).isEqualTo("info");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
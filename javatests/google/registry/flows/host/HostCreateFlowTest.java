@@ -16,6 +16,7 @@ package google.registry.flows.host;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByInetAddress;
 import static google.registry.testing.DatastoreHelper.assertNoBillingEvents;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.createTlds;
@@ -31,6 +32,7 @@ import static google.registry.testing.TaskQueueHelper.assertNoDnsTasksEnqueued;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppXmlTransformer.IpAddressVersionMismatchException;
 import google.registry.flows.ResourceFlowTestCase;
@@ -117,6 +119,13 @@ public class HostCreateFlowTest extends ResourceFlowTestCase<HostCreateFlow, Hos
     assertAboutHosts().that(host).hasSuperordinateDomain(Key.create(superordinateDomain));
     assertThat(superordinateDomain.getSubordinateHosts()).containsExactly("ns1.example.tld");
     assertDnsTasksEnqueued("ns1.example.tld");
+    assertThat(
+            loadHostsByInetAddress(InetAddresses.forString("192.0.2.29"), 10, clock.nowUtc()))
+        .containsExactly(host);
+    assertThat(
+            loadHostsByInetAddress(
+                InetAddresses.forString("1080:0:0:0:8:800:200C:417A"), 10, clock.nowUtc()))
+        .containsExactly(host);
   }
 
   @Test
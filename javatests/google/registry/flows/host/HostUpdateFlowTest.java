@@ -18,6 +18,7 @@ import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_HOST_RENAME;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByInetAddress;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.assertNoBillingEvents;
 import static google.registry.testing.DatastoreHelper.createTld;
@@ -69,6 +70,7 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferData;
@@ -944,6 +946,28 @@ public class HostUpdateFlowTest extends ResourceFlowTestCase<HostUpdateFlow, Hos
     runFlow();
   }
 
+  @Test
+  public void testSuccess_addRemoveInetAddresses_updatesIndex() throws Exception {
+    setEppHostUpdateInput(
+        "ns1.example.tld",
+        "ns2.example.tld",
+        "<host:addr ip=\"v4\">192.0.2.22</host:addr>",
+        "<host:addr ip=\"v6\">1080:0:0:0:8:800:200C:417A</host:addr>");
+    createTld("tld");
+    persistActiveSubordinateHost(oldHostName(), persistActiveDomain("example.tld"));
+    HostResource renamedHost = doSuccessfulTest();
+    assertThat(renamedHost.getInetAddresses())
+        .containsExactly(InetAddresses.forString("192.0.2.22"));
+    assertThat(
+            loadHostsByInetAddress(InetAddresses.forString("192.0.2.22"), 10, clock.nowUtc()))
+        .containsExactly(renamedHost);
+    assertThat(
+            ofy().load().key(HostInetAddressIndex.createKey(
+                InetAddresses.forString("1080:0:0:0:8:800:200C:417A"), Key.create(renamedHost)))
+                .now())
+        .isNull();
+  }
+
   @Test
   public void testSuccess_clientUpdateProhibited_removed() throws Exception {
     setEppInput("host_update_remove_client_update_prohibited.xml");
@@ -14,6 +14,9 @@
 
 package google.registry.flows.poll;
 
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.flows.poll.PollFlowTestUtils.enableQueueLengthCaching;
+import static google.registry.flows.poll.PollFlowTestUtils.getCachedQueueLength;
 import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
@@ -26,6 +29,7 @@ import google.registry.flows.poll.PollAckFlow.InvalidMessageIdException;
 import google.registry.flows.poll.PollAckFlow.MessageDoesNotExistException;
 import google.registry.flows.poll.PollAckFlow.MissingMessageIdException;
 import google.registry.flows.poll.PollAckFlow.NotAuthorizedToAckMessageException;
+import google.registry.flows.poll.PollFlowUtils.QueueLength;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.poll.PollMessage;
@@ -143,6 +147,56 @@ public class PollAckFlowTest extends FlowTestCase<PollAckFlow> {
     runFlowAssertResponse(readFile("poll_ack_response.xml"));
   }
 
+  @Test
+  public void testSuccess_cachingEnabled_countsQueueOnce() throws Exception {
+    enableQueueLengthCaching(inject);
+    for (int i = 0; i < 5; i++) {
+      persistOneTimePollMessage(MESSAGE_ID + i);
+    }
+    runFlowAssertResponse(readFile("poll_ack_response.xml"));
+    assertThat(getCachedQueueLength("NewRegistrar")).isEqualTo(4);
+  }
+
+  @Test
+  public void testSuccess_cachingEnabled_deductsAckFromCachedCount() throws Exception {
+    enableQueueLengthCaching(inject);
+    // The queue was counted when it held five messages, but only the acked one is left.
+    PollFlowUtils.queueLengthCache.put("NewRegistrar", new QueueLength(5));
+    persistOneTimePollMessage(MESSAGE_ID);
+    runFlowAssertResponse(readFile("poll_ack_response.xml"));
+    assertThat(getCachedQueueLength("NewRegistrar")).isEqualTo(4);
+  }
+
+  @Test
+  public void testDryRun_cachingEnabled_doesNotDeductAck() throws Exception {
+    enableQueueLengthCaching(inject);
+    PollFlowUtils.queueLengthCache.put("NewRegistrar", new QueueLength(5));
+    persistOneTimePollMessage(MESSAGE_ID);
+    dryRunFlowAssertResponse(readFile("poll_ack_response.xml"));
+    assertThat(getCachedQueueLength("NewRegistrar")).isEqualTo(5);
+  }
+
+  @Test
+  public void testSuccess_cachingEnabled_lastMessage() throws Exception {
+    enableQueueLengthCaching(inject);
+    PollFlowUtils.queueLengthCache.put("NewRegistrar", new QueueLength(1));
+    persistOneTimePollMessage(MESSAGE_ID);
+    runFlowAssertResponse(readFile("poll_ack_response_empty.xml"));
+    assertThat(getCachedQueueLength("NewRegistrar")).isEqualTo(0);
+  }
+
+  @Test
+  public void testSuccess_cachingEnabled_lastCachedMessage_recountsNewMessages() throws Exception {
+    enableQueueLengthCaching(inject);
+    // The queue was counted when it held only the acked message, but four more have arrived.
+    PollFlowUtils.queueLengthCache.put("NewRegistrar", new QueueLength(1));
+    for (int i = 0; i < 5; i++) {
+      persistOneTimePollMessage(MESSAGE_ID + i);
+    }
+    runFlowAssertResponse(readFile("poll_ack_response.xml"));
+    assertThat(getCachedQueueLength("NewRegistrar")).isEqualTo(4);
+  }
+
   @Test
   public void testFailure_noSuchMessage() throws Exception {
     assertTransactionalFlow(true);
@@ -0,0 +1,37 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows.poll;
+
+import static org.joda.time.Duration.standardMinutes;
+
+import google.registry.testing.InjectRule;
+
+/** Collection of test utility logic for poll flows. */
+class PollFlowTestUtils {
+
+  /** Enables the poll queue length cache, starting it out empty. */
+  static void enableQueueLengthCaching(InjectRule inject) {
+    inject.setStaticField(PollFlowUtils.class, "cachingEnabled", true);
+    inject.setStaticField(
+        PollFlowUtils.class,
+        "queueLengthCache",
+        PollFlowUtils.createQueueLengthCache(standardMinutes(1)));
+  }
+
+  /** Returns the cached poll queue length for the registrar, failing if there is none. */
+  static int getCachedQueueLength(String clientId) {
+    return PollFlowUtils.queueLengthCache.getIfPresent(clientId).get();
+  }
+}
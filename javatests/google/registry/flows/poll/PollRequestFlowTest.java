@@ -14,6 +14,7 @@
 
 package google.registry.flows.poll;
 
+import static google.registry.flows.poll.PollFlowTestUtils.enableQueueLengthCaching;
 import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
@@ -23,6 +24,7 @@ import static google.registry.testing.DatastoreHelper.persistResource;
 
 import com.google.common.collect.ImmutableList;
 import google.registry.flows.FlowTestCase;
+import google.registry.flows.poll.PollFlowUtils.QueueLength;
 import google.registry.flows.poll.PollRequestFlow.UnexpectedMessageIdException;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
@@ -56,8 +58,7 @@ public class PollRequestFlowTest extends FlowTestCase<PollRequestFlow> {
     host = persistActiveHost("ns1.test.example");
   }
 
-  @Test
-  public void testSuccess_domainTransferApproved() throws Exception {
+  private void persistDomainTransferApprovedPollMessage() {
     persistResource(
         new PollMessage.OneTime.Builder()
             .setClientId(getClientIdForFlow())
@@ -74,10 +75,39 @@ public class PollRequestFlowTest extends FlowTestCase<PollRequestFlow> {
                 .build()))
             .setParent(createHistoryEntryForEppResource(domain))
             .build());
+  }
+
+  @Test
+  public void testSuccess_domainTransferApproved() throws Exception {
+    persistDomainTransferApprovedPollMessage();
     assertTransactionalFlow(false);
     runFlowAssertResponse(readFile("poll_response_domain_transfer.xml"));
   }
 
+  @Test
+  public void testSuccess_cachingEnabled_usesCachedCount() throws Exception {
+    enableQueueLengthCaching(inject);
+    PollFlowUtils.queueLengthCache.put("NewRegistrar", new QueueLength(1));
+    persistDomainTransferApprovedPollMessage();
+    // This message arrived after the queue was counted, so it isn't included in the count.
+    persistResource(
+        new PollMessage.OneTime.Builder()
+            .setClientId(getClientIdForFlow())
+            .setEventTime(clock.nowUtc())
+            .setMsg("Domain deleted.")
+            .setParent(createHistoryEntryForEppResource(domain))
+            .build());
+    runFlowAssertResponse(readFile("poll_response_domain_transfer.xml"));
+  }
+
+  @Test
+  public void testSuccess_cachingEnabled_emptyCachedCountRecounted() throws Exception {
+    enableQueueLengthCaching(inject);
+    PollFlowUtils.queueLengthCache.put("NewRegistrar", new QueueLength(0));
+    persistDomainTransferApprovedPollMessage();
+    runFlowAssertResponse(readFile("poll_response_domain_transfer.xml"));
+  }
+
   @Test
   public void testSuccess_contactTransferPending() throws Exception {
     clock.setTo(DateTime.parse("2000-06-13T22:00:00.0Z"));
@@ -16,6 +16,12 @@ package google.registry.keyring.kms;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.persistResources;
+import static org.joda.time.Duration.standardMinutes;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
 import com.google.common.collect.ImmutableList;
 import google.registry.keyring.api.KeySerializer;
 import google.registry.model.server.KmsSecret;
@@ -23,6 +29,7 @@ import google.registry.model.server.KmsSecretRevision;
 import google.registry.model.server.KmsSecretRevision.Builder;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.BouncyCastleProviderRule;
+import google.registry.testing.FakeClock;
 import java.io.IOException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPPrivateKey;
@@ -40,11 +47,13 @@ public class KmsKeyringTest {
 
   @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
 
+  private final KmsConnection kmsConnection = spy(new FakeKmsConnection());
+  private final FakeClock clock = new FakeClock();
   private KmsKeyring keyring;
 
   @Before
   public void setUp() {
-    keyring = new KmsKeyring(new FakeKmsConnection());
+    keyring = new KmsKeyring(kmsConnection, clock, standardMinutes(10));
   }
 
   @Test
@@ -183,6 +192,38 @@ public class KmsKeyringTest {
     assertThat(braintreePrivateKey).isEqualTo("braintree-private-key-stringmoo");
   }
 
+  @Test
+  public void test_secretCached() throws Exception {
+    saveKeyPairSecret("rde-signing-public", "rde-signing-private");
+
+    PGPKeyPair rdeSigningKey = keyring.getRdeSigningKey();
+    clock.advanceBy(standardMinutes(9));
+
+    assertThat(keyring.getRdeSigningKey()).isSameAs(rdeSigningKey);
+    verify(kmsConnection, times(1)).decrypt(anyString(), anyString());
+  }
+
+  @Test
+  public void test_secretCached_newRevisionPickedUp() throws Exception {
+    saveCleartextSecret("marksdb-dnl-login-string");
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("marksdb-dnl-login-stringmoo");
+
+    persistSecret("marksdb-dnl-login-string", KeySerializer.serializeString("rotated"));
+
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("rotated");
+    verify(kmsConnection, times(2)).decrypt(anyString(), anyString());
+  }
+
+  @Test
+  public void test_secretCached_expires() throws Exception {
+    saveCleartextSecret("marksdb-dnl-login-string");
+    keyring.getMarksdbDnlLogin();
+    clock.advanceBy(standardMinutes(10));
+
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("marksdb-dnl-login-stringmoo");
+    verify(kmsConnection, times(2)).decrypt(anyString(), anyString());
+  }
+
   private static void persistSecret(String secretName, byte[] secretValue) throws IOException {
     KmsConnection kmsConnection = new FakeKmsConnection();
 
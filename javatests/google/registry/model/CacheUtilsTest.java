@@ -0,0 +1,145 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.CacheUtils.newRefreshAheadCache;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.testing.FakeTicker;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CacheUtils}. */
+@RunWith(JUnit4.class)
+public class CacheUtilsTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final AtomicInteger loadCount = new AtomicInteger();
+
+  /** Executor that holds on to tasks until the test runs them. */
+  private final Queue<Runnable> pendingTasks = new ArrayDeque<>();
+
+  private final Executor executor =
+      new Executor() {
+        @Override
+        public void execute(Runnable task) {
+          pendingTasks.add(task);
+        }
+      };
+
+  private boolean failLoads = false;
+
+  /** A loader that returns the key and the number of loads so far, or fails if told to. */
+  private final CacheLoader<String, String> loader =
+      new CacheLoader<String, String>() {
+        @Override
+        public String load(String key) {
+          if (failLoads) {
+            throw new IllegalStateException("Load failed");
+          }
+          return key + loadCount.incrementAndGet();
+        }
+      };
+
+  private LoadingCache<String, String> createCache(Duration expiration) {
+    return newRefreshAheadCache("test", expiration, loader, ticker, executor);
+  }
+
+  private void runPendingTasks() {
+    while (!pendingTasks.isEmpty()) {
+      pendingTasks.remove().run();
+    }
+  }
+
+  @Test
+  public void testRefreshAheadCache_loadsSynchronouslyWhenEmpty() throws Exception {
+    LoadingCache<String, String> cache = createCache(Duration.standardSeconds(10));
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(loadCount.get()).isEqualTo(1);
+    assertThat(pendingTasks).isEmpty();
+  }
+
+  @Test
+  public void testRefreshAheadCache_servesOldValueWhileRefreshing() throws Exception {
+    LoadingCache<String, String> cache = createCache(Duration.standardSeconds(10));
+    assertThat(cache.get("a")).isEqualTo("a1");
+    ticker.advance(4, SECONDS);
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(pendingTasks).isEmpty();
+    // Past half of the expiration, a lookup starts a refresh but doesn't wait for it.
+    ticker.advance(2, SECONDS);
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(pendingTasks).hasSize(1);
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(pendingTasks).hasSize(1);
+    runPendingTasks();
+    assertThat(cache.get("a")).isEqualTo("a2");
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testRefreshAheadCache_keepsOldValueWhenRefreshFails() throws Exception {
+    LoadingCache<String, String> cache = createCache(Duration.standardSeconds(10));
+    assertThat(cache.get("a")).isEqualTo("a1");
+    ticker.advance(6, SECONDS);
+    failLoads = true;
+    assertThat(cache.get("a")).isEqualTo("a1");
+    runPendingTasks();
+    assertThat(cache.get("a")).isEqualTo("a1");
+    // The failed refresh is retried on the next lookup.
+    failLoads = false;
+    runPendingTasks();
+    assertThat(cache.get("a")).isEqualTo("a2");
+  }
+
+  @Test
+  public void testRefreshAheadCache_loadsSynchronouslyAfterExpiration() throws Exception {
+    LoadingCache<String, String> cache = createCache(Duration.standardSeconds(10));
+    assertThat(cache.get("a")).isEqualTo("a1");
+    ticker.advance(11, SECONDS);
+    assertThat(cache.get("a")).isEqualTo("a2");
+    assertThat(pendingTasks).isEmpty();
+  }
+
+  @Test
+  public void testRefreshAheadCache_zeroExpirationDisablesCaching() throws Exception {
+    LoadingCache<String, String> cache = createCache(Duration.ZERO);
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(cache.get("a")).isEqualTo("a2");
+    assertThat(pendingTasks).isEmpty();
+  }
+
+  @Test
+  public void testRefreshExecutor_runsInlineOutsideAppEngine() throws Exception {
+    LoadingCache<String, String> cache =
+        newRefreshAheadCache(
+            "test", Duration.standardSeconds(10), loader, ticker, CacheUtils.REFRESH_EXECUTOR);
+    assertThat(cache.get("a")).isEqualTo("a1");
+    ticker.advance(6, SECONDS);
+    // There is no App Engine environment here, so the lookup does the refresh itself.
+    assertThat(cache.get("a")).isEqualTo("a2");
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+}
@@ -16,13 +16,21 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.EppResourceUtils.loadByForeignKeys;
+import static google.registry.model.EppResourceUtils.loadInOneBatch;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.testing.AppEngineRule;
@@ -61,6 +69,36 @@ public class EppResourceUtilsTest {
     inject.setStaticField(Ofy.class, "clock", clock);
   }
 
+  @Test
+  public void testLoadByForeignKeys_omitsMissingAndDeleted_keepsOrder() throws Exception {
+    persistActiveHost("ns1.cat.tld");
+    persistActiveHost("ns2.cat.tld");
+    persistDeletedHost("ns3.cat.tld", clock.nowUtc().minusDays(1));
+    assertThat(
+            loadByForeignKeys(
+                    HostResource.class,
+                    ImmutableList.of("ns2.cat.tld", "ns3.cat.tld", "ns4.cat.tld", "ns1.cat.tld"),
+                    clock.nowUtc())
+                .keySet())
+        .containsExactly("ns2.cat.tld", "ns1.cat.tld")
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadInOneBatch_mixedResourceTypes() throws Exception {
+    HostResource host1 = persistActiveHost("ns1.cat.tld");
+    HostResource host2 = persistActiveHost("ns2.cat.tld");
+    ContactResource contact = persistActiveContact("jd1234");
+    assertThat(
+            loadInOneBatch(
+                ImmutableList.of(Key.create(host1), Key.create(host2)),
+                ImmutableList.of(Key.create(contact))))
+        .containsExactly(
+            Key.create(host1), host1,
+            Key.create(host2), host2,
+            Key.create(contact), contact);
+  }
+
   @Test
   public void testLoadAtPointInTime_beforeCreated_returnsNull() throws Exception {
     clock.advanceOneMilli();
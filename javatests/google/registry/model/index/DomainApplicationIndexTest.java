@@ -18,13 +18,16 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.index.DomainApplicationIndex.createUpdatedInstance;
 import static google.registry.model.index.DomainApplicationIndex.createWithSpecifiedKeys;
 import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistSimpleResource;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import google.registry.model.EntityTestCase;
 import google.registry.model.domain.DomainApplication;
@@ -118,4 +121,30 @@ public class DomainApplicationIndexTest extends EntityTestCase {
     assertThat(loadActiveApplicationsByDomainName("example.com", DateTime.now(UTC)))
         .containsExactly(application1);
   }
+
+  @Test
+  public void testSuccess_batchLoad() {
+    DomainApplication application1 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application2 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application3 = persistSimpleResource(newDomainApplication("other.com"));
+    DomainApplication deletedApplication =
+        persistSimpleResource(
+            newDomainApplication("deleted.com")
+                .asBuilder()
+                .setDeletionTime(clock.nowUtc().minusDays(1))
+                .build());
+    persistResource(createUpdatedInstance(application1));
+    persistResource(createUpdatedInstance(application2));
+    persistResource(createUpdatedInstance(application3));
+    persistResource(createUpdatedInstance(deletedApplication));
+    assertThat(
+            loadActiveApplicationsByDomainNames(
+                ImmutableList.of("example.com", "other.com", "deleted.com", "missing.com"),
+                clock.nowUtc()))
+        .isEqualTo(
+            ImmutableSetMultimap.of(
+                "example.com", application1,
+                "example.com", application2,
+                "other.com", application3));
+  }
 }
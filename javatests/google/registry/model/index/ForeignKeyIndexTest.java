@@ -20,6 +20,7 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static org.joda.time.Duration.standardMinutes;
 
 import com.google.common.collect.ImmutableList;
 import com.googlecode.objectify.Key;
@@ -27,6 +28,7 @@ import google.registry.model.EntityTestCase;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
 import google.registry.testing.ExceptionRule;
+import google.registry.testing.InjectRule;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -37,6 +39,9 @@ public class ForeignKeyIndexTest extends EntityTestCase {
   @Rule
   public final ExceptionRule thrown = new ExceptionRule();
 
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
   @Before
   public void setUp() throws Exception {
     createTld("com");
@@ -106,4 +111,71 @@ public class ForeignKeyIndexTest extends EntityTestCase {
     assertThat(ForeignKeyIndex.load(HostResource.class, "omg", clock.nowUtc()).getForeignKey())
         .isEqualTo("omg");
   }
+
+  private void enableCaching() {
+    inject.setStaticField(ForeignKeyIndex.class, "cachingEnabled", true);
+    inject.setStaticField(
+        ForeignKeyIndex.class,
+        "cacheForeignKeyIndexes",
+        ForeignKeyIndex.createCacheForeignKeyIndexes(standardMinutes(1), 100));
+  }
+
+  @Test
+  public void testLoadCached_cachingDisabled_readsThroughToDatastore() {
+    assertThat(ForeignKeyIndex.loadCached(HostResource.class, "ns1.example.com", clock.nowUtc()))
+        .isNull();
+    persistActiveHost("ns1.example.com");
+    assertThat(ForeignKeyIndex.loadCached(HostResource.class, "ns1.example.com", clock.nowUtc()))
+        .isNotNull();
+  }
+
+  @Test
+  public void testLoadCached_cachesExistingIndex() {
+    enableCaching();
+    HostResource host = persistActiveHost("ns1.example.com");
+    ForeignKeyIndex<HostResource> fki =
+        ForeignKeyIndex.loadCached(HostResource.class, "ns1.example.com", clock.nowUtc());
+    assertThat(fki.getResourceKey()).isEqualTo(Key.create(host));
+    assertThat(ForeignKeyIndex.cacheForeignKeyIndexes.asMap()).hasSize(1);
+  }
+
+  @Test
+  public void testLoadCached_cachesNonexistentIndex() {
+    enableCaching();
+    assertThat(ForeignKeyIndex.loadCached(HostResource.class, "ns1.example.com", clock.nowUtc()))
+        .isNull();
+    persistActiveHost("ns1.example.com");
+    // The negative result is served from the cache until it expires.
+    assertThat(ForeignKeyIndex.loadCached(HostResource.class, "ns1.example.com", clock.nowUtc()))
+        .isNull();
+    assertThat(ForeignKeyIndex.load(HostResource.class, "ns1.example.com", clock.nowUtc()))
+        .isNotNull();
+  }
+
+  @Test
+  public void testLoadCached_respectsDeletionTimeOfCachedIndex() {
+    enableCaching();
+    HostResource host = persistActiveHost("ns1.example.com");
+    persistResource(ForeignKeyIndex.create(host, clock.nowUtc().plusDays(1)));
+    assertThat(ForeignKeyIndex.loadCached(HostResource.class, "ns1.example.com", clock.nowUtc()))
+        .isNotNull();
+    assertThat(
+            ForeignKeyIndex.loadCached(
+                HostResource.class, "ns1.example.com", clock.nowUtc().plusDays(2)))
+        .isNull();
+  }
+
+  @Test
+  public void testBatchLoadCached_skipsDeletedAndNonexistent() {
+    enableCaching();
+    persistActiveHost("ns1.example.com");
+    HostResource host = persistActiveHost("ns2.example.com");
+    persistResource(ForeignKeyIndex.create(host, clock.nowUtc().minusDays(1)));
+    assertThat(ForeignKeyIndex.loadCached(
+        HostResource.class,
+        ImmutableList.of("ns1.example.com", "ns2.example.com", "ns3.example.com"),
+        clock.nowUtc()).keySet())
+            .containsExactly("ns1.example.com");
+    assertThat(ForeignKeyIndex.cacheForeignKeyIndexes.asMap()).hasSize(3);
+  }
 }
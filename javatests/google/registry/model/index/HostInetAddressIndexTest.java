@@ -0,0 +1,271 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.index.HostInetAddressIndex.getSortableAddress;
+import static google.registry.model.index.HostInetAddressIndex.loadHostKeysByInetAddress;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByCidrAddressBlock;
+import static google.registry.model.index.HostInetAddressIndex.loadHostsByInetAddress;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.model.EntityTestCase;
+import google.registry.model.host.HostResource;
+import google.registry.testing.ExceptionRule;
+import google.registry.util.CidrAddressBlock;
+import java.net.InetAddress;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Unit tests for {@link HostInetAddressIndex}. */
+public class HostInetAddressIndexTest extends EntityTestCase {
+
+  private static final InetAddress V4_ADDRESS = InetAddresses.forString("192.0.2.1");
+  private static final InetAddress V6_ADDRESS = InetAddresses.forString("2001:db8::1");
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  HostResource host;
+
+  @Before
+  public void setUp() throws Exception {
+    createTld("tld");
+    // The DatastoreHelper here creates the HostInetAddressIndex entities for us.
+    host = persistHost("ns1.example.tld", "192.0.2.1", "2001:db8::1");
+  }
+
+  private static HostResource persistHost(String hostName, String... addresses) {
+    ImmutableSet.Builder<InetAddress> inetAddresses = new ImmutableSet.Builder<>();
+    for (String address : addresses) {
+      inetAddresses.add(InetAddresses.forString(address));
+    }
+    return persistResource(
+        newHostResource(hostName).asBuilder().setInetAddresses(inetAddresses.build()).build());
+  }
+
+  @Test
+  public void testPersistence() throws Exception {
+    HostInetAddressIndex loadedIndex =
+        ofy().load().key(HostInetAddressIndex.createKey(V4_ADDRESS, Key.create(host))).now();
+    assertThat(Key.create(loadedIndex))
+        .isEqualTo(HostInetAddressIndex.createKey(V4_ADDRESS, Key.create(host)));
+    assertThat(loadedIndex.getHostKey()).isEqualTo(Key.create(host));
+    assertThat(Key.create(loadedIndex).getParent().getKind())
+        .isEqualTo("HostInetAddressIndexGroup");
+    assertThat(Key.create(loadedIndex).getParent().getName()).startsWith("4:c0000201-");
+    assertThat(loadedIndex.getAddress()).isEqualTo("4:c0000201");
+  }
+
+  @Test
+  public void testHostsWithOneAddress_spreadOverShards() throws Exception {
+    ImmutableSet.Builder<Key<?>> groupKeys = new ImmutableSet.Builder<>();
+    for (int i = 0; i < 50; i++) {
+      groupKeys.add(
+          HostInetAddressIndex.createKey(
+                  V4_ADDRESS, Key.create(HostResource.class, String.format("%d-ROID", i)))
+              .getParent());
+    }
+    assertThat(groupKeys.build().size()).isGreaterThan(1);
+  }
+
+  @Test
+  public void testIndexing() throws Exception {
+    verifyIndexing(
+        ofy().load().key(HostInetAddressIndex.createKey(V6_ADDRESS, Key.create(host))).now(),
+        "address");
+  }
+
+  @Test
+  public void testCreateAll_oneEntityPerAddress() throws Exception {
+    assertThat(HostInetAddressIndex.createAll(host))
+        .containsExactly(
+            HostInetAddressIndex.create(V4_ADDRESS, Key.create(host)),
+            HostInetAddressIndex.create(V6_ADDRESS, Key.create(host)));
+    assertThat(ofy().load().keys(HostInetAddressIndex.createKeys(host))).hasSize(2);
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_found() throws Exception {
+    enableReads();
+    HostResource otherHost = persistHost("ns2.example.tld", "192.0.2.1");
+    persistHost("ns3.example.tld", "192.0.2.2");
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 10, clock.nowUtc()))
+        .containsExactly(host, otherHost);
+    assertThat(loadHostsByInetAddress(V6_ADDRESS, 10, clock.nowUtc())).containsExactly(host);
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_manyHosts_allFound() throws Exception {
+    enableReads();
+    ImmutableSet.Builder<HostResource> hosts = new ImmutableSet.Builder<>();
+    hosts.add(host);
+    for (int i = 2; i <= 30; i++) {
+      hosts.add(persistHost(String.format("ns%d.example.tld", i), "192.0.2.1"));
+    }
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 100, clock.nowUtc()))
+        .containsExactlyElementsIn(hosts.build());
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_limit() throws Exception {
+    enableReads();
+    HostResource otherHost = persistHost("ns2.example.tld", "192.0.2.1");
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 1, clock.nowUtc())).hasSize(1);
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 1, clock.nowUtc()))
+        .containsAnyOf(host, otherHost);
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 0, clock.nowUtc())).isEmpty();
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_notFound() throws Exception {
+    enableReads();
+    assertThat(loadHostsByInetAddress(InetAddresses.forString("127.0.0.1"), 10, clock.nowUtc()))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_deletedHost_notFound() throws Exception {
+    enableReads();
+    persistResource(host.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 10, clock.nowUtc())).isEmpty();
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 10, clock.nowUtc().minusDays(2))).hasSize(1);
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_staleIndex_notFound() throws Exception {
+    enableReads();
+    // Saving the host without the address leaves its index entity behind.
+    host = persistResource(
+        host.asBuilder().setInetAddresses(ImmutableSet.of(V6_ADDRESS)).build());
+    assertThat(ofy().load().key(HostInetAddressIndex.createKey(V4_ADDRESS, Key.create(host))).now())
+        .isNotNull();
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 10, clock.nowUtc())).isEmpty();
+    assertThat(loadHostsByInetAddress(V6_ADDRESS, 10, clock.nowUtc())).containsExactly(host);
+  }
+
+  @Test
+  public void testLoadHostKeysByInetAddress() throws Exception {
+    enableReads();
+    HostResource otherHost = persistHost("ns2.example.tld", "192.0.2.1");
+    persistResource(
+        persistHost("ns3.example.tld", "192.0.2.1").asBuilder()
+            .setDeletionTime(clock.nowUtc().minusDays(1))
+            .build());
+    assertThat(loadHostKeysByInetAddress(V4_ADDRESS, clock.nowUtc()))
+        .containsExactly(Key.create(host), Key.create(otherHost));
+    assertThat(loadHostKeysByInetAddress(InetAddresses.forString("127.0.0.1"), clock.nowUtc()))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLoadHostsByCidrAddressBlock_v4() throws Exception {
+    enableReads();
+    HostResource hostInBlock = persistHost("ns2.example.tld", "192.0.2.0");
+    HostResource hostAtEndOfBlock = persistHost("ns3.example.tld", "192.0.2.255");
+    persistHost("ns4.example.tld", "192.0.3.0", "2001:db8::2");
+    assertThat(
+            loadHostsByCidrAddressBlock(
+                CidrAddressBlock.create("192.0.2.0/24"), 10, clock.nowUtc()))
+        .containsExactly(hostInBlock, host, hostAtEndOfBlock)
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadHostsByCidrAddressBlock_v6() throws Exception {
+    enableReads();
+    HostResource otherHost = persistHost("ns2.example.tld", "2001:db8::2");
+    persistHost("ns3.example.tld", "2001:db9::1", "192.0.2.3");
+    assertThat(
+            loadHostsByCidrAddressBlock(
+                CidrAddressBlock.create("2001:db8::/32"), 10, clock.nowUtc()))
+        .containsExactly(host, otherHost)
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadHostsByCidrAddressBlock_hostWithSeveralAddressesFoundOnce() throws Exception {
+    enableReads();
+    HostResource otherHost = persistHost("ns2.example.tld", "192.0.2.2", "192.0.2.3");
+    assertThat(
+            loadHostsByCidrAddressBlock(
+                CidrAddressBlock.create("192.0.2.0/24"), 10, clock.nowUtc()))
+        .containsExactly(host, otherHost)
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadHostsByCidrAddressBlock_limit() throws Exception {
+    enableReads();
+    persistHost("ns2.example.tld", "192.0.2.2");
+    assertThat(
+            loadHostsByCidrAddressBlock(
+                CidrAddressBlock.create("192.0.2.0/24"), 1, clock.nowUtc()))
+        .containsExactly(host);
+  }
+
+  @Test
+  public void testLoadHostsByCidrAddressBlock_deletedHost_notFound() throws Exception {
+    enableReads();
+    persistResource(host.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    assertThat(
+            loadHostsByCidrAddressBlock(
+                CidrAddressBlock.create("192.0.2.0/24"), 10, clock.nowUtc()))
+        .isEmpty();
+  }
+
+  private void enableReads() {
+    inject.setStaticField(HostInetAddressIndex.class, "readsEnabled", true);
+  }
+
+  @Test
+  public void testLoadHostsByInetAddress_readsDisabled_queriesHosts() throws Exception {
+    // Without reads of the index, hosts whose index entities were never written are still found.
+    ofy().deleteWithoutBackup().keys(HostInetAddressIndex.createKeys(host)).now();
+    HostResource otherHost = persistHost("ns2.example.tld", "192.0.2.1");
+    persistResource(
+        persistHost("ns3.example.tld", "192.0.2.1").asBuilder()
+            .setDeletionTime(clock.nowUtc().minusDays(1))
+            .build());
+    assertThat(loadHostsByInetAddress(V4_ADDRESS, 10, clock.nowUtc()))
+        .containsExactly(host, otherHost);
+    assertThat(loadHostKeysByInetAddress(V6_ADDRESS, clock.nowUtc()))
+        .containsExactly(Key.create(host));
+  }
+
+  @Test
+  public void testLoadHostsByCidrAddressBlock_readsDisabled_throws() throws Exception {
+    assertThat(HostInetAddressIndex.isCidrAddressBlockLookupEnabled()).isFalse();
+    thrown.expect(IllegalStateException.class, "Reads of the HostInetAddressIndex are not enabled");
+    loadHostsByCidrAddressBlock(CidrAddressBlock.create("192.0.2.0/24"), 10, clock.nowUtc());
+  }
+
+  @Test
+  public void testGetSortableAddress() throws Exception {
+    assertThat(getSortableAddress(InetAddresses.forString("9.0.0.1")))
+        .isLessThan(getSortableAddress(InetAddresses.forString("10.0.0.1")));
+    assertThat(getSortableAddress(InetAddresses.forString("255.255.255.255")))
+        .isLessThan(getSortableAddress(InetAddresses.forString("::")));
+    assertThat(getSortableAddress(V6_ADDRESS))
+        .isEqualTo("6:20010db8000000000000000000000001");
+  }
+}
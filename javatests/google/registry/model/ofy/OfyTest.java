@@ -51,7 +51,9 @@ import google.registry.testing.DatastoreHelper;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.util.SystemClock;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -324,6 +326,84 @@ public class OfyTest {
     ofy().transactCommitLoggedWork(commitLoggedWork);
   }
 
+  /** Returns an action which records the given value when run. */
+  private static Runnable recordingAction(final List<Integer> record, final int value) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        record.add(value);
+      }};
+  }
+
+  @Test
+  public void testAfterCommit_runsOnceTransactionCommits() {
+    final List<Integer> record = new ArrayList<>();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().afterCommit(recordingAction(record, 1));
+        ofy().afterCommit(recordingAction(record, 2));
+        assertThat(record).isEmpty();
+      }});
+    assertThat(record).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void testAfterCommit_retriedTransaction_runsOnlyFinalAttempt() {
+    final List<Integer> record = new ArrayList<>();
+    ofy().transact(new VoidWork() {
+
+      int count = 0;
+
+      @Override
+      public void vrun() {
+        count++;
+        ofy().afterCommit(recordingAction(record, count));
+        if (count < 3) {
+          throw new TransientFailureException("");
+        }
+      }});
+    assertThat(record).containsExactly(3);
+  }
+
+  @Test
+  public void testAfterCommit_failedTransaction_doesNotRun() {
+    final List<Integer> record = new ArrayList<>();
+    try {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          ofy().afterCommit(recordingAction(record, 1));
+          throw new IllegalStateException();
+        }});
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(record).isEmpty();
+    }
+  }
+
+  @Test
+  public void testAfterCommit_nestedTransaction_runsWhenOuterTransactionCommits() {
+    final List<Integer> record = new ArrayList<>();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().transact(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().afterCommit(recordingAction(record, 1));
+          }});
+        assertThat(record).isEmpty();
+      }});
+    assertThat(record).containsExactly(1);
+  }
+
+  @Test
+  public void testFailure_afterCommit_outsideTransaction() {
+    thrown.expect(IllegalStateException.class, "Must be called in a transaction");
+    ofy().afterCommit(recordingAction(new ArrayList<Integer>(), 1));
+  }
+
   void doReadOnlyRetryTest(final RuntimeException e) {
     assertThat(ofy().transactNewReadOnly(new Work<Integer>() {
 
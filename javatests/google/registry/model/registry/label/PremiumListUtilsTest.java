@@ -26,6 +26,7 @@ import static google.registry.model.registry.label.DomainLabelMetrics.premiumLis
 import static google.registry.model.registry.label.PremiumListUtils.deletePremiumList;
 import static google.registry.model.registry.label.PremiumListUtils.doesPremiumListExist;
 import static google.registry.model.registry.label.PremiumListUtils.getPremiumPrice;
+import static google.registry.model.registry.label.PremiumListUtils.prefetchPremiumPrices;
 import static google.registry.model.registry.label.PremiumListUtils.savePremiumListAndEntries;
 import static google.registry.monitoring.metrics.contrib.EventMetricSubject.assertThat;
 import static google.registry.monitoring.metrics.contrib.IncrementableMetricSubject.assertThat;
@@ -169,6 +170,30 @@ public class PremiumListUtilsTest {
     assertMetricOutcomeCount(1, BLOOM_FILTER_NEGATIVE);
   }
 
+  @Test
+  public void testPrefetchPremiumPrices_populatesCache() throws Exception {
+    PremiumList pl = PremiumList.get("tld").get();
+    prefetchPremiumPrices(ImmutableList.of("rich", "lol", "missingno"), Registry.get("tld"));
+    Key<PremiumListRevision> revisionKey = pl.getRevisionKey();
+    assertThat(PremiumList.cachePremiumListEntries.asMap().keySet())
+        .containsExactly(
+            Key.create(revisionKey, PremiumListEntry.class, "rich"),
+            Key.create(revisionKey, PremiumListEntry.class, "lol"));
+    assertThat(getPremiumPrice("rich", Registry.get("tld"))).hasValue(Money.parse("USD 1999"));
+    assertThat(getPremiumPrice("lol", Registry.get("tld"))).hasValue(Money.parse("USD 999"));
+    assertThat(premiumListChecks)
+        .hasValueForLabels(2, "tld", "tld", CACHED_POSITIVE.toString())
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testPrefetchPremiumPrices_noPremiumListConfigured_doesNothing() throws Exception {
+    persistResource(Registry.get("tld").asBuilder().setPremiumList(null).build());
+    prefetchPremiumPrices(ImmutableList.of("rich"), Registry.get("tld"));
+    assertThat(PremiumList.cachePremiumListEntries.asMap()).isEmpty();
+  }
+
   @Test
   public void testGetPremiumPrice_cachedSecondTime() throws Exception {
     assertThat(getPremiumPrice("rich", Registry.get("tld"))).hasValue(Money.parse("USD 1999"));
@@ -27,6 +27,7 @@ import google.registry.model.tmch.ClaimsListShard.UnshardedSaveException;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.InjectRule;
+import google.registry.util.CompactStringMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -89,6 +90,7 @@ public class ClaimsListShardTest {
     ClaimsListShard unsharded = ClaimsListShard.create(now, ImmutableMap.copyOf(labelsToKeys));
     unsharded.save();
     assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().labelsToKeys).isInstanceOf(CompactStringMap.class);
     List<ClaimsListShard> shards1 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards1).hasSize(4);
     assertThat(ClaimsListShard.get().getClaimKey("1")).isEqualTo("1");
@@ -112,6 +114,21 @@ public class ClaimsListShardTest {
     assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(shards2.get(0).parent);
   }
 
+  @Test
+  public void test_savesAndGets_withSeveralBatchesOfShards() throws Exception {
+    assertThat(ClaimsListShard.getCurrentCreationTime()).isNull();
+    Map<String, String> labelsToKeys = new HashMap<>();
+    for (int i = 0; i < ClaimsListShard.shardSize * ClaimsListShard.SHARDS_PER_BATCH * 2 + 1; i++) {
+      labelsToKeys.put(Integer.toString(i), Integer.toString(i));
+    }
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.copyOf(labelsToKeys)).save();
+    assertThat(ofy().load().type(ClaimsListShard.class).list())
+        .hasSize(ClaimsListShard.SHARDS_PER_BATCH * 2 + 1);
+    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(labelsToKeys);
+    assertThat(ClaimsListShard.getCurrentCreationTime()).isEqualTo(now);
+  }
+
   /**
    * Returns a created claims list shard with the specified parent key for testing purposes only.
    */
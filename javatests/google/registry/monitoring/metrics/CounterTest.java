@@ -184,4 +184,44 @@ public class CounterTest {
             MetricPoint.create(
                 counter, ImmutableList.of("moo"), new Instant(1338), new Instant(1400), 5L));
   }
+
+  @Test
+  public void testForLabels_incrementsValues() {
+    Counter counter =
+        new Counter(
+            "/metric",
+            "description",
+            "vdn",
+            ImmutableSet.of(LabelDescriptor.create("label1", "bar")));
+    IncrementableMetric.Incrementer incrementer = counter.forLabels("test_value1");
+
+    assertThat(counter.getCardinality()).isEqualTo(0);
+
+    counter.incrementBy(1, new Instant(1337), ImmutableList.of("test_value1"));
+    incrementer.increment();
+    incrementer.incrementBy(5);
+    assertThat(counter.getTimestampedValues(new Instant(1337)))
+        .containsExactly(
+            MetricPoint.create(counter, ImmutableList.of("test_value1"), new Instant(1337), 7L));
+
+    counter.reset(new Instant(1338));
+    incrementer.increment();
+    assertThat(counter.getTimestampedValues(new Instant(1338)))
+        .containsExactly(
+            MetricPoint.create(counter, ImmutableList.of("test_value1"), new Instant(1338), 1L));
+  }
+
+  @Test
+  public void testForLabels_negativeOffset_throwsException() {
+    Counter counter =
+        new Counter(
+            "/metric",
+            "description",
+            "vdn",
+            ImmutableSet.of(LabelDescriptor.create("label1", "bar")));
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The offset provided must be non-negative");
+    counter.forLabels("foo").incrementBy(-1L);
+  }
 }
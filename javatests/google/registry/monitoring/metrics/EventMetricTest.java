@@ -314,4 +314,65 @@ public class EventMetricTest {
                         .build(),
                     distributionFitter)));
   }
+
+  @Test
+  public void testForLabels_recordsToDistribution() {
+    EventMetric.Recorder recorder = metric.forLabels("test_value1");
+
+    assertThat(metric.getCardinality()).isEqualTo(0);
+
+    metric.recordMultiple(1.0, 1, new Instant(1337), ImmutableList.of("test_value1"));
+    recorder.record(10.0);
+
+    assertThat(metric.getTimestampedValues(new Instant(1338)))
+        .containsExactly(
+            MetricPoint.create(
+                metric,
+                ImmutableList.of("test_value1"),
+                new Instant(1337),
+                new Instant(1338),
+                ImmutableDistribution.create(
+                    5.5,
+                    40.5,
+                    2L,
+                    ImmutableRangeMap.<Double, Long>builder()
+                        .put(Range.lessThan(5.0), 1L)
+                        .put(Range.atLeast(5.0), 1L)
+                        .build(),
+                    distributionFitter)));
+  }
+
+  @Test
+  public void testForLabels_recordsAfterReset() {
+    EventMetric.Recorder recorder = metric.forLabels("test_value1");
+    recorder.record(1.0);
+    metric.reset(new Instant(1337));
+    recorder.record(7.0, 2);
+
+    assertThat(metric.getTimestampedValues(new Instant(1338)))
+        .containsExactly(
+            MetricPoint.create(
+                metric,
+                ImmutableList.of("test_value1"),
+                new Instant(1337),
+                new Instant(1338),
+                ImmutableDistribution.create(
+                    7.0,
+                    0.0,
+                    2L,
+                    ImmutableRangeMap.<Double, Long>builder()
+                        .put(Range.lessThan(5.0), 0L)
+                        .put(Range.atLeast(5.0), 2L)
+                        .build(),
+                    distributionFitter)));
+  }
+
+  @Test
+  public void testForLabels_wrongLabelValueCount_throwsException() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage(
+        "The count of labelValues must be equal to the underlying Metric's count of labels.");
+
+    metric.forLabels("blah", "blah");
+  }
 }
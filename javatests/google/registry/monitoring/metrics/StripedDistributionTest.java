@@ -0,0 +1,163 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableRangeMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link StripedDistribution} */
+@RunWith(JUnit4.class)
+public class StripedDistributionTest {
+
+  private final DistributionFitter distributionFitter =
+      CustomFitter.create(ImmutableSet.of(3.0, 5.0));
+  private StripedDistribution distribution;
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() throws Exception {
+    distribution = new StripedDistribution(distributionFitter);
+  }
+
+  @Test
+  public void testSnapshot_empty() {
+    assertThat(distribution.snapshot())
+        .isEqualTo(
+            ImmutableDistribution.create(
+                0.0,
+                0.0,
+                0L,
+                ImmutableRangeMap.<Double, Long>builder()
+                    .put(Range.lessThan(3.0), 0L)
+                    .put(Range.closedOpen(3.0, 5.0), 0L)
+                    .put(Range.atLeast(5.0), 0L)
+                    .build(),
+                distributionFitter));
+  }
+
+  @Test
+  public void testAdd_matchesMutableDistribution() {
+    MutableDistribution expected = new MutableDistribution(distributionFitter);
+    double[] values = {-1.0, 0.0, 3.0, 4.5, 5.0, 100.0};
+    for (double value : values) {
+      distribution.add(value, 2);
+      expected.add(value, 2);
+    }
+
+    assertThat(distribution.snapshot()).isEqualTo(ImmutableDistribution.copyOf(expected));
+  }
+
+  @Test
+  public void testAdd_boundaryValue_countsInUpperInterval() {
+    distribution.add(3.0, 1);
+
+    assertThat(distribution.snapshot().intervalCounts())
+        .isEqualTo(
+            ImmutableRangeMap.<Double, Long>builder()
+                .put(Range.lessThan(3.0), 0L)
+                .put(Range.closedOpen(3.0, 5.0), 1L)
+                .put(Range.atLeast(5.0), 0L)
+                .build());
+  }
+
+  @Test
+  public void testAdd_fromManyThreads_mergesStripes() throws Exception {
+    int threadCount = StripedDistribution.STRIPE_COUNT * 2;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        final double value = i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (int j = 0; j < 1000; j++) {
+              distribution.add(value, 1);
+            }
+            return null;
+          }}));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Each of the values 0..n-1 was recorded 1000 times.
+    double n = threadCount;
+    ImmutableDistribution snapshot = distribution.snapshot();
+    assertThat(snapshot.count()).isEqualTo(threadCount * 1000L);
+    assertThat(snapshot.mean()).isWithin(1e-9).of((n - 1) / 2);
+    assertThat(snapshot.sumOfSquaredDeviation()).isWithin(1e-6).of(1000 * n * (n * n - 1) / 12);
+    assertThat(snapshot.intervalCounts())
+        .isEqualTo(
+            ImmutableRangeMap.<Double, Long>builder()
+                .put(Range.lessThan(3.0), 3000L)
+                .put(Range.closedOpen(3.0, 5.0), 2000L)
+                .put(Range.atLeast(5.0), (threadCount - 5) * 1000L)
+                .build());
+  }
+
+  @Test
+  public void testReset_clearsAllStripes() {
+    distribution.add(4.0, 3);
+    distribution.reset();
+    distribution.add(1.0, 1);
+
+    assertThat(distribution.snapshot())
+        .isEqualTo(
+            ImmutableDistribution.create(
+                1.0,
+                0.0,
+                1L,
+                ImmutableRangeMap.<Double, Long>builder()
+                    .put(Range.lessThan(3.0), 1L)
+                    .put(Range.closedOpen(3.0, 5.0), 0L)
+                    .put(Range.atLeast(5.0), 0L)
+                    .build(),
+                distributionFitter));
+  }
+
+  @Test
+  public void testAdd_zeroSamples_throwsException() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("numSamples must be greater than 0");
+    distribution.add(1.0, 0);
+  }
+
+  @Test
+  public void testAdd_NaN_throwsException() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("value must be finite, not NaN, and not -0.0");
+    distribution.add(Double.NaN, 1);
+  }
+}
@@ -0,0 +1,189 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Batch;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Row;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.InjectRule;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BigQueryMetricsBuffer}. */
+@RunWith(JUnit4.class)
+public class BigQueryMetricsBufferTest {
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final IncrementableMetric droppedRows = mock(IncrementableMetric.class);
+  private final DateTime now = DateTime.parse("2000-01-01TZ");
+  private final BigQueryMetricsBuffer buffer =
+      new BigQueryMetricsBuffer(3, Duration.standardSeconds(10), 6);
+
+  @Before
+  public void setUp() {
+    inject.setStaticField(BigQueryMetricsBuffer.class, "droppedRows", droppedRows);
+  }
+
+  private ImmutableList<Batch> add(String tableId, int id, DateTime time) {
+    return buffer.add(tableId, "id" + id, ImmutableMap.of("field", "value" + id), time);
+  }
+
+  private static List<String> getInsertIds(Batch batch) {
+    List<String> insertIds = new ArrayList<>();
+    for (Row row : batch.rows()) {
+      insertIds.add(row.insertId());
+    }
+    return insertIds;
+  }
+
+  @Test
+  public void testAdd_encodesRowAsJson() throws Exception {
+    buffer.add("table", "id", ImmutableMap.of("a", "1", "b", "two \"quoted\""), now);
+    ImmutableList<Batch> batches = add("other", 1, now.plusSeconds(10));
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0).rows().get(0).json())
+        .isEqualTo("{\"a\":\"1\",\"b\":\"two \\\"quoted\\\"\"}");
+  }
+
+  @Test
+  public void testAdd_fullBatch_returned() throws Exception {
+    assertThat(add("table", 0, now)).isEmpty();
+    assertThat(add("table", 1, now)).isEmpty();
+    ImmutableList<Batch> batches = add("table", 2, now);
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0).tableId()).isEqualTo("table");
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id0", "id1", "id2").inOrder();
+    // The buffer is now empty.
+    assertThat(add("table", 3, now)).isEmpty();
+  }
+
+  @Test
+  public void testAdd_staleRows_returnedAsPartialBatch() throws Exception {
+    assertThat(add("table", 0, now)).isEmpty();
+    ImmutableList<Batch> batches = add("table", 1, now.plusSeconds(10));
+
+    assertThat(batches).hasSize(1);
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id0", "id1").inOrder();
+  }
+
+  @Test
+  public void testAdd_freshRows_notReturned() throws Exception {
+    add("table", 0, now);
+    assertThat(add("table", 1, now.plusSeconds(10).minusMillis(1))).isEmpty();
+  }
+
+  @Test
+  public void testAdd_staleRowsInOtherTable_returned() throws Exception {
+    add("quiet", 0, now);
+    ImmutableList<Batch> batches = add("busy", 1, now.plusSeconds(10));
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0).tableId()).isEqualTo("quiet");
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id0");
+  }
+
+  @Test
+  public void testAdd_largeRows_batchedByTaskSize() throws Exception {
+    String largeValue = Strings.repeat("x", 40000);
+    buffer.add("table", "id0", ImmutableMap.of("field", largeValue), now);
+    buffer.add("table", "id1", ImmutableMap.of("field", largeValue), now);
+    ImmutableList<Batch> batches =
+        buffer.add("table", "id2", ImmutableMap.of("field", largeValue), now);
+
+    // Only two rows fit in each push task.
+    assertThat(batches).hasSize(1);
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id0", "id1").inOrder();
+  }
+
+  @Test
+  public void testAdd_bufferFull_rowDropped() throws Exception {
+    add("table", 0, now);
+    add("table", 1, now);
+    buffer.restore(add("table", 2, now).get(0), now);
+    for (int i = 3; i < 6; i++) {
+      assertThat(add("table", i, now)).isEmpty();
+    }
+    verifyZeroInteractions(droppedRows);
+
+    assertThat(add("table", 6, now)).isEmpty();
+    verify(droppedRows).increment("table", "BUFFER_FULL");
+  }
+
+  @Test
+  public void testRestore_heldUntilRetryTime_thenReturnedFirst() throws Exception {
+    add("table", 0, now);
+    add("table", 1, now);
+    buffer.restore(add("table", 2, now).get(0), now.plusSeconds(1));
+
+    assertThat(add("table", 3, now.plusSeconds(5))).isEmpty();
+    ImmutableList<Batch> batches = add("table", 4, now.plusSeconds(11));
+
+    assertThat(batches).hasSize(1);
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id0", "id1", "id2").inOrder();
+    batches = add("other", 5, now.plusSeconds(15));
+    assertThat(batches).hasSize(1);
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id3", "id4").inOrder();
+  }
+
+  @Test
+  public void testRestore_noRoom_newestRowsDropped() throws Exception {
+    add("table", 0, now);
+    add("table", 1, now);
+    Batch first = add("table", 2, now).get(0);
+    add("table", 3, now);
+    add("table", 4, now);
+    Batch second = add("table", 5, now).get(0);
+    buffer.restore(first, now);
+    add("table", 6, now);
+    // Only two of the second batch's rows fit back in the buffer.
+    buffer.restore(second, now);
+
+    verify(droppedRows).incrementBy(1, "table", "SEND_FAILED");
+    ImmutableList<Batch> batches = add("other", 7, now.plusSeconds(10));
+    assertThat(batches).hasSize(2);
+    assertThat(getInsertIds(batches.get(0))).containsExactly("id3", "id4", "id0").inOrder();
+    assertThat(getInsertIds(batches.get(1))).containsExactly("id1", "id2", "id6").inOrder();
+  }
+
+  @Test
+  public void testFailure_maxBufferedRowsSmallerThanBatchSize() throws Exception {
+    thrown.expect(
+        IllegalArgumentException.class, "Maximum buffered rows must be at least the batch size");
+    new BigQueryMetricsBuffer(10, Duration.standardSeconds(10), 5);
+  }
+}
@@ -18,19 +18,28 @@ import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static google.registry.bigquery.BigqueryUtils.toBigqueryTimestamp;
 import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.QUEUE_BIGQUERY_STREAMING_METRICS;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.appengine.api.modules.ModulesService;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -53,19 +62,46 @@ public class BigQueryMetricsEnqueuerTest {
       .build();
 
   private final ModulesService modulesService = mock(ModulesService.class);
+  private final FakeClock clock = new FakeClock(DateTime.parse("1984-12-18TZ"));
 
   private BigQueryMetricsEnqueuer enqueuer;
 
   @Before
   public void setUp() {
-    enqueuer = new BigQueryMetricsEnqueuer();
+    enqueuer = createEnqueuer(1);
     enqueuer.idGenerator = Suppliers.ofInstance("laffo");
-    enqueuer.modulesService = modulesService;
-    enqueuer.queue = getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
     when(modulesService.getVersionHostname(Matchers.anyString(), Matchers.anyString()))
         .thenReturn("1.backend.test.localhost");
   }
 
+  private BigQueryMetricsEnqueuer createEnqueuer(int batchSize) {
+    BigQueryMetricsEnqueuer enqueuer = new BigQueryMetricsEnqueuer();
+    enqueuer.idGenerator = new Supplier<String>() {
+      private int nextId = 0;
+
+      @Override
+      public String get() {
+        return "id" + nextId++;
+      }
+    };
+    enqueuer.modulesService = modulesService;
+    enqueuer.queue = getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
+    enqueuer.buffer =
+        new BigQueryMetricsBuffer(batchSize, Duration.standardSeconds(10), batchSize * 2);
+    enqueuer.clock = clock;
+    return enqueuer;
+  }
+
+  private static TestMetric createMetric(int millis) {
+    return TestMetric.create(
+        DateTime.parse("1984-12-18TZ"), DateTime.parse("1984-12-18TZ").plusMillis(millis));
+  }
+
+  private static String encodeRow(int millis) {
+    return String.format(
+        "{\"startTime\":\"472176000.000000\",\"endTime\":\"472176000.%03d000\"}", millis);
+  }
+
   @Test
   public void testExport() throws Exception {
     TestMetric metric =
@@ -79,9 +115,86 @@ public class BigQueryMetricsEnqueuerTest {
             .url("/_dr/task/metrics")
             .header("Host", "1.backend.test.localhost")
             .param("tableId", "test")
-            .param("startTime", "472176000.000000")
-            .param("endTime", "472176000.001000")
-            .param("insertId", "laffo"));
+            .param("insertId", "laffo")
+            .param("row", encodeRow(1)));
+  }
+
+  @Test
+  public void testExport_batchesRows() throws Exception {
+    enqueuer = createEnqueuer(3);
+    for (int i = 1; i <= 7; i++) {
+      enqueuer.export(createMetric(i));
+    }
+
+    assertTasksEnqueued("bigquery-streaming-metrics",
+        new TaskMatcher()
+            .url("/_dr/task/metrics")
+            .header("Host", "1.backend.test.localhost")
+            .param("tableId", "test")
+            .param("insertId", "id0")
+            .param("row", encodeRow(1))
+            .param("insertId", "id1")
+            .param("row", encodeRow(2))
+            .param("insertId", "id2")
+            .param("row", encodeRow(3)),
+        new TaskMatcher()
+            .url("/_dr/task/metrics")
+            .header("Host", "1.backend.test.localhost")
+            .param("tableId", "test")
+            .param("insertId", "id3")
+            .param("row", encodeRow(4))
+            .param("insertId", "id4")
+            .param("row", encodeRow(5))
+            .param("insertId", "id5")
+            .param("row", encodeRow(6)));
+  }
+
+  @Test
+  public void testExport_staleRowsSentInPartialBatch() throws Exception {
+    enqueuer = createEnqueuer(3);
+    enqueuer.export(createMetric(1));
+    clock.advanceBy(Duration.standardSeconds(10));
+    enqueuer.export(createMetric(2));
+
+    assertTasksEnqueued("bigquery-streaming-metrics",
+        new TaskMatcher()
+            .url("/_dr/task/metrics")
+            .param("tableId", "test")
+            .param("insertId", "id0")
+            .param("row", encodeRow(1))
+            .param("insertId", "id1")
+            .param("row", encodeRow(2)));
+  }
+
+  @Test
+  public void testExport_transientFailure_rowsSentLaterWithSameInsertIds() throws Exception {
+    enqueuer = createEnqueuer(2);
+    Queue failingQueue = mock(Queue.class);
+    doThrow(new TransientFailureException("Queue is busy"))
+        .when(failingQueue)
+        .add(any(TaskOptions.class));
+    enqueuer.queue = failingQueue;
+    enqueuer.export(createMetric(1));
+    enqueuer.export(createMetric(2));
+    verify(failingQueue).add(any(TaskOptions.class));
+
+    // Nothing is retried until the buffer age has passed, even though a batch is ready.
+    enqueuer.queue = getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
+    enqueuer.export(createMetric(3));
+    clock.advanceBy(Duration.standardSeconds(10));
+    enqueuer.export(createMetric(4));
+
+    assertTasksEnqueued("bigquery-streaming-metrics",
+        new TaskMatcher()
+            .param("insertId", "id0")
+            .param("row", encodeRow(1))
+            .param("insertId", "id1")
+            .param("row", encodeRow(2)),
+        new TaskMatcher()
+            .param("insertId", "id2")
+            .param("row", encodeRow(3))
+            .param("insertId", "id3")
+            .param("row", encodeRow(4)));
   }
 
   /** A stub implementation of {@link BigQueryMetric}. */
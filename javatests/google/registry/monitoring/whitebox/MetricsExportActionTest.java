@@ -14,8 +14,10 @@
 
 package google.registry.monitoring.whitebox;
 
+import static com.google.common.truth.Truth.assertThat;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,10 +35,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import google.registry.bigquery.BigqueryFactory;
 import google.registry.testing.AppEngineRule;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -115,4 +119,30 @@ public class MetricsExportActionTest {
     response.setInsertErrors(ImmutableList.of(new InsertErrors()));
     action.run();
   }
+
+  @Test
+  public void testSuccess_batchedRows() throws Exception {
+    when(insertAll.execute()).thenReturn(response);
+    action.insertId = "id1";
+    action.parameters =
+        new ImmutableListMultimap.Builder<String, String>()
+            .put("tableId", "eppMetrics")
+            .put("insertId", "id1")
+            .put("row", "{\"tld\":\"foo\",\"status\":\"success\"}")
+            .put("insertId", "id2")
+            .put("row", "{\"tld\":\"bar\",\"status\":\"failure\"}")
+            .build();
+    action.run();
+
+    ArgumentCaptor<TableDataInsertAllRequest> request =
+        ArgumentCaptor.forClass(TableDataInsertAllRequest.class);
+    verify(tabledata)
+        .insertAll(eq("project id"), eq("metrics"), eq("eppMetrics"), request.capture());
+    List<TableDataInsertAllRequest.Rows> rows = request.getValue().getRows();
+    assertThat(rows).hasSize(2);
+    assertThat(rows.get(0).getInsertId()).isEqualTo("id1");
+    assertThat(rows.get(0).getJson()).containsExactly("tld", "foo", "status", "success");
+    assertThat(rows.get(1).getInsertId()).isEqualTo("id2");
+    assertThat(rows.get(1).getJson()).containsExactly("tld", "bar", "status", "failure");
+  }
 }
@@ -21,6 +21,7 @@ import static google.registry.request.Action.Method.HEAD;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.TestDataHelper.loadFileWithSubstitutions;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.model.ofy.Ofy;
@@ -78,6 +79,18 @@ public class RdapActionBaseTest {
       if (pathSearchString.equals("RuntimeException")) {
         throw new RuntimeException();
       }
+      if (pathSearchString.equals("RenderingException")) {
+        return ImmutableMap.<String, Object>of(
+            "results",
+            RdapSearchResults.create(
+                ImmutableList.<Supplier<ImmutableMap<String, Object>>>of(
+                    new Supplier<ImmutableMap<String, Object>>() {
+                      @Override
+                      public ImmutableMap<String, Object> get() {
+                        throw new RuntimeException();
+                      }}))
+                .jsonList());
+      }
       ImmutableMap.Builder<String, Object> builder = new ImmutableMap.Builder<>();
       builder.put("key", "value");
       rdapJsonFormatter.addTopLevelEntries(
@@ -135,6 +148,15 @@ public class RdapActionBaseTest {
     assertThat(response.getStatus()).isEqualTo(500);
   }
 
+  @Test
+  public void testRuntimeExceptionWhileRendering_returns500Error() throws Exception {
+    assertThat(generateActualJson("RenderingException")).isEqualTo(JSONValue.parse(
+        "{\"lang\":\"en\", \"errorCode\":500, \"title\":\"Internal Server Error\","
+        + "\"rdapConformance\":[\"rdap_level_0\"],"
+        + "\"description\":[\"An error was encountered\"]}"));
+    assertThat(response.getStatus()).isEqualTo(500);
+  }
+
   @Test
   public void testValidName_works() throws Exception {
     assertThat(generateActualJson("no.thing")).isEqualTo(JSONValue.parse(
@@ -124,7 +124,6 @@ public class RdapDomainSearchActionTest {
         action.nsIpParam = Optional.absent();
         break;
     }
-    action.rdapResultSetMaxSize = 4;
     action.run();
     return JSONValue.parse(response.getPayload());
   }
@@ -331,8 +330,10 @@ public class RdapDomainSearchActionTest {
     action.request = request;
     action.response = response;
     action.rdapJsonFormatter = RdapTestHelper.getTestRdapJsonFormatter();
+    action.rdapResultSetMaxSize = 4;
     action.rdapLinkBase = "https://example.com/rdap/";
     action.rdapWhoisServer = null;
+    action.cursorParam = Optional.absent();
     action.sessionUtils = sessionUtils;
     action.authResult = AuthResult.create(AuthLevel.USER, userAuthInfo);
     when(sessionUtils.checkRegistrarConsoleLogin(request, userAuthInfo)).thenReturn(true);
@@ -678,6 +679,7 @@ public class RdapDomainSearchActionTest {
             .put("DOMAINHANDLE3", domainHandle3)
             .put("DOMAINNAME4", domainName4)
             .put("DOMAINHANDLE4", domainHandle4)
+            .put("NEXTCURSOR", RdapActionBase.encodeCursor(domainName4))
             .build()));
   }
 
@@ -717,11 +719,15 @@ public class RdapDomainSearchActionTest {
       throws Exception {
     // This is not exactly desired behavior, but expected: There are enough domains to fill a full
     // result set, but there are so many deleted domains that we run out of patience before we work
-    // our way through all of them.
+    // our way through all of them. The results are marked as truncated, with a cursor to carry on.
     createManyDomainsAndHosts(4, 50, 2);
     Object obj = generateActualJson(RequestType.NAME, "domain*.lol");
     assertThat(response.getStatus()).isEqualTo(200);
     checkNumberOfDomainsInResult(obj, 3);
+    assertThat(response.getPayload()).contains("Search Policy");
+    assertThat(response.getPayload()).contains("paging_metadata");
+    assertThat(((Map<?, ?>) obj).get("rdapConformance"))
+        .isEqualTo(ImmutableList.of("rdap_level_0", "paging"));
   }
 
   @Test
@@ -746,7 +752,7 @@ public class RdapDomainSearchActionTest {
     createManyDomainsAndHosts(5, 1, 2);
     assertThat(generateActualJson(RequestType.NAME, "domain*.lol"))
         .isEqualTo(readMultiDomainFile(
-            "rdap_truncated_domains.json",
+            "rdap_paged_domains.json",
             "domain1.lol",
             "41-LOL",
             "domain2.lol",
@@ -765,7 +771,7 @@ public class RdapDomainSearchActionTest {
     createManyDomainsAndHosts(9, 1, 2);
     assertThat(generateActualJson(RequestType.NAME, "domain*.lol"))
         .isEqualTo(readMultiDomainFile(
-            "rdap_truncated_domains.json",
+            "rdap_paged_domains.json",
             "domain1.lol",
             "41-LOL",
             "domain2.lol",
@@ -782,7 +788,7 @@ public class RdapDomainSearchActionTest {
     createManyDomainsAndHosts(5, 6, 2);
     assertThat(generateActualJson(RequestType.NAME, "domain*.lol"))
         .isEqualTo(readMultiDomainFile(
-            "rdap_truncated_domains.json",
+            "rdap_paged_domains.json",
             "domain12.lol",
             "4C-LOL",
             "domain18.lol",
@@ -794,6 +800,56 @@ public class RdapDomainSearchActionTest {
     assertThat(response.getStatus()).isEqualTo(200);
   }
 
+  @SuppressWarnings("unchecked")
+  private static ImmutableList<String> getDomainNamesInResult(Object obj) {
+    ImmutableList.Builder<String> names = new ImmutableList.Builder<>();
+    for (Object domain : (List<Object>) ((Map<String, Object>) obj).get("domainSearchResults")) {
+      names.add((String) ((Map<String, Object>) domain).get("ldhName"));
+    }
+    return names.build();
+  }
+
+  @Test
+  public void testDomainMatch_cursor_returnsNextPage() throws Exception {
+    createManyDomainsAndHosts(9, 1, 2);
+    action.cursorParam = Optional.of(RdapActionBase.encodeCursor("domain4.lol"));
+    Object obj = generateActualJson(RequestType.NAME, "domain*.lol");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getDomainNamesInResult(obj))
+        .containsExactly("domain5.lol", "domain6.lol", "domain7.lol", "domain8.lol")
+        .inOrder();
+    assertThat(response.getPayload())
+        .contains("domains?name=domain*.lol&cursor=" + RdapActionBase.encodeCursor("domain8.lol"));
+  }
+
+  @Test
+  public void testDomainMatch_cursor_lastPage_noPagingMetadata() throws Exception {
+    createManyDomainsAndHosts(9, 1, 2);
+    action.cursorParam = Optional.of(RdapActionBase.encodeCursor("domain8.lol"));
+    Object obj = generateActualJson(RequestType.NAME, "domain*.lol");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getDomainNamesInResult(obj)).containsExactly("domain9.lol");
+    assertThat((Map<?, ?>) obj).doesNotContainKey("paging_metadata");
+    assertThat(((Map<?, ?>) obj).get("rdapConformance"))
+        .isEqualTo(ImmutableList.of("rdap_level_0"));
+  }
+
+  @Test
+  public void testDomainMatch_invalidCursor_rejected() throws Exception {
+    action.cursorParam = Optional.of("not a cursor!");
+    generateActualJson(RequestType.NAME, "cat*.lol");
+    assertThat(response.getStatus()).isEqualTo(400);
+  }
+
+  @Test
+  public void testNameserverMatch_truncated_noPagingMetadata() throws Exception {
+    createManyDomainsAndHosts(5, 1, 2);
+    Object obj = generateActualJson(RequestType.NS_LDH_NAME, "ns1.domain1.lol");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 4);
+    assertThat((Map<?, ?>) obj).doesNotContainKey("paging_metadata");
+  }
+
   @Test
   public void testNameserverMatch_foundMultiple() throws Exception {
     assertThat(generateActualJson(RequestType.NS_LDH_NAME, "ns1.cat.lol"))
@@ -814,9 +870,22 @@ public class RdapDomainSearchActionTest {
     assertThat(response.getStatus()).isEqualTo(200);
   }
 
+  @Test
+  public void testNameserverMatchWithWildcardAndTldSuffix_found() throws Exception {
+    assertThat(generateActualJson(RequestType.NS_LDH_NAME, "ns2.cat*.lol"))
+        .isEqualTo(
+            generateExpectedJsonForDomain(
+                "cat.lol",
+                null,
+                "C-LOL",
+                ImmutableList.of("4-ROID", "6-ROID", "2-ROID"),
+                "rdap_domain.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
   @Test
   public void testNameserverMatchWithWildcardAndTldSuffix_notFound() throws Exception {
-    generateActualJson(RequestType.NS_LDH_NAME, "ns2.cat*.lol");
+    generateActualJson(RequestType.NS_LDH_NAME, "ns2.dog*.example");
     assertThat(response.getStatus()).isEqualTo(404);
   }
 
@@ -887,8 +956,14 @@ public class RdapDomainSearchActionTest {
   }
 
   @Test
-  public void testNameserverMatch_nsstar_test_notFound() throws Exception {
+  public void testNameserverMatch_nsstar_test_found() throws Exception {
     generateActualJson(RequestType.NS_LDH_NAME, "ns*.1.test");
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
+  @Test
+  public void testNameserverMatch_nsstar_test_notFound() throws Exception {
+    generateActualJson(RequestType.NS_LDH_NAME, "ns*.3.test");
     assertThat(response.getStatus()).isEqualTo(404);
   }
 
@@ -988,6 +1063,46 @@ public class RdapDomainSearchActionTest {
     checkNumberOfDomainsInResult(obj, 3);
   }
 
+  /** Creates a domain with 40 nameservers, named from nsx01.example to nsx40.example. */
+  private void createDomainWithManyExternalNameservers() {
+    ImmutableSet.Builder<Key<HostResource>> hostKeysBuilder = new ImmutableSet.Builder<>();
+    for (int i = 1; i <= 40; i++) {
+      hostKeysBuilder.add(
+          Key.create(
+              makeAndPersistHostResource(
+                  String.format("nsx%02d.example", i), null, clock.nowUtc().minusYears(1))));
+    }
+    persistResource(
+        makeDomainResource("nsx.lol", contact1, contact2, contact3, null, null, registrar)
+            .asBuilder()
+            .setNameservers(hostKeysBuilder.build())
+            .setCreationTimeForTest(clock.nowUtc().minusYears(3))
+            .build());
+  }
+
+  @Test
+  public void testNameserverMatchWithWildcard_hostReadLimitReached_truncated() throws Exception {
+    // Only RESULT_SET_SIZE_SCALING_FACTOR of the 40 nameservers are read, so there may be other
+    // domains using the rest of them.
+    createDomainWithManyExternalNameservers();
+    action.rdapResultSetMaxSize = 1;
+    Object obj = generateActualJson(RequestType.NS_LDH_NAME, "nsx*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 1);
+    assertThat(response.getPayload()).contains("Search Policy");
+  }
+
+  @Test
+  public void testNameserverMatchWithWildcard_hostReadLimitNotReached_notTruncated()
+      throws Exception {
+    createDomainWithManyExternalNameservers();
+    action.rdapResultSetMaxSize = 2;
+    Object obj = generateActualJson(RequestType.NS_LDH_NAME, "nsx*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 1);
+    assertThat(response.getPayload()).doesNotContain("Search Policy");
+  }
+
   @Test
   public void testNameserverMatch_nontruncatedResultsSet() throws Exception {
     createManyDomainsAndHosts(4, 1, 2);
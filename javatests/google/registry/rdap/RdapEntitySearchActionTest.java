@@ -145,6 +145,7 @@ public class RdapEntitySearchActionTest {
     action.rdapWhoisServer = null;
     action.fnParam = Optional.absent();
     action.handleParam = Optional.absent();
+    action.cursorParam = Optional.absent();
     action.sessionUtils = sessionUtils;
     action.authResult = AuthResult.create(AuthLevel.USER, userAuthInfo);
     when(sessionUtils.checkRegistrarConsoleLogin(request, userAuthInfo)).thenReturn(true);
@@ -530,4 +531,45 @@ public class RdapEntitySearchActionTest {
     assertThat(response.getStatus()).isEqualTo(200);
     checkNumberOfEntitiesInResult(obj, 4);
   }
+
+  @SuppressWarnings("unchecked")
+  private static ImmutableList<String> getHandlesInResult(Object obj) {
+    ImmutableList.Builder<String> handles = new ImmutableList.Builder<>();
+    for (Object entity : (List<Object>) ((Map<String, Object>) obj).get("entitySearchResults")) {
+      handles.add((String) ((Map<String, Object>) entity).get("handle"));
+    }
+    return handles.build();
+  }
+
+  @Test
+  public void testHandleMatch_truncatedEntities_cursorReturnsNextPage() throws Exception {
+    createManyContactsAndRegistrars(300, 0, registrarTest);
+    Object obj = generateActualJsonWithHandle("10*");
+    ImmutableList<String> firstPage = getHandlesInResult(obj);
+    assertThat(firstPage).isStrictlyOrdered();
+    assertThat(((Map<?, ?>) obj).get("rdapConformance"))
+        .isEqualTo(ImmutableList.of("rdap_level_0", "paging"));
+    assertThat(response.getPayload())
+        .contains(
+            "entities?handle=10*&cursor=" + RdapActionBase.encodeCursor(firstPage.get(3)));
+
+    FakeResponse nextResponse = new FakeResponse();
+    action.response = nextResponse;
+    action.cursorParam = Optional.of(RdapActionBase.encodeCursor(firstPage.get(3)));
+    action.run();
+    assertThat(nextResponse.getStatus()).isEqualTo(200);
+    ImmutableList<String> secondPage =
+        getHandlesInResult(JSONValue.parse(nextResponse.getPayload()));
+    assertThat(secondPage).hasSize(4);
+    assertThat(secondPage).isStrictlyOrdered();
+    assertThat(secondPage.get(0)).isGreaterThan(firstPage.get(3));
+  }
+
+  @Test
+  public void testNameMatch_truncatedContacts_noPagingMetadata() throws Exception {
+    createManyContactsAndRegistrars(5, 0, registrarTest);
+    Object obj = generateActualJsonWithFullName("Entity *");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat((Map<?, ?>) obj).doesNotContainKey("paging_metadata");
+  }
 }
@@ -359,6 +359,29 @@ public class RdapJsonFormatterTest {
     .isEqualTo(loadJson("rdapjson_host_pending_transfer.json"));
   }
 
+  @Test
+  public void testHost_superordinateHasPendingTransfer_preloadedForPage() throws Exception {
+    assertThat(rdapJsonFormatter.makeRdapJsonForHost(
+        hostResourceSuperordinatePendingTransfer,
+        false,
+        LINK_BASE,
+        WHOIS_SERVER,
+        clock.nowUtc(),
+        OutputDataType.FULL,
+        RdapJsonFormatter.loadSuperordinateDomains(
+            ImmutableList.of(hostResourceIpv4, hostResourceSuperordinatePendingTransfer))))
+    .isEqualTo(loadJson("rdapjson_host_pending_transfer.json"));
+  }
+
+  @Test
+  public void testLoadSuperordinateDomains_onlySubordinateHosts() throws Exception {
+    assertThat(
+            RdapJsonFormatter.loadSuperordinateDomains(
+                    ImmutableList.of(hostResourceIpv4, hostResourceSuperordinatePendingTransfer))
+                .keySet())
+        .containsExactly(hostResourceSuperordinatePendingTransfer.getSuperordinateDomain());
+  }
+
   @Test
   public void testRegistrant() throws Exception {
     assertThat(
@@ -31,16 +31,19 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.InjectRule;
+import google.registry.util.CidrAddressBlock;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.json.simple.JSONValue;
@@ -75,7 +78,7 @@ public class RdapNameserverSearchActionTest {
   }
 
   private Object generateActualJsonWithIp(String ipString) {
-    action.ipParam = Optional.of(InetAddresses.forString(ipString));
+    action.ipParam = Optional.of(CidrAddressBlock.create(ipString));
     action.run();
     return JSONValue.parse(response.getPayload());
   }
@@ -139,6 +142,7 @@ public class RdapNameserverSearchActionTest {
     action.rdapWhoisServer = null;
     action.ipParam = Optional.absent();
     action.nameParam = Optional.absent();
+    action.cursorParam = Optional.absent();
   }
 
   private Object generateExpectedJson(String expectedOutputFile) {
@@ -380,6 +384,15 @@ public class RdapNameserverSearchActionTest {
     assertThat(response.getStatus()).isEqualTo(404);
   }
 
+  @SuppressWarnings("unchecked")
+  private static ImmutableList<String> getHostNamesInResult(Object obj) {
+    ImmutableList.Builder<String> names = new ImmutableList.Builder<>();
+    for (Object host : (List<Object>) ((Map<String, Object>) obj).get("nameserverSearchResults")) {
+      names.add((String) ((Map<String, Object>) host).get("ldhName"));
+    }
+    return names.build();
+  }
+
   @Test
   public void testNameMatch_nontruncatedResultSet() throws Exception {
     createManyHosts(4);
@@ -392,16 +405,88 @@ public class RdapNameserverSearchActionTest {
   public void testNameMatch_truncatedResultSet() throws Exception {
     createManyHosts(5);
     assertThat(generateActualJsonWithName("ns*.cat.lol"))
-      .isEqualTo(generateExpectedJson("rdap_truncated_hosts.json"));
+      .isEqualTo(generateExpectedJson("rdap_paged_hosts.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
+  @Test
+  public void testNameMatch_cursor_returnsNextPage() throws Exception {
+    createManyHosts(9);
+    action.cursorParam = Optional.of(RdapActionBase.encodeCursor("ns4.cat.lol"));
+    Object obj = generateActualJsonWithName("ns*.cat.lol");
     assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getHostNamesInResult(obj))
+        .containsExactly("ns5.cat.lol", "ns6.cat.lol", "ns7.cat.lol", "ns8.cat.lol")
+        .inOrder();
+    assertThat(response.getPayload())
+        .contains("nameservers?name=ns*.cat.lol&cursor="
+            + RdapActionBase.encodeCursor("ns8.cat.lol"));
+  }
+
+  @Test
+  public void testNameMatch_cursor_withoutManagedDomain_returnsNextPage() throws Exception {
+    createManyHosts(9);
+    action.cursorParam = Optional.of(RdapActionBase.encodeCursor("ns4.cat.lol"));
+    Object obj = generateActualJsonWithName("ns*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getHostNamesInResult(obj))
+        .containsExactly("ns5.cat.lol", "ns6.cat.lol", "ns7.cat.lol", "ns8.cat.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testNameMatch_invalidCursor_rejected() throws Exception {
+    action.cursorParam = Optional.of("not a cursor!");
+    generateActualJsonWithName("ns*.cat.lol");
+    assertThat(response.getStatus()).isEqualTo(400);
   }
 
   @Test
   public void testNameMatch_reallyTruncatedResultSet() throws Exception {
     createManyHosts(9);
     assertThat(generateActualJsonWithName("ns*.cat.lol"))
-      .isEqualTo(generateExpectedJson("rdap_truncated_hosts.json"));
+      .isEqualTo(generateExpectedJson("rdap_paged_hosts.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
+  /**
+   * Creates 40 hosts which match the prefix of ab*.dog.example but not its suffix, in between two
+   * hosts which match both.
+   */
+  private void createManyNonMatchingHosts() {
+    ImmutableList.Builder<HostResource> hostsBuilder = new ImmutableList.Builder<>();
+    hostsBuilder.add(makeHostResource("ab0.dog.example", null, null));
+    for (int i = 1; i <= 40; i++) {
+      hostsBuilder.add(makeHostResource(String.format("ab%02d.cat.example", i), null, null));
+    }
+    hostsBuilder.add(makeHostResource("abz.dog.example", null, null));
+    persistResources(hostsBuilder.build());
+  }
+
+  @Test
+  public void testNameMatch_unmanagedSuffix_readLimitReached_truncated() throws Exception {
+    createManyNonMatchingHosts();
+    // Only RESULT_SET_SIZE_SCALING_FACTOR hosts are read, so the search stops at ab29.cat.example.
+    action.rdapResultSetMaxSize = 1;
+    Object obj = generateActualJsonWithName("ab*.dog.example");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getHostNamesInResult(obj)).containsExactly("ab0.dog.example");
+    assertThat(response.getPayload()).contains("Search Policy");
+    assertThat(response.getPayload())
+        .contains("nameservers?name=ab*.dog.example&cursor="
+            + RdapActionBase.encodeCursor("ab29.cat.example"));
+  }
+
+  @Test
+  public void testNameMatch_unmanagedSuffix_cursorAfterReadLimit_returnsNextPage()
+      throws Exception {
+    createManyNonMatchingHosts();
+    action.rdapResultSetMaxSize = 1;
+    action.cursorParam = Optional.of(RdapActionBase.encodeCursor("ab29.cat.example"));
+    Object obj = generateActualJsonWithName("ab*.dog.example");
     assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getHostNamesInResult(obj)).containsExactly("abz.dog.example");
+    assertThat(response.getPayload()).doesNotContain("Search Policy");
   }
 
   @Test
@@ -442,6 +527,83 @@ public class RdapNameserverSearchActionTest {
     assertThat(response.getStatus()).isEqualTo(404);
   }
 
+  @Test
+  public void testAddressMatchV4CidrBlock_foundMultiple() throws Exception {
+    enableHostInetAddressIndexReads();
+    Object json = generateActualJsonWithIp("1.2.3.4/30");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getLdhNames(json))
+        .containsExactly("ns1.cat.lol", "ns1.cat.xn--q9jyb4c", "ns1.cat.1.test")
+        .inOrder();
+  }
+
+  @Test
+  public void testAddressMatchV4CidrBlock_hostBitsIgnored() throws Exception {
+    enableHostInetAddressIndexReads();
+    Object json = generateActualJsonWithIp("1.2.3.5/30");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getLdhNames(json))
+        .containsExactly("ns1.cat.lol", "ns1.cat.xn--q9jyb4c", "ns1.cat.1.test")
+        .inOrder();
+  }
+
+  @Test
+  public void testAddressMatchV6CidrBlock_foundMultiple() throws Exception {
+    enableHostInetAddressIndexReads();
+    assertThat(generateActualJsonWithIp("bad:f00d:cafe::/48"))
+        .isEqualTo(generateExpectedJson("rdap_multiple_hosts.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
+  @Test
+  public void testAddressMatchCidrBlock_truncatedResultSet() throws Exception {
+    enableHostInetAddressIndexReads();
+    createManyHosts(5);
+    Object json = generateActualJsonWithIp("5.5.5.0/24");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getLdhNames(json)).hasSize(4);
+  }
+
+  @Test
+  public void testAddressMatchCidrBlock_notFound() throws Exception {
+    enableHostInetAddressIndexReads();
+    generateActualJsonWithIp("127.0.0.0/8");
+    assertThat(response.getStatus()).isEqualTo(404);
+  }
+
+  @Test
+  public void testAddressMatchCidrBlock_indexReadsDisabled() throws Exception {
+    assertThat(generateActualJsonWithIp("1.2.3.4/30"))
+        .isEqualTo(
+            generateExpectedJson(
+                "Searching by IP address block is not supported", "rdap_error_422.json"));
+    assertThat(response.getStatus()).isEqualTo(422);
+  }
+
+  @Test
+  public void testAddressMatchV4Address_indexReadsEnabled_found() throws Exception {
+    enableHostInetAddressIndexReads();
+    assertThat(generateActualJsonWithIp("1.2.3.4"))
+        .isEqualTo(
+            generateExpectedJsonForNameserver(
+                "ns1.cat.lol", null, "2-ROID", "v4", "1.2.3.4", "rdap_host_linked.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
+  private void enableHostInetAddressIndexReads() {
+    inject.setStaticField(HostInetAddressIndex.class, "readsEnabled", true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ImmutableList<String> getLdhNames(Object json) {
+    ImmutableList.Builder<String> ldhNames = new ImmutableList.Builder<>();
+    for (Object nameserver
+        : (List<Object>) ((Map<String, Object>) json).get("nameserverSearchResults")) {
+      ldhNames.add((String) ((Map<String, Object>) nameserver).get("ldhName"));
+    }
+    return ldhNames.build();
+  }
+
   @Test
   public void testNameMatchDeletedHost_notFound() throws Exception {
     persistResource(hostNs1CatLol.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
@@ -39,6 +39,7 @@ import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
 import com.google.appengine.tools.cloudstorage.ListItem;
 import com.google.appengine.tools.cloudstorage.ListOptions;
 import com.google.appengine.tools.cloudstorage.ListResult;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
@@ -66,6 +67,7 @@ import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.testing.mapreduce.MapreduceTestCase;
 import google.registry.tldconfig.idn.IdnTableEnum;
 import google.registry.util.Retrier;
+import google.registry.util.Sleeper;
 import google.registry.util.SystemSleeper;
 import google.registry.util.TaskEnqueuer;
 import google.registry.xjc.XjcXmlTransformer;
@@ -84,6 +86,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
 import javax.xml.bind.JAXBElement;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPPrivateKey;
@@ -91,6 +94,7 @@ import org.bouncycastle.openpgp.PGPPublicKey;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeConstants;
 import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -157,6 +161,7 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     action.tlds = ImmutableSet.<String>of();
     action.watermarks = ImmutableSet.<DateTime>of();
     action.revision = Optional.<Integer>absent();
+    action.pipeline = new RdeStagingPipeline(action.reducer, createRequestThreadFactory());
   }
 
   @Test
@@ -571,6 +576,161 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
         "deposit.contents.registrar.upDate");
   }
 
+  @Test
+  public void testStreaming_withDomain_producesExpectedXml() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.streamingStagingEnabled = true;
+    action.run();
+
+    assertThat(response.getPayload()).isEqualTo("Staged 1 deposits");
+    XmlTestUtils.assertXmlEquals(
+        readResourceUtf8(getClass(), "testdata/testMapReduce_withDomain_producesExpectedXml.xml"),
+        readXml("lol_2000-01-01_full_S1_R0.xml.ghostryde"),
+        "deposit.contents.registrar.crDate",
+        "deposit.contents.registrar.upDate");
+  }
+
+  @Test
+  public void testStreaming_withDomain_producesCorrectLengthFileAndAdvancesCursor()
+      throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    setCursor(Registry.get("lol"), BRDA, DateTime.parse("2000-01-04TZ"));
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.streamingStagingEnabled = true;
+    action.run();
+    // The cursor was rolled forward on another thread, so don't read it from this session.
+    ofy().clearSessionCache();
+
+    byte[] deposit = Ghostryde.decode(readGcsFile(gcsService, XML_FILE), decryptKey).getData();
+    assertThat(Integer.parseInt(new String(readGcsFile(gcsService, LENGTH_FILE), UTF_8)))
+        .isEqualTo(deposit.length);
+    assertThat(
+            ofy()
+                .load()
+                .key(Cursor.createKey(RDE_STAGING, Registry.get("lol")))
+                .now()
+                .getCursorTime())
+        .isEqualTo(DateTime.parse("2000-01-02TZ"));
+    assertTasksEnqueued("rde-upload",
+        new TaskMatcher()
+            .url(RdeUploadAction.PATH)
+            .param(RequestParameters.PARAM_TLD, "lol"));
+  }
+
+  @Test
+  public void testStreaming_twoDomainsDifferentTlds_isolatesDomains() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("boggle");
+    makeDomainResource(clock, "boggle");
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    // Both deposits are committed concurrently, at the same fake time, so one of them has to retry
+    // after the clock has moved on. Unit tests don't back off between retries, so tick instead.
+    inject.setStaticField(Ofy.class, "sleeper", new Sleeper() {
+      @Override
+      public void sleep(ReadableDuration duration) {
+        clock.advanceOneMilli();
+      }
+
+      @Override
+      public void sleepUninterruptibly(ReadableDuration duration) {
+        clock.advanceOneMilli();
+      }});
+    action.streamingStagingEnabled = true;
+    action.run();
+
+    String boggleDeposit = readXml("boggle_2000-01-01_full_S1_R0.xml.ghostryde");
+    assertThat(boggleDeposit).contains("love.boggle");
+    assertThat(boggleDeposit).doesNotContain("love.lol");
+
+    String lolDeposit = readXml("lol_2000-01-01_full_S1_R0.xml.ghostryde");
+    assertThat(lolDeposit).contains("love.lol");
+    assertThat(lolDeposit).doesNotContain("love.boggle");
+  }
+
+  @Test
+  public void testStreaming_severalTlds_eachDepositIsWellFormed() throws Exception {
+    ImmutableList<String> tlds = ImmutableList.of("boggle", "lol", "moka", "ooze", "zork");
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    for (String tld : tlds) {
+      createTldWithEscrowEnabled(tld);
+      makeDomainResource(clock, tld);
+    }
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    inject.setStaticField(Ofy.class, "sleeper", new Sleeper() {
+      @Override
+      public void sleep(ReadableDuration duration) {
+        clock.advanceOneMilli();
+      }
+
+      @Override
+      public void sleepUninterruptibly(ReadableDuration duration) {
+        clock.advanceOneMilli();
+      }});
+    action.streamingStagingEnabled = true;
+    action.run();
+
+    assertThat(response.getPayload()).isEqualTo("Staged 5 deposits");
+    for (String tld : tlds) {
+      // The deposits were all written at once, so check that each one is still valid on its own.
+      XjcRdeDeposit deposit = unmarshal(
+          XjcRdeDeposit.class,
+          Ghostryde.decode(
+                  readGcsFile(
+                      gcsService,
+                      new GcsFilename("rde-bucket", tld + "_2000-01-01_full_S1_R0.xml.ghostryde")),
+                  decryptKey)
+              .getData());
+      XjcRdeHeader header = extractAndRemoveContentWithType(XjcRdeHeader.class, deposit);
+      assertThat(header.getTld()).isEqualTo(tld);
+      assertThat(mapifyCounts(header)).containsEntry(RdeResourceType.DOMAIN.getUri(), 1L);
+    }
+  }
+
+  @Test
+  public void testStreaming_lockInUse_skipsDepositWithoutBlocking() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.streamingStagingEnabled = true;
+    action.pipeline = new RdeStagingPipeline(
+        new RdeStagingReducer(
+            new TaskEnqueuer(new Retrier(new SystemSleeper(), 1)), // taskEnqueuer
+            new FakeLockHandler(false),
+            0, // gcsBufferSize
+            "rde-bucket", // bucket
+            31337, // ghostrydeBufferSize
+            Duration.standardHours(1), // lockTimeout
+            PgpHelper.convertPublicKeyToBytes(encryptKey), // stagingKeyBytes
+            false), // lenient
+        createRequestThreadFactory());
+    action.run();
+
+    assertThat(gcsService.getMetadata(XML_FILE)).isNull();
+    ofy().clearSessionCache();
+    assertThat(
+            ofy()
+                .load()
+                .key(Cursor.createKey(RDE_STAGING, Registry.get("lol")))
+                .now()
+                .getCursorTime())
+        .isEqualTo(DateTime.parse("2000-01-01TZ"));
+  }
+
   @Test
   public void testMapReduce_withDomain_producesCorrectLengthFile() throws Exception {
     clock.setTo(DateTime.parse("1999-12-31TZ"));
@@ -880,6 +1040,21 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
       }});
   }
 
+  /** Returns a factory for threads which can use App Engine services, like request threads. */
+  private static ThreadFactory createRequestThreadFactory() {
+    final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+            runnable.run();
+          }});
+      }};
+  }
+
   public static <T> T unmarshal(Class<T> clazz, byte[] xml) throws XmlException {
     return XjcXmlTransformer.unmarshal(clazz, new ByteArrayInputStream(xml));
   }
@@ -17,6 +17,7 @@ package google.registry.request;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractEnumParameter;
+import static google.registry.request.RequestParameters.extractOptionalCidrAddressBlockParameter;
 import static google.registry.request.RequestParameters.extractOptionalDatetimeParameter;
 import static google.registry.request.RequestParameters.extractOptionalParameter;
 import static google.registry.request.RequestParameters.extractRequiredDatetimeParameter;
@@ -27,6 +28,7 @@ import static org.mockito.Mockito.when;
 import com.google.common.collect.ImmutableMap;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.testing.ExceptionRule;
+import google.registry.util.CidrAddressBlock;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
 import org.junit.Rule;
@@ -185,4 +187,32 @@ public class RequestParametersTest {
     thrown.expect(BadRequestException.class, "timeParam");
     extractRequiredDatetimeParameter(req, "timeParam");
   }
+
+  @Test
+  public void testExtractOptionalCidrAddressBlockParameter_block_works() throws Exception {
+    when(req.getParameter("ip")).thenReturn("192.0.2.1/24");
+    assertThat(extractOptionalCidrAddressBlockParameter(req, "ip"))
+        .hasValue(CidrAddressBlock.create("192.0.2.0/24"));
+  }
+
+  @Test
+  public void testExtractOptionalCidrAddressBlockParameter_address_works() throws Exception {
+    when(req.getParameter("ip")).thenReturn("2001:db8::1");
+    assertThat(extractOptionalCidrAddressBlockParameter(req, "ip"))
+        .hasValue(CidrAddressBlock.create("2001:db8::1/128"));
+  }
+
+  @Test
+  public void testExtractOptionalCidrAddressBlockParameter_badValue_throwsBadRequest()
+      throws Exception {
+    when(req.getParameter("ip")).thenReturn("192.0.2.1/33");
+    thrown.expect(BadRequestException.class, "ip");
+    extractOptionalCidrAddressBlockParameter(req, "ip");
+  }
+
+  @Test
+  public void testExtractOptionalCidrAddressBlockParameter_empty_returnsAbsent() throws Exception {
+    when(req.getParameter("ip")).thenReturn("");
+    assertThat(extractOptionalCidrAddressBlockParameter(req, "ip")).isAbsent();
+  }
 }
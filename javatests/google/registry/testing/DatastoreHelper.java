@@ -43,6 +43,7 @@ import static org.joda.money.CurrencyUnit.USD;
 import com.google.common.base.Ascii;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
@@ -80,6 +81,7 @@ import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.pricing.StaticPremiumListPricingEngine;
@@ -782,7 +784,7 @@ public class DatastoreHelper {
    * ofy() session cache. Specifically, this method calls .now() on the save to force the write to
    * actually get sent to Datastore (although it does not force it to be applied) and clears the
    * session cache. If necessary, this method also updates the relevant {@link EppResourceIndex},
-   * {@link ForeignKeyIndex} and {@link DomainApplicationIndex}.
+   * {@link ForeignKeyIndex}, {@link DomainApplicationIndex} and {@link HostInetAddressIndex}.
    *
    * <p><b>Note:</b> Your resource will not be enrolled in a commit log. If you want backups, use
    * {@link #persistResourceWithCommitLog(Object)}.
@@ -818,6 +820,9 @@ public class DatastoreHelper {
     if (resource instanceof DomainApplication) {
       saver.entity(DomainApplicationIndex.createUpdatedInstance((DomainApplication) resource));
     }
+    if (resource instanceof HostResource) {
+      saver.entities(HostInetAddressIndex.createAll((HostResource) resource));
+    }
   }
 
   private static <R> R persistResource(final R resource, final boolean wantBackup) {
@@ -862,8 +867,10 @@ public class DatastoreHelper {
           .that(resource)
           .isNotInstanceOf(Buildable.Builder.class);
     }
-    // Persist domains ten at a time, to avoid exceeding the entity group limit.
-    for (final List<R> chunk : Iterables.partition(resources, 10)) {
+    // Persist domains ten at a time, to avoid exceeding the entity group limit. Persist hosts one
+    // at a time, since each of their addresses adds the entity group of its HostInetAddressIndex.
+    int chunkSize = Iterables.any(resources, Predicates.instanceOf(HostResource.class)) ? 1 : 10;
+    for (final List<R> chunk : Iterables.partition(resources, chunkSize)) {
       ofy().transact(new VoidWork() {
         @Override
         public void vrun() {
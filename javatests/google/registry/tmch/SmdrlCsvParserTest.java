@@ -54,6 +54,19 @@ public class SmdrlCsvParserTest {
     assertThat(smdrl.getCreationTime()).isEqualTo(DateTime.parse("2013-11-24T23:30:04.3Z"));
   }
 
+  @Test
+  public void testParseCreationTime() throws Exception {
+    assertThat(SmdrlCsvParser.parseCreationTime(SMDRL_LATEST_CSV))
+        .isEqualTo(DateTime.parse("2013-11-24T23:30:04.3Z"));
+  }
+
+  @Test
+  public void testParseCreationTime_ignoresBody() throws Exception {
+    assertThat(SmdrlCsvParser.parseCreationTime(
+            CharSource.wrap("1,2013-11-24T23:30:04.3Z\nlol,cat\nnot,a,revocation\n")))
+        .isEqualTo(DateTime.parse("2013-11-24T23:30:04.3Z"));
+  }
+
   @Test
   public void testFirstRow() throws Exception {
     SignedMarkRevocationList smdrl = SmdrlCsvParser.parse(SMDRL_LATEST_CSV.readLines());
@@ -117,6 +130,18 @@ public class SmdrlCsvParserTest {
         "0000001681375789102250-65535,2013-08-09T12:00:00.0Z"));
   }
 
+  @Test
+  public void testFail_parseCreationTime_badVersion() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "version");
+    SmdrlCsvParser.parseCreationTime(CharSource.wrap("666,2013-11-24T23:30:04.3Z\n"));
+  }
+
+  @Test
+  public void testFail_parseCreationTime_empty() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Expected at least 2 lines");
+    SmdrlCsvParser.parseCreationTime(CharSource.wrap(""));
+  }
+
   @Test
   public void testFail_badHeader() throws Exception {
     thrown.expect(IllegalArgumentException.class, "header");
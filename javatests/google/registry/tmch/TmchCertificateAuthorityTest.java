@@ -14,21 +14,26 @@
 
 package google.registry.tmch;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.config.RegistryConfig.ConfigModule.TmchCaMode.PILOT;
 import static google.registry.config.RegistryConfig.ConfigModule.TmchCaMode.PRODUCTION;
 import static google.registry.tmch.TmchTestData.loadString;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
+import static google.registry.util.X509Utils.getCertificateHash;
 import static google.registry.util.X509Utils.loadCertificate;
+import static org.joda.time.Duration.standardMinutes;
 
 import google.registry.model.tmch.TmchCrl;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
+import google.registry.tmch.TmchCertificateAuthority.VerifiedCertificate;
 import java.security.SignatureException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509Certificate;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -61,6 +66,31 @@ public class TmchCertificateAuthorityTest {
     inject.setStaticField(TmchCertificateAuthority.class, "clock", clock);
   }
 
+  /** Replaces the test config's non-caching caches, so verified certificates are remembered. */
+  private void enableCaching() {
+    inject.setStaticField(
+        TmchCertificateAuthority.class,
+        "rootCache",
+        TmchCertificateAuthority.createRootCache(standardMinutes(1)));
+    inject.setStaticField(
+        TmchCertificateAuthority.class,
+        "crlCache",
+        TmchCertificateAuthority.createCrlCache(standardMinutes(1)));
+    inject.setStaticField(
+        TmchCertificateAuthority.class,
+        "verifiedCertificateCache",
+        TmchCertificateAuthority.createVerifiedCertificateCache(standardMinutes(1)));
+  }
+
+  /** Records the certificate as verified against the authority's current root and CRL. */
+  private static void markVerified(
+      TmchCertificateAuthority tmchCertificateAuthority, X509Certificate cert) throws Exception {
+    TmchCertificateAuthority.verifiedCertificateCache.put(
+        getCertificateHash(cert),
+        VerifiedCertificate.create(
+            tmchCertificateAuthority.getRoot(), tmchCertificateAuthority.getCrl()));
+  }
+
   @Test
   public void testFailure_prodRootExpired() throws Exception {
     TmchCertificateAuthority tmchCertificateAuthority = new TmchCertificateAuthority(PRODUCTION);
@@ -95,6 +125,57 @@ public class TmchCertificateAuthorityTest {
     tmchCertificateAuthority.verify(loadCertificate(GOOD_TEST_CERTIFICATE));
   }
 
+  @Test
+  public void testSuccess_verify_remembersVerifiedCertificate() throws Exception {
+    enableCaching();
+    TmchCertificateAuthority tmchCertificateAuthority = new TmchCertificateAuthority(PILOT);
+    X509Certificate cert = loadCertificate(GOOD_TEST_CERTIFICATE);
+    tmchCertificateAuthority.verify(cert);
+    VerifiedCertificate verified =
+        TmchCertificateAuthority.verifiedCertificateCache.getIfPresent(getCertificateHash(cert));
+    assertThat(verified).isNotNull();
+    assertThat(
+            verified.isVerifiedAgainst(
+                tmchCertificateAuthority.getRoot(), tmchCertificateAuthority.getCrl()))
+        .isTrue();
+  }
+
+  @Test
+  public void testSuccess_verifyPreviouslyVerifiedCertificate_skipsFullCheck() throws Exception {
+    enableCaching();
+    TmchCertificateAuthority tmchCertificateAuthority = new TmchCertificateAuthority(PILOT);
+    X509Certificate cert = loadCertificate(REVOKED_TEST_CERTIFICATE);
+    // The full check would find this certificate revoked, so passing shows it wasn't made.
+    markVerified(tmchCertificateAuthority, cert);
+    tmchCertificateAuthority.verify(cert);
+  }
+
+  @Test
+  public void testFailure_verifyPreviouslyVerifiedCertificate_revokedByUpdatedCrl()
+      throws Exception {
+    enableCaching();
+    TmchCertificateAuthority tmchCertificateAuthority = new TmchCertificateAuthority(PILOT);
+    X509Certificate cert = loadCertificate(REVOKED_TEST_CERTIFICATE);
+    // We only have a CRL which already revokes this certificate, so pretend that it was verified
+    // before the revocation.
+    markVerified(tmchCertificateAuthority, cert);
+    tmchCertificateAuthority.verify(cert);
+    tmchCertificateAuthority.updateCrl(
+        readResourceUtf8(TmchCertificateAuthority.class, "icann-tmch-pilot.crl"),
+        "http://cert.crl");
+    thrown.expect(CertificateRevokedException.class, "revoked, reason: KEY_COMPROMISE");
+    tmchCertificateAuthority.verify(cert);
+  }
+
+  @Test
+  public void testFailure_verifyPreviouslyVerifiedCertificateExpired() throws Exception {
+    TmchCertificateAuthority tmchCertificateAuthority = new TmchCertificateAuthority(PILOT);
+    tmchCertificateAuthority.verify(loadCertificate(GOOD_TEST_CERTIFICATE));
+    clock.setTo(DateTime.parse("2019-01-01T00:00:00Z"));
+    thrown.expect(CertificateExpiredException.class);
+    tmchCertificateAuthority.verify(loadCertificate(GOOD_TEST_CERTIFICATE));
+  }
+
   @Test
   public void testFailure_verifySignatureDoesntMatch() throws Exception {
     TmchCertificateAuthority tmchCertificateAuthority = new TmchCertificateAuthority(PRODUCTION);
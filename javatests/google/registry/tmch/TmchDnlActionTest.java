@@ -20,6 +20,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import google.registry.model.tmch.ClaimsListShard;
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -53,5 +54,19 @@ public class TmchDnlActionTest extends TmchActionTestCase {
     assertThat(claimsList.getClaimKey("xn----7sbejwbn3axu3d"))
         .isEqualTo("2013112500/7/4/8/dIHW0DiuybvhdP8kIz");
     assertThat(claimsList.getClaimKey("lolcat")).isNull();
+    assertThat(ClaimsListShard.getCurrentCreationTime())
+        .isEqualTo(DateTime.parse("2013-11-24T23:15:37.4Z"));
+  }
+
+  @Test
+  public void testDnl_sameCreationTime_notSaved() throws Exception {
+    ClaimsListShard.create(
+            DateTime.parse("2013-11-24T23:15:37.4Z"), ImmutableMap.<String, String>of())
+        .save();
+    when(httpResponse.getContent())
+        .thenReturn(TmchTestData.loadBytes("dnl-latest.csv").read())
+        .thenReturn(TmchTestData.loadBytes("dnl-latest.sig").read());
+    newTmchDnlAction().run();
+    assertThat(ClaimsListShard.get().getClaimKey("xn----7sbejwbn3axu3d")).isNull();
   }
 }
@@ -21,6 +21,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import google.registry.model.smd.SignedMarkRevocationList;
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -55,4 +56,18 @@ public class TmchSmdrlActionTest extends TmchActionTestCase {
     assertThat(smdrl.isSmdRevoked("0000001681375789102250-65535", now)).isTrue();
     assertThat(smdrl.isSmdRevoked("0000001681375789102250-65536", now)).isFalse();
   }
+
+  @Test
+  public void testSuccess_sameCreationTime_notSaved() throws Exception {
+    SignedMarkRevocationList.create(
+            DateTime.parse("2013-11-24T23:30:04.3Z"),
+            ImmutableMap.of("0000001681375789102250-65536", now))
+        .save();
+    when(httpResponse.getContent())
+        .thenReturn(loadBytes("smdrl-latest.csv").read())
+        .thenReturn(loadBytes("smdrl-latest.sig").read());
+    newTmchSmdrlAction().run();
+    assertThat(SignedMarkRevocationList.get().isSmdRevoked("0000001681375789102250-65535", now))
+        .isFalse();
+  }
 }
@@ -15,6 +15,8 @@
 package google.registry.tmch;
 
 import static google.registry.tmch.TmchTestData.loadSmd;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
 
 import google.registry.config.RegistryConfig.ConfigModule.TmchCaMode;
 import google.registry.testing.AppEngineRule;
@@ -32,6 +34,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.xml.sax.SAXException;
 
 /**
  * Unit tests for {@link TmchXmlSignature}.
@@ -106,6 +109,22 @@ public class TmchXmlSignatureTest {
     tmchXmlSignature.verify(smdData);
   }
 
+  @Test
+  public void testSequentialVerificationsOnOneThread() throws Exception {
+    // Each thread reuses one document builder, which must be left usable after every parse,
+    // including one that fails.
+    tmchXmlSignature.verify(loadSmd("active/Court-Agent-Arabic-Active.smd"));
+    try {
+      tmchXmlSignature.verify("<smd:signedMark".getBytes(UTF_8));
+      fail("Expected SAXException");
+    } catch (SAXException expected) {
+      // Expected.
+    }
+    tmchXmlSignature.verify(loadSmd("active/Trademark-Holder-Chinese-Active.smd"));
+    tmchXmlSignature.verify(loadSmd("active/TreatyStatute-Agent-Russian-Active.smd"));
+    tmchXmlSignature.verify(loadSmd("active/Court-Agent-Arabic-Active.smd"));
+  }
+
   @Test
   public void testActiveCourtAgentArabicActive() throws Exception {
     smdData = loadSmd("active/Court-Agent-Arabic-Active.smd");
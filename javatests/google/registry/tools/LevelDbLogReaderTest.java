@@ -22,9 +22,15 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Bytes;
 import google.registry.tools.LevelDbLogReader.ChunkType;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -32,6 +38,8 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public final class LevelDbLogReaderTest {
 
+  @Rule public final TemporaryFolder tempFs = new TemporaryFolder();
+
   // Size of the test record.  Any value < 256 will do.
   private static final int TEST_RECORD_SIZE = 231;
 
@@ -102,6 +110,82 @@ public final class LevelDbLogReaderTest {
     assertThat(reader.getRecords()).hasSize(block0.recordCount + block1.recordCount);
   }
 
+  @Test
+  public void testReadRecords_matchesReadFrom() throws IOException {
+    TestBlock block0 = makeBlockOfRepeatingBytes(0);
+    TestBlock block1 = makeBlockOfRepeatingBytes(138);
+    byte[] data = Bytes.concat(block0.data, block1.data);
+    LevelDbLogReader reader = new LevelDbLogReader();
+    reader.readFrom(new ByteArrayInputStream(data));
+
+    List<byte[]> records =
+        ImmutableList.copyOf(LevelDbLogReader.readRecords(ByteBuffer.wrap(data)));
+    assertThat(records).hasSize(block0.recordCount + block1.recordCount);
+    for (int i = 0; i < records.size(); i++) {
+      assertThat(records.get(i)).isEqualTo(reader.getRecords().get(i));
+    }
+  }
+
+  @Test
+  public void testReadRecords_largeRecordAcrossBlocks() throws IOException {
+    byte[] data = makeLargeRecordBlocks();
+    List<byte[]> records =
+        ImmutableList.copyOf(LevelDbLogReader.readRecords(ByteBuffer.wrap(data)));
+    assertThat(records).hasSize(2);
+    assertLargeRecord(records.get(0));
+    assertThat(records.get(1)).hasLength(TEST_RECORD_SIZE);
+  }
+
+  @Test
+  public void testReadRecords_fromFileInSegments_recordSpansSegments() throws IOException {
+    File file = tempFs.newFile("data");
+    Files.write(file.toPath(), makeLargeRecordBlocks());
+    // Map each block separately, so that the large record spans three segments.
+    List<byte[]> records = ImmutableList.copyOf(
+        LevelDbLogReader.readRecords(file.toPath(), LevelDbLogReader.BLOCK_SIZE));
+    assertThat(records).hasSize(2);
+    assertLargeRecord(records.get(0));
+    assertThat(records.get(1)).hasLength(TEST_RECORD_SIZE);
+  }
+
+  @Test
+  public void testReadRecords_fromFile_partialLastBlock() throws IOException {
+    TestBlock block0 = makeBlockOfRepeatingBytes(0);
+    byte[] block1 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    int end = addRecord(block1, 0, ChunkType.FULL, TEST_RECORD_SIZE, 7);
+    end = addRecord(block1, end, ChunkType.FULL, TEST_RECORD_SIZE, 8);
+    File file = tempFs.newFile("data");
+    Files.write(file.toPath(), Bytes.concat(block0.data, Arrays.copyOf(block1, end)));
+    assertThat(ImmutableList.copyOf(LevelDbLogReader.readRecords(file.toPath())))
+        .hasSize(block0.recordCount + 2);
+  }
+
+  @Test
+  public void testReadRecords_emptyFile() throws IOException {
+    File file = tempFs.newFile("data");
+    assertThat(LevelDbLogReader.readRecords(file.toPath()).hasNext()).isFalse();
+  }
+
+  /** Returns three blocks holding a record split into three chunks, then a second record. */
+  private static byte[] makeLargeRecordBlocks() {
+    byte[] block0 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    addRecord(block0, 0, ChunkType.FIRST, MAX_RECORD, (byte) 1);
+    byte[] block1 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    addRecord(block1, 0, ChunkType.MIDDLE, MAX_RECORD, (byte) 2);
+    byte[] block2 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    int pos = addRecord(block2, 0, ChunkType.LAST, MAX_RECORD - 1000, (byte) 3);
+    addRecord(block2, pos, ChunkType.FULL, TEST_RECORD_SIZE, 4);
+    return Bytes.concat(block0, block1, block2);
+  }
+
+  private static void assertLargeRecord(byte[] record) {
+    assertThat(record).hasLength(MAX_RECORD * 3 - 1000);
+    // Each chunk starts with its own fill byte.
+    assertThat(record[0]).isEqualTo(1);
+    assertThat(record[MAX_RECORD]).isEqualTo(2);
+    assertThat(record[MAX_RECORD * 2]).isEqualTo(3);
+  }
+
   @Test
   public void testChunkTypesToCode() {
     // Verify that we're translating chunk types to code values correctly.z
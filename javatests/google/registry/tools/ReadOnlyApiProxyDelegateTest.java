@@ -0,0 +1,101 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.CallNotFoundException;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.domain.DomainResource;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ReadOnlyApiProxyDelegate}. */
+@RunWith(JUnit4.class)
+public class ReadOnlyApiProxyDelegateTest {
+
+  @Rule
+  public final AppEngineRule appEngine =
+      AppEngineRule.builder().withDatastore().withTaskQueue().build();
+
+  @Rule public final ExceptionRule thrown = new ExceptionRule();
+
+  private Delegate<?> originalDelegate;
+  private DomainResource domain;
+
+  @Before
+  public void setUp() throws Exception {
+    createTld("tld");
+    domain = persistActiveDomain("example.tld");
+    ofy().clearSessionCache();
+    originalDelegate = ApiProxy.getDelegate();
+    ReadOnlyApiProxyDelegate.install();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ApiProxy.setDelegate(originalDelegate);
+  }
+
+  @Test
+  public void testRead_allowed() throws Exception {
+    assertThat(ofy().load().entity(domain).now()).isEqualTo(domain);
+    assertThat(ofy().load().type(DomainResource.class).keys().list())
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testSave_refused() throws Exception {
+    thrown.expect(CallNotFoundException.class);
+    ofy().saveWithoutBackup().entity(newDomainResource("other.tld")).now();
+  }
+
+  @Test
+  public void testDelete_refused() throws Exception {
+    thrown.expect(CallNotFoundException.class);
+    ofy().deleteWithoutBackup().entity(domain).now();
+  }
+
+  @Test
+  public void testTransactionalSave_refused() throws Exception {
+    thrown.expect(CallNotFoundException.class);
+    ofy().transactNew(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().save().entity(newDomainResource("other.tld"));
+      }});
+  }
+
+  @Test
+  public void testOtherService_refused() throws Exception {
+    thrown.expect(CallNotFoundException.class);
+    QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl("/foo"));
+  }
+}
@@ -24,6 +24,7 @@ import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -31,21 +32,29 @@ import static org.joda.time.Duration.standardDays;
 
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.request.HttpException.BadRequestException;
+import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
 import google.registry.testing.mapreduce.MapreduceTestCase;
 import java.net.InetAddress;
 import java.util.Map;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -54,6 +63,12 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneFilesAction> {
 
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
   private final GcsService gcsService = createGcsService();
 
   @Test
@@ -151,4 +166,163 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     // The remaining lines can be in any order.
     assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
   }
+
+  @Test
+  public void testGenerateIncremental() throws Exception {
+    FakeClock clock = new FakeClock(DateTime.parse("2000-01-01T10:00:00Z"));
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("tld");
+    DomainResource bar = persistResource(newDomainResource("bar.tld"));
+    HostResource host = persistResource(newHostResource("ns.bar.tld").asBuilder()
+        .setSuperordinateDomain(Key.create(bar))
+        .addInetAddresses(ImmutableSet.of(InetAddress.getByName("127.0.0.1")))
+        .build());
+    ImmutableSet<Key<HostResource>> nameservers = ImmutableSet.of(Key.create(host));
+    persistResource(bar.asBuilder()
+        .addNameservers(nameservers)
+        .addSubordinateHost("ns.bar.tld")
+        .build());
+    DomainResource baz = persistResource(
+        newDomainResource("baz.tld").asBuilder().addNameservers(nameservers).build());
+    DomainResource foo = persistResource(
+        newDomainResource("foo.tld").asBuilder().addNameservers(nameservers).build());
+    DateTime previousExportTime = clock.nowUtc();
+    // The untouched domain isn't in Datastore at all, so its records can only come from here.
+    writeZoneFile(
+        "tld-" + previousExportTime + ".zone",
+        "$ORIGIN tld.",
+        "",
+        "bar 222 IN NS ns.bar.tld.",
+        "ns.bar 11 IN A 127.0.0.1",
+        "",
+        "baz 222 IN NS ns.bar.tld.",
+        "",
+        "foo 222 IN NS ns.bar.tld.",
+        "",
+        "untouched 222 IN NS ns.example.com.");
+
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(host.asBuilder()
+        .setInetAddresses(ImmutableSet.of(InetAddress.getByName("127.0.0.2")))
+        .build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(foo.asBuilder()
+        .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
+        .build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(baz.asBuilder()
+        .setStatusValues(ImmutableSet.of(StatusValue.SERVER_HOLD))
+        .build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(
+        newDomainResource("qux.tld").asBuilder().addNameservers(nameservers).build());
+    DateTime exportTime = clock.nowUtc();
+    clock.advanceOneMilli();
+    // This change comes after the export time, so it shouldn't be included.
+    persistResourceWithCommitLog(newDomainResource("late.tld").asBuilder()
+        .addNameservers(nameservers)
+        .setCreationTimeForTest(clock.nowUtc())
+        .build());
+    clock.advanceBy(Duration.standardMinutes(2));
+
+    GenerateZoneFilesAction action = createIncrementalAction(clock);
+    Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", exportTime,
+        "previousExportTime", previousExportTime));
+    assertThat(response).containsExactly(
+        "filenames",
+        ImmutableList.of("gs://zonefiles-bucket/tld-" + exportTime + ".zone"),
+        "diffFilenames",
+        ImmutableList.of(String.format(
+            "gs://zonefiles-bucket/tld-%s-%s.zonediff", previousExportTime, exportTime)));
+
+    Iterable<String> zoneFileLines = readLines(String.format("tld-%s.zone", exportTime));
+    assertThat(zoneFileLines.iterator().next()).isEqualTo("$ORIGIN tld.");
+    assertThat(zoneFileLines).containsExactly(
+        "$ORIGIN tld.",
+        "bar 222 IN NS ns.bar.tld.",
+        "ns.bar 11 IN A 127.0.0.2",
+        "foo 222 IN NS ns.bar.tld.",
+        "foo 3333 IN DS 1 2 3 000102",
+        "qux 222 IN NS ns.bar.tld.",
+        "untouched 222 IN NS ns.example.com.");
+    assertThat(readLines(
+            String.format("tld-%s-%s.zonediff", previousExportTime, exportTime)))
+        .containsExactly(
+            "$ORIGIN tld.",
+            String.format("; Changes from %s to %s", previousExportTime, exportTime),
+            "; Deleted",
+            "ns.bar 11 IN A 127.0.0.1",
+            "baz 222 IN NS ns.bar.tld.",
+            "; Added",
+            "ns.bar 11 IN A 127.0.0.2",
+            "foo 3333 IN DS 1 2 3 000102",
+            "qux 222 IN NS ns.bar.tld.");
+  }
+
+  @Test
+  public void testGenerateIncremental_noPreviousZoneFile_throws() throws Exception {
+    FakeClock clock = new FakeClock(DateTime.parse("2000-01-01T10:00:00Z"));
+    createTld("tld");
+    GenerateZoneFilesAction action = createIncrementalAction(clock);
+    thrown.expect(BadRequestException.class, "No zone file for tld");
+    action.handleJsonRequest(ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", clock.nowUtc().minusMinutes(5),
+        "previousExportTime", clock.nowUtc().minusMinutes(10)));
+  }
+
+  @Test
+  public void testGenerateIncremental_previousExportTimeNotBeforeExportTime_throws()
+      throws Exception {
+    FakeClock clock = new FakeClock(DateTime.parse("2000-01-01T10:00:00Z"));
+    createTld("tld");
+    GenerateZoneFilesAction action = createIncrementalAction(clock);
+    thrown.expect(BadRequestException.class, "must be before the export time");
+    action.handleJsonRequest(ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", clock.nowUtc().minusMinutes(5),
+        "previousExportTime", clock.nowUtc().minusMinutes(5)));
+  }
+
+  @Test
+  public void testGenerateIncremental_previousExportTimeTooOld_throws() throws Exception {
+    FakeClock clock = new FakeClock(DateTime.parse("2000-01-01T10:00:00Z"));
+    createTld("tld");
+    GenerateZoneFilesAction action = createIncrementalAction(clock);
+    thrown.expect(BadRequestException.class, "must be < 29 days ago");
+    action.handleJsonRequest(ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", clock.nowUtc().minusMinutes(5),
+        "previousExportTime", clock.nowUtc().minusDays(30)));
+  }
+
+  private GenerateZoneFilesAction createIncrementalAction(FakeClock clock) {
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.bucket = "zonefiles-bucket";
+    action.datastoreRetention = standardDays(29);
+    action.incrementalGenerator = new IncrementalZoneFileGenerator(
+        new GcsUtils(gcsService, 1024),
+        "zonefiles-bucket",
+        Duration.standardSeconds(11),
+        Duration.standardSeconds(222),
+        Duration.standardSeconds(3333));
+    action.clock = clock;
+    return action;
+  }
+
+  /** Writes a zone file, with spaces in the given lines turned into tabs. */
+  private void writeZoneFile(String filename, String... lines) throws Exception {
+    new GcsUtils(gcsService, 1024).createFromBytes(
+        new GcsFilename("zonefiles-bucket", filename),
+        Joiner.on('\n').join(lines).replace(' ', '\t').getBytes(UTF_8));
+  }
+
+  /** Reads the non-empty lines of a file, with tabs turned into spaces. */
+  private Iterable<String> readLines(String filename) throws Exception {
+    String file =
+        new String(readGcsFile(gcsService, new GcsFilename("zonefiles-bucket", filename)), UTF_8);
+    return Splitter.on('\n').omitEmptyStrings().split(file.replaceAll("\t", " "));
+  }
 }
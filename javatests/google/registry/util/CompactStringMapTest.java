@@ -0,0 +1,114 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import google.registry.testing.ExceptionRule;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CompactStringMap}. */
+@RunWith(JUnit4.class)
+public class CompactStringMapTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Test
+  public void testEmpty() {
+    assertThat(CompactStringMap.of()).isEmpty();
+    assertThat(CompactStringMap.of().get("a")).isNull();
+    assertThat(CompactStringMap.builder().build()).isEqualTo(ImmutableMap.of());
+  }
+
+  @Test
+  public void testGet() {
+    CompactStringMap map =
+        CompactStringMap.builder().put("foo", "1").put("bar", "22").put("baz", "").build();
+    assertThat(map).hasSize(3);
+    assertThat(map.get("foo")).isEqualTo("1");
+    assertThat(map.get("bar")).isEqualTo("22");
+    assertThat(map.get("baz")).isEmpty();
+    assertThat(map.containsKey("baz")).isTrue();
+  }
+
+  @Test
+  public void testGet_missingKeys() {
+    CompactStringMap map = CompactStringMap.builder().put("foo", "1").put("foobar", "2").build();
+    assertThat(map.get("fo")).isNull();
+    assertThat(map.get("foob")).isNull();
+    assertThat(map.get("")).isNull();
+    assertThat(map.get(null)).isNull();
+    assertThat(map.get(1)).isNull();
+    assertThat(map.containsKey("zzz")).isFalse();
+  }
+
+  @Test
+  public void testIteration_isSortedByKey() {
+    CompactStringMap map =
+        CompactStringMap.builder().put("c", "3").put("a", "1").put("b", "2").build();
+    assertThat(map.keySet()).containsExactly("a", "b", "c").inOrder();
+    assertThat(map.values()).containsExactly("1", "2", "3").inOrder();
+  }
+
+  @Test
+  public void testNonAsciiStrings() {
+    CompactStringMap map =
+        CompactStringMap.builder().put("ü", "umlaut").put("z", "zed").put("日本", "日本語").build();
+    assertThat(map.keySet()).containsExactly("z", "ü", "日本").inOrder();
+    assertThat(map.get("ü")).isEqualTo("umlaut");
+    assertThat(map.get("日本")).isEqualTo("日本語");
+  }
+
+  @Test
+  public void testCopyOf_isEqualToSource() {
+    Map<String, String> source = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      source.put("label" + i, "key" + i);
+    }
+    CompactStringMap map = CompactStringMap.copyOf(source);
+    assertThat(map).isEqualTo(source);
+    assertThat(map.hashCode()).isEqualTo(source.hashCode());
+    assertThat(CompactStringMap.copyOf(map)).isSameAs(map);
+  }
+
+  @Test
+  public void testBuilder_putAllFromSeveralMaps() {
+    CompactStringMap map =
+        CompactStringMap.builder()
+            .putAll(ImmutableMap.of("a", "1", "c", "3"))
+            .putAll(ImmutableMap.of("b", "2"))
+            .build();
+    assertThat(map).isEqualTo(ImmutableMap.of("a", "1", "b", "2", "c", "3"));
+  }
+
+  @Test
+  public void testFailure_duplicateKey() {
+    thrown.expect(IllegalArgumentException.class, "Duplicate key: a");
+    CompactStringMap.builder().put("a", "1").put("b", "2").put("a", "3").build();
+  }
+
+  @Test
+  public void testFailure_nullValue() {
+    thrown.expect(NullPointerException.class);
+    CompactStringMap.builder().put("a", null);
+  }
+}
@@ -94,4 +94,18 @@ public class NameserverWhoisResponseTest {
         .isEqualTo(
             WhoisResponseResults.create(loadWhoisTestFile("whois_multiple_nameservers.txt"), 2));
   }
+
+  @Test
+  public void testGetTruncatedResponse() {
+    NameserverWhoisResponse nameserverWhoisResponse =
+        new NameserverWhoisResponse(
+            ImmutableList.of(hostResource1, hostResource2), true, clock.nowUtc());
+    assertThat(
+            nameserverWhoisResponse.getResponse(
+                false,
+                "Doodle Disclaimer\nI exist so that carriage return\nin disclaimer can be tested."))
+        .isEqualTo(
+            WhoisResponseResults.create(
+                loadWhoisTestFile("whois_multiple_nameservers_truncated.txt"), 2));
+  }
 }
@@ -319,6 +319,30 @@ public class WhoisServerTest {
     assertThat(response.getPayload()).contains("ns2.cat.lol");
   }
 
+  @Test
+  public void testRun_ipMapsToTooManyNameservers_truncated() throws Exception {
+    inject.setStaticField(NameserverLookupByIpCommand.class, "maxResults", 2);
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    persistResource(makeHostResource("ns2.cat.lol", "1.2.3.4"));
+    persistResource(makeHostResource("ns3.cat.lol", "1.2.3.4"));
+    newWhoisServer("nameserver 1.2.3.4").run();
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getPayload().split("Server Name:", -1)).hasLength(3);
+    assertThat(response.getPayload()).contains(NameserverWhoisResponse.TRUNCATION_NOTICE);
+  }
+
+  @Test
+  public void testRun_ipMapsToMaxNameservers_notTruncated() throws Exception {
+    inject.setStaticField(NameserverLookupByIpCommand.class, "maxResults", 2);
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    persistResource(makeHostResource("ns2.cat.lol", "1.2.3.4"));
+    newWhoisServer("nameserver 1.2.3.4").run();
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getPayload()).contains("ns1.cat.lol");
+    assertThat(response.getPayload()).contains("ns2.cat.lol");
+    assertThat(response.getPayload()).doesNotContain(NameserverWhoisResponse.TRUNCATION_NOTICE);
+  }
+
   @Test
   public void testRun_ipMapsToMultipleNameserverInDifferentTlds_showsThemAll() throws Exception {
     persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
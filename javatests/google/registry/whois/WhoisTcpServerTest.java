@@ -0,0 +1,227 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.whois;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.registrar.Registrar.State.ACTIVE;
+import static google.registry.testing.DatastoreHelper.createTlds;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistSimpleResources;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeContactResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeDomainResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeHostResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrarContacts;
+import static google.registry.whois.WhoisHelper.loadWhoisTestFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import google.registry.model.ofy.Ofy;
+import google.registry.model.registrar.Registrar;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeSleeper;
+import google.registry.testing.InjectRule;
+import google.registry.util.Retrier;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link WhoisTcpServer}, which talk to it over loopback sockets. */
+@RunWith(JUnit4.class)
+public class WhoisTcpServerTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2009-06-29T20:13:00Z"));
+
+  private WhoisTcpServer server;
+  private int port;
+
+  private void startServer(double queriesPerSecondPerIp) throws Exception {
+    startServer(new WhoisReader(new WhoisCommandFactory()), queriesPerSecondPerIp);
+  }
+
+  private void startServer(WhoisReader whoisReader, double queriesPerSecondPerIp)
+      throws Exception {
+    server =
+        new WhoisTcpServer(
+            clock,
+            new Retrier(new FakeSleeper(clock), 3),
+            whoisReader,
+            new WhoisMetrics(),
+            "Doodle Disclaimer\nI exist so that carriage return\nin disclaimer can be tested.",
+            0,
+            Duration.standardMinutes(1),
+            100,
+            queriesPerSecondPerIp,
+            createRequestThreadFactory());
+    port = server.start();
+  }
+
+  private String sendQuery(String query) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.setSoTimeout(10000);
+      socket.getOutputStream().write(query.getBytes(UTF_8));
+      return new String(ByteStreams.toByteArray(socket.getInputStream()), UTF_8);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    createTlds("lol", "xn--q9jyb4c", "1.test");
+    inject.setStaticField(Ofy.class, "clock", clock);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  private static void persistCatLol() {
+    Registrar registrar = persistResource(makeRegistrar(
+        "evilregistrar", "Yes Virginia <script>", ACTIVE));
+    persistResource(makeDomainResource(
+        "cat.lol",
+        persistResource(makeContactResource("5372808-ERL", "Goblin Market", "lol@cat.lol")),
+        persistResource(makeContactResource("5372808-IRL", "Santa Claus", "BOFH@cat.lol")),
+        persistResource(makeContactResource("5372808-TRL", "The Raven", "bog@cat.lol")),
+        persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4")),
+        persistResource(makeHostResource("ns2.cat.lol", "bad:f00d:cafe::15:beef")),
+        registrar));
+    persistSimpleResources(makeRegistrarContacts(registrar));
+  }
+
+  @Test
+  public void testQuery_domain_works() throws Exception {
+    persistCatLol();
+    startServer(Double.POSITIVE_INFINITY);
+    assertThat(sendQuery("domain cat.lol\r\n"))
+        .isEqualTo(loadWhoisTestFile("whois_server_domain.txt"));
+  }
+
+  @Test
+  public void testQuery_noCommand_returnsError() throws Exception {
+    startServer(Double.POSITIVE_INFINITY);
+    assertThat(sendQuery("\r\n")).isEqualTo(loadWhoisTestFile("whois_server_no_command.txt"));
+  }
+
+  @Test
+  public void testQuery_bareLineFeed_works() throws Exception {
+    persistCatLol();
+    startServer(Double.POSITIVE_INFINITY);
+    assertThat(sendQuery("domain cat.lol\n"))
+        .isEqualTo(loadWhoisTestFile("whois_server_domain.txt"));
+  }
+
+  @Test
+  public void testQuery_sameNormalizedQuery_servedFromCache() throws Exception {
+    startServer(Double.POSITIVE_INFINITY);
+    String notFound = sendQuery("domain cat.lol\r\n");
+    assertThat(notFound).contains("Domain not found.");
+    persistCatLol();
+    assertThat(sendQuery("DOMAIN   Cat.lol\r\n")).isEqualTo(notFound);
+    // A query which normalizes differently isn't served the cached response.
+    assertThat(sendQuery("cat.lol\r\n")).isEqualTo(loadWhoisTestFile("whois_server_domain.txt"));
+  }
+
+  @Test
+  public void testQuery_overRateLimit_refused() throws Exception {
+    startServer(0.001);
+    assertThat(sendQuery("\r\n")).isEqualTo(loadWhoisTestFile("whois_server_no_command.txt"));
+    assertThat(sendQuery("\r\n")).isEqualTo(WhoisTcpServer.RATE_LIMITED_RESPONSE);
+  }
+
+  @Test
+  public void testQuery_tooLong_refused() throws Exception {
+    startServer(Double.POSITIVE_INFINITY);
+    assertThat(sendQuery(Strings.repeat("x", WhoisTcpServer.MAX_QUERY_BYTES)))
+        .isEqualTo(WhoisTcpServer.QUERY_TOO_LONG_RESPONSE);
+  }
+
+  @Test
+  public void testQuery_crash_returnsInternalError() throws Exception {
+    WhoisReader whoisReader = mock(WhoisReader.class);
+    when(whoisReader.readCommand(any(Reader.class), any(DateTime.class)))
+        .thenThrow(new IllegalStateException("crash"));
+    startServer(whoisReader, Double.POSITIVE_INFINITY);
+    assertThat(sendQuery("domain cat.lol\r\n"))
+        .isEqualTo(WhoisTcpServer.INTERNAL_ERROR_RESPONSE);
+    assertThat(WhoisTcpServer.INTERNAL_ERROR_RESPONSE).endsWith("\r\n");
+  }
+
+  @Test
+  public void testQuery_manyConcurrentClients() throws Exception {
+    persistCatLol();
+    startServer(Double.POSITIVE_INFINITY);
+    Socket[] sockets = new Socket[20];
+    for (int i = 0; i < sockets.length; i++) {
+      sockets[i] = new Socket(InetAddress.getLoopbackAddress(), port);
+      sockets[i].setSoTimeout(10000);
+    }
+    // Every client is connected before any sends its query, so none is served ahead of the rest.
+    for (Socket socket : sockets) {
+      socket.getOutputStream().write("domain cat.lol\r\n".getBytes(UTF_8));
+    }
+    for (Socket socket : sockets) {
+      try {
+        assertThat(new String(ByteStreams.toByteArray(socket.getInputStream()), UTF_8))
+            .isEqualTo(loadWhoisTestFile("whois_server_domain.txt"));
+      } finally {
+        socket.close();
+      }
+    }
+  }
+
+  @Test
+  public void testNormalizeQuery() throws Exception {
+    assertThat(WhoisTcpServer.normalizeQuery("  Domain\tCAT.lol \r\n")).isEqualTo("domain cat.lol");
+    assertThat(WhoisTcpServer.normalizeQuery("registrar Yes  Virginia"))
+        .isEqualTo("registrar yes virginia");
+  }
+
+  /** Returns a factory for threads which can use App Engine services, like request threads. */
+  private static ThreadFactory createRequestThreadFactory() {
+    final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+            runnable.run();
+          }});
+      }};
+  }
+}